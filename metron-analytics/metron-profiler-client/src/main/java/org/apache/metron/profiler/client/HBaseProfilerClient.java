@@ -20,6 +20,7 @@
 
 package org.apache.metron.profiler.client;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
@@ -29,18 +30,35 @@ import org.apache.metron.profiler.hbase.ColumnBuilder;
 import org.apache.metron.profiler.hbase.RowKeyBuilder;
 import org.apache.metron.common.utils.SerDeUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
  * The default implementation of a ProfilerClient that fetches profile data persisted in HBase.
+ *
+ * By default, all of the gets of a fetch are submitted in a single call.  With parallel gets,
+ * the gets are sorted by row key and split into batches, so that each batch covers a narrow
+ * range of salts and regions.  The batches are fetched and deserialized on a bounded pool of
+ * threads, and the values are returned in time order.
  */
-public class HBaseProfilerClient implements ProfilerClient {
+public class HBaseProfilerClient implements ProfilerClient, Closeable {
+
+  /**
+   * Marks a value that does not exist.
+   */
+  private static final Object MISSING = new Object();
 
   /**
    * Used to access the profile data stored in HBase.
@@ -57,6 +75,22 @@ public class HBaseProfilerClient implements ProfilerClient {
    */
   private ColumnBuilder columnBuilder;
 
+  /**
+   * Fetches the batches of gets, if parallel gets are enabled.
+   */
+  private ExecutorService executor;
+
+  /**
+   * The table used by each thread of the executor; HBase tables are not thread-safe.
+   */
+  private ThreadLocal<HTableInterface> tables;
+  private List<HTableInterface> openTables = Collections.synchronizedList(new ArrayList<>());
+
+  /**
+   * The maximum number of gets submitted in a single call when parallel gets are enabled.
+   */
+  private int batchSize;
+
   public HBaseProfilerClient(HTableInterface table, RowKeyBuilder rowKeyBuilder, ColumnBuilder columnBuilder) {
     setTable(table);
     setRowKeyBuilder(rowKeyBuilder);
@@ -155,6 +189,10 @@ public class HBaseProfilerClient implements ProfilerClient {
    * @return
    */
   private <T> List<T> get(List<Get> gets, byte[] columnQualifier, byte[] columnFamily, Class<T> clazz, Optional<T> defaultValue) {
+    if(executor != null && gets.size() > batchSize) {
+      return getInParallel(gets, columnQualifier, columnFamily, clazz, defaultValue);
+    }
+
     List<T> values = new ArrayList<>();
 
     try {
@@ -177,6 +215,107 @@ public class HBaseProfilerClient implements ProfilerClient {
     return values;
   }
 
+  /**
+   * Submits batches of Gets to HBase in parallel and deserializes the results.
+   *
+   * @param gets            The gets to submit to HBase, in time order.
+   * @param columnQualifier The column qualifier.
+   * @param columnFamily    The column family.
+   * @param clazz           The type expected in return.
+   * @param defaultValue The default value to specify.  If empty, the result will be sparse.
+   * @param <T>             The type expected in return.
+   * @return The values in the order of the gets.
+   */
+  private <T> List<T> getInParallel(List<Get> gets, byte[] columnQualifier, byte[] columnFamily, Class<T> clazz, Optional<T> defaultValue) {
+
+    // sort by row key, so that each batch covers a contiguous range of salts and regions
+    List<Integer> order = new ArrayList<>(gets.size());
+    for(int i = 0; i < gets.size(); i++) {
+      order.add(i);
+    }
+    order.sort((a, b) -> Bytes.compareTo(gets.get(a).getRow(), gets.get(b).getRow()));
+
+    List<Future<Object[]>> batches = new ArrayList<>();
+    for(int from = 0; from < order.size(); from += batchSize) {
+      List<Integer> batch = order.subList(from, Math.min(from + batchSize, order.size()));
+      batches.add(executor.submit(() -> {
+        List<Get> batchGets = batch.stream().map(gets::get).collect(Collectors.toList());
+        Result[] results = tables.get().get(batchGets);
+        Object[] values = new Object[results.length];
+        for(int i = 0; i < results.length; i++) {
+          byte[] val = results[i].getValue(columnFamily, columnQualifier);
+          values[i] = val == null ? MISSING : SerDeUtils.fromBytes(val, clazz);
+        }
+        return values;
+      }));
+    }
+
+    // put the values back in time order
+    Object[] values = new Object[gets.size()];
+    try {
+      for(int b = 0; b < batches.size(); b++) {
+        Object[] batchValues = batches.get(b).get();
+        for(int i = 0; i < batchValues.length; i++) {
+          values[order.get(b * batchSize + i)] = batchValues[i];
+        }
+      }
+
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+
+    } catch(ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+
+    List<T> results = new ArrayList<>();
+    for(Object value : values) {
+      if(value != MISSING) {
+        results.add(clazz.cast(value));
+
+      } else if(defaultValue.isPresent()) {
+        results.add(defaultValue.get());
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Fetch in parallel, when there are more gets than fit in a single batch.
+   *
+   * @param tables    Creates a table for each thread; tables are not thread-safe.
+   * @param threads   The number of threads submitting gets.
+   * @param batchSize The maximum number of gets submitted in a single call.
+   */
+  public HBaseProfilerClient withParallelGets(Supplier<HTableInterface> tables, int threads, int batchSize) {
+    this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+            .setNameFormat("profiler-client-%d")
+            .setDaemon(true)
+            .build());
+    this.tables = ThreadLocal.withInitial(() -> {
+      HTableInterface table = tables.get();
+      openTables.add(table);
+      return table;
+    });
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * Stops the threads used for parallel gets and closes their tables.
+   */
+  @Override
+  public void close() throws IOException {
+    if(executor != null) {
+      executor.shutdownNow();
+      for(HTableInterface t : openTables) {
+        t.close();
+      }
+      openTables.clear();
+    }
+  }
+
   public void setTable(HTableInterface table) {
     this.table = table;
   }
@@ -20,6 +20,8 @@
 
 package org.apache.metron.profiler.client.stellar;
 
+import static org.apache.metron.profiler.client.stellar.ProfilerClientConfig.PROFILER_CLIENT_BATCH_SIZE;
+import static org.apache.metron.profiler.client.stellar.ProfilerClientConfig.PROFILER_CLIENT_THREADS;
 import static org.apache.metron.profiler.client.stellar.ProfilerClientConfig.PROFILER_COLUMN_FAMILY;
 import static org.apache.metron.profiler.client.stellar.ProfilerClientConfig.PROFILER_HBASE_TABLE;
 import static org.apache.metron.profiler.client.stellar.ProfilerClientConfig.PROFILER_HBASE_TABLE_PROVIDER;
@@ -29,6 +31,7 @@ import static org.apache.metron.profiler.client.stellar.ProfilerClientConfig.PRO
 import static org.apache.metron.profiler.client.stellar.Util.getArg;
 import static org.apache.metron.profiler.client.stellar.Util.getEffectiveConfig;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
@@ -169,7 +172,8 @@ public class GetProfile implements StellarFunction {
       RowKeyBuilder rowKeyBuilder = getRowKeyBuilder(effectiveConfig);
       ColumnBuilder columnBuilder = getColumnBuilder(effectiveConfig);
       HTableInterface table = getTable(effectiveConfig);
-      client = new HBaseProfilerClient(table, rowKeyBuilder, columnBuilder);
+      closeClient();
+      client = getClient(table, rowKeyBuilder, columnBuilder, effectiveConfig);
       cachedConfigMap = effectiveConfig;
     }
     if(cachedConfigMap != null) {
@@ -180,6 +184,42 @@ public class GetProfile implements StellarFunction {
 
 
 
+  /**
+   * Creates the client used to fetch the profile data.
+   * @param table The HBase table.
+   * @param rowKeyBuilder Builds the row keys.
+   * @param columnBuilder Builds the columns.
+   * @param global The global configuration.
+   */
+  private ProfilerClient getClient(HTableInterface table, RowKeyBuilder rowKeyBuilder, ColumnBuilder columnBuilder, Map<String, Object> global) {
+    HBaseProfilerClient client = new HBaseProfilerClient(table, rowKeyBuilder, columnBuilder);
+
+    // fetch in parallel?
+    Integer threads = PROFILER_CLIENT_THREADS.get(global, Integer.class);
+    LOG.debug("profiler client: {}={}", PROFILER_CLIENT_THREADS, threads);
+    if(threads != null && threads > 0) {
+      Integer batchSize = PROFILER_CLIENT_BATCH_SIZE.get(global, Integer.class);
+      LOG.debug("profiler client: {}={}", PROFILER_CLIENT_BATCH_SIZE, batchSize);
+      client.withParallelGets(() -> getTable(global), threads, batchSize);
+    }
+
+    return client;
+  }
+
+  /**
+   * Closes the previously cached client, if it holds any resources.
+   */
+  private void closeClient() {
+    if(client instanceof Closeable) {
+      try {
+        ((Closeable) client).close();
+
+      } catch (IOException e) {
+        LOG.warn("Unable to close the profiler client", e);
+      }
+    }
+  }
+
   /**
    * Get the groups defined by the user.
    *
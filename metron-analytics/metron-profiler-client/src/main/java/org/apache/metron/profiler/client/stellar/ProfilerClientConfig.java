@@ -58,6 +58,18 @@ public enum ProfilerClientConfig {
    */
   PROFILER_SALT_DIVISOR("profiler.client.salt.divisor", 1000L, Long.class),
 
+  /**
+   * A global property that defines the number of threads used to fetch profile data in parallel.  If 0,
+   * the profile data is fetched in a single call.
+   */
+  PROFILER_CLIENT_THREADS("profiler.client.threads", 0, Integer.class),
+
+  /**
+   * A global property that defines the maximum number of periods fetched in a single call, when
+   * profile data is fetched in parallel.
+   */
+  PROFILER_CLIENT_BATCH_SIZE("profiler.client.batch.size", 100, Integer.class),
+
   /**
    * The default value to be returned if a profile is not written for a given period for a profile and entity.
    */
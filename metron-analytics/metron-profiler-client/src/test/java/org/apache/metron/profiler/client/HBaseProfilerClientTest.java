@@ -257,4 +257,37 @@ public class HBaseProfilerClientTest {
     // validate - there should NOT be any results from just 2 milliseconds ago
     assertEquals(0, results.size());
   }
-}
\ No newline at end of file
+
+  /**
+   * Fetching in parallel batches should return the same values, in time order, as a single fetch.
+   */
+  @Test
+  public void testFetchWithParallelGets() throws Exception {
+
+    final int hours = 24;
+    final int count = hours * periodsPerHour;
+    final List<Object> group = Arrays.asList("weekdays");
+    final long startTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(hours);
+
+    // setup - write increasing values to read later
+    ProfileMeasurement m = new ProfileMeasurement()
+            .withProfileName("profile1")
+            .withEntity("entity1")
+            .withPeriod(startTime, periodDuration, periodUnits);
+    profileWriter.write(m, count, group, val -> val == null ? 0 : (Integer) val + 1);
+
+    List<Integer> expected = client.fetch(Integer.class, "profile1", "entity1", group, hours, TimeUnit.HOURS, Optional.of(-1));
+
+    // execute
+    try(HBaseProfilerClient parallel = new HBaseProfilerClient(table, new SaltyRowKeyBuilder(), new ValueOnlyColumnBuilder(columnFamily))
+            .withParallelGets(() -> table, 4, 3)) {
+      List<Integer> results = parallel.fetch(Integer.class, "profile1", "entity1", group, hours, TimeUnit.HOURS, Optional.of(-1));
+
+      // validate
+      assertEquals(expected, results);
+      for(int i = 1; i < results.size(); i++) {
+        assertTrue(results.get(i) == -1 || results.get(i) > results.get(i - 1));
+      }
+    }
+  }
+}
@@ -22,16 +22,40 @@ package org.apache.metron.profiler;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.common.utils.SerDeUtils;
+import org.apache.metron.profiler.clock.Clock;
+import org.apache.metron.profiler.clock.FixedClock;
 import org.apache.metron.profiler.clock.WallClock;
+import org.apache.metron.stellar.common.utils.ConversionUtils;
 import org.apache.metron.stellar.dsl.Context;
 import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static java.lang.String.format;
 
@@ -43,18 +67,143 @@ import static java.lang.String.format;
  * for a single entity.  There will be one ProfileBuilder for each (profile, entity) pair.
  * This class ensures that each ProfileBuilder receives the telemetry messages that
  * it needs.
+ *
+ * By default, messages are applied to the current period as told by the wall clock.  When
+ * event time is used, the period of a message is instead taken from a timestamp field of the
+ * message, so that each (profile, entity, period) has its own ProfileBuilder.  A period is
+ * complete once the watermark, the latest timestamp seen less the allowed lateness, passes
+ * its end.  Flushing every period, as when the messages stop, also moves the watermark past
+ * them.  Messages for a period that has already been flushed are dropped as late, as are
+ * messages too far ahead of the wall clock, which would otherwise hold back every period.
+ *
+ * The state is keyed by a small id assigned to each distinct profile definition along with
+ * the entity, and split across shards by the hash of that key.  The number of profiles held by
+ * each shard can be bounded.  When bounded, the state of the least recently used profiles can be
+ * spilled to local disk rather than lost; it is restored when the profile receives its next
+ * message, or when the profiles are flushed.  With event time, the state is instead held per
+ * period until the watermark passes it, so it can be neither bounded nor spilled.
+ *
+ * By default the profiles are flushed on the calling thread.  They can instead be flushed in
+ * parallel on a pool of flush threads of this distributor, in which case the result expressions
+ * of a profile are evaluated concurrently, against the same Stellar context, with those of other
+ * profiles, so may only call functions which are safe to call from several threads at once.
  */
 public class DefaultMessageDistributor implements MessageDistributor {
 
+  protected static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
   /**
    * The duration of each profile period in milliseconds.
    */
   private long periodDurationMillis;
 
   /**
-   * Maintains the state of a profile which is unique to a profile/entity pair.
+   * If a message has not been applied to a profile in this number of milliseconds, the
+   * profile is forgotten.
+   */
+  private long profileTimeToLiveMillis;
+
+  /**
+   * The number of shards that the state is split across.
+   */
+  private int shardCount = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The maximum number of profile/entity pairs held by each shard, or 0 for no limit.
+   */
+  private long maxProfilesPerShard;
+
+  /**
+   * The number of threads on which the profiles are flushed.
+   */
+  private int flushThreads = 1;
+
+  /**
+   * Flushes the profiles; created when first needed.  Its threads end once idle.
+   */
+  private transient ThreadPoolExecutor flushExecutor;
+
+  /**
+   * Maintains the state of a profile which is unique to a profile/entity pair; one cache per shard.
+   */
+  private transient List<Cache<ProfileKey, ProfileBuilder>> shards;
+
+  /**
+   * The id of each distinct profile definition.
+   */
+  private transient Map<ProfileConfig, Integer> profileIds = new ConcurrentHashMap<>();
+
+  /**
+   * The id of each profile definition instance seen, so that the definition is only hashed when
+   * a new instance arrives.  Keyed by identity, and weakly, so that replaced definitions are forgotten.
+   */
+  private transient Cache<ProfileConfig, Integer> profileIdsByInstance = CacheBuilder.newBuilder().weakKeys().build();
+  private transient AtomicInteger nextProfileId = new AtomicInteger();
+
+  /**
+   * The profile definition of each id.
+   */
+  private transient Map<Integer, ProfileConfig> profileDefinitions = new ConcurrentHashMap<>();
+
+  /**
+   * The number of profiles forgotten because a shard was full.
+   */
+  private transient AtomicLong evictedProfiles = new AtomicLong();
+
+  /**
+   * Holds the state of the profiles evicted from a full shard, if spilling is enabled.
+   */
+  private transient SpillStore<ProfileKey> spillStore;
+
+  /**
+   * The number of profiles spilled from a full shard.
+   */
+  private transient AtomicLong spilledProfiles = new AtomicLong();
+
+  /**
+   * The Stellar execution context used to restore spilled profiles.
+   */
+  private transient Context context;
+
+  /**
+   * The name of the message field containing the event time, or null to use the wall clock.
+   */
+  private String timestampField;
+
+  /**
+   * How long after the latest event time a period remains open to out-of-order messages.
+   */
+  private long allowedLatenessMillis;
+
+  /**
+   * How far ahead of the wall clock an event time may be before its message is dropped.
+   */
+  private long maxClockSkewMillis = Long.MAX_VALUE;
+
+  /**
+   * Tells the wall clock time that event times are checked against.
+   */
+  private Clock clock = new WallClock();
+
+  /**
+   * The latest event time seen in any message.
    */
-  private transient Cache<String, ProfileBuilder> profileCache;
+  private long maxTimestampMillis = Long.MIN_VALUE;
+
+  /**
+   * The end of the latest period flushed, before which the watermark cannot fall.
+   */
+  private long flushedUntilMillis = Long.MIN_VALUE;
+
+  /**
+   * The number of messages dropped because they were late or had no timestamp.
+   */
+  private long droppedMessages;
+
+  /**
+   * When using event time, the state of each profile/entity pair, by the start of the period.
+   */
+  private transient TreeMap<Long, Map<ProfileKey, ProfileBuilder>> periods = new TreeMap<>();
 
   /**
    * Create a new message distributor.
@@ -69,10 +218,44 @@ public class DefaultMessageDistributor implements MessageDistributor {
               periodDurationMillis));
     }
     this.periodDurationMillis = periodDurationMillis;
-    this.profileCache = CacheBuilder
-            .newBuilder()
-            .expireAfterAccess(profileTimeToLiveMillis, TimeUnit.MILLISECONDS)
-            .build();
+    this.profileTimeToLiveMillis = profileTimeToLiveMillis;
+    this.shards = createShards();
+  }
+
+  private List<Cache<ProfileKey, ProfileBuilder>> createShards() {
+    List<Cache<ProfileKey, ProfileBuilder>> shards = new ArrayList<>(shardCount);
+    for(int i = 0; i < shardCount; i++) {
+      CacheBuilder<Object, Object> builder = CacheBuilder
+              .newBuilder()
+              .expireAfterAccess(profileTimeToLiveMillis, TimeUnit.MILLISECONDS);
+      if(maxProfilesPerShard > 0) {
+        shards.add(builder.maximumSize(maxProfilesPerShard).removalListener(this::onRemoval).build());
+
+      } else {
+        shards.add(builder.build());
+      }
+    }
+
+    return shards;
+  }
+
+  private void onRemoval(RemovalNotification<ProfileKey, ProfileBuilder> notification) {
+    if(notification.getCause() != RemovalCause.SIZE) {
+      return;
+    }
+
+    ProfileBuilder builder = notification.getValue();
+    if(spillStore != null && builder instanceof DefaultProfileBuilder) {
+      if(builder.isInitialized()) {
+        Map<String, Object> state = new HashMap<>(((DefaultProfileBuilder) builder).getState());
+        spillStore.put(notification.getKey(), SerDeUtils.toBytes(state));
+        spilledProfiles.incrementAndGet();
+      }
+
+    } else {
+      LOG.debug("Profile state evicted from a full shard: key={}", notification.getKey());
+      evictedProfiles.incrementAndGet();
+    }
   }
 
   /**
@@ -85,7 +268,34 @@ public class DefaultMessageDistributor implements MessageDistributor {
    */
   @Override
   public void distribute(JSONObject message, MessageRoute route, Context context) throws ExecutionException {
-    getBuilder(route, context).apply(message);
+    if(timestampField == null) {
+      getBuilder(route, context).apply(message);
+      return;
+    }
+
+    Long timestamp = ConversionUtils.convert(message.get(timestampField), Long.class);
+    if(timestamp == null) {
+      LOG.debug("Dropping message without a timestamp: field={}", timestampField);
+      droppedMessages++;
+      return;
+    }
+
+    if(timestamp - clock.currentTimeMillis() > maxClockSkewMillis) {
+      // a timestamp in the future would advance the watermark past every open period
+      LOG.debug("Dropping message ahead of the wall clock: timestamp={}, maxClockSkew={}", timestamp, maxClockSkewMillis);
+      droppedMessages++;
+      return;
+    }
+
+    ProfilePeriod period = new ProfilePeriod(timestamp, periodDurationMillis, TimeUnit.MILLISECONDS);
+    if(period.getEndTimeMillis() <= getWatermarkMillis()) {
+      LOG.debug("Dropping late message: timestamp={}, watermark={}", timestamp, getWatermarkMillis());
+      droppedMessages++;
+      return;
+    }
+
+    maxTimestampMillis = Math.max(maxTimestampMillis, timestamp);
+    getBuilder(route, context, period, timestamp).apply(message);
   }
 
   /**
@@ -96,18 +306,152 @@ public class DefaultMessageDistributor implements MessageDistributor {
   @Override
   public List<ProfileMeasurement> flush() {
     List<ProfileMeasurement> measurements = new ArrayList<>();
-
-    profileCache.asMap().forEach((key, profileBuilder) -> {
-      if(profileBuilder.isInitialized()) {
-        Optional<ProfileMeasurement> measurement = profileBuilder.flush();
-        measurement.ifPresent(measurements::add);
+    if(timestampField != null) {
+      while(!periods.isEmpty()) {
+        flush(periods.pollFirstEntry(), measurements);
       }
-    });
+      return measurements;
+    }
+
+    // each shard is flushed as a task of its own
+    List<Supplier<List<ProfileMeasurement>>> tasks = shards
+            .stream()
+            .map(shard -> (Supplier<List<ProfileMeasurement>>) () -> {
+              List<ProfileMeasurement> shardMeasurements = new ArrayList<>();
+              shard.asMap().values().forEach(profileBuilder -> {
+                if(profileBuilder.isInitialized()) {
+                  profileBuilder.flush().ifPresent(shardMeasurements::add);
+                }
+              });
+
+              shard.cleanUp();
+              return shardMeasurements;
+            })
+            .collect(Collectors.toList());
+    measurements.addAll(flushAll(tasks));
+
+    // the spilled profiles are restored only long enough to be flushed
+    if(spillStore != null && spillStore.size() > 0) {
+      measurements.addAll(flushAll(split(new ArrayList<>(spillStore.keys()), key -> restore(key, spillStore.get(key)).flush())));
+      spillStore.clear();
+    }
 
-    profileCache.cleanUp();
     return measurements;
   }
 
+  /**
+   * Flushes the profiles of each period that the watermark has passed, oldest first.  Only
+   * applies when using event time.
+   *
+   * @return The profile measurements; one for each (profile, entity, period).
+   */
+  public List<ProfileMeasurement> flushExpired() {
+    List<ProfileMeasurement> measurements = new ArrayList<>();
+    long watermark = getWatermarkMillis();
+    while(!periods.isEmpty() && periods.firstKey() + periodDurationMillis <= watermark) {
+      flush(periods.pollFirstEntry(), measurements);
+    }
+
+    return measurements;
+  }
+
+  /**
+   * Flushes the profiles of a period.  A later message for the period would otherwise start a
+   * new profile, whose partial measurement would replace this one, so it will be dropped as late.
+   * @param period The builders of the period, by the start of the period.
+   */
+  private void flush(Map.Entry<Long, Map<ProfileKey, ProfileBuilder>> period, List<ProfileMeasurement> measurements) {
+    flushedUntilMillis = Math.max(flushedUntilMillis, period.getKey() + periodDurationMillis);
+    measurements.addAll(flushAll(split(new ArrayList<>(period.getValue().values()),
+            builder -> builder.isInitialized() ? builder.flush() : Optional.<ProfileMeasurement>empty())));
+  }
+
+  /**
+   * Splits the items to flush into one task for each flush thread.
+   * @param items The items to flush.
+   * @param flush Flushes an item.
+   */
+  private <T> List<Supplier<List<ProfileMeasurement>>> split(List<T> items, Function<T, Optional<ProfileMeasurement>> flush) {
+    List<Supplier<List<ProfileMeasurement>>> tasks = new ArrayList<>();
+    int size = (items.size() + flushThreads - 1) / flushThreads;
+    for(int from = 0; from < items.size(); from += size) {
+      List<T> chunk = items.subList(from, Math.min(from + size, items.size()));
+      tasks.add(() -> {
+        List<ProfileMeasurement> chunkMeasurements = new ArrayList<>();
+        chunk.forEach(item -> flush.apply(item).ifPresent(chunkMeasurements::add));
+        return chunkMeasurements;
+      });
+    }
+
+    return tasks;
+  }
+
+  /**
+   * Runs the flush tasks on the flush threads, or on the calling thread if there is only one.
+   * @return The measurements of every task, in the order of the tasks.
+   */
+  private List<ProfileMeasurement> flushAll(List<Supplier<List<ProfileMeasurement>>> tasks) {
+    List<ProfileMeasurement> measurements = new ArrayList<>();
+    if(flushThreads <= 1 || tasks.size() <= 1) {
+      tasks.forEach(task -> measurements.addAll(task.get()));
+      return measurements;
+    }
+
+    if(flushExecutor == null) {
+      flushExecutor = new ThreadPoolExecutor(flushThreads, flushThreads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+              new ThreadFactoryBuilder().setNameFormat("profiler-flush-%d").setDaemon(true).build());
+      flushExecutor.allowCoreThreadTimeOut(true);
+    }
+    List<CompletableFuture<List<ProfileMeasurement>>> flushed = tasks
+            .stream()
+            .map(task -> CompletableFuture.supplyAsync(task, flushExecutor))
+            .collect(Collectors.toList());
+    flushed.forEach(future -> measurements.addAll(future.join()));
+    return measurements;
+  }
+
+  /**
+   * Stops the flush threads.
+   */
+  public void close() {
+    if(flushExecutor != null) {
+      flushExecutor.shutdownNow();
+      flushExecutor = null;
+    }
+  }
+
+  /**
+   * The event time before which all periods are complete; the latest timestamp seen less
+   * the allowed lateness, or the end of the latest period flushed if that is later.
+   */
+  public long getWatermarkMillis() {
+    long watermark = maxTimestampMillis == Long.MIN_VALUE ? Long.MIN_VALUE : maxTimestampMillis - allowedLatenessMillis;
+    return Math.max(watermark, flushedUntilMillis);
+  }
+
+  /**
+   * The number of messages dropped because they arrived after their period was flushed,
+   * were too far ahead of the wall clock, or had no timestamp.
+   */
+  public long getDroppedMessages() {
+    return droppedMessages;
+  }
+
+  /**
+   * The number of profiles whose state was forgotten, before their period ended, because
+   * their shard was full.
+   */
+  public long getEvictedProfiles() {
+    return evictedProfiles.get();
+  }
+
+  /**
+   * The number of times the state of a profile was spilled to disk because its shard was full.
+   */
+  public long getSpilledProfiles() {
+    return spilledProfiles.get();
+  }
+
   /**
    * Retrieves the cached ProfileBuilder that is used to build and maintain the Profile.  If none exists,
    * one will be created and returned.
@@ -117,15 +461,61 @@ public class DefaultMessageDistributor implements MessageDistributor {
   public ProfileBuilder getBuilder(MessageRoute route, Context context) throws ExecutionException {
     ProfileConfig profile = route.getProfileDefinition();
     String entity = route.getEntity();
-    return profileCache.get(
-            cacheKey(profile, entity),
-            () -> new DefaultProfileBuilder.Builder()
-                    .withDefinition(profile)
-                    .withEntity(entity)
-                    .withPeriodDurationMillis(periodDurationMillis)
-                    .withContext(context)
-                    .withClock(new WallClock())
-                    .build());
+    ProfileKey key = cacheKey(profile, entity);
+    this.context = context;
+    return shards.get(Math.floorMod(key.hashCode(), shards.size())).get(key, () -> {
+      byte[] spilled = spillStore == null ? null : spillStore.remove(key);
+      if(spilled != null) {
+        return restore(key, spilled);
+      }
+
+      return new DefaultProfileBuilder.Builder()
+              .withDefinition(profile)
+              .withEntity(entity)
+              .withPeriodDurationMillis(periodDurationMillis)
+              .withContext(context)
+              .withClock(new WallClock())
+              .build();
+    });
+  }
+
+  /**
+   * Restores a ProfileBuilder from its spilled state.
+   * @param key The profile/entity pair.
+   * @param spilled The serialized variables of the ProfileBuilder.
+   */
+  @SuppressWarnings("unchecked")
+  private ProfileBuilder restore(ProfileKey key, byte[] spilled) {
+    return new DefaultProfileBuilder.Builder()
+            .withDefinition(profileDefinitions.get(key.profileId))
+            .withEntity(key.entity)
+            .withPeriodDurationMillis(periodDurationMillis)
+            .withContext(context)
+            .withClock(new WallClock())
+            .withState(SerDeUtils.fromBytes(spilled, Map.class))
+            .build();
+  }
+
+  /**
+   * Retrieves the ProfileBuilder of a profile/entity pair for a period, creating one if none exists.
+   * The builder's clock is fixed within the period so that its measurement is of that period.
+   */
+  private ProfileBuilder getBuilder(MessageRoute route, Context context, ProfilePeriod period, long timestamp) {
+    ProfileConfig profile = route.getProfileDefinition();
+    String entity = route.getEntity();
+    return periods
+            .computeIfAbsent(period.getStartTimeMillis(), start -> new HashMap<>())
+            .computeIfAbsent(cacheKey(profile, entity), key -> {
+              FixedClock clock = new FixedClock();
+              clock.setTime(timestamp);
+              return new DefaultProfileBuilder.Builder()
+                      .withDefinition(profile)
+                      .withEntity(entity)
+                      .withPeriodDurationMillis(periodDurationMillis)
+                      .withContext(context)
+                      .withClock(clock)
+                      .build();
+            });
   }
 
   /**
@@ -133,8 +523,54 @@ public class DefaultMessageDistributor implements MessageDistributor {
    * @param profile The profile definition.
    * @param entity The entity.
    */
-  private String cacheKey(ProfileConfig profile, String entity) {
-    return format("%s:%s", profile, entity);
+  private ProfileKey cacheKey(ProfileConfig profile, String entity) {
+    Integer profileId = profileIdsByInstance.getIfPresent(profile);
+    if(profileId == null) {
+      // an equal definition, as when deserialized from another worker, shares the id
+      profileId = profileIds.computeIfAbsent(profile, p -> {
+        int id = nextProfileId.getAndIncrement();
+        profileDefinitions.put(id, p);
+        return id;
+      });
+      profileIdsByInstance.put(profile, profileId);
+    }
+
+    return new ProfileKey(profileId, entity);
+  }
+
+  /**
+   * Identifies the state of a profile/entity pair.  A profile is identified by the id of its
+   * definition, so that a changed definition starts with new state.
+   */
+  private static final class ProfileKey {
+    private final int profileId;
+    private final String entity;
+    private final int hash;
+
+    ProfileKey(int profileId, String entity) {
+      this.profileId = profileId;
+      this.entity = entity;
+      this.hash = 31 * profileId + (entity != null ? entity.hashCode() : 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      ProfileKey that = (ProfileKey) o;
+      return profileId == that.profileId && (entity != null ? entity.equals(that.entity) : that.entity == null);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return profileId + ":" + entity;
+    }
   }
 
   public DefaultMessageDistributor withPeriodDurationMillis(long periodDurationMillis) {
@@ -145,4 +581,107 @@ public class DefaultMessageDistributor implements MessageDistributor {
   public DefaultMessageDistributor withPeriodDuration(int duration, TimeUnit units) {
     return withPeriodDurationMillis(units.toMillis(duration));
   }
+
+  /**
+   * @param shardCount The number of shards that the state is split across.
+   */
+  public DefaultMessageDistributor withShards(int shardCount) {
+    this.shardCount = shardCount;
+    this.shards = createShards();
+    return this;
+  }
+
+  /**
+   * Bounds the memory used for state.  When a shard is full, the least recently used profile
+   * is forgotten, along with the measurement of its current period, unless it can be spilled;
+   * see {@link #withSpillDirectory(String)}.
+   * @param maxProfilesPerShard The maximum number of profile/entity pairs in each shard, or 0 for no limit.
+   */
+  public DefaultMessageDistributor withMaxProfilesPerShard(long maxProfilesPerShard) {
+    this.maxProfilesPerShard = maxProfilesPerShard;
+    checkEventTime();
+    this.shards = createShards();
+    return this;
+  }
+
+  /**
+   * The result expressions of the profiles flushed on different threads are evaluated concurrently,
+   * so more than one thread may only be used if they only call functions which are thread-safe.
+   * @param flushThreads The number of threads on which the profiles are flushed; 1 by default.
+   */
+  public DefaultMessageDistributor withFlushThreads(int flushThreads) {
+    if(flushThreads <= 0) {
+      throw new IllegalStateException(format("invalid configuration: expect flush threads (%d) to be positive", flushThreads));
+    }
+    close();
+    this.flushThreads = flushThreads;
+    return this;
+  }
+
+  /**
+   * Spill the state of the profiles evicted from a full shard to local disk, rather than
+   * forgetting it.  Only applies when the number of profiles per shard is bounded, and
+   * not with event time.
+   * @param directory The local directory to spill to.
+   */
+  public DefaultMessageDistributor withSpillDirectory(String directory) {
+    if(timestampField != null) {
+      throw new IllegalStateException("invalid configuration: profile state cannot be spilled with event time");
+    }
+    try {
+      this.spillStore = new SpillStore<>(new File(directory));
+
+    } catch(IOException e) {
+      throw new IllegalStateException(format("unable to spill to %s: %s", directory, e.getMessage()), e);
+    }
+
+    return this;
+  }
+
+  /**
+   * Use the event time of each message, rather than the wall clock, to assign it to a period.
+   * @param timestampField The name of the message field containing the event time in epoch milliseconds.
+   * @param allowedLatenessMillis How long after the latest event time a period remains open.
+   */
+  public DefaultMessageDistributor withEventTime(String timestampField, long allowedLatenessMillis) {
+    this.timestampField = timestampField;
+    this.allowedLatenessMillis = allowedLatenessMillis;
+    checkEventTime();
+    return this;
+  }
+
+  /**
+   * The state of each period is held until the watermark passes it, so with event time the
+   * number of profiles per shard cannot be bounded, nor their state spilled.
+   */
+  private void checkEventTime() {
+    if(timestampField == null) {
+      return;
+    }
+    if(maxProfilesPerShard > 0) {
+      throw new IllegalStateException(format(
+              "invalid configuration: max profiles per shard (%d) cannot be bounded with event time", maxProfilesPerShard));
+    }
+    if(spillStore != null) {
+      throw new IllegalStateException("invalid configuration: profile state cannot be spilled with event time");
+    }
+  }
+
+  /**
+   * Drop messages whose event time is further ahead of the wall clock than this, rather than
+   * advance the watermark.  Only applies with event time.
+   * @param maxClockSkewMillis How far ahead of the wall clock an event time may be.
+   */
+  public DefaultMessageDistributor withMaxClockSkewMillis(long maxClockSkewMillis) {
+    this.maxClockSkewMillis = maxClockSkewMillis;
+    return this;
+  }
+
+  /**
+   * @param clock Tells the wall clock time that event times are checked against.
+   */
+  public DefaultMessageDistributor withClock(Clock clock) {
+    this.clock = clock;
+    return this;
+  }
 }
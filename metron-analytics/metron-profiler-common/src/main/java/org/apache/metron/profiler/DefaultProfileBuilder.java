@@ -212,6 +212,14 @@ public class DefaultProfileBuilder implements ProfileBuilder, Serializable {
     return definition;
   }
 
+  /**
+   * Returns the variables maintained by the builder, so that its state can be stored
+   * elsewhere and later restored with {@link Builder#withState(Map)}.
+   */
+  public Map<String, Object> getState() {
+    return executor.getState();
+  }
+
   /**
    * Executes an expression contained within the profile definition.
    * @param expression The expression to execute.
@@ -315,6 +323,7 @@ public class DefaultProfileBuilder implements ProfileBuilder, Serializable {
     private long periodDurationMillis;
     private Clock clock = new WallClock();
     private Context context;
+    private Map<String, Object> state;
 
     public Builder withContext(Context context) {
       this.context = context;
@@ -359,6 +368,15 @@ public class DefaultProfileBuilder implements ProfileBuilder, Serializable {
       return this;
     }
 
+    /**
+     * Restores the state of an initialized ProfileBuilder.
+     * @param state The variables of the ProfileBuilder; see {@link DefaultProfileBuilder#getState()}.
+     */
+    public Builder withState(Map<String, Object> state) {
+      this.state = state;
+      return this;
+    }
+
     /**
      * Construct a ProfileBuilder.
      */
@@ -371,7 +389,13 @@ public class DefaultProfileBuilder implements ProfileBuilder, Serializable {
         throw new IllegalArgumentException(format("missing entity name; got '%s'", entity));
       }
 
-      return new DefaultProfileBuilder(definition, entity, clock, periodDurationMillis, context);
+      DefaultProfileBuilder builder = new DefaultProfileBuilder(definition, entity, clock, periodDurationMillis, context);
+      if(state != null) {
+        state.forEach((variable, value) -> builder.executor.assign(variable, value));
+        builder.isInitialized = true;
+      }
+
+      return builder;
     }
   }
 }
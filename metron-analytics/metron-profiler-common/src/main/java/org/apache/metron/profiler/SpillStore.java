@@ -0,0 +1,166 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package org.apache.metron.profiler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * Holds serialized values in a local file, rather than on the heap.
+ *
+ * Values are appended to the file and only an index of their positions is kept in memory.
+ * The space of a removed value is not reused until the store is cleared.  The store can be
+ * used from many threads.
+ */
+public class SpillStore<K> implements Closeable {
+
+  private File file;
+  private FileChannel channel;
+
+  /**
+   * The position and length of each value within the file.
+   */
+  private Map<K, long[]> index = new HashMap<>();
+
+  /**
+   * The end of the file, where the next value is written.
+   */
+  private long end;
+
+  /**
+   * @param directory The local directory in which to create the file.
+   */
+  public SpillStore(File directory) throws IOException {
+    if(!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException(format("unable to create spill directory: %s", directory));
+    }
+
+    this.file = File.createTempFile("profiler-spill-", ".bin", directory);
+    this.file.deleteOnExit();
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Stores a value, replacing any value of the same key.
+   */
+  public synchronized void put(K key, byte[] value) {
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(value);
+      long position = end;
+      while(buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+
+      index.put(key, new long[] { end, value.length });
+      end = position;
+
+    } catch(IOException e) {
+      throw new IllegalStateException(format("unable to spill to %s: %s", file, e.getMessage()), e);
+    }
+  }
+
+  /**
+   * @return The value of the key, or null if there is none.
+   */
+  public synchronized byte[] get(K key) {
+    long[] location = index.get(key);
+    return location == null ? null : read(location);
+  }
+
+  /**
+   * Removes the value of a key.
+   * @return The value of the key, or null if there is none.
+   */
+  public synchronized byte[] remove(K key) {
+    long[] location = index.remove(key);
+    return location == null ? null : read(location);
+  }
+
+  private byte[] read(long[] location) {
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate((int) location[1]);
+      long position = location[0];
+      while(buffer.hasRemaining()) {
+        int read = channel.read(buffer, position);
+        if(read < 0) {
+          throw new IOException("unexpected end of file");
+        }
+        position += read;
+      }
+
+      return buffer.array();
+
+    } catch(IOException e) {
+      throw new IllegalStateException(format("unable to read spilled value from %s: %s", file, e.getMessage()), e);
+    }
+  }
+
+  /**
+   * @return A copy of the keys of the stored values.
+   */
+  public synchronized List<K> keys() {
+    return new ArrayList<>(index.keySet());
+  }
+
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /**
+   * @return The size of the file in bytes, including the space of removed values.
+   */
+  public synchronized long sizeInBytes() {
+    return end;
+  }
+
+  /**
+   * Removes all of the values and truncates the file.
+   */
+  public synchronized void clear() {
+    try {
+      index.clear();
+      channel.truncate(0);
+      end = 0;
+
+    } catch(IOException e) {
+      throw new IllegalStateException(format("unable to truncate %s: %s", file, e.getMessage()), e);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    index.clear();
+    channel.close();
+    if(!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+}
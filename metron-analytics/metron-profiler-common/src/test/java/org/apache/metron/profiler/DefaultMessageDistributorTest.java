@@ -23,11 +23,15 @@ package org.apache.metron.profiler;
 import org.adrianwalker.multilinestring.Multiline;
 import org.apache.metron.common.configuration.profiler.ProfileConfig;
 import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.profiler.clock.FixedClock;
+import org.apache.metron.stellar.common.utils.ConversionUtils;
 import org.apache.metron.stellar.dsl.Context;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.util.List;
@@ -81,6 +85,9 @@ public class DefaultMessageDistributorTest {
   @Multiline
   private String profileTwo;
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   private DefaultMessageDistributor distributor;
   private Context context;
 
@@ -154,4 +161,264 @@ public class DefaultMessageDistributorTest {
     assertEquals(2, measurements.size());
   }
 
+  /**
+   * Creates a copy of a message with the given timestamp.
+   */
+  private JSONObject at(JSONObject message, long timestamp) {
+    JSONObject copy = new JSONObject(message);
+    copy.put("timestamp", timestamp);
+    return copy;
+  }
+
+  /**
+   * With event time, each period is flushed once the watermark passes its end, no matter
+   * how quickly the messages arrive.
+   */
+  @Test
+  public void testEventTimeFlushesExpiredPeriods() throws Exception {
+    long period = TimeUnit.MINUTES.toMillis(15);
+    long lateness = TimeUnit.MINUTES.toMillis(1);
+    distributor.withEventTime("timestamp", lateness);
+    String entity = (String) messageOne.get("ip_src_addr");
+    MessageRoute route = new MessageRoute(createDefinition(profileOne), entity);
+
+    // two messages in the first period, one in the second
+    long start = period * 100;
+    distributor.distribute(at(messageOne, start + 1), route, context);
+    distributor.distribute(at(messageOne, start + 2), route, context);
+    distributor.distribute(at(messageOne, start + period), route, context);
+    assertEquals(0, distributor.flushExpired().size());
+
+    // the watermark passes the end of the first period
+    distributor.distribute(at(messageOne, start + period + lateness), route, context);
+    List<ProfileMeasurement> measurements = distributor.flushExpired();
+    assertEquals(1, measurements.size());
+    assertEquals(start, measurements.get(0).getPeriod().getStartTimeMillis());
+    assertEquals(2, (int) ConversionUtils.convert(measurements.get(0).getProfileValue(), Integer.class));
+
+    // the second period is flushed on demand
+    measurements = distributor.flush();
+    assertEquals(1, measurements.size());
+    assertEquals(start + period, measurements.get(0).getPeriod().getStartTimeMillis());
+    assertEquals(2, (int) ConversionUtils.convert(measurements.get(0).getProfileValue(), Integer.class));
+  }
+
+  /**
+   * With event time, an out-of-order message is applied to its own period while that period is
+   * within the allowed lateness, and dropped once the period has been flushed.
+   */
+  @Test
+  public void testEventTimeOutOfOrderMessages() throws Exception {
+    long period = TimeUnit.MINUTES.toMillis(15);
+    long lateness = TimeUnit.MINUTES.toMillis(5);
+    distributor.withEventTime("timestamp", lateness);
+    String entity = (String) messageOne.get("ip_src_addr");
+    MessageRoute route = new MessageRoute(createDefinition(profileOne), entity);
+
+    // a message for the first period arrives after one for the second
+    long start = period * 100;
+    distributor.distribute(at(messageOne, start + period + 1), route, context);
+    distributor.distribute(at(messageOne, start + 1), route, context);
+    assertEquals(0, distributor.flushExpired().size());
+
+    // the first period closes
+    distributor.distribute(at(messageOne, start + period + lateness), route, context);
+    List<ProfileMeasurement> measurements = distributor.flushExpired();
+    assertEquals(1, measurements.size());
+    assertEquals(start, measurements.get(0).getPeriod().getStartTimeMillis());
+    assertEquals(1, (int) ConversionUtils.convert(measurements.get(0).getProfileValue(), Integer.class));
+
+    // messages that are too late, or have no timestamp, are dropped
+    distributor.distribute(at(messageOne, start + 2), route, context);
+    distributor.distribute(messageOne, route, context);
+    assertEquals(2, distributor.getDroppedMessages());
+    measurements = distributor.flush();
+    assertEquals(1, measurements.size());
+    assertEquals(2, (int) ConversionUtils.convert(measurements.get(0).getProfileValue(), Integer.class));
+  }
+
+  /**
+   * With event time, a message too far ahead of the wall clock is dropped rather than
+   * advancing the watermark past every open period.
+   */
+  @Test
+  public void testEventTimeDropsMessagesAheadOfClock() throws Exception {
+    long period = TimeUnit.MINUTES.toMillis(15);
+    long lateness = TimeUnit.MINUTES.toMillis(1);
+    long skew = TimeUnit.MINUTES.toMillis(5);
+    long start = period * 100;
+    FixedClock clock = new FixedClock();
+    clock.setTime(start);
+    distributor.withEventTime("timestamp", lateness)
+            .withMaxClockSkewMillis(skew)
+            .withClock(clock);
+    String entity = (String) messageOne.get("ip_src_addr");
+    MessageRoute route = new MessageRoute(createDefinition(profileOne), entity);
+
+    distributor.distribute(at(messageOne, start + 1), route, context);
+    long watermark = distributor.getWatermarkMillis();
+
+    // a message a year ahead does not flush the current period
+    distributor.distribute(at(messageOne, start + TimeUnit.DAYS.toMillis(365)), route, context);
+    assertEquals(1, distributor.getDroppedMessages());
+    assertEquals(watermark, distributor.getWatermarkMillis());
+    assertEquals(0, distributor.flushExpired().size());
+
+    // a message within the allowed skew is applied
+    distributor.distribute(at(messageOne, start + skew), route, context);
+    assertEquals(1, distributor.getDroppedMessages());
+    assertEquals(start + skew - lateness, distributor.getWatermarkMillis());
+    List<ProfileMeasurement> measurements = distributor.flush();
+    assertEquals(1, measurements.size());
+    assertEquals(2, (int) ConversionUtils.convert(measurements.get(0).getProfileValue(), Integer.class));
+  }
+
+  /**
+   * Once every period has been flushed, as when the messages stop, a later message for one of
+   * those periods is dropped rather than replacing its measurement with a partial one.
+   */
+  @Test
+  public void testEventTimeFlushMovesWatermark() throws Exception {
+    long period = TimeUnit.MINUTES.toMillis(15);
+    long lateness = TimeUnit.MINUTES.toMillis(5);
+    distributor.withEventTime("timestamp", lateness);
+    String entity = (String) messageOne.get("ip_src_addr");
+    MessageRoute route = new MessageRoute(createDefinition(profileOne), entity);
+
+    long start = period * 100;
+    distributor.distribute(at(messageOne, start + 1), route, context);
+    distributor.distribute(at(messageOne, start + 2), route, context);
+    assertEquals(1, distributor.flush().size());
+    assertEquals(start + period, distributor.getWatermarkMillis());
+
+    // the period has been flushed, although the allowed lateness has not passed
+    distributor.distribute(at(messageOne, start + 3), route, context);
+    assertEquals(1, distributor.getDroppedMessages());
+    assertEquals(0, distributor.flush().size());
+
+    // the next period is still open
+    distributor.distribute(at(messageOne, start + period), route, context);
+    assertEquals(1, distributor.getDroppedMessages());
+    List<ProfileMeasurement> measurements = distributor.flush();
+    assertEquals(1, measurements.size());
+    assertEquals(start + period, measurements.get(0).getPeriod().getStartTimeMillis());
+  }
+
+  /**
+   * The state of many entities is split across shards, which are all flushed.
+   */
+  @Test
+  public void testFlushAllShards() throws Exception {
+    distributor.withShards(4);
+    ProfileConfig definition = createDefinition(profileOne);
+    for(int i = 0; i < 100; i++) {
+      distributor.distribute(messageOne, new MessageRoute(definition, "10.0.0." + i), context);
+      distributor.distribute(messageOne, new MessageRoute(definition, "10.0.0." + i), context);
+    }
+
+    List<ProfileMeasurement> measurements = distributor.flush();
+    assertEquals(100, measurements.size());
+    for(ProfileMeasurement m : measurements) {
+      assertEquals(2, (int) ConversionUtils.convert(m.getProfileValue(), Integer.class));
+    }
+  }
+
+  /**
+   * The profiles are flushed on the distributor's own threads, in chunks, with or without event time.
+   */
+  @Test
+  public void testFlushOnFlushThreads() throws Exception {
+    ProfileConfig definition = createDefinition(profileOne);
+    long start = TimeUnit.MINUTES.toMillis(15) * 100;
+    DefaultMessageDistributor eventTime = new DefaultMessageDistributor(
+            TimeUnit.MINUTES.toMillis(15),
+            TimeUnit.MINUTES.toMillis(30))
+            .withEventTime("timestamp", 0)
+            .withFlushThreads(3);
+    distributor.withShards(4).withFlushThreads(2);
+    for(int i = 0; i < 100; i++) {
+      distributor.distribute(messageOne, new MessageRoute(definition, "10.0.0." + i), context);
+      eventTime.distribute(at(messageOne, start + i), new MessageRoute(definition, "10.0.0." + i), context);
+    }
+
+    assertEquals(100, distributor.flush().size());
+    assertEquals(100, eventTime.flush().size());
+    distributor.close();
+    eventTime.close();
+  }
+
+  /**
+   * With event time, the state is held per period, so can be neither bounded nor spilled.
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testEventTimeRejectsMaxProfilesPerShard() {
+    distributor.withMaxProfilesPerShard(10).withEventTime("timestamp", 0);
+  }
+
+  /**
+   * An equal profile definition shares state, while a changed definition starts new state.
+   */
+  @Test
+  public void testStateIsKeyedByDefinition() throws Exception {
+    String entity = (String) messageOne.get("ip_src_addr");
+    distributor.distribute(messageOne, new MessageRoute(createDefinition(profileOne), entity), context);
+    distributor.distribute(messageOne, new MessageRoute(createDefinition(profileOne), entity), context);
+
+    ProfileConfig changed = createDefinition(profileOne);
+    changed.setExpires(30L);
+    distributor.distribute(messageOne, new MessageRoute(changed, entity), context);
+
+    List<ProfileMeasurement> measurements = distributor.flush();
+    assertEquals(2, measurements.size());
+    int total = 0;
+    for(ProfileMeasurement m : measurements) {
+      total += ConversionUtils.convert(m.getProfileValue(), Integer.class);
+    }
+    assertEquals(3, total);
+  }
+
+  /**
+   * When a shard is full, the least recently used profile is forgotten.
+   */
+  @Test
+  public void testMaxProfilesPerShard() throws Exception {
+    distributor.withShards(1).withMaxProfilesPerShard(1);
+    ProfileConfig definition = createDefinition(profileOne);
+    distributor.distribute(messageOne, new MessageRoute(definition, (String) messageOne.get("ip_src_addr")), context);
+    distributor.distribute(messageTwo, new MessageRoute(definition, (String) messageTwo.get("ip_src_addr")), context);
+
+    List<ProfileMeasurement> measurements = distributor.flush();
+    assertEquals(1, measurements.size());
+    assertEquals(messageTwo.get("ip_src_addr"), measurements.get(0).getEntity());
+    assertEquals(1, distributor.getEvictedProfiles());
+  }
+
+  /**
+   * When a shard is full, the state of the least recently used profile is spilled and
+   * restored on its next message, or when flushed.
+   */
+  @Test
+  public void testSpillFullShard() throws Exception {
+    distributor.withShards(1)
+            .withMaxProfilesPerShard(1)
+            .withSpillDirectory(folder.getRoot().getAbsolutePath());
+    ProfileConfig definition = createDefinition(profileOne);
+    MessageRoute routeOne = new MessageRoute(definition, (String) messageOne.get("ip_src_addr"));
+    MessageRoute routeTwo = new MessageRoute(definition, (String) messageTwo.get("ip_src_addr"));
+
+    // the first entity is spilled by the second, then restored
+    distributor.distribute(messageOne, routeOne, context);
+    distributor.distribute(messageOne, routeOne, context);
+    distributor.distribute(messageTwo, routeTwo, context);
+    distributor.distribute(messageOne, routeOne, context);
+
+    List<ProfileMeasurement> measurements = distributor.flush();
+    assertEquals(2, measurements.size());
+    for(ProfileMeasurement m : measurements) {
+      int expected = m.getEntity().equals(routeOne.getEntity()) ? 3 : 1;
+      assertEquals(expected, (int) ConversionUtils.convert(m.getProfileValue(), Integer.class));
+    }
+    assertEquals(2, distributor.getSpilledProfiles());
+    assertEquals(0, distributor.getEvictedProfiles());
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ *
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+
+package org.apache.metron.profiler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the SpillStore.
+ */
+public class SpillStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private SpillStore<String> store;
+
+  @Before
+  public void setup() throws Exception {
+    store = new SpillStore<>(folder.newFolder("spill"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    store.close();
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testPutAndRemove() {
+    store.put("one", bytes("first"));
+    store.put("two", bytes("second"));
+    store.put("one", bytes("replaced"));
+
+    assertEquals(2, store.size());
+    assertArrayEquals(bytes("second"), store.get("two"));
+    assertArrayEquals(bytes("replaced"), store.remove("one"));
+    assertNull(store.remove("one"));
+    assertEquals(1, store.size());
+  }
+
+  @Test
+  public void testClear() {
+    store.put("one", bytes("first"));
+    store.clear();
+
+    assertEquals(0, store.size());
+    assertEquals(0, store.sizeInBytes());
+    assertNull(store.get("one"));
+
+    store.put("two", bytes("second"));
+    assertArrayEquals(bytes("second"), store.get("two"));
+  }
+}
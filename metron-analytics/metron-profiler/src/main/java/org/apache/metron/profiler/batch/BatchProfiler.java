@@ -0,0 +1,345 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.profiler.batch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.metron.common.configuration.profiler.ProfilerConfig;
+import org.apache.metron.profiler.DefaultMessageDistributor;
+import org.apache.metron.profiler.DefaultMessageRouter;
+import org.apache.metron.profiler.MessageRoute;
+import org.apache.metron.profiler.MessageRouter;
+import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.stellar.dsl.Context;
+import org.apache.metron.stellar.dsl.StellarFunctions;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Builds profiles from archived telemetry, rather than from a live stream, so that profiles
+ * can be backfilled without replaying the telemetry through Kafka.
+ *
+ * The files are read and routed in parallel.  Each route is then sent to one of several
+ * partitions by its profile and entity, so that each (profile, entity) pair is built by a
+ * single thread.  Periods are driven by the timestamp of each message, as with event time
+ * in the Profiler topology, so the measurements are the same as if the telemetry had been
+ * profiled as it arrived.
+ */
+public class BatchProfiler {
+
+  protected static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String DEFAULT_TIMESTAMP_FIELD = "timestamp";
+
+  /**
+   * The configuration for the Profiler.
+   */
+  private ProfilerConfig config;
+
+  /**
+   * The duration of each profile period in milliseconds.
+   */
+  private long periodDurationMillis;
+
+  /**
+   * The Stellar execution context.
+   */
+  private Context context;
+
+  /**
+   * The name of the message field containing the event time.
+   */
+  private String timestampField = DEFAULT_TIMESTAMP_FIELD;
+
+  /**
+   * How long a period remains open after the latest timestamp seen by its partition passes
+   * its end.  By default every period is held until all of the files have been read, which
+   * does not depend on the order in which the files are read, but holds all of the state in memory.
+   */
+  private long allowedLatenessMillis = Long.MAX_VALUE;
+
+  /**
+   * The number of threads reading files, and the number of partitions building profiles.
+   */
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The number of routed messages that can wait for each partition.
+   */
+  private int queueSize = 10000;
+
+  private Configuration hadoopConfig = new Configuration();
+
+  private AtomicLong messageCount = new AtomicLong();
+  private AtomicLong invalidCount = new AtomicLong();
+  private AtomicLong routeCount = new AtomicLong();
+  private AtomicLong droppedCount = new AtomicLong();
+  private AtomicLong measurementCount = new AtomicLong();
+
+  /**
+   * @param config The profiles to build.
+   * @param periodDurationMillis The duration of each profile period in milliseconds.
+   * @param context The Stellar execution context.
+   */
+  public BatchProfiler(ProfilerConfig config, long periodDurationMillis, Context context) {
+    this.config = config;
+    this.periodDurationMillis = periodDurationMillis;
+    this.context = context;
+  }
+
+  /**
+   * Builds the profiles from the telemetry in the given files.
+   * @param paths The paths of files or directories to read.
+   * @param writer Accepts each measurement; called from several threads at once.
+   */
+  public void profile(List<String> paths, Consumer<ProfileMeasurement> writer) throws IOException, InterruptedException {
+    TelemetryReader reader = new TelemetryReader(hadoopConfig);
+    List<Path> files = reader.list(paths);
+    LOG.info("Profiling {} file(s) with {} thread(s)", files.size(), parallelism);
+
+    // initialize the Stellar functions once, before they are used from many threads
+    StellarFunctions.initialize(context);
+
+    List<Partition> partitions = new ArrayList<>();
+    for(int i = 0; i < parallelism; i++) {
+      Partition partition = new Partition(i, writer);
+      partitions.add(partition);
+      partition.start();
+    }
+
+    ExecutorService readers = Executors.newFixedThreadPool(parallelism);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for(Path file : files) {
+        results.add(readers.submit(() -> read(reader, file, partitions)));
+      }
+
+      for(Future<?> result : results) {
+        result.get();
+      }
+
+    } catch(ExecutionException e) {
+      throw new IOException("Unable to read telemetry: " + e.getCause().getMessage(), e.getCause());
+
+    } finally {
+      readers.shutdownNow();
+      for(Partition partition : partitions) {
+        partition.finish();
+      }
+    }
+
+    for(Partition partition : partitions) {
+      partition.join();
+      if(partition.failure != null) {
+        throw new IOException("Unable to build profiles: " + partition.failure.getMessage(), partition.failure);
+      }
+    }
+  }
+
+  private Void read(TelemetryReader reader, Path file, List<Partition> partitions) throws IOException {
+    LOG.debug("Reading {}", file);
+    MessageRouter router = new DefaultMessageRouter(context);
+    long invalid = reader.read(file, message -> {
+      messageCount.incrementAndGet();
+      for(MessageRoute route : router.route(message, config, context)) {
+        routeCount.incrementAndGet();
+        int hash = (route.getProfileDefinition().getProfile() + ":" + route.getEntity()).hashCode();
+        partitions.get(Math.floorMod(hash, partitions.size())).put(new RoutedMessage(message, route));
+      }
+    });
+
+    invalidCount.addAndGet(invalid);
+    return null;
+  }
+
+  /**
+   * A message and one of its routes.
+   */
+  private static class RoutedMessage {
+    private JSONObject message;
+    private MessageRoute route;
+
+    RoutedMessage(JSONObject message, MessageRoute route) {
+      this.message = message;
+      this.route = route;
+    }
+  }
+
+  /**
+   * Builds the profiles of the (profile, entity) pairs sent to it, on its own thread.
+   */
+  private class Partition extends Thread {
+    private final RoutedMessage end = new RoutedMessage(null, null);
+    private final BlockingQueue<RoutedMessage> queue = new ArrayBlockingQueue<>(queueSize);
+    private final DefaultMessageDistributor distributor;
+    private final Consumer<ProfileMeasurement> writer;
+    private volatile Throwable failure;
+
+    Partition(int index, Consumer<ProfileMeasurement> writer) {
+      super("batch-profiler-partition-" + index);
+      setDaemon(true);
+      this.writer = writer;
+      // the partitions already build profiles in parallel
+      this.distributor = new DefaultMessageDistributor(periodDurationMillis, Long.MAX_VALUE)
+              .withEventTime(timestampField, allowedLatenessMillis)
+              .withFlushThreads(1);
+    }
+
+    void put(RoutedMessage message) {
+      try {
+        queue.put(message);
+
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while routing a message", e);
+      }
+    }
+
+    void finish() throws InterruptedException {
+      queue.put(end);
+    }
+
+    @Override
+    public void run() {
+      try {
+        for(RoutedMessage next = queue.take(); next != end; next = queue.take()) {
+          // once failed, keep draining the queue so that the readers are not blocked
+          if(failure == null) {
+            try {
+              distributor.distribute(next.message, next.route, context);
+              emit(distributor.flushExpired());
+
+            } catch(Throwable e) {
+              LOG.error("Unable to build profiles: " + e.getMessage(), e);
+              failure = e;
+            }
+          }
+        }
+
+        if(failure == null) {
+          emit(distributor.flush());
+        }
+
+      } catch(InterruptedException e) {
+        failure = e;
+
+      } catch(Throwable e) {
+        LOG.error("Unable to build profiles: " + e.getMessage(), e);
+        failure = e;
+
+      } finally {
+        droppedCount.addAndGet(distributor.getDroppedMessages());
+        distributor.close();
+      }
+    }
+
+    private void emit(List<ProfileMeasurement> measurements) {
+      for(ProfileMeasurement measurement : measurements) {
+        writer.accept(measurement);
+        measurementCount.incrementAndGet();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "BatchProfiler{" +
+            getMessageCount() + " message(s), " +
+            getInvalidCount() + " invalid, " +
+            getRouteCount() + " route(s), " +
+            getDroppedCount() + " dropped, " +
+            getMeasurementCount() + " measurement(s)" +
+            '}';
+  }
+
+  /**
+   * @param timestampField The name of the message field containing the event time in epoch milliseconds.
+   */
+  public BatchProfiler withTimestampField(String timestampField) {
+    this.timestampField = timestampField;
+    return this;
+  }
+
+  /**
+   * Bounds the memory used for state.  The files are read oldest first, but several at a time,
+   * so the lateness must cover the time spanned by the files read at once, such as the rotation
+   * interval of the writer; later messages are dropped.
+   * @param allowedLatenessMillis How long a period remains open after the latest timestamp passes its end.
+   */
+  public BatchProfiler withAllowedLatenessMillis(long allowedLatenessMillis) {
+    this.allowedLatenessMillis = allowedLatenessMillis;
+    return this;
+  }
+
+  public BatchProfiler withParallelism(int parallelism) {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  public BatchProfiler withQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+    return this;
+  }
+
+  public BatchProfiler withHadoopConfig(Configuration hadoopConfig) {
+    this.hadoopConfig = hadoopConfig;
+    return this;
+  }
+
+  public long getMessageCount() {
+    return messageCount.get();
+  }
+
+  /**
+   * The number of lines that could not be parsed as a message.
+   */
+  public long getInvalidCount() {
+    return invalidCount.get();
+  }
+
+  public long getRouteCount() {
+    return routeCount.get();
+  }
+
+  /**
+   * The number of routed messages dropped for having no timestamp, or arriving after their
+   * period was flushed.
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  public long getMeasurementCount() {
+    return measurementCount.get();
+  }
+}
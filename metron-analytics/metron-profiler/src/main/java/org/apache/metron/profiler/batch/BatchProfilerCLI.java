@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.profiler.batch;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.metron.common.configuration.ConfigurationsUtils;
+import org.apache.metron.common.configuration.profiler.ProfilerConfig;
+import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.hbase.HTableProvider;
+import org.apache.metron.hbase.TableProvider;
+import org.apache.metron.hbase.client.HBaseClient;
+import org.apache.metron.profiler.hbase.SaltyRowKeyBuilder;
+import org.apache.metron.profiler.hbase.ValueOnlyColumnBuilder;
+import org.apache.metron.stellar.dsl.Context;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Backfills profiles from archived telemetry with a {@link BatchProfiler}, writing the
+ * measurements to HBase where the Profiler Client can read them.
+ */
+public class BatchProfilerCLI {
+
+  public enum BatchProfilerOptions {
+    HELP("h", code -> {
+      Option o = new Option(code, "help", false, "This screen");
+      o.setRequired(false);
+      return o;
+    }),
+    ZK_QUORUM("z", code -> {
+      Option o = new Option(code, "zk", true, "Zookeeper Quorum URL (zk1:2181,zk2:2181,...); the profiles and global configuration are read from Zookeeper unless a profiler config is given");
+      o.setArgName("ZK_QUORUM");
+      o.setRequired(false);
+      return o;
+    }),
+    PROFILER_CONFIG("c", code -> {
+      Option o = new Option(code, "config", true, "A JSON file defining the profiles to build");
+      o.setArgName("JSON_FILE");
+      o.setRequired(false);
+      return o;
+    }),
+    INPUT("i", code -> {
+      Option o = new Option(code, "input", true, "The comma separated files or directories of telemetry to read; for example hdfs:///apps/metron/indexing/indexed/bro");
+      o.setArgName("PATHS");
+      o.setRequired(true);
+      return o;
+    }),
+    PERIOD_DURATION("p", code -> {
+      Option o = new Option(code, "period_duration", true, "The duration of each profile period; defaults to 15");
+      o.setArgName("DURATION");
+      o.setRequired(false);
+      return o;
+    }),
+    PERIOD_DURATION_UNITS("pu", code -> {
+      Option o = new Option(code, "period_duration_units", true, "The units of the period duration; defaults to MINUTES");
+      o.setArgName("UNITS");
+      o.setRequired(false);
+      return o;
+    }),
+    TIMESTAMP_FIELD("t", code -> {
+      Option o = new Option(code, "timestamp_field", true, "The message field containing the event time; defaults to " + BatchProfiler.DEFAULT_TIMESTAMP_FIELD);
+      o.setArgName("FIELD");
+      o.setRequired(false);
+      return o;
+    }),
+    LATENESS("l", code -> {
+      Option o = new Option(code, "lateness_minutes", true, "How long a period remains open after the latest timestamp passes its end; by default every period is held until all of the files have been read");
+      o.setArgName("MINUTES");
+      o.setRequired(false);
+      return o;
+    }),
+    PARALLELISM("n", code -> {
+      Option o = new Option(code, "parallelism", true, "The number of threads reading files and building profiles; defaults to the number of cores");
+      o.setArgName("THREADS");
+      o.setRequired(false);
+      return o;
+    }),
+    TABLE("tn", code -> {
+      Option o = new Option(code, "table", true, "The HBase table to write to; defaults to profiler");
+      o.setArgName("TABLE");
+      o.setRequired(false);
+      return o;
+    }),
+    COLUMN_FAMILY("cf", code -> {
+      Option o = new Option(code, "column_family", true, "The HBase column family to write to; defaults to P");
+      o.setArgName("CF");
+      o.setRequired(false);
+      return o;
+    }),
+    SALT_DIVISOR("s", code -> {
+      Option o = new Option(code, "salt_divisor", true, "The salt divisor of the row keys; defaults to 1000");
+      o.setArgName("DIVISOR");
+      o.setRequired(false);
+      return o;
+    }),
+    BATCH_SIZE("b", code -> {
+      Option o = new Option(code, "batch_size", true, "The number of measurements written to HBase in a batch; defaults to 1000");
+      o.setArgName("SIZE");
+      o.setRequired(false);
+      return o;
+    }),
+    TABLE_PROVIDER("tp", code -> {
+      Option o = new Option(code, "table_provider", true, "The class name of the HBase table provider");
+      o.setArgName("CLASS_NAME");
+      o.setRequired(false);
+      return o;
+    });
+
+    Option option;
+    String shortCode;
+
+    BatchProfilerOptions(String shortCode, Function<String, Option> optionHandler) {
+      this.shortCode = shortCode;
+      this.option = optionHandler.apply(shortCode);
+    }
+
+    public boolean has(CommandLine cli) {
+      return cli.hasOption(shortCode);
+    }
+
+    public String get(CommandLine cli) {
+      return cli.getOptionValue(shortCode);
+    }
+
+    public String get(CommandLine cli, String def) {
+      return has(cli) ? cli.getOptionValue(shortCode) : def;
+    }
+
+    public static CommandLine parse(CommandLineParser parser, String[] args) throws ParseException {
+      try {
+        CommandLine cli = parser.parse(getOptions(), args);
+        if (HELP.has(cli)) {
+          printHelp();
+          System.exit(0);
+        }
+        return cli;
+      } catch (ParseException e) {
+        System.err.println("Unable to parse args: " + Joiner.on(' ').join(args));
+        e.printStackTrace(System.err);
+        printHelp();
+        throw e;
+      }
+    }
+
+    public static void printHelp() {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("BatchProfilerCLI", getOptions());
+    }
+
+    public static Options getOptions() {
+      Options ret = new Options();
+      for (BatchProfilerOptions o : BatchProfilerOptions.values()) {
+        ret.addOption(o.option);
+      }
+      return ret;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    CommandLine cli = BatchProfilerOptions.parse(new PosixParser(), args);
+    if (!BatchProfilerOptions.ZK_QUORUM.has(cli) && !BatchProfilerOptions.PROFILER_CONFIG.has(cli)) {
+      throw new IllegalArgumentException("Either a Zookeeper quorum or a profiler config is required");
+    }
+
+    // the profiles and the global configuration
+    CuratorFramework client = null;
+    ProfilerConfig profilerConfig = null;
+    Map<String, Object> global = new HashMap<>();
+    if (BatchProfilerOptions.ZK_QUORUM.has(cli)) {
+      client = ConfigurationsUtils.getClient(BatchProfilerOptions.ZK_QUORUM.get(cli));
+      client.start();
+      byte[] globalBytes = ConfigurationsUtils.readGlobalConfigBytesFromZookeeper(client);
+      global = JSONUtils.INSTANCE.load(new ByteArrayInputStream(globalBytes), new TypeReference<Map<String, Object>>() {});
+      if (!BatchProfilerOptions.PROFILER_CONFIG.has(cli)) {
+        byte[] profilerBytes = ConfigurationsUtils.readProfilerConfigBytesFromZookeeper(client);
+        profilerConfig = JSONUtils.INSTANCE.load(new ByteArrayInputStream(profilerBytes), ProfilerConfig.class);
+      }
+    }
+    if (BatchProfilerOptions.PROFILER_CONFIG.has(cli)) {
+      profilerConfig = JSONUtils.INSTANCE.load(new File(BatchProfilerOptions.PROFILER_CONFIG.get(cli)), ProfilerConfig.class);
+    }
+
+    final CuratorFramework zookeeperClient = client;
+    final Map<String, Object> globalConfig = global;
+    Context.Builder contextBuilder = new Context.Builder()
+            .with(Context.Capabilities.GLOBAL_CONFIG, () -> globalConfig)
+            .with(Context.Capabilities.STELLAR_CONFIG, () -> globalConfig);
+    if (zookeeperClient != null) {
+      contextBuilder.with(Context.Capabilities.ZOOKEEPER_CLIENT, () -> zookeeperClient);
+    }
+
+    // the measurements are written as the Profiler topology writes them
+    int periodDuration = Integer.parseInt(BatchProfilerOptions.PERIOD_DURATION.get(cli, "15"));
+    TimeUnit periodUnits = TimeUnit.valueOf(BatchProfilerOptions.PERIOD_DURATION_UNITS.get(cli, "MINUTES"));
+    int saltDivisor = Integer.parseInt(BatchProfilerOptions.SALT_DIVISOR.get(cli, "1000"));
+    TableProvider provider = TableProvider.create(BatchProfilerOptions.TABLE_PROVIDER.get(cli), HTableProvider::new);
+    HBaseClient hbaseClient = new HBaseClient(provider, HBaseConfiguration.create(), BatchProfilerOptions.TABLE.get(cli, "profiler"));
+
+    BatchProfiler profiler = new BatchProfiler(profilerConfig, periodUnits.toMillis(periodDuration), contextBuilder.build())
+            .withTimestampField(BatchProfilerOptions.TIMESTAMP_FIELD.get(cli, BatchProfiler.DEFAULT_TIMESTAMP_FIELD));
+    if (BatchProfilerOptions.LATENESS.has(cli)) {
+      profiler.withAllowedLatenessMillis(TimeUnit.MINUTES.toMillis(Long.parseLong(BatchProfilerOptions.LATENESS.get(cli))));
+    }
+    if (BatchProfilerOptions.PARALLELISM.has(cli)) {
+      profiler.withParallelism(Integer.parseInt(BatchProfilerOptions.PARALLELISM.get(cli)));
+    }
+
+    List<String> paths = Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(BatchProfilerOptions.INPUT.get(cli)));
+    try (HBaseMeasurementWriter writer = new HBaseMeasurementWriter(hbaseClient,
+            new SaltyRowKeyBuilder(saltDivisor, periodDuration, periodUnits),
+            new ValueOnlyColumnBuilder(BatchProfilerOptions.COLUMN_FAMILY.get(cli, "P")))
+            .withBatchSize(Integer.parseInt(BatchProfilerOptions.BATCH_SIZE.get(cli, "1000")))) {
+      profiler.profile(paths, writer);
+
+    } finally {
+      if (zookeeperClient != null) {
+        zookeeperClient.close();
+      }
+    }
+
+    System.out.println(profiler);
+  }
+}
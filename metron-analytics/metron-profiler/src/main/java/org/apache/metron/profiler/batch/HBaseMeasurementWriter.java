@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.profiler.batch;
+
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.metron.common.configuration.profiler.ProfileConfig;
+import org.apache.metron.hbase.bolt.mapper.ColumnList;
+import org.apache.metron.hbase.client.HBaseClient;
+import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.profiler.hbase.ColumnBuilder;
+import org.apache.metron.profiler.hbase.RowKeyBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Writes profile measurements to HBase in batches, with the same row keys and columns as the
+ * Profiler topology; see {@link org.apache.metron.profiler.bolt.ProfileHBaseMapper}.  The
+ * measurements can be written from many threads.
+ */
+public class HBaseMeasurementWriter implements Consumer<ProfileMeasurement>, Closeable {
+
+  private HBaseClient client;
+  private RowKeyBuilder rowKeyBuilder;
+  private ColumnBuilder columnBuilder;
+
+  /**
+   * The number of measurements written in a single batch.
+   */
+  private int batchSize = 1000;
+
+  /**
+   * The number of measurements waiting to be written.
+   */
+  private int pending;
+
+  public HBaseMeasurementWriter(HBaseClient client, RowKeyBuilder rowKeyBuilder, ColumnBuilder columnBuilder) {
+    this.client = client;
+    this.rowKeyBuilder = rowKeyBuilder;
+    this.columnBuilder = columnBuilder;
+  }
+
+  @Override
+  public synchronized void accept(ProfileMeasurement measurement) {
+    byte[] rowKey = rowKeyBuilder.rowKey(measurement);
+    ColumnList columns = columnBuilder.columns(measurement);
+
+    // a profile's `expires` field is in days, but hbase expects milliseconds
+    ProfileConfig definition = measurement.getDefinition();
+    if(definition.getExpires() != null) {
+      client.addMutation(rowKey, columns, Durability.SYNC_WAL, TimeUnit.DAYS.toMillis(definition.getExpires()));
+
+    } else {
+      client.addMutation(rowKey, columns, Durability.SYNC_WAL);
+    }
+
+    if(++pending >= batchSize) {
+      flush();
+    }
+  }
+
+  /**
+   * Writes the pending measurements.
+   */
+  public synchronized void flush() {
+    if(pending > 0) {
+      client.mutate();
+      pending = 0;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    client.close();
+  }
+
+  public HBaseMeasurementWriter withBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+}
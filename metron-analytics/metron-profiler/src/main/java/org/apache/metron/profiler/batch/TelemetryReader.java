@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.profiler.batch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.metron.writer.hdfs.ParquetOutput;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads archived telemetry, as written by the HDFS indexing writer, from HDFS or local files.
+ *
+ * Each file holds either one JSON message per line or Parquet rows; the format is detected
+ * from the content.  JSON files compressed with a Hadoop codec are recognized by their extension.
+ */
+public class TelemetryReader {
+
+  protected static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /**
+   * The magic bytes that start a Parquet file.
+   */
+  private static final byte[] PARQUET_MAGIC = new byte[] { 'P', 'A', 'R', '1' };
+
+  /**
+   * The time a file was opened, in epoch milliseconds, which ends the names of the files of the
+   * HDFS writer before any extension; for example enrichment-7-0-1525107000000.json.
+   */
+  private static final Pattern OPENED_TIME = Pattern.compile("-(\\d{12,})(\\.[^.\\-]*)*$");
+
+  private Configuration configuration;
+
+  public TelemetryReader(Configuration configuration) {
+    this.configuration = configuration;
+  }
+
+  /**
+   * Lists the files to read, oldest first.  Directories are listed recursively, skipping hidden
+   * files whose names start with '.' or '_'.  A file written by the HDFS writer is ordered by the
+   * time it was opened, which ends its name, and any other file by the time it was last modified.
+   * @param paths The paths of files or directories; for example hdfs:///apps/metron/indexing/indexed/bro.
+   */
+  public List<Path> list(List<String> paths) throws IOException {
+    List<FileStatus> files = new ArrayList<>();
+    for(String path : paths) {
+      Path p = new Path(path);
+      FileSystem fs = p.getFileSystem(configuration);
+      list(fs, fs.getFileStatus(p), files);
+    }
+
+    files.sort(Comparator.comparingLong(TelemetryReader::getTimeMillis));
+    List<Path> sorted = new ArrayList<>();
+    files.forEach(file -> sorted.add(file.getPath()));
+    return sorted;
+  }
+
+  private static long getTimeMillis(FileStatus status) {
+    Matcher matcher = OPENED_TIME.matcher(status.getPath().getName());
+    if(matcher.find()) {
+      try {
+        return Long.parseLong(matcher.group(1));
+
+      } catch(NumberFormatException e) {
+        // too long to be a time
+      }
+    }
+
+    return status.getModificationTime();
+  }
+
+  private void list(FileSystem fs, FileStatus status, List<FileStatus> files) throws IOException {
+    String name = status.getPath().getName();
+    if(name.startsWith(".") || name.startsWith("_")) {
+      return;
+    }
+
+    if(status.isDirectory()) {
+      for(FileStatus child : fs.listStatus(status.getPath())) {
+        list(fs, child, files);
+      }
+
+    } else {
+      files.add(status);
+    }
+  }
+
+  /**
+   * Reads each message in a file.
+   * @param path The file to read.
+   * @param consumer Accepts each message.
+   * @return The number of messages that could not be read.
+   */
+  public long read(Path path, Consumer<JSONObject> consumer) throws IOException {
+    FileSystem fs = path.getFileSystem(configuration);
+    try(BufferedInputStream stream = new BufferedInputStream(fs.open(path))) {
+      if(startsWith(stream, PARQUET_MAGIC)) {
+        // Parquet files are compressed a column at a time, and read from their footer
+        ParquetOutput.read(configuration, path, consumer);
+        return 0;
+      }
+    }
+
+    InputStream in = fs.open(path);
+    CompressionCodec codec = new CompressionCodecFactory(configuration).getCodec(path);
+    if(codec != null) {
+      in = codec.createInputStream(in);
+    }
+
+    try(BufferedInputStream stream = new BufferedInputStream(in)) {
+      return readJson(stream, path, consumer);
+    }
+  }
+
+  private static boolean startsWith(BufferedInputStream in, byte[] expected) throws IOException {
+    byte[] magic = new byte[expected.length];
+    in.mark(magic.length);
+    int read = 0;
+    while(read < magic.length) {
+      int n = in.read(magic, read, magic.length - read);
+      if(n < 0) {
+        break;
+      }
+      read += n;
+    }
+
+    in.reset();
+    return read == magic.length && Arrays.equals(magic, expected);
+  }
+
+  private static long readJson(InputStream in, Path path, Consumer<JSONObject> consumer) throws IOException {
+    long invalid = 0;
+    JSONParser parser = new JSONParser();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+      if(line.trim().isEmpty()) {
+        continue;
+      }
+
+      try {
+        consumer.accept((JSONObject) parser.parse(line));
+
+      } catch(ParseException | ClassCastException e) {
+        LOG.debug("Skipping invalid message in {}: {}", path, e.getMessage());
+        invalid++;
+      }
+    }
+
+    return invalid;
+  }
+}
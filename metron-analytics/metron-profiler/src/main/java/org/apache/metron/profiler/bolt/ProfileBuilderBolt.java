@@ -25,6 +25,8 @@ import org.apache.metron.common.configuration.profiler.ProfileConfig;
 import org.apache.metron.profiler.DefaultMessageDistributor;
 import org.apache.metron.profiler.MessageRoute;
 import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.profiler.clock.Clock;
+import org.apache.metron.profiler.clock.WallClock;
 import org.apache.metron.stellar.common.utils.ConversionUtils;
 import org.apache.metron.stellar.dsl.Context;
 import org.apache.storm.Config;
@@ -54,6 +56,10 @@ import static java.lang.String.format;
  * period expires, the data is summarized as a ProfileMeasurement, all state is
  * flushed, and the ProfileMeasurement is emitted.
  *
+ * When an event time field is defined, periods are instead driven by the timestamp
+ * of each message.  A period is flushed as soon as the watermark passes its end, so
+ * that a backlog or replay is profiled correctly at full speed.  Tick tuples then only
+ * flush the remaining periods once messages have stopped arriving.
  */
 public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
 
@@ -74,6 +80,50 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
    */
   private long profileTimeToLiveMillis;
 
+  /**
+   * The name of the message field containing the event time.  If not defined, the
+   * wall clock is used.
+   */
+  private String eventTimeField;
+
+  /**
+   * How long a period remains open to out-of-order messages, in event time, after
+   * the latest timestamp seen passes its end.
+   */
+  private long allowedLatenessMillis;
+
+  /**
+   * How far ahead of the wall clock an event time may be before its message is dropped.
+   */
+  private long maxClockSkewMillis = TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * The maximum number of profile/entity pairs held by each shard of the message
+   * distributor, or 0 for no limit.
+   */
+  private long maxProfilesPerShard;
+
+  /**
+   * The local directory to which profile state is spilled when a shard is full.  If not
+   * defined, the state is forgotten.
+   */
+  private String spillDirectory;
+
+  /**
+   * The number of threads on which the profiles are flushed, or 0 for one per core.
+   */
+  private int flushThreads = 1;
+
+  /**
+   * When the last message was received, according to the wall clock.
+   */
+  private long lastMessageMillis;
+
+  /**
+   * Tells the wall clock time.
+   */
+  private Clock clock = new WallClock();
+
   /**
    * Distributes messages to the profile builders.
    */
@@ -122,7 +172,25 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
     }
     this.collector = collector;
     this.parser = new JSONParser();
-    this.messageDistributor = new DefaultMessageDistributor(periodDurationMillis, profileTimeToLiveMillis);
+    this.messageDistributor = new DefaultMessageDistributor(periodDurationMillis, profileTimeToLiveMillis)
+            .withMaxProfilesPerShard(maxProfilesPerShard);
+    messageDistributor.withFlushThreads(flushThreads > 0 ? flushThreads : Runtime.getRuntime().availableProcessors());
+    if(spillDirectory != null && !spillDirectory.isEmpty()) {
+      messageDistributor.withSpillDirectory(spillDirectory);
+    }
+    if(isEventTime()) {
+      messageDistributor.withEventTime(eventTimeField, allowedLatenessMillis)
+              .withMaxClockSkewMillis(maxClockSkewMillis)
+              .withClock(clock);
+    }
+  }
+
+  @Override
+  public void cleanup() {
+    super.cleanup();
+    if(messageDistributor != null) {
+      messageDistributor.close();
+    }
   }
 
   @Override
@@ -179,20 +247,41 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
     MessageRoute route = new MessageRoute(definition, entity);
 
     messageDistributor.distribute(message, route, getStellarContext());
+    if(isEventTime()) {
+      lastMessageMillis = clock.currentTimeMillis();
+      emit(messageDistributor.flushExpired());
+    }
   }
 
   /**
    * Handles a tick tuple.
    */
   private void handleTick() {
-    List<ProfileMeasurement> measurements = messageDistributor.flush();
+    if(isEventTime()) {
+      // the watermark only advances with new messages; flush what remains once they stop
+      if(clock.currentTimeMillis() - lastMessageMillis >= periodDurationMillis + allowedLatenessMillis) {
+        emit(messageDistributor.flush());
+      }
 
-    // forward the measurements to each destination handler
+    } else {
+      emit(messageDistributor.flush());
+    }
+  }
+
+  /**
+   * Forwards the measurements to each destination handler.
+   * @param measurements The profile measurements.
+   */
+  private void emit(List<ProfileMeasurement> measurements) {
     for(ProfileMeasurement m : measurements ) {
       destinationHandlers.forEach(handler -> handler.emit(m, collector));
     }
   }
 
+  private boolean isEventTime() {
+    return eventTimeField != null && !eventTimeField.isEmpty();
+  }
+
   /**
    * Retrieves an expected field from a Tuple.  If the field is missing an exception is thrown to
    * indicate a fatal error.
@@ -228,6 +317,73 @@ public class ProfileBuilderBolt extends ConfiguredProfilerBolt {
     return withProfileTimeToLiveMillis(units.toMillis(duration));
   }
 
+  /**
+   * @param eventTimeField The name of the message field containing the event time in epoch
+   *                       milliseconds.  If empty, the wall clock is used.
+   */
+  public ProfileBuilderBolt withEventTimeField(String eventTimeField) {
+    this.eventTimeField = eventTimeField;
+    return this;
+  }
+
+  public ProfileBuilderBolt withAllowedLatenessMillis(long allowedLatenessMillis) {
+    this.allowedLatenessMillis = allowedLatenessMillis;
+    return this;
+  }
+
+  public ProfileBuilderBolt withAllowedLateness(int duration, TimeUnit units) {
+    return withAllowedLatenessMillis(units.toMillis(duration));
+  }
+
+  /**
+   * @param maxClockSkewMillis How far ahead of the wall clock an event time may be before its
+   *                           message is dropped, rather than advance the watermark.
+   */
+  public ProfileBuilderBolt withMaxClockSkewMillis(long maxClockSkewMillis) {
+    this.maxClockSkewMillis = maxClockSkewMillis;
+    return this;
+  }
+
+  public ProfileBuilderBolt withMaxClockSkew(int duration, TimeUnit units) {
+    return withMaxClockSkewMillis(units.toMillis(duration));
+  }
+
+  /**
+   * @param clock Tells the wall clock time; used to check event times and when messages stop.
+   */
+  public ProfileBuilderBolt withClock(Clock clock) {
+    this.clock = clock;
+    return this;
+  }
+
+  /**
+   * @param maxProfilesPerShard The maximum number of profile/entity pairs held by each shard
+   *                            of state, or 0 for no limit.
+   */
+  public ProfileBuilderBolt withMaxProfilesPerShard(long maxProfilesPerShard) {
+    this.maxProfilesPerShard = maxProfilesPerShard;
+    return this;
+  }
+
+  /**
+   * @param spillDirectory The local directory to which profile state is spilled when a shard
+   *                       is full.  If empty, the state is forgotten.
+   */
+  public ProfileBuilderBolt withSpillDirectory(String spillDirectory) {
+    this.spillDirectory = spillDirectory;
+    return this;
+  }
+
+  /**
+   * The result expressions of profiles flushed on different threads are evaluated concurrently,
+   * so more than one thread may only be used if they only call functions which are thread-safe.
+   * @param flushThreads The number of threads on which the profiles are flushed, or 0 for one per core; 1 by default.
+   */
+  public ProfileBuilderBolt withFlushThreads(int flushThreads) {
+    this.flushThreads = flushThreads;
+    return this;
+  }
+
   public ProfileBuilderBolt withDestinationHandler(DestinationHandler handler) {
     this.destinationHandlers.add(handler);
     return this;
@@ -22,6 +22,7 @@ package org.apache.metron.profiler.bolt;
 
 import org.apache.metron.common.bolt.ConfiguredProfilerBolt;
 import org.apache.metron.common.configuration.profiler.ProfilerConfig;
+import org.apache.metron.common.message.MessageFormats;
 import org.apache.metron.profiler.MessageRouter;
 import org.apache.metron.profiler.MessageRoute;
 import org.apache.metron.profiler.DefaultMessageRouter;
@@ -33,12 +34,9 @@ import org.apache.storm.tuple.Fields;
 import org.apache.storm.tuple.Tuple;
 import org.apache.storm.tuple.Values;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.UnsupportedEncodingException;
 import java.lang.invoke.MethodHandles;
 import java.util.List;
 import java.util.Map;
@@ -54,11 +52,6 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
 
   private OutputCollector collector;
 
-  /**
-   * JSON parser.
-   */
-  private transient JSONParser parser;
-
   /**
    * The router responsible for routing incoming messages.
    */
@@ -75,7 +68,6 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
   public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
     super.prepare(stormConf, context, collector);
     this.collector = collector;
-    this.parser = new JSONParser();
     this.router = new DefaultMessageRouter(getStellarContext());
   }
 
@@ -93,7 +85,7 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
     try {
       doExecute(input);
 
-    } catch (IllegalArgumentException | ParseException | UnsupportedEncodingException e) {
+    } catch (IllegalArgumentException | IllegalStateException e) {
       LOG.error("Unexpected failure: message='{}', tuple='{}'", e.getMessage(), input, e);
       collector.reportError(e);
 
@@ -102,10 +94,10 @@ public class ProfileSplitterBolt extends ConfiguredProfilerBolt {
     }
   }
 
-  private void doExecute(Tuple input) throws ParseException, UnsupportedEncodingException {
-    // retrieve the input message
+  private void doExecute(Tuple input) {
+    // retrieve the input message, in any of the message formats
     byte[] data = input.getBinary(0);
-    JSONObject message = (JSONObject) parser.parse(new String(data, "UTF8"));
+    JSONObject message = MessageFormats.decodeAny(data);
 
     // ensure there is a valid profiler configuration
     ProfilerConfig config = getProfilerConfig();
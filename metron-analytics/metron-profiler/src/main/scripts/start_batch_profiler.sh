@@ -0,0 +1,26 @@
+#!/bin/bash
+#
+# Licensed to the Apache Software Foundation (ASF) under one
+# or more contributor license agreements.  See the NOTICE file
+# distributed with this work for additional information
+# regarding copyright ownership.  The ASF licenses this file
+# to you under the Apache License, Version 2.0 (the
+# "License"); you may not use this file except in compliance
+# with the License.  You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+METRON_VERSION=${project.version}
+METRON_HOME=/usr/metron/$METRON_VERSION
+PROFILER_JAR=${project.artifactId}-$METRON_VERSION-uber.jar
+CLASSNAME=org.apache.metron.profiler.batch.BatchProfilerCLI
+HBASE_HOME=${HBASE_HOME:-/usr/hdp/current/hbase-client}
+HADOOP_CONF_DIR=${HADOOP_CONF_DIR:-/etc/hadoop/conf}
+CP=$METRON_HOME/lib/$PROFILER_JAR:$HADOOP_CONF_DIR:`${HBASE_HOME}/bin/hbase classpath`
+java $METRON_JVMFLAGS -cp $CP $CLASSNAME "$@"
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.profiler.batch;
+
+import org.adrianwalker.multilinestring.Multiline;
+import org.apache.metron.common.configuration.profiler.ProfilerConfig;
+import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.stellar.dsl.Context;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.metron.writer.hdfs.ParquetOutput;
+import org.json.simple.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.apache.metron.stellar.common.utils.ConversionUtils.convert;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the BatchProfiler.
+ */
+public class BatchProfilerTest {
+
+  /**
+   * {
+   *   "profiles": [
+   *     {
+   *       "profile": "count",
+   *       "foreach": "ip_src_addr",
+   *       "onlyif": "true",
+   *       "init":   { "x": "0" },
+   *       "update": { "x": "x + 1" },
+   *       "result": "x"
+   *     }
+   *   ]
+   * }
+   */
+  @Multiline
+  private String profilerConfig;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private long periodDurationMillis = TimeUnit.MINUTES.toMillis(15);
+  private long start = periodDurationMillis * 100;
+  private BatchProfiler profiler;
+  private List<ProfileMeasurement> measurements;
+
+  @Before
+  public void setup() throws Exception {
+    ProfilerConfig config = JSONUtils.INSTANCE.load(profilerConfig, ProfilerConfig.class);
+    profiler = new BatchProfiler(config, periodDurationMillis, Context.EMPTY_CONTEXT())
+            .withParallelism(3);
+    measurements = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static JSONObject message(String ip, long timestamp) {
+    JSONObject message = new JSONObject();
+    message.put("ip_src_addr", ip);
+    message.put("timestamp", timestamp);
+    return message;
+  }
+
+  private void writeJson(File file, JSONObject... messages) throws Exception {
+    try(PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+      for(JSONObject message : messages) {
+        writer.println(message.toJSONString());
+      }
+    }
+  }
+
+  /**
+   * @return The value of each measurement, by entity and period start.
+   */
+  private Map<String, Integer> values() {
+    Map<String, Integer> values = new HashMap<>();
+    for(ProfileMeasurement m : measurements) {
+      values.put(m.getEntity() + "@" + m.getPeriod().getStartTimeMillis(), convert(m.getProfileValue(), Integer.class));
+    }
+
+    return values;
+  }
+
+  /**
+   * The messages of the same entity and period are counted together, no matter which file,
+   * or in what order, they are read.
+   */
+  @Test
+  public void testProfileJsonFiles() throws Exception {
+    File dir = folder.newFolder("bro");
+    writeJson(new File(dir, "one.json"),
+            message("10.0.0.1", start + periodDurationMillis + 1),
+            message("10.0.0.1", start + 1),
+            message("10.0.0.2", start + 2));
+    writeJson(new File(dir, "two.json"),
+            message("10.0.0.1", start + 3),
+            message("10.0.0.2", start + periodDurationMillis + 2));
+    writeJson(new File(dir, ".hidden.json"), message("10.0.0.1", start + 4));
+
+    profiler.profile(Collections.singletonList(dir.getAbsolutePath()), measurements::add);
+
+    Map<String, Integer> values = values();
+    assertEquals(4, values.size());
+    assertEquals(2, (int) values.get("10.0.0.1@" + start));
+    assertEquals(1, (int) values.get("10.0.0.1@" + (start + periodDurationMillis)));
+    assertEquals(1, (int) values.get("10.0.0.2@" + start));
+    assertEquals(1, (int) values.get("10.0.0.2@" + (start + periodDurationMillis)));
+    assertEquals(5, profiler.getMessageCount());
+    assertEquals(4, profiler.getMeasurementCount());
+  }
+
+  /**
+   * Parquet files written by the HDFS writer can be profiled as well, along with invalid lines
+   * and messages without a timestamp, which are skipped.
+   */
+  @Test
+  public void testProfileParquetFiles() throws Exception {
+    File parquet = folder.newFile("one.parquet");
+    ParquetOutput output = new ParquetOutput(new ParquetOutput.Columns("bro", null), new Configuration(), "snappy", 1024 * 1024);
+    output.open(new FileOutputStream(parquet));
+    for(JSONObject message : new JSONObject[] { message("10.0.0.1", start + 1), message("10.0.0.1", start + 2) }) {
+      output.write(message);
+    }
+    output.close();
+
+    File json = folder.newFile("two.json");
+    JSONObject noTimestamp = message("10.0.0.1", start);
+    noTimestamp.remove("timestamp");
+    writeJson(json, message("10.0.0.1", start + 3), noTimestamp);
+    try(PrintWriter writer = new PrintWriter(new FileOutputStream(json, true))) {
+      writer.println("not json");
+    }
+
+    profiler.profile(Collections.singletonList(folder.getRoot().getAbsolutePath()), measurements::add);
+
+    Map<String, Integer> values = values();
+    assertEquals(1, values.size());
+    assertEquals(3, (int) values.get("10.0.0.1@" + start));
+    assertEquals(1, profiler.getInvalidCount());
+    assertEquals(1, profiler.getDroppedCount());
+  }
+
+  /**
+   * By default every period is held until all files are read.  With an allowed lateness, a period
+   * is flushed once the latest timestamp is past its end by the lateness, after which its messages
+   * are dropped.
+   */
+  @Test
+  public void testAllowedLateness() throws Exception {
+    long lateness = TimeUnit.HOURS.toMillis(1);
+    File json = folder.newFile("one.json");
+    writeJson(json,
+            message("10.0.0.1", start + 1),
+            message("10.0.0.1", start + periodDurationMillis + lateness),
+            message("10.0.0.1", start + 2));
+
+    profiler.profile(Collections.singletonList(json.getAbsolutePath()), measurements::add);
+    assertEquals(2, (int) values().get("10.0.0.1@" + start));
+    assertEquals(0, profiler.getDroppedCount());
+
+    measurements.clear();
+    ProfilerConfig config = JSONUtils.INSTANCE.load(profilerConfig, ProfilerConfig.class);
+    BatchProfiler bounded = new BatchProfiler(config, periodDurationMillis, Context.EMPTY_CONTEXT())
+            .withAllowedLatenessMillis(lateness);
+    bounded.profile(Collections.singletonList(json.getAbsolutePath()), measurements::add);
+    assertEquals(1, (int) values().get("10.0.0.1@" + start));
+    assertEquals(1, bounded.getDroppedCount());
+  }
+
+  /**
+   * The files are listed oldest first, by the time ending the names of the files of the HDFS
+   * writer, whatever the order of their tasks.
+   */
+  @Test
+  public void testListOldestFirst() throws Exception {
+    File directory = folder.newFolder("indexed");
+    File later = new File(directory, "enrichment-1-0-1525107000000.json");
+    File earlier = new File(directory, "enrichment-2-4-1525100000000.json");
+    writeJson(later, message("10.0.0.1", start + 1));
+    writeJson(earlier, message("10.0.0.1", start + 2));
+
+    List<Path> files = new TelemetryReader(new Configuration()).list(Collections.singletonList(directory.getAbsolutePath()));
+    assertEquals(Arrays.asList(earlier.getName(), later.getName()),
+            files.stream().map(Path::getName).collect(Collectors.toList()));
+  }
+}
@@ -27,6 +27,7 @@ import org.apache.metron.common.utils.JSONUtils;
 import org.apache.metron.profiler.MessageRoute;
 import org.apache.metron.profiler.ProfileBuilder;
 import org.apache.metron.profiler.ProfileMeasurement;
+import org.apache.metron.profiler.clock.FixedClock;
 import org.apache.metron.stellar.dsl.Context;
 import org.apache.metron.test.bolt.BaseBoltTest;
 import org.apache.storm.Constants;
@@ -47,6 +48,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
@@ -339,4 +341,89 @@ public class ProfileBuilderBoltTest extends BaseBoltTest {
     verify(outputCollector, times(1)).emit(eq("kafka"), arg.capture());
     assertTrue(arg.getValue().get(0) instanceof JSONObject);
   }
+
+  /**
+   * With an event time field, a measurement is emitted as soon as the timestamps of the
+   * messages pass the end of its period, without waiting for a tick.
+   */
+  @Test
+  public void testEventTimeEmitsWithoutTick() throws Exception {
+
+    // setup
+    ProfileBuilderBolt bolt = new ProfileBuilderBolt("zookeeperURL");
+    bolt.setCuratorFramework(client);
+    bolt.setZKCache(cache);
+    bolt.withPeriodDuration(10, TimeUnit.MINUTES);
+    bolt.withProfileTimeToLive(30, TimeUnit.MINUTES);
+    bolt.withEventTimeField("timestamp");
+    bolt.withAllowedLateness(1, TimeUnit.MINUTES);
+    bolt.withDestinationHandler(new HBaseDestinationHandler());
+    bolt.prepare(new HashMap<>(), topologyContext, outputCollector);
+
+    ProfileConfig definition = createDefinition(profileOne);
+    String entity = (String) messageOne.get("ip_src_addr");
+    long start = TimeUnit.MINUTES.toMillis(10) * 100;
+
+    // a message in the first period
+    JSONObject first = new JSONObject(messageOne);
+    first.put("timestamp", start);
+    bolt.execute(createTuple(entity, first, definition));
+    verify(outputCollector, times(0)).emit(eq("hbase"), any());
+
+    // a message past the end of the first period and the allowed lateness
+    JSONObject second = new JSONObject(messageOne);
+    second.put("timestamp", start + TimeUnit.MINUTES.toMillis(11));
+    bolt.execute(createTuple(entity, second, definition));
+
+    ArgumentCaptor<Values> arg = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(1)).emit(eq("hbase"), arg.capture());
+    ProfileMeasurement measurement = (ProfileMeasurement) arg.getValue().get(0);
+    assertEquals(start, measurement.getPeriod().getStartTimeMillis());
+    assertEquals(1, (int) convert(measurement.getProfileValue(), Integer.class));
+  }
+
+  /**
+   * With an event time field, a tick only flushes the remaining periods once no message has
+   * arrived, according to the bolt's clock, for a period plus the allowed lateness.
+   */
+  @Test
+  public void testEventTimeTickFlushesOnceMessagesStop() throws Exception {
+
+    // setup
+    long start = TimeUnit.MINUTES.toMillis(10) * 100;
+    FixedClock clock = new FixedClock();
+    clock.setTime(start);
+    ProfileBuilderBolt bolt = new ProfileBuilderBolt("zookeeperURL");
+    bolt.setCuratorFramework(client);
+    bolt.setZKCache(cache);
+    bolt.withPeriodDuration(10, TimeUnit.MINUTES);
+    bolt.withProfileTimeToLive(30, TimeUnit.MINUTES);
+    bolt.withEventTimeField("timestamp");
+    bolt.withAllowedLateness(1, TimeUnit.MINUTES);
+    bolt.withClock(clock);
+    bolt.withDestinationHandler(new HBaseDestinationHandler());
+    bolt.prepare(new HashMap<>(), topologyContext, outputCollector);
+
+    ProfileConfig definition = createDefinition(profileOne);
+    String entity = (String) messageOne.get("ip_src_addr");
+    JSONObject message = new JSONObject(messageOne);
+    message.put("timestamp", start);
+    bolt.execute(createTuple(entity, message, definition));
+
+    // messages may still arrive for the period
+    clock.setTime(start + TimeUnit.MINUTES.toMillis(10));
+    bolt.execute(mockTickTuple());
+    verify(outputCollector, times(0)).emit(eq("hbase"), any());
+
+    // no message for a period plus the allowed lateness
+    clock.setTime(start + TimeUnit.MINUTES.toMillis(11));
+    bolt.execute(mockTickTuple());
+    verify(outputCollector, times(1)).emit(eq("hbase"), any());
+
+    // a message for the flushed period does not replace its measurement with a partial one
+    bolt.execute(createTuple(entity, message, definition));
+    clock.setTime(start + TimeUnit.MINUTES.toMillis(22));
+    bolt.execute(mockTickTuple());
+    verify(outputCollector, times(1)).emit(eq("hbase"), any());
+  }
 }
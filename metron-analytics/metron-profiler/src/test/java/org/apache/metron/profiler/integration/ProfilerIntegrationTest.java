@@ -294,6 +294,14 @@ public class ProfilerIntegrationTest extends BaseIntegrationTest {
       setProperty("profiler.period.duration.units", "SECONDS");
       setProperty("profiler.ttl", "30");
       setProperty("profiler.ttl.units", "MINUTES");
+      setProperty("profiler.event.time.field", "");
+      setProperty("profiler.event.time.lateness", "1");
+      setProperty("profiler.event.time.lateness.units", "MINUTES");
+      setProperty("profiler.event.time.max.skew", "5");
+      setProperty("profiler.event.time.max.skew.units", "MINUTES");
+      setProperty("profiler.max.profiles.per.shard", "0");
+      setProperty("profiler.spill.dir", "");
+      setProperty("profiler.flush.threads", "1");
       setProperty("profiler.hbase.salt.divisor", "10");
       setProperty("profiler.hbase.table", tableName);
       setProperty("profiler.hbase.column.family", columnFamily);
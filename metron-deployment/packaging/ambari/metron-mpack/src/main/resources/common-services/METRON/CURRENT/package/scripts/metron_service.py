@@ -70,6 +70,16 @@ def build_global_config_patch(params, patch_file):
         "path": "/es.date.format",
         "value": "{{es_date_format}}"
     },
+    {
+        "op": "add",
+        "path": "/es.bulk.concurrentRequests",
+        "value": "{{es_bulk_concurrent_requests}}"
+    },
+    {
+        "op": "add",
+        "path": "/es.bulk.maxRetries",
+        "value": "{{es_bulk_max_retries}}"
+    },
     {
         "op": "add",
         "path": "/parser.error.topic",
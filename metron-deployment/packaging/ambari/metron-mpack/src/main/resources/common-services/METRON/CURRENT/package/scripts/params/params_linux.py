@@ -95,6 +95,8 @@ es_url = ",".join([host + ":" + es_binary_port for host in es_host_list])
 es_http_port = config['configurations']['metron-env']['es_http_port']
 es_http_url = es_host_list[0] + ":" + es_http_port
 es_date_format = config['configurations']['metron-env']['es_date_format']
+es_bulk_concurrent_requests = config['configurations']['metron-env']['es_bulk_concurrent_requests']
+es_bulk_max_retries = config['configurations']['metron-env']['es_bulk_max_retries']
 
 # hadoop params
 stack_root = Script.get_stack_root()
@@ -266,6 +268,8 @@ enrichment_topology_worker_childopts += config['configurations']['metron-enrichm
 enrichment_topology_max_spout_pending = config['configurations']['metron-enrichment-env']['enrichment_topology_max_spout_pending']
 enrichment_join_cache_size = config['configurations']['metron-enrichment-env']['enrichment_join_cache_size']
 threatintel_join_cache_size = config['configurations']['metron-enrichment-env']['threatintel_join_cache_size']
+unified_enrichment_threads = config['configurations']['metron-enrichment-env']['unified_enrichment_threads']
+unified_threat_intel_threads = config['configurations']['metron-enrichment-env']['unified_threat_intel_threads']
 enrichment_kafka_spout_parallelism = config['configurations']['metron-enrichment-env']['enrichment_kafka_spout_parallelism']
 enrichment_split_parallelism = config['configurations']['metron-enrichment-env']['enrichment_split_parallelism']
 enrichment_stellar_parallelism = config['configurations']['metron-enrichment-env']['enrichment_stellar_parallelism']
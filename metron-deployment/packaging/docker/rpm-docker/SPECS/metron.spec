@@ -258,6 +258,7 @@ This package installs the Metron Enrichment files
 %{metron_home}/config/zookeeper/enrichments/yaf.json
 %{metron_home}/config/zookeeper/enrichments/asa.json
 %{metron_home}/flux/enrichment/remote.yaml
+%{metron_home}/flux/enrichment/remote-unified.yaml
 %attr(0644,root,root) %{metron_home}/lib/metron-enrichment-%{full_version}-uber.jar
 
 # ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -354,6 +355,7 @@ This package installs the Metron Profiler %{metron_home}
 %dir %{metron_home}/lib
 %{metron_home}/config/profiler.properties
 %{metron_home}/bin/start_profiler_topology.sh
+%{metron_home}/bin/start_batch_profiler.sh
 %{metron_home}/flux/profiler/remote.yaml
 %attr(0644,root,root) %{metron_home}/lib/metron-profiler-%{full_version}-uber.jar
 
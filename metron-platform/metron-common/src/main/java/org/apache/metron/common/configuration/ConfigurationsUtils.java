@@ -46,6 +46,7 @@ import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.metron.common.Constants;
 import org.apache.metron.common.configuration.enrichment.SensorEnrichmentConfig;
 import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.stellar.common.utils.ConversionUtils;
 import org.apache.metron.stellar.dsl.Context;
 import org.apache.metron.stellar.dsl.StellarFunctions;
 import org.apache.zookeeper.KeeperException;
@@ -55,6 +56,22 @@ import org.slf4j.LoggerFactory;
 public class ConfigurationsUtils {
   protected static final Logger LOG =  LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  /**
+   * Reads a setting of a writer, which may be given to the writer itself or in the global config.
+   * @param value The value given to the writer, which takes precedence; null if not given.
+   * @param globalConfig The global config.
+   * @param key The key of the setting in the global config.
+   * @param clazz The type of the setting, to which the global config value is converted.
+   * @param defaultValue The value when the setting is given neither to the writer nor in the global config.
+   */
+  public static <T> T getSetting(T value, Map<String, Object> globalConfig, String key, Class<T> clazz, T defaultValue) {
+    if(value != null) {
+      return value;
+    }
+    T configured = ConversionUtils.convert(globalConfig.get(key), clazz);
+    return configured == null ? defaultValue : configured;
+  }
+
   public static CuratorFramework getClient(String zookeeperUrl) {
     RetryPolicy retryPolicy = new ExponentialBackoffRetry(1000, 3);
     return CuratorFrameworkFactory.newClient(zookeeperUrl, retryPolicy);
@@ -43,6 +43,8 @@ public class SensorParserConfig implements Serializable {
   private Integer spoutNumTasks = 1;
   private Integer parserParallelism = 1;
   private Integer parserNumTasks = 1;
+  private Integer parserBatchSize = 1;
+  private Integer parserBatchTimeout = 0;
   private Integer errorWriterParallelism = 1;
   private Integer errorWriterNumTasks = 1;
   private Map<String, Object> spoutConfig = new HashMap<>();
@@ -121,6 +123,32 @@ public class SensorParserConfig implements Serializable {
     this.parserNumTasks = parserNumTasks;
   }
 
+  /**
+   * Return the number of tuples the parser bolt drains before parsing them as a group.  A value of 1 or less
+   * means that each tuple is parsed as it arrives.
+   * @return
+   */
+  public Integer getParserBatchSize() {
+    return parserBatchSize;
+  }
+
+  public void setParserBatchSize(Integer parserBatchSize) {
+    this.parserBatchSize = parserBatchSize;
+  }
+
+  /**
+   * Return the maximum time, in milliseconds, that the parser bolt will hold a partial batch of tuples before
+   * parsing them.  A value of 0 or less means that partial batches are only parsed on the tick tuple.
+   * @return
+   */
+  public Integer getParserBatchTimeout() {
+    return parserBatchTimeout;
+  }
+
+  public void setParserBatchTimeout(Integer parserBatchTimeout) {
+    this.parserBatchTimeout = parserBatchTimeout;
+  }
+
   /**
    * Return the error writer bolt parallelism.  This property will be used for the parser unless overridden on the CLI.
    * @return
@@ -305,6 +333,8 @@ public class SensorParserConfig implements Serializable {
             ", spoutNumTasks=" + spoutNumTasks +
             ", parserParallelism=" + parserParallelism +
             ", parserNumTasks=" + parserNumTasks +
+            ", parserBatchSize=" + parserBatchSize +
+            ", parserBatchTimeout=" + parserBatchTimeout +
             ", errorWriterParallelism=" + errorWriterParallelism +
             ", errorWriterNumTasks=" + errorWriterNumTasks +
             ", spoutConfig=" + spoutConfig +
@@ -350,6 +380,10 @@ public class SensorParserConfig implements Serializable {
       return false;
     if (getParserNumTasks() != null ? !getParserNumTasks().equals(that.getParserNumTasks()) : that.getParserNumTasks() != null)
       return false;
+    if (getParserBatchSize() != null ? !getParserBatchSize().equals(that.getParserBatchSize()) : that.getParserBatchSize() != null)
+      return false;
+    if (getParserBatchTimeout() != null ? !getParserBatchTimeout().equals(that.getParserBatchTimeout()) : that.getParserBatchTimeout() != null)
+      return false;
     if (getErrorWriterParallelism() != null ? !getErrorWriterParallelism().equals(that.getErrorWriterParallelism()) : that.getErrorWriterParallelism() != null)
       return false;
     if (getErrorWriterNumTasks() != null ? !getErrorWriterNumTasks().equals(that.getErrorWriterNumTasks()) : that.getErrorWriterNumTasks() != null)
@@ -382,6 +416,8 @@ public class SensorParserConfig implements Serializable {
     result = 31 * result + (getSpoutNumTasks() != null ? getSpoutNumTasks().hashCode() : 0);
     result = 31 * result + (getParserParallelism() != null ? getParserParallelism().hashCode() : 0);
     result = 31 * result + (getParserNumTasks() != null ? getParserNumTasks().hashCode() : 0);
+    result = 31 * result + (getParserBatchSize() != null ? getParserBatchSize().hashCode() : 0);
+    result = 31 * result + (getParserBatchTimeout() != null ? getParserBatchTimeout().hashCode() : 0);
     result = 31 * result + (getErrorWriterParallelism() != null ? getErrorWriterParallelism().hashCode() : 0);
     result = 31 * result + (getErrorWriterNumTasks() != null ? getErrorWriterNumTasks().hashCode() : 0);
     result = 31 * result + (getSpoutConfig() != null ? getSpoutConfig().hashCode() : 0);
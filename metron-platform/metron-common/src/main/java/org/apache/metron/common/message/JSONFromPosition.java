@@ -17,22 +17,16 @@
  */
 package org.apache.metron.common.message;
 
-import org.apache.commons.io.Charsets;
 import org.apache.storm.tuple.Tuple;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 
+/**
+ * Decodes the message at a position of the tuple, in any of the {@link MessageFormats}.
+ */
 public class JSONFromPosition implements MessageGetStrategy {
 
   private int position = 0;
 
-  private ThreadLocal<JSONParser> parser = new ThreadLocal<JSONParser>() {
-    @Override
-    protected JSONParser initialValue() {
-      return new JSONParser();
-    }
-  };
-
   public JSONFromPosition() {};
 
   public JSONFromPosition(int position) {
@@ -41,12 +35,6 @@ public class JSONFromPosition implements MessageGetStrategy {
 
   @Override
   public JSONObject get(Tuple tuple) {
-    String s = null;
-    try {
-      s =  new String(tuple.getBinary(position), Charsets.UTF_8);
-      return (JSONObject) parser.get().parse(s);
-    } catch (Exception e) {
-      throw new IllegalStateException("Unable to parse " + s + " due to " + e.getMessage(), e);
-    }
+    return MessageFormats.decodeAny(tuple.getBinary(position));
   }
 }
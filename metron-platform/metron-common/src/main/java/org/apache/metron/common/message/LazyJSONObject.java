@@ -0,0 +1,676 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * A message backed by its JSON text.  Rather than parsing the whole message up front, the top level
+ * fields are indexed by their offsets in the UTF-8 bytes and each value is decoded the first time it
+ * is read.  Values decode exactly as they would with the JSON parser.  The whole message, including
+ * nested values, is checked to be well formed as it is indexed, so a malformed message is rejected
+ * when it is created rather than when one of its fields is first read.
+ * <p>
+ * Until the message is changed it can be written out as the original bytes, without encoding it
+ * again.  Fields added to the message are appended to the original bytes.  Once a field of the
+ * original message is replaced or removed, or a nested object, array or view of the message is handed
+ * out that could be changed without the message knowing, the message is encoded from scratch.
+ * <p>
+ * As with any {@link JSONObject}, instances are not thread-safe.  Note that here even reads change the
+ * state of the message.
+ */
+public class LazyJSONObject extends JSONObject {
+  private static final long serialVersionUID = 1L;
+  private static final ThreadLocal<JSONParser> PARSER = ThreadLocal.withInitial(JSONParser::new);
+
+  private final byte[] raw;
+  private final Map<String, int[]> offsets;
+  // the offset of the closing brace of the original message
+  private int end;
+  // whether the original message is free of line breaks, so can be written out as is
+  private boolean compact = true;
+  private Set<String> removed = new HashSet<>();
+  // whether every remaining field of the original message has been decoded
+  private boolean materialized;
+  // whether the original fields may have changed, so the original bytes can no longer be used
+  private boolean rewritten;
+
+  /**
+   * An empty message.
+   */
+  public LazyJSONObject() {
+    this.raw = null;
+    this.offsets = new HashMap<>();
+    this.materialized = true;
+    this.rewritten = true;
+  }
+
+  /**
+   * @param raw A JSON object encoded as UTF-8.
+   * @throws IllegalStateException If the message is not a JSON object.
+   */
+  public LazyJSONObject(byte[] raw) {
+    this.raw = raw;
+    this.offsets = new HashMap<>();
+    index();
+  }
+
+  /**
+   * @return The message encoded as UTF-8 JSON, which is the original bytes if the message is unchanged.
+   */
+  public byte[] toBytes() {
+    if (rewritten || !compact) {
+      return super.toJSONString().getBytes(StandardCharsets.UTF_8);
+    }
+    StringBuilder appended = new StringBuilder();
+    for (Map.Entry<?, ?> entry : entries()) {
+      String key = String.valueOf(entry.getKey());
+      if (!offsets.containsKey(key)) {
+        appended.append(offsets.isEmpty() && appended.length() == 0 ? "" : ",")
+                .append('"').append(JSONValue.escape(key)).append("\":")
+                .append(JSONValue.toJSONString(entry.getValue()));
+      }
+    }
+    if (appended.length() == 0) {
+      return raw;
+    }
+    byte[] suffix = appended.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(end + suffix.length);
+    out.write(raw, 0, end);
+    out.write(suffix, 0, suffix.length);
+    return out.toByteArray();
+  }
+
+  @Override
+  public String toJSONString() {
+    return new String(toBytes(), StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void writeJSONString(Writer out) throws IOException {
+    out.write(toJSONString());
+  }
+
+  @Override
+  public String toString() {
+    return toJSONString();
+  }
+
+  @Override
+  public int size() {
+    if (materialized) {
+      return super.size();
+    }
+    int size = offsets.size() - removed.size();
+    for (Object key : super.keySet()) {
+      if (!offsets.containsKey(key)) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return super.containsKey(key) || (!materialized && offsets.containsKey(key) && !removed.contains(key));
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (materialized || super.containsKey(key)) {
+      return super.get(key);
+    }
+    return decode(key);
+  }
+
+  @Override
+  public Object getOrDefault(Object key, Object defaultValue) {
+    return containsKey(key) ? get(key) : defaultValue;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object put(Object key, Object value) {
+    Object previous = get(key);
+    if (offsets.containsKey(key)) {
+      rewritten = true;
+      removed.remove(key);
+    }
+    super.put(key, value);
+    return previous;
+  }
+
+  @Override
+  public void putAll(Map m) {
+    for (Object entry : m.entrySet()) {
+      put(((Map.Entry) entry).getKey(), ((Map.Entry) entry).getValue());
+    }
+  }
+
+  @Override
+  public Object remove(Object key) {
+    Object previous = get(key);
+    super.remove(key);
+    if (offsets.containsKey(key)) {
+      rewritten = true;
+      removed.add((String) key);
+    }
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    materialized = true;
+    rewritten = true;
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    materialize();
+    return super.containsValue(value);
+  }
+
+  /**
+   * @return The names of the fields, without decoding them or giving up on the original bytes.
+   */
+  public Set<String> fieldNames() {
+    Set<String> names = new LinkedHashSet<>();
+    if (!materialized) {
+      for (String key : offsets.keySet()) {
+        if (!removed.contains(key)) {
+          names.add(key);
+        }
+      }
+    }
+    for (Map.Entry<?, ?> entry : entries()) {
+      names.add(String.valueOf(entry.getKey()));
+    }
+    return Collections.unmodifiableSet(names);
+  }
+
+  @Override
+  public Set keySet() {
+    expose();
+    return super.keySet();
+  }
+
+  @Override
+  public Collection values() {
+    expose();
+    return super.values();
+  }
+
+  @Override
+  public Set entrySet() {
+    expose();
+    return super.entrySet();
+  }
+
+  @Override
+  public void forEach(BiConsumer action) {
+    expose();
+    super.forEach(action);
+  }
+
+  @Override
+  public void replaceAll(BiFunction function) {
+    expose();
+    super.replaceAll(function);
+  }
+
+  @Override
+  public Object putIfAbsent(Object key, Object value) {
+    expose();
+    return super.putIfAbsent(key, value);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    expose();
+    return super.remove(key, value);
+  }
+
+  @Override
+  public boolean replace(Object key, Object oldValue, Object newValue) {
+    expose();
+    return super.replace(key, oldValue, newValue);
+  }
+
+  @Override
+  public Object replace(Object key, Object value) {
+    expose();
+    return super.replace(key, value);
+  }
+
+  @Override
+  public Object computeIfAbsent(Object key, Function mappingFunction) {
+    expose();
+    return super.computeIfAbsent(key, mappingFunction);
+  }
+
+  @Override
+  public Object computeIfPresent(Object key, BiFunction remappingFunction) {
+    expose();
+    return super.computeIfPresent(key, remappingFunction);
+  }
+
+  @Override
+  public Object compute(Object key, BiFunction remappingFunction) {
+    expose();
+    return super.compute(key, remappingFunction);
+  }
+
+  @Override
+  public Object merge(Object key, Object value, BiFunction remappingFunction) {
+    expose();
+    return super.merge(key, value, remappingFunction);
+  }
+
+  @Override
+  public Object clone() {
+    // cloning reads every entry, after which the clones share any nested values
+    expose();
+    LazyJSONObject clone = (LazyJSONObject) super.clone();
+    clone.removed = new HashSet<>(removed);
+    return clone;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof Map)) {
+      return false;
+    }
+    materialize();
+    Map<?, ?> other = (Map<?, ?>) o;
+    if (other.size() != super.size()) {
+      return false;
+    }
+    for (Map.Entry<?, ?> entry : entries()) {
+      Object value = entry.getValue();
+      if (value == null ? other.get(entry.getKey()) != null || !other.containsKey(entry.getKey())
+                        : !value.equals(other.get(entry.getKey()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    materialize();
+    int hash = 0;
+    for (Map.Entry<?, ?> entry : entries()) {
+      hash += entry.hashCode();
+    }
+    return hash;
+  }
+
+  /**
+   * Java serialization only knows about the decoded fields, so serialize a copy instead.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    materialize();
+    JSONObject copy = new JSONObject();
+    for (Map.Entry<?, ?> entry : entries()) {
+      copy.put(entry.getKey(), entry.getValue());
+    }
+    return copy;
+  }
+
+  /**
+   * @return The decoded entries, without giving up on the original bytes.
+   */
+  @SuppressWarnings("unchecked")
+  private Set<Map.Entry<?, ?>> entries() {
+    return super.entrySet();
+  }
+
+  /**
+   * Decodes every remaining field of the original message.
+   */
+  private void materialize() {
+    if (materialized) {
+      return;
+    }
+    for (String key : offsets.keySet()) {
+      if (!super.containsKey(key) && !removed.contains(key)) {
+        decode(key);
+      }
+    }
+    materialized = true;
+  }
+
+  /**
+   * Decodes every field and gives up on the original bytes, as the caller may change the message.
+   */
+  private void expose() {
+    materialize();
+    rewritten = true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object decode(Object key) {
+    int[] range = removed.contains(key) ? null : offsets.get(key);
+    if (range == null) {
+      return null;
+    }
+    Object value = decodeValue(range[0], range[1]);
+    if (value instanceof Map || value instanceof List) {
+      // the caller could change a nested value without us knowing
+      rewritten = true;
+    }
+    super.put(key, value);
+    return value;
+  }
+
+  private Object decodeValue(int start, int stop) {
+    byte first = raw[start];
+    int length = stop - start;
+    if (first == '"' && !contains(start, stop, (byte) '\\')) {
+      return new String(raw, start + 1, length - 2, StandardCharsets.UTF_8);
+    }
+    if (first == '"' || first == '{' || first == '[') {
+      String json = new String(raw, start, length, StandardCharsets.UTF_8);
+      try {
+        return PARSER.get().parse(json);
+      } catch (ParseException e) {
+        throw new IllegalStateException("Unable to parse " + json + " due to " + e.getMessage(), e);
+      }
+    }
+    String literal = new String(raw, start, length, StandardCharsets.US_ASCII);
+    switch (literal) {
+      case "true":
+        return true;
+      case "false":
+        return false;
+      case "null":
+        return null;
+      default:
+        try {
+          if (first != '-' && (first < '0' || first > '9')) {
+            throw new NumberFormatException(literal);
+          }
+          if (contains(start, stop, (byte) '.') || contains(start, stop, (byte) 'e') || contains(start, stop, (byte) 'E')) {
+            return Double.valueOf(literal);
+          }
+          return Long.valueOf(literal);
+        } catch (NumberFormatException e) {
+          throw new IllegalStateException("Unable to parse " + literal + " due to " + e.getMessage(), e);
+        }
+    }
+  }
+
+  private boolean contains(int start, int stop, byte b) {
+    for (int i = start; i < stop; i++) {
+      if (raw[i] == b) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Records the offsets of the values of the top level fields, checking but skipping over nested values.
+   */
+  private void index() {
+    int i = skipWhitespace(0);
+    expect(i, '{');
+    i = skipWhitespace(i + 1);
+    boolean closed = i < raw.length && raw[i] == '}';
+    end = i;
+    while (!closed) {
+      expect(i, '"');
+      int keyEnd = skipString(i);
+      String key = contains(i, keyEnd, (byte) '\\') ? (String) decodeValue(i, keyEnd)
+                                                    : new String(raw, i + 1, keyEnd - i - 2, StandardCharsets.UTF_8);
+      i = skipWhitespace(keyEnd);
+      expect(i, ':');
+      int valueStart = skipWhitespace(i + 1);
+      i = skipValue(valueStart);
+      offsets.put(key, new int[] { valueStart, i });
+      i = skipWhitespace(i);
+      if (i < raw.length && raw[i] == ',') {
+        i = skipWhitespace(i + 1);
+      } else {
+        expect(i, '}');
+        end = i;
+        closed = true;
+      }
+    }
+    if (skipWhitespace(end + 1) != raw.length) {
+      throw malformed(end + 1);
+    }
+  }
+
+  private int skipWhitespace(int i) {
+    while (i < raw.length && (raw[i] == ' ' || raw[i] == '\t' || raw[i] == '\n' || raw[i] == '\r')) {
+      if (raw[i] == '\n' || raw[i] == '\r') {
+        compact = false;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  /**
+   * Skips over a string, checking its escapes.
+   */
+  private int skipString(int i) {
+    for (int j = i + 1; j < raw.length; j++) {
+      if (raw[j] == '\\') {
+        j++;
+        if (j >= raw.length) {
+          break;
+        }
+        switch (raw[j]) {
+          case '"': case '\\': case '/': case 'b': case 'f': case 'n': case 'r': case 't':
+            break;
+          case 'u':
+            for (int k = j + 1; k <= j + 4; k++) {
+              if (k >= raw.length || Character.digit(raw[k], 16) < 0) {
+                throw malformed(k);
+              }
+            }
+            j += 4;
+            break;
+          default:
+            throw malformed(j);
+        }
+      } else if (raw[j] == '"') {
+        return j + 1;
+      }
+    }
+    throw malformed(i);
+  }
+
+  /**
+   * Skips over a value, checking that it is well formed so that decoding it later cannot fail.
+   */
+  private int skipValue(int i) {
+    if (i >= raw.length) {
+      throw malformed(i);
+    }
+    switch (raw[i]) {
+      case '"':
+        return skipString(i);
+      case '{':
+        return skipObject(i);
+      case '[':
+        return skipArray(i);
+      default:
+        return skipLiteral(i);
+    }
+  }
+
+  private int skipObject(int i) {
+    int j = skipWhitespace(i + 1);
+    if (j < raw.length && raw[j] == '}') {
+      return j + 1;
+    }
+    while (true) {
+      expect(j, '"');
+      j = skipWhitespace(skipString(j));
+      expect(j, ':');
+      j = skipWhitespace(skipValue(skipWhitespace(j + 1)));
+      if (j < raw.length && raw[j] == ',') {
+        j = skipWhitespace(j + 1);
+      } else {
+        expect(j, '}');
+        return j + 1;
+      }
+    }
+  }
+
+  private int skipArray(int i) {
+    int j = skipWhitespace(i + 1);
+    if (j < raw.length && raw[j] == ']') {
+      return j + 1;
+    }
+    while (true) {
+      j = skipWhitespace(skipValue(j));
+      if (j < raw.length && raw[j] == ',') {
+        j = skipWhitespace(j + 1);
+      } else {
+        expect(j, ']');
+        return j + 1;
+      }
+    }
+  }
+
+  /**
+   * Skips over {@code true}, {@code false}, {@code null} or a number which decodes to a long or double.
+   */
+  private int skipLiteral(int i) {
+    int j = i;
+    while (j < raw.length && raw[j] != ',' && raw[j] != '}' && raw[j] != ']'
+            && raw[j] != ' ' && raw[j] != '\t' && raw[j] != '\n' && raw[j] != '\r') {
+      j++;
+    }
+    if (!isKeyword(i, j, "true") && !isKeyword(i, j, "false") && !isKeyword(i, j, "null") && !isNumber(i, j)) {
+      throw malformed(i);
+    }
+    return j;
+  }
+
+  private boolean isKeyword(int start, int stop, String keyword) {
+    if (stop - start != keyword.length()) {
+      return false;
+    }
+    for (int i = 0; i < keyword.length(); i++) {
+      if (raw[start + i] != keyword.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return Whether the bytes are a number as the JSON parser reads them, which is a long unless it
+   * has a fraction or exponent.
+   */
+  private boolean isNumber(int start, int stop) {
+    int j = start;
+    if (j < stop && raw[j] == '-') {
+      j++;
+    }
+    int digits = skipDigits(j, stop);
+    if (digits == j) {
+      return false;
+    }
+    j = digits;
+    boolean integral = true;
+    if (j < stop && raw[j] == '.') {
+      digits = skipDigits(j + 1, stop);
+      if (digits == j + 1) {
+        return false;
+      }
+      j = digits;
+      integral = false;
+    }
+    if (j < stop && (raw[j] == 'e' || raw[j] == 'E')) {
+      j++;
+      if (j < stop && (raw[j] == '+' || raw[j] == '-')) {
+        j++;
+      }
+      digits = skipDigits(j, stop);
+      if (digits == j) {
+        return false;
+      }
+      j = digits;
+      integral = false;
+    }
+    if (j != stop) {
+      return false;
+    }
+    if (integral && stop - start > 18) {
+      // long enough that it may not fit in a long
+      try {
+        Long.parseLong(new String(raw, start, stop - start, StandardCharsets.US_ASCII));
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int skipDigits(int i, int stop) {
+    while (i < stop && raw[i] >= '0' && raw[i] <= '9') {
+      i++;
+    }
+    return i;
+  }
+
+  private void expect(int i, char c) {
+    if (i >= raw.length || raw[i] != c) {
+      throw malformed(i);
+    }
+  }
+
+  private IllegalStateException malformed(int i) {
+    return new IllegalStateException("Unable to parse " + new String(raw, StandardCharsets.UTF_8)
+            + " due to unexpected content at position " + i);
+  }
+}
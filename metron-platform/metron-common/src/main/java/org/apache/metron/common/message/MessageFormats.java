@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * MessageFormats are the encodings of the messages passed between the parser, enrichment and indexing
+ * topologies.  The formats include:
+ * <ul>
+ *   <li>JSON - JSON text encoded as UTF-8, the default</li>
+ *   <li>SMILE - the binary Smile encoding of JSON, which is smaller and cheaper to encode and decode</li>
+ * </ul>
+ * Every format decodes to the same message; integers decode as longs and floating point numbers as
+ * doubles, just as with the JSON parser.  JSON messages decode lazily as a {@link LazyJSONObject}, which
+ * encodes back to its original bytes when it is forwarded unchanged.  Encoded Smile messages start with a
+ * header that cannot start a JSON message, so readers can detect the format of each message with
+ * {@link #decodeAny(byte[])}.
+ */
+public enum MessageFormats {
+
+  JSON {
+    @Override
+    public byte[] encode(JSONObject message) {
+      if (message instanceof LazyJSONObject) {
+        return ((LazyJSONObject) message).toBytes();
+      }
+      return message.toJSONString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public JSONObject decode(byte[] message) {
+      return new LazyJSONObject(message);
+    }
+  },
+
+  SMILE {
+    @Override
+    public byte[] encode(JSONObject message) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+      try (JsonGenerator generator = SMILE_FACTORY.createGenerator(out)) {
+        write(generator, message);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to encode message due to " + e.getMessage(), e);
+      }
+      return out.toByteArray();
+    }
+
+    @Override
+    public JSONObject decode(byte[] message) {
+      try (JsonParser parser = SMILE_FACTORY.createParser(message)) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new IllegalStateException("Expected a message but found " + parser.getCurrentToken());
+        }
+        return readObject(parser);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to decode message due to " + e.getMessage(), e);
+      }
+    }
+  };
+
+  private static final SmileFactory SMILE_FACTORY = new SmileFactory();
+  private static final byte[] SMILE_HEADER = { ':', ')', '\n' };
+
+  /**
+   * @param message The message to encode.
+   * @return The encoded message.
+   */
+  public abstract byte[] encode(JSONObject message);
+
+  /**
+   * @param message A message in this format.
+   * @return The decoded message.
+   * @throws IllegalStateException If the message could not be decoded.
+   */
+  public abstract JSONObject decode(byte[] message);
+
+  /**
+   * @param message An encoded message.
+   * @return The format of the message.
+   */
+  public static MessageFormats detect(byte[] message) {
+    if (message.length >= SMILE_HEADER.length
+            && message[0] == SMILE_HEADER[0] && message[1] == SMILE_HEADER[1] && message[2] == SMILE_HEADER[2]) {
+      return SMILE;
+    }
+    return JSON;
+  }
+
+  /**
+   * Decodes a message in any of the formats.
+   * @param message An encoded message.
+   * @return The decoded message.
+   * @throws IllegalStateException If the message could not be decoded.
+   */
+  public static JSONObject decodeAny(byte[] message) {
+    return detect(message).decode(message);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void write(JsonGenerator generator, Object value) throws IOException {
+    if (value == null) {
+      generator.writeNull();
+    } else if (value instanceof String) {
+      generator.writeString((String) value);
+    } else if (value instanceof Map) {
+      generator.writeStartObject();
+      for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+        generator.writeFieldName(String.valueOf(entry.getKey()));
+        write(generator, entry.getValue());
+      }
+      generator.writeEndObject();
+    } else if (value instanceof List) {
+      generator.writeStartArray();
+      for (Object element : (List<Object>) value) {
+        write(generator, element);
+      }
+      generator.writeEndArray();
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      generator.writeNumber(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      generator.writeNumber((Long) value);
+    } else if (value instanceof Double || value instanceof Float) {
+      generator.writeNumber(((Number) value).doubleValue());
+    } else if (value instanceof BigInteger) {
+      generator.writeNumber((BigInteger) value);
+    } else if (value instanceof BigDecimal) {
+      generator.writeNumber((BigDecimal) value);
+    } else if (value instanceof Boolean) {
+      generator.writeBoolean((Boolean) value);
+    } else {
+      // as the JSON encoding does, fall back to the string form of anything else
+      generator.writeString(value.toString());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static JSONObject readObject(JsonParser parser) throws IOException {
+    JSONObject object = new JSONObject();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      object.put(field, readValue(parser, parser.nextToken()));
+    }
+    return object;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+    switch (token) {
+      case START_OBJECT:
+        return readObject(parser);
+      case START_ARRAY:
+        JSONArray array = new JSONArray();
+        for (JsonToken element = parser.nextToken(); element != JsonToken.END_ARRAY; element = parser.nextToken()) {
+          array.add(readValue(parser, element));
+        }
+        return array;
+      case VALUE_STRING:
+        return parser.getText();
+      case VALUE_NUMBER_INT:
+        return parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER ? parser.getBigIntegerValue() : parser.getLongValue();
+      case VALUE_NUMBER_FLOAT:
+        return parser.getNumberType() == JsonParser.NumberType.BIG_DECIMAL ? parser.getDecimalValue() : parser.getDoubleValue();
+      case VALUE_TRUE:
+        return true;
+      case VALUE_FALSE:
+        return false;
+      case VALUE_NULL:
+        return null;
+      default:
+        throw new IllegalStateException("Unexpected " + token);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.writer;
+
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
+
+import java.util.List;
+
+/**
+ * A {@link BatchMessageWriter} which can report the outcome of each message once the output has
+ * acknowledged it, rather than waiting for the whole batch on the calling thread.
+ */
+public interface AsyncBatchMessageWriter<MESSAGE_T> extends BatchMessageWriter<MESSAGE_T> {
+
+  /**
+   * Writes the messages to a particular output without waiting for them to be acknowledged.  The callback
+   * is told of each id exactly once, possibly on another thread and after this method returns.  The
+   * messages are no longer used once this method returns.
+   * @param sensorType The type of sensor being generating the messages
+   * @param configurations Configurations that should be passed to the writer
+   * @param ids The ids of the messages, in the same order
+   * @param messages The messages to be written
+   * @param callback Told of the success or failure of each id
+   * @throws Exception If the batch cannot be written at all, in which case the callback has not been told
+   * of any id.
+   */
+  <ID_T> void writeAsync(String sensorType
+                        , WriterConfiguration configurations
+                        , List<ID_T> ids
+                        , List<MESSAGE_T> messages
+                        , WriteCallback<ID_T> callback
+                        ) throws Exception;
+}
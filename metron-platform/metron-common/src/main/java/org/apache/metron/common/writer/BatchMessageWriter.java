@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.writer;
+
+import com.google.common.collect.Lists;
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.storm.tuple.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A writer of batches of messages identified by opaque ids rather than by the Storm tuples which
+ * produced them, so that it can be driven from outside of a topology.  The topology context passed to
+ * {@link #init} is then null.
+ *
+ * <p>Writing the tuples of a batch is the same as writing the messages identified by those tuples,
+ * so the writer still fits a {@link BulkMessageWriter} bolt.  Unlike other bulk writers, the lists
+ * handed to the writer are only valid for the duration of the call, so must not be kept.
+ */
+public interface BatchMessageWriter<MESSAGE_T> extends BulkMessageWriter<MESSAGE_T> {
+
+  /**
+   * Writes the messages to a particular output (e.g. Elasticsearch), completing each id through the callback
+   * on the calling thread before returning.
+   * @param sensorType The type of sensor being generating the messages
+   * @param configurations Configurations that should be passed to the writer
+   * @param ids The ids of the messages, in the same order
+   * @param messages The messages to be written
+   * @param callback Told of the success or failure of each id
+   * @throws Exception If an unrecoverable error is made, an Exception is thrown which should be treated as a full-batch
+   * failure (e.g. target system is down); the callback has then not been told of every id.
+   */
+  <ID_T> void write(String sensorType
+                   , WriterConfiguration configurations
+                   , List<ID_T> ids
+                   , List<MESSAGE_T> messages
+                   , WriteCallback<ID_T> callback
+                   ) throws Exception;
+
+  @Override
+  default BulkWriterResponse write(String sensorType
+                                  , WriterConfiguration configurations
+                                  , Iterable<Tuple> tuples
+                                  , List<MESSAGE_T> messages
+                                  ) throws Exception {
+    BulkWriterResponse response = new BulkWriterResponse();
+    List<Tuple> tupleList = tuples == null ? Collections.emptyList() : Lists.newArrayList(tuples);
+    if(tupleList.size() == messages.size()) {
+      write(sensorType, configurations, tupleList, messages, response);
+      return response;
+    }
+
+    // the tuples do not line up with the messages, so the first failure fails every tuple
+    List<Integer> positions = new ArrayList<>(messages.size());
+    for(int i = 0; i < messages.size(); i++) {
+      positions.add(i);
+    }
+    Throwable[] batchError = new Throwable[1];
+    write(sensorType, configurations, positions, messages, new WriteCallback<Integer>() {
+      @Override
+      public void onSuccess(Integer id) {
+      }
+
+      @Override
+      public void onError(Integer id, Throwable error) {
+        if(batchError[0] == null) {
+          batchError[0] = error;
+        }
+      }
+    });
+    if(batchError[0] == null) {
+      response.addAllSuccesses(tupleList);
+    }
+    else {
+      response.addAllErrors(batchError[0], tupleList);
+    }
+    return response;
+  }
+}
@@ -28,7 +28,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
-public class BulkWriterResponse {
+public class BulkWriterResponse implements WriteCallback<Tuple> {
     private Multimap<Throwable, Tuple> errors = ArrayListMultimap.create();
     private List<Tuple> successes = new ArrayList<>();
 
@@ -42,6 +42,16 @@ public class BulkWriterResponse {
         }
     }
 
+    @Override
+    public void onSuccess(Tuple tuple) {
+        addSuccess(tuple);
+    }
+
+    @Override
+    public void onError(Tuple tuple, Throwable error) {
+        addError(error, tuple);
+    }
+
     public boolean hasErrors() {
         return !errors.isEmpty();
     }
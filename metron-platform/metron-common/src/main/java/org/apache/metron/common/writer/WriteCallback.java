@@ -0,0 +1,36 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.writer;
+
+/**
+ * Receives the outcome of each message written by a {@link BatchMessageWriter}.
+ * @param <ID_T> The type of the ids identifying the messages.
+ */
+public interface WriteCallback<ID_T> {
+
+  /**
+   * @param id The id of a message which was written.
+   */
+  void onSuccess(ID_T id);
+
+  /**
+   * @param id The id of a message which could not be written.
+   * @param error The reason it could not be written.
+   */
+  void onError(ID_T id, Throwable error);
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LazyJSONObjectTest {
+
+  private static final String MESSAGE = "{\"source.type\":\"test\",\"ip_src_addr\":\"10.0.0.1\",\"port\":443,\"ratio\":0.5,"
+          + "\"big\":1e3,\"flag\":true,\"nothing\":null,\"escaped\":\"a \\\"quoted\\\" \\u00e9\","
+          + "\"nested\":{\"list\":[1,\"two\",{\"three\":3}],\"brace\":\"}]\"},\"list\":[]}";
+
+  private static LazyJSONObject lazy(String json) {
+    return new LazyJSONObject(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static JSONObject parse(String json) throws Exception {
+    return (JSONObject) new JSONParser().parse(json);
+  }
+
+  @Test
+  public void decodesAsTheParserDoes() throws Exception {
+    JSONObject expected = parse(MESSAGE);
+    LazyJSONObject message = lazy(MESSAGE);
+    Assert.assertEquals(expected.size(), message.size());
+    for (Object key : expected.keySet()) {
+      Assert.assertTrue(message.containsKey(key));
+      Assert.assertEquals(key.toString(), expected.get(key), message.get(key));
+    }
+    Assert.assertEquals(expected, message);
+    Assert.assertEquals(message, expected);
+    Assert.assertEquals(expected.hashCode(), message.hashCode());
+    Assert.assertFalse(message.containsKey("missing"));
+    Assert.assertNull(message.get("missing"));
+
+    Assert.assertEquals(parse(" { \"a\" : \"b\" , \"c\" : [ 1 , 2 ] } "), lazy(" { \"a\" : \"b\" , \"c\" : [ 1 , 2 ] } "));
+    Assert.assertTrue(lazy("{}").isEmpty());
+  }
+
+  @Test
+  public void forwardsUnchangedMessages() throws Exception {
+    byte[] raw = MESSAGE.getBytes(StandardCharsets.UTF_8);
+    LazyJSONObject message = new LazyJSONObject(raw);
+    Assert.assertEquals("test", message.get("source.type"));
+    Assert.assertEquals(443L, message.get("port"));
+    Assert.assertSame(raw, message.toBytes());
+    Assert.assertSame(raw, MessageFormats.JSON.encode(message));
+    Assert.assertEquals(MESSAGE, message.toJSONString());
+    Assert.assertEquals(parse(MESSAGE).keySet(), message.fieldNames());
+    Assert.assertSame(raw, message.toBytes());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void appendsNewFields() throws Exception {
+    LazyJSONObject message = lazy(MESSAGE);
+    message.put("added", "value");
+    Assert.assertEquals(parse(MESSAGE).size() + 1, message.size());
+    Assert.assertTrue(message.toJSONString().startsWith(MESSAGE.substring(0, MESSAGE.length() - 1)));
+    JSONObject expected = parse(MESSAGE);
+    expected.put("added", "value");
+    Assert.assertEquals(expected, parse(message.toJSONString()));
+
+    LazyJSONObject empty = lazy("{}");
+    empty.put("a", 1);
+    Assert.assertEquals("{\"a\":1}", empty.toJSONString());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void encodesChangedMessages() throws Exception {
+    LazyJSONObject replaced = lazy(MESSAGE);
+    replaced.put("port", 80);
+    JSONObject expected = parse(MESSAGE);
+    expected.put("port", 80L);
+    Assert.assertEquals(expected, parse(replaced.toJSONString()));
+
+    LazyJSONObject removed = lazy(MESSAGE);
+    Assert.assertEquals("10.0.0.1", removed.remove("ip_src_addr"));
+    Assert.assertFalse(removed.containsKey("ip_src_addr"));
+    Assert.assertNull(removed.get("ip_src_addr"));
+    Assert.assertEquals(expected.size() - 1, removed.size());
+    expected = parse(MESSAGE);
+    expected.remove("ip_src_addr");
+    Assert.assertEquals(expected, parse(removed.toJSONString()));
+
+    LazyJSONObject nested = lazy(MESSAGE);
+    ((List<Object>) ((Map<String, Object>) nested.get("nested")).get("list")).add(4L);
+    expected = parse(MESSAGE);
+    ((List<Object>) ((Map<String, Object>) expected.get("nested")).get("list")).add(4L);
+    Assert.assertEquals(expected, parse(nested.toJSONString()));
+
+    LazyJSONObject pretty = lazy("{\n  \"a\" : 1\n}");
+    Assert.assertEquals("{\"a\":1}", pretty.toJSONString());
+  }
+
+  @Test
+  public void serializesEveryField() throws Exception {
+    LazyJSONObject message = lazy(MESSAGE);
+    message.get("port");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(message);
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      Assert.assertEquals(parse(MESSAGE), in.readObject());
+    }
+  }
+
+  @Test
+  public void rejectsMalformedMessages() {
+    for (String json : new String[] { "", "[1, 2]", "{\"a\":1", "{\"a\" 1}", "{\"a\":\"b}", "{\"a\":1} x", "{\"a\":}" }) {
+      try {
+        lazy(json);
+        Assert.fail("Expected " + json + " to be rejected");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void rejectsMalformedValuesWhenCreated() {
+    // none of these fields is ever read, so the message must be rejected as it is indexed
+    for (String value : new String[] { "tru", "1.", "-", "0x10", "99999999999999999999", "\"\\x\"", "\"\\u12\""
+                                     , "{\"c\":tru}", "{\"c\" 1}", "{\"c\":1,}", "{c:1}", "[1,]", "[1 2]", "[nul]"
+                                     , "{\"c\":[1, {\"d\":\"\\q\"}]}" }) {
+      String json = "{\"a\":1,\"b\":" + value + "}";
+      try {
+        lazy(json);
+        Assert.fail("Expected " + json + " to be rejected");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void acceptsWellFormedValues() throws Exception {
+    for (String value : new String[] { "true", "null", "-1.5e-3", "9223372036854775807", "\"\\u00e9\\n\""
+                                     , "{}", "[]", "{ \"c\" : [ 1 , { \"d\" : false } ] }" }) {
+      String json = "{\"a\":1,\"b\":" + value + "}";
+      Assert.assertEquals(json, parse(json).get("b"), lazy(json).get("b"));
+    }
+  }
+}
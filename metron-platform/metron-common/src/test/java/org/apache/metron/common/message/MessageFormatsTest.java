@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.message;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+public class MessageFormatsTest {
+
+  @SuppressWarnings("unchecked")
+  private static JSONObject message() {
+    JSONObject nested = new JSONObject();
+    nested.put("flag", true);
+    nested.put("none", null);
+    JSONObject message = new JSONObject();
+    message.put("source.type", "bro");
+    message.put("ip_src_addr", "192.168.1.1");
+    message.put("int", 7);
+    message.put("long", Long.MAX_VALUE);
+    message.put("float", 1.5f);
+    message.put("double", 2.25);
+    message.put("list", Arrays.asList(1, "two", 3.0));
+    message.put("nested", nested);
+    return message;
+  }
+
+  @Test
+  public void formatsShouldDecodeTheSameMessage() {
+    JSONObject fromJSON = MessageFormats.JSON.decode(MessageFormats.JSON.encode(message()));
+    JSONObject fromSmile = MessageFormats.SMILE.decode(MessageFormats.SMILE.encode(message()));
+    assertEquals(fromJSON, fromSmile);
+    // the same types as the JSON parser produces
+    assertEquals(7L, fromSmile.get("int"));
+    assertEquals(1.5, fromSmile.get("float"));
+    assertTrue(fromSmile.get("list") instanceof JSONArray);
+    assertTrue(fromSmile.get("nested") instanceof JSONObject);
+  }
+
+  @Test
+  public void shouldDetectFormat() {
+    assertEquals(MessageFormats.SMILE, MessageFormats.detect(MessageFormats.SMILE.encode(message())));
+    assertEquals(MessageFormats.JSON, MessageFormats.detect(MessageFormats.JSON.encode(message())));
+    assertEquals(MessageFormats.JSON, MessageFormats.detect(" {}".getBytes(UTF_8)));
+    assertEquals(MessageFormats.JSON, MessageFormats.detect(new byte[0]));
+    assertEquals(message().get("ip_src_addr"), MessageFormats.decodeAny(MessageFormats.SMILE.encode(message())).get("ip_src_addr"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void smileShouldThrowOnInvalidMessage() {
+    MessageFormats.SMILE.decode(new byte[] { ':', ')', '\n', 0x00, (byte) 0xff });
+  }
+}
@@ -53,6 +53,17 @@ public class MessageGettersTest {
     assertEquals(expected, messageGetStrategy.get(tuple));
   }
 
+  @Test
+  public void jsonFromPositionShouldDecodeSmile() {
+    JSONObject expected = new JSONObject();
+    expected.put("field", "value");
+    Tuple tuple = mock(Tuple.class);
+    when(tuple.getBinary(1)).thenReturn(MessageFormats.SMILE.encode(expected));
+
+    MessageGetStrategy messageGetStrategy = MessageGetters.JSON_FROM_POSITION.get("1");
+    assertEquals(expected, messageGetStrategy.get(tuple));
+  }
+
   @Test
   public void jsonFromPositionShouldThrowException() {
     exception.expect(IllegalStateException.class);
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.common.writer;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.tuple.Tuple;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class BatchMessageWriterTest {
+
+  /**
+   * Fails each message named "bad".
+   */
+  public static class TestWriter implements BatchMessageWriter<String> {
+    @Override
+    public void init(Map stormConf, TopologyContext topologyContext, WriterConfiguration config) {
+    }
+
+    @Override
+    public <ID_T> void write(String sensorType, WriterConfiguration configurations, List<ID_T> ids, List<String> messages, WriteCallback<ID_T> callback) {
+      for (int i = 0; i < messages.size(); i++) {
+        if ("bad".equals(messages.get(i))) {
+          callback.onError(ids.get(i), new IllegalArgumentException(messages.get(i)));
+        } else {
+          callback.onSuccess(ids.get(i));
+        }
+      }
+    }
+
+    @Override
+    public String getName() {
+      return "test";
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @Test
+  public void writesMessagesById() throws Exception {
+    List<String> succeeded = new ArrayList<>();
+    List<String> failed = new ArrayList<>();
+    new TestWriter().write("test", null, ImmutableList.of("id1", "id2", "id3"), ImmutableList.of("good", "bad", "good"), new WriteCallback<String>() {
+      @Override
+      public void onSuccess(String id) {
+        succeeded.add(id);
+      }
+
+      @Override
+      public void onError(String id, Throwable error) {
+        failed.add(id);
+      }
+    });
+    Assert.assertEquals(ImmutableList.of("id1", "id3"), succeeded);
+    Assert.assertEquals(ImmutableList.of("id2"), failed);
+  }
+
+  @Test
+  public void writesTuplesAsIds() throws Exception {
+    Tuple tuple1 = Mockito.mock(Tuple.class);
+    Tuple tuple2 = Mockito.mock(Tuple.class);
+    BulkWriterResponse response = new TestWriter().write("test", null, ImmutableList.of(tuple1, tuple2), ImmutableList.of("good", "bad"));
+    Assert.assertEquals(ImmutableList.of(tuple1), response.getSuccesses());
+    Assert.assertEquals(1, response.getErrors().size());
+    Assert.assertEquals(ImmutableList.of(tuple2), new ArrayList<>(response.getErrors().values().iterator().next()));
+  }
+
+  @Test
+  public void failsEveryTupleWhenTuplesDoNotLineUpWithMessages() throws Exception {
+    Tuple tuple = Mockito.mock(Tuple.class);
+    BulkWriterResponse response = new TestWriter().write("test", null, ImmutableList.of(tuple), ImmutableList.of("good", "bad"));
+    Assert.assertTrue(response.getSuccesses().isEmpty());
+    Assert.assertEquals(ImmutableList.of(tuple), new ArrayList<>(response.getErrors().values().iterator().next()));
+
+    response = new TestWriter().write("test", null, ImmutableList.of(tuple), ImmutableList.of("good", "good"));
+    Assert.assertEquals(ImmutableList.of(tuple), response.getSuccesses());
+    Assert.assertFalse(response.hasErrors());
+  }
+}
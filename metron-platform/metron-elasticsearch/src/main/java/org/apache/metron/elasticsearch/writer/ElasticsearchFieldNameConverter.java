@@ -26,7 +26,7 @@ public class ElasticsearchFieldNameConverter implements FieldNameConverter, Seri
 
     @Override
     public String convert(String originalField) {
-        return originalField.replace(".",":");
+        return originalField.replace('.', ':');
     }
 
 }
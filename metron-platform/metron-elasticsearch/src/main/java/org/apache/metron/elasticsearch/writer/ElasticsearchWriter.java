@@ -17,34 +17,86 @@
  */
 package org.apache.metron.elasticsearch.writer;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.apache.metron.common.Constants;
+import org.apache.metron.common.configuration.ConfigurationsUtils;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
 import org.apache.metron.common.interfaces.FieldNameConverter;
-import org.apache.metron.common.writer.BulkMessageWriter;
-import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.metron.common.message.MessageFormats;
+import org.apache.metron.common.writer.AsyncBatchMessageWriter;
+import org.apache.metron.common.writer.WriteCallback;
 import org.apache.metron.elasticsearch.utils.ElasticsearchUtils;
 import org.apache.storm.task.TopologyContext;
-import org.apache.storm.tuple.Tuple;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BackoffPolicy;
 import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class ElasticsearchWriter implements BulkMessageWriter<JSONObject>, Serializable {
+/**
+ * Writes messages to Elasticsearch with the bulk API.
+ *
+ * <p>Each batch is split into bulk requests of at most {@code es.bulk.maxBytes} and up to
+ * {@code es.bulk.concurrentRequests} of those are in flight at once.  Items rejected because the
+ * cluster is overloaded are retried, on their own, with an exponential backoff; all other outcomes
+ * are reported per message.  The defaults send each batch as a single request with no retries.
+ *
+ * <p>Through {@link #writeAsync} each message is reported as its bulk request completes, and retries
+ * are scheduled on a separate thread rather than holding up the writer; {@link #write} waits up to
+ * {@code es.bulk.timeoutMs} for the whole batch instead.
+ */
+public class ElasticsearchWriter implements AsyncBatchMessageWriter<JSONObject>, Serializable {
+
+  public static final String CONCURRENT_REQUESTS_CONF = "es.bulk.concurrentRequests";
+  public static final String MAX_BYTES_CONF = "es.bulk.maxBytes";
+  public static final String MAX_RETRIES_CONF = "es.bulk.maxRetries";
+  public static final String RETRY_BACKOFF_MS_CONF = "es.bulk.retryBackoffMs";
+  public static final String TIMEOUT_MS_CONF = "es.bulk.timeoutMs";
+
+  public static final int DEFAULT_CONCURRENT_REQUESTS = 1;
+  public static final long DEFAULT_MAX_BYTES = 0;
+  public static final int DEFAULT_MAX_RETRIES = 0;
+  public static final long DEFAULT_RETRY_BACKOFF_MS = 100;
+  public static final long DEFAULT_TIMEOUT_MS = 60000;
+
+  private static final Object SUCCESS = new Object();
 
   private Map<String, String> optionalSettings;
+  private Integer concurrentRequests;
+  private Long maxBytes;
+  private Integer maxRetries;
+  private Long retryBackoffMs;
+  private Long timeoutMs;
   private transient TransportClient client;
-  private SimpleDateFormat dateFormat;
+  private transient Semaphore inFlight;
+  private transient ScheduledExecutorService retries;
+  // the retries scheduled but not yet sent, which are failed if the writer is closed first
+  private transient Set<Bulk<?>> pendingRetries;
   private static final Logger LOG = LoggerFactory.getLogger(ElasticsearchWriter.class);
   private FieldNameConverter fieldNameConverter = new ElasticsearchFieldNameConverter();
 
@@ -53,97 +105,311 @@ public class ElasticsearchWriter implements BulkMessageWriter<JSONObject>, Seria
     return this;
   }
 
+  /**
+   * @param concurrentRequests The maximum number of bulk requests in flight at once.
+   */
+  public ElasticsearchWriter withConcurrentRequests(Integer concurrentRequests) {
+    this.concurrentRequests = concurrentRequests;
+    return this;
+  }
+
+  /**
+   * @param maxBytes The size in bytes after which a batch is split into another bulk request; 0 never splits.
+   */
+  public ElasticsearchWriter withMaxBytes(Long maxBytes) {
+    this.maxBytes = maxBytes;
+    return this;
+  }
+
+  /**
+   * @param maxRetries The number of times items rejected by the cluster are retried.
+   */
+  public ElasticsearchWriter withMaxRetries(Integer maxRetries) {
+    this.maxRetries = maxRetries;
+    return this;
+  }
+
+  /**
+   * @param retryBackoffMs The delay in milliseconds before the first retry; each further retry waits longer.
+   */
+  public ElasticsearchWriter withRetryBackoffMs(Long retryBackoffMs) {
+    this.retryBackoffMs = retryBackoffMs;
+    return this;
+  }
+
+  /**
+   * @param timeoutMs The time in milliseconds that {@link #write} waits for a batch, after which its
+   *                  outstanding messages fail.
+   */
+  public ElasticsearchWriter withTimeoutMs(Long timeoutMs) {
+    this.timeoutMs = timeoutMs;
+    return this;
+  }
+
   @Override
   public void init(Map stormConf, TopologyContext topologyContext, WriterConfiguration configurations) {
     Map<String, Object> globalConfiguration = configurations.getGlobalConfig();
-    client = ElasticsearchUtils.getClient(globalConfiguration, optionalSettings);
-    dateFormat = ElasticsearchUtils.getIndexFormat(globalConfiguration);
+    client = createClient(globalConfiguration);
+    concurrentRequests = ConfigurationsUtils.getSetting(concurrentRequests, globalConfiguration, CONCURRENT_REQUESTS_CONF, Integer.class, DEFAULT_CONCURRENT_REQUESTS);
+    maxBytes = ConfigurationsUtils.getSetting(maxBytes, globalConfiguration, MAX_BYTES_CONF, Long.class, DEFAULT_MAX_BYTES);
+    maxRetries = ConfigurationsUtils.getSetting(maxRetries, globalConfiguration, MAX_RETRIES_CONF, Integer.class, DEFAULT_MAX_RETRIES);
+    retryBackoffMs = ConfigurationsUtils.getSetting(retryBackoffMs, globalConfiguration, RETRY_BACKOFF_MS_CONF, Long.class, DEFAULT_RETRY_BACKOFF_MS);
+    timeoutMs = ConfigurationsUtils.getSetting(timeoutMs, globalConfiguration, TIMEOUT_MS_CONF, Long.class, DEFAULT_TIMEOUT_MS);
+    if(concurrentRequests <= 0) {
+      throw new IllegalArgumentException(CONCURRENT_REQUESTS_CONF + " must be positive, but was " + concurrentRequests);
+    }
+    inFlight = new Semaphore(concurrentRequests);
+    if(maxRetries > 0) {
+      pendingRetries = ConcurrentHashMap.newKeySet();
+      retries = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+              .setNameFormat("elasticsearch-writer-retry-%d")
+              .setDaemon(true)
+              .build());
+    }
   }
 
+  protected TransportClient createClient(Map<String, Object> globalConfiguration) {
+    return ElasticsearchUtils.getClient(globalConfiguration, optionalSettings);
+  }
 
   @Override
-  public BulkWriterResponse write(String sensorType, WriterConfiguration configurations, Iterable<Tuple> tuples, List<JSONObject> messages) throws Exception {
-    final String indexPostfix = dateFormat.format(new Date());
-    BulkRequestBuilder bulkRequest = client.prepareBulk();
-
-    for(JSONObject message: messages) {
+  public <ID_T> void write(String sensorType, WriterConfiguration configurations, List<ID_T> ids, List<JSONObject> messages, WriteCallback<ID_T> callback) throws Exception {
+    List<Integer> positions = new ArrayList<>(messages.size());
+    for(int i = 0; i < messages.size(); i++) {
+      positions.add(i);
+    }
+    // each position is set once, by the first of its outcome and the timeout
+    AtomicReferenceArray<Object> outcomes = new AtomicReferenceArray<>(messages.size());
+    CountDownLatch completed = new CountDownLatch(messages.size());
+    writeAsync(sensorType, configurations, positions, messages, new WriteCallback<Integer>() {
+      @Override
+      public void onSuccess(Integer position) {
+        outcomes.compareAndSet(position, null, SUCCESS);
+        completed.countDown();
+      }
 
-      JSONObject esDoc = new JSONObject();
-      for(Object k : message.keySet()){
-        deDot(k.toString(), message, esDoc);
+      @Override
+      public void onError(Integer position, Throwable error) {
+        outcomes.compareAndSet(position, null, error);
+        completed.countDown();
+      }
+    });
+    if(!completed.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+      TimeoutException timeout = new TimeoutException("Elasticsearch did not respond within " + timeoutMs + " ms");
+      for(int i = 0; i < ids.size(); i++) {
+        outcomes.compareAndSet(i, null, timeout);
+      }
+    }
+    for(int i = 0; i < ids.size(); i++) {
+      Object outcome = outcomes.get(i);
+      if(outcome == SUCCESS) {
+        callback.onSuccess(ids.get(i));
       }
+      else {
+        callback.onError(ids.get(i), (Throwable) outcome);
+      }
+    }
+  }
+
+  @Override
+  public <ID_T> void writeAsync(String sensorType, WriterConfiguration configurations, List<ID_T> ids, List<JSONObject> messages, WriteCallback<ID_T> callback) throws Exception {
+    // the index is the same for every message in the batch, and the date format is cached per thread
+    final String indexPostfix = ElasticsearchUtils.getIndexFormat(configurations).format(new Date());
+    final String indexName = ElasticsearchUtils.getIndexName(sensorType, indexPostfix, configurations);
+    final String docType = sensorType + "_doc";
 
-      String indexName = ElasticsearchUtils.getIndexName(sensorType, indexPostfix, configurations);
-      IndexRequestBuilder indexRequestBuilder = client.prepareIndex(indexName, sensorType + "_doc");
-      indexRequestBuilder = indexRequestBuilder.setSource(esDoc.toJSONString());
-      String guid = (String)esDoc.get(Constants.GUID);
+    IndexRequest[] requests = new IndexRequest[messages.size()];
+    for(int i = 0; i < requests.length; i++) {
+      JSONObject esDoc = deDot(messages.get(i));
+      IndexRequest request = new IndexRequest(indexName, docType)
+              .source(MessageFormats.JSON.encode(esDoc), XContentType.JSON);
+      Object guid = esDoc.get(Constants.GUID);
       if(guid != null) {
-        indexRequestBuilder.setId(guid);
+        request.id(guid.toString());
       }
 
       Object ts = esDoc.get("timestamp");
       if(ts != null) {
-        indexRequestBuilder = indexRequestBuilder.setTimestamp(ts.toString());
+        request.timestamp(ts.toString());
       }
+      requests[i] = request;
+    }
 
-      bulkRequest.add(indexRequestBuilder);
+    List<Bulk<ID_T>> bulks = new ArrayList<>();
+    Bulk<ID_T> bulk = null;
+    for(int i = 0; i < requests.length; i++) {
+      if(bulk == null) {
+        bulk = new Bulk<>(requests, ids, callback, backoff());
+        bulks.add(bulk);
+      }
+      bulk.add(i);
+      if(maxBytes > 0 && bulk.request.estimatedSizeInBytes() >= maxBytes) {
+        bulk = null;
+      }
     }
+    for(int b = 0; b < bulks.size(); b++) {
+      try {
+        send(bulks.get(b));
+      }
+      catch(InterruptedException e) {
+        // the rest of the batch was never sent
+        for(int rest = b; rest < bulks.size(); rest++) {
+          bulks.get(rest).fail(e);
+        }
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
 
-    BulkResponse bulkResponse = bulkRequest.execute().actionGet();
-    return buildWriteReponse(tuples, bulkResponse);
+  private Iterator<TimeValue> backoff() {
+    if(maxRetries <= 0) {
+      return Collections.emptyIterator();
+    }
+    return BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(retryBackoffMs), maxRetries).iterator();
   }
 
-  @Override
-  public String getName() {
-    return "elasticsearch";
+  /**
+   * Sends a bulk request once fewer than the maximum number of requests are in flight, without waiting for it.
+   * Whether or not the client accepts the request, the permit is released and its documents are completed
+   * exactly once.
+   */
+  private <ID_T> void send(Bulk<ID_T> bulk) throws InterruptedException {
+    inFlight.acquire();
+    try {
+      client.bulk(bulk.request, new ActionListener<BulkResponse>() {
+        @Override
+        public void onResponse(BulkResponse response) {
+          inFlight.release();
+          bulk.complete(response);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+          inFlight.release();
+          bulk.fail(e);
+        }
+      });
+    }
+    catch(Exception e) {
+      inFlight.release();
+      bulk.fail(e);
+    }
   }
 
-  protected BulkWriterResponse buildWriteReponse(Iterable<Tuple> tuples, BulkResponse bulkResponse) throws Exception {
-    // Elasticsearch responses are in the same order as the request, giving us an implicit mapping with Tuples
-    BulkWriterResponse writerResponse = new BulkWriterResponse();
-    if (bulkResponse.hasFailures()) {
-      Iterator<BulkItemResponse> respIter = bulkResponse.iterator();
-      Iterator<Tuple> tupleIter = tuples.iterator();
-      while (respIter.hasNext() && tupleIter.hasNext()) {
-        BulkItemResponse item = respIter.next();
-        Tuple tuple = tupleIter.next();
-
-        if (item.isFailed()) {
-          writerResponse.addError(item.getFailure().getCause(), tuple);
-        } else {
-          writerResponse.addSuccess(tuple);
+  /**
+   * A bulk request and the positions within the batch of its documents.
+   */
+  private class Bulk<ID_T> {
+    private final IndexRequest[] requests;
+    private final List<ID_T> ids;
+    private final WriteCallback<ID_T> callback;
+    private final Iterator<TimeValue> backoff;
+    private final BulkRequest request = new BulkRequest();
+    private final List<Integer> positions = new ArrayList<>();
+
+    Bulk(IndexRequest[] requests, List<ID_T> ids, WriteCallback<ID_T> callback, Iterator<TimeValue> backoff) {
+      this.requests = requests;
+      this.ids = ids;
+      this.callback = callback;
+      this.backoff = backoff;
+    }
+
+    void add(int position) {
+      request.add(requests[position]);
+      positions.add(position);
+    }
+
+    void complete(BulkResponse response) {
+      BulkItemResponse[] items = response.getItems();
+      if(items.length != positions.size()) {
+        fail(new IllegalStateException(response.buildFailureMessage()));
+        return;
+      }
+      // Elasticsearch responses are in the same order as the request
+      Bulk<ID_T> rejected = new Bulk<>(requests, ids, callback, backoff);
+      for(int i = 0; i < items.length; i++) {
+        int position = positions.get(i);
+        if(items[i].isFailed() && items[i].getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS && backoff.hasNext()) {
+          rejected.add(position);
+        }
+        else if(items[i].isFailed()) {
+          callback.onError(ids.get(position), items[i].getFailure().getCause());
+        }
+        else {
+          callback.onSuccess(ids.get(position));
         }
+      }
+      if(!rejected.positions.isEmpty()) {
+        rejected.retry();
+      }
+    }
 
-        // Should never happen, so fail the entire batch if it does.
-        if (respIter.hasNext() != tupleIter.hasNext()) {
-          throw new Exception(bulkResponse.buildFailureMessage());
+    void retry() {
+      TimeValue delay = backoff.next();
+      LOG.debug("Retrying {} rejected documents in {}", positions.size(), delay);
+      pendingRetries.add(this);
+      try {
+        retries.schedule(() -> {
+          // whoever removes the retry, this task or close, completes its documents
+          if(!pendingRetries.remove(this)) {
+            return;
+          }
+          try {
+            send(this);
+          } catch (InterruptedException e) {
+            fail(e);
+            Thread.currentThread().interrupt();
+          }
+        }, delay.millis(), TimeUnit.MILLISECONDS);
+      }
+      catch(RejectedExecutionException e) {
+        // the writer has been closed
+        if(pendingRetries.remove(this)) {
+          fail(e);
         }
       }
-    } else {
-      writerResponse.addAllSuccesses(tuples);
     }
 
-    return writerResponse;
+    void fail(Exception e) {
+      for(int position : positions) {
+        callback.onError(ids.get(position), e);
+      }
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "elasticsearch";
   }
 
   @Override
   public void close() throws Exception {
+    if(retries != null) {
+      retries.shutdownNow();
+      // the retries that will now never run are failed rather than left for the message timeout
+      for(Bulk<?> bulk : pendingRetries) {
+        if(pendingRetries.remove(bulk)) {
+          bulk.fail(new IllegalStateException("Writer closed before retrying the rejected documents"));
+        }
+      }
+    }
     client.close();
   }
 
   //JSONObject doesn't expose map generics
   @SuppressWarnings("unchecked")
-  private void deDot(String field, JSONObject origMessage, JSONObject message){
-
-    if(field.contains(".")){
-
-      LOG.debug("Dotted field: {}", field);
-
+  private JSONObject deDot(JSONObject origMessage) {
+    JSONObject message = new JSONObject();
+    for(Object k : origMessage.keySet()) {
+      String field = k.toString();
+      String newkey = fieldNameConverter.convert(field);
+      if(!newkey.equals(field)) {
+        LOG.debug("Dotted field: {}", field);
+      }
+      message.put(newkey, origMessage.get(k));
     }
-    String newkey = fieldNameConverter.convert(field);
-    message.put(newkey,origMessage.get(field));
-
+    return message;
   }
 
 }
-
@@ -20,18 +20,38 @@ package org.apache.metron.elasticsearch.writer;
 
 import org.apache.storm.tuple.Tuple;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
 import org.apache.metron.common.writer.BulkWriterResponse;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.json.simple.JSONObject;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.Assert.*;
 
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -40,14 +60,10 @@ public class ElasticsearchWriterTest {
     public void testSingleSuccesses() throws Exception {
         Tuple tuple1 = mock(Tuple.class);
 
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(false);
-
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addSuccess(tuple1);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1), response);
+        BulkWriterResponse actual = writeAsync(ImmutableList.of(tuple1), buildBulkItemSuccess());
 
         assertEquals("Response should have no errors and single success", expected, actual);
     }
@@ -57,15 +73,11 @@ public class ElasticsearchWriterTest {
         Tuple tuple1 = mock(Tuple.class);
         Tuple tuple2 = mock(Tuple.class);
 
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(false);
-
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addSuccess(tuple1);
         expected.addSuccess(tuple2);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1, tuple2), response);
+        BulkWriterResponse actual = writeAsync(ImmutableList.of(tuple1, tuple2), buildBulkItemSuccess(), buildBulkItemSuccess());
 
         assertEquals("Response should have no errors and two successes", expected, actual);
     }
@@ -73,19 +85,12 @@ public class ElasticsearchWriterTest {
     @Test
     public void testSingleFailure() throws Exception {
         Tuple tuple1 = mock(Tuple.class);
-
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(true);
-
         Exception e = new IllegalStateException();
-        BulkItemResponse itemResponse = buildBulkItemFailure(e);
-        when(response.iterator()).thenReturn(ImmutableList.of(itemResponse).iterator());
 
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addError(e, tuple1);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1), response);
+        BulkWriterResponse actual = writeAsync(ImmutableList.of(tuple1), buildBulkItemFailure(e));
 
         assertEquals("Response should have one error and zero successes", expected, actual);
     }
@@ -94,23 +99,13 @@ public class ElasticsearchWriterTest {
     public void testTwoSameFailure() throws Exception {
         Tuple tuple1 = mock(Tuple.class);
         Tuple tuple2 = mock(Tuple.class);
-
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(true);
-
         Exception e = new IllegalStateException();
 
-        BulkItemResponse itemResponse = buildBulkItemFailure(e);
-        BulkItemResponse itemResponse2 = buildBulkItemFailure(e);
-
-        when(response.iterator()).thenReturn(ImmutableList.of(itemResponse, itemResponse2).iterator());
-
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addError(e, tuple1);
         expected.addError(e, tuple2);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1, tuple2), response);
+        BulkWriterResponse actual = writeAsync(ImmutableList.of(tuple1, tuple2), buildBulkItemFailure(e), buildBulkItemFailure(e));
 
         assertEquals("Response should have two errors and no successes", expected, actual);
 
@@ -125,23 +120,14 @@ public class ElasticsearchWriterTest {
     public void testTwoDifferentFailure() throws Exception {
         Tuple tuple1 = mock(Tuple.class);
         Tuple tuple2 = mock(Tuple.class);
-
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(true);
-
         Exception e = new IllegalStateException("Cause");
         Exception e2 = new IllegalStateException("Different Cause");
-        BulkItemResponse itemResponse = buildBulkItemFailure(e);
-        BulkItemResponse itemResponse2 = buildBulkItemFailure(e2);
-
-        when(response.iterator()).thenReturn(ImmutableList.of(itemResponse, itemResponse2).iterator());
 
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addError(e, tuple1);
         expected.addError(e2, tuple2);
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1, tuple2), response);
+        BulkWriterResponse actual = writeAsync(ImmutableList.of(tuple1, tuple2), buildBulkItemFailure(e), buildBulkItemFailure(e2));
 
         assertEquals("Response should have two errors and no successes", expected, actual);
 
@@ -157,26 +143,228 @@ public class ElasticsearchWriterTest {
     public void testSuccessAndFailure() throws Exception {
         Tuple tuple1 = mock(Tuple.class);
         Tuple tuple2 = mock(Tuple.class);
+        Exception e = new IllegalStateException("Cause");
 
-        BulkResponse response = mock(BulkResponse.class);
-        when(response.hasFailures()).thenReturn(true);
+        BulkWriterResponse expected = new BulkWriterResponse();
+        expected.addError(e, tuple1);
+        expected.addSuccess(tuple2);
 
-        Exception e = new IllegalStateException("Cause");
-        BulkItemResponse itemResponse = buildBulkItemFailure(e);
+        BulkWriterResponse actual = writeAsync(ImmutableList.of(tuple1, tuple2), buildBulkItemFailure(e), buildBulkItemSuccess());
 
-        BulkItemResponse itemResponse2 = mock(BulkItemResponse.class);
-        when(itemResponse2.isFailed()).thenReturn(false);
+        assertEquals("Response should have one error and one success", expected, actual);
+    }
+
+    @Test
+    public void testMissingItemsFailBatch() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
 
-        when(response.iterator()).thenReturn(ImmutableList.of(itemResponse, itemResponse2).iterator());
+        // should never happen, so the whole batch fails
+        BulkWriterResponse actual = writeAsync(ImmutableList.of(tuple1, tuple2), buildBulkItemSuccess());
+
+        assertTrue(actual.getSuccesses().isEmpty());
+        Throwable error = actual.getErrors().keySet().iterator().next();
+        assertTrue(error instanceof IllegalStateException);
+        assertEquals(ImmutableList.of(tuple1, tuple2), ImmutableList.copyOf(actual.getErrors().get(error)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteSplitsBatchesAndRetriesRejectedDocuments() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
+        Tuple tuple3 = mock(Tuple.class);
+        // the retry is sent from another thread
+        List<BulkRequest> requests = Collections.synchronizedList(new ArrayList<>());
+        Set<String> rejected = Collections.synchronizedSet(new HashSet<>());
+        TransportClient client = mock(TransportClient.class);
+        doAnswer(invocation -> {
+            BulkRequest request = (BulkRequest) invocation.getArguments()[0];
+            requests.add(request);
+            List<BulkItemResponse> items = new ArrayList<>();
+            for (DocWriteRequest doc : request.requests()) {
+                // the cluster rejects the second document once
+                if ("guid2".equals(doc.id()) && rejected.add(doc.id())) {
+                    items.add(new BulkItemResponse(items.size(), DocWriteRequest.OpType.INDEX, new BulkItemResponse.Failure(
+                            doc.index(), doc.type(), doc.id(), new EsRejectedExecutionException("queue full"))));
+                } else {
+                    items.add(new BulkItemResponse(items.size(), DocWriteRequest.OpType.INDEX, mock(IndexResponse.class)));
+                }
+            }
+            ((ActionListener<BulkResponse>) invocation.getArguments()[1])
+                    .onResponse(new BulkResponse(items.toArray(new BulkItemResponse[0]), 1));
+            return null;
+        }).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+
+        ElasticsearchWriter esWriter = writer(client)
+                .withConcurrentRequests(2)
+                .withMaxBytes(1L)
+                .withMaxRetries(1)
+                .withRetryBackoffMs(1L);
+        esWriter.init(new HashMap(), null, configurations());
+        BulkWriterResponse actual = esWriter.write("bro", configurations(), ImmutableList.of(tuple1, tuple2, tuple3)
+                , ImmutableList.of(message("guid1"), message("guid2"), message("guid3")));
+
+        BulkWriterResponse expected = new BulkWriterResponse();
+        expected.addAllSuccesses(ImmutableList.of(tuple1, tuple2, tuple3));
+        assertEquals(expected, actual);
+        // one request per document, then a retry of the rejected document alone
+        assertEquals(4, requests.size());
+        assertEquals(2, requests.stream().filter(r -> "guid2".equals(r.requests().get(0).id())).count());
+        IndexRequest indexRequest = (IndexRequest) requests.get(0).requests().get(0);
+        assertTrue(indexRequest.index().startsWith("bro_index_"));
+        assertEquals("bro_doc", indexRequest.type());
+        assertTrue(indexRequest.source().utf8ToString().contains("\"ip:src:addr\":\"10.0.0.1\""));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteReportsFailedRequestsPerTuple() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Tuple tuple2 = mock(Tuple.class);
+        Exception e = new IllegalStateException("Cause");
+        TransportClient client = mock(TransportClient.class);
+        doAnswer(invocation -> {
+            BulkRequest request = (BulkRequest) invocation.getArguments()[0];
+            ActionListener<BulkResponse> listener = (ActionListener<BulkResponse>) invocation.getArguments()[1];
+            if ("guid1".equals(request.requests().get(0).id())) {
+                listener.onFailure(e);
+            } else {
+                listener.onResponse(new BulkResponse(new BulkItemResponse[] {
+                        new BulkItemResponse(0, DocWriteRequest.OpType.INDEX, mock(IndexResponse.class))}, 1));
+            }
+            return null;
+        }).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+
+        ElasticsearchWriter esWriter = writer(client)
+                .withMaxBytes(1L)
+                .withMaxRetries(3);
+        esWriter.init(new HashMap(), null, configurations());
+        BulkWriterResponse actual = esWriter.write("bro", configurations(), ImmutableList.of(tuple1, tuple2)
+                , ImmutableList.of(message("guid1"), message("guid2")));
 
         BulkWriterResponse expected = new BulkWriterResponse();
         expected.addError(e, tuple1);
         expected.addSuccess(tuple2);
+        assertEquals(expected, actual);
+    }
 
-        ElasticsearchWriter esWriter = new ElasticsearchWriter();
-        BulkWriterResponse actual = esWriter.buildWriteReponse(ImmutableList.of(tuple1, tuple2), response);
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteReleasesRequestsThatCannotBeSent() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        Exception e = new IllegalStateException("no node available");
+        TransportClient client = mock(TransportClient.class);
+        doThrow(e).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+
+        ElasticsearchWriter esWriter = writer(client).withConcurrentRequests(1);
+        esWriter.init(new HashMap(), null, configurations());
+        // the second write would block forever if the first had kept its permit
+        for (int i = 0; i < 2; i++) {
+            BulkWriterResponse actual = esWriter.write("bro", configurations(), ImmutableList.of(tuple1)
+                    , ImmutableList.of(message("guid1")));
+            BulkWriterResponse expected = new BulkWriterResponse();
+            expected.addError(e, tuple1);
+            assertEquals(expected, actual);
+        }
+    }
 
-        assertEquals("Response should have one error and one success", expected, actual);
+    @Test
+    public void testWriteFailsDocumentsWithoutResponse() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        TransportClient client = mock(TransportClient.class);
+
+        ElasticsearchWriter esWriter = writer(client).withTimeoutMs(10L);
+        esWriter.init(new HashMap(), null, configurations());
+        BulkWriterResponse actual = esWriter.write("bro", configurations(), ImmutableList.of(tuple1)
+                , ImmutableList.of(message("guid1")));
+
+        assertTrue(actual.getSuccesses().isEmpty());
+        Throwable error = actual.getErrors().keySet().iterator().next();
+        assertTrue(error instanceof TimeoutException);
+        assertEquals(ImmutableList.of(tuple1), ImmutableList.copyOf(actual.getErrors().get(error)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCloseFailsScheduledRetries() throws Exception {
+        Tuple tuple1 = mock(Tuple.class);
+        TransportClient client = mock(TransportClient.class);
+        doAnswer(invocation -> {
+            BulkRequest request = (BulkRequest) invocation.getArguments()[0];
+            DocWriteRequest doc = request.requests().get(0);
+            ((ActionListener<BulkResponse>) invocation.getArguments()[1]).onResponse(new BulkResponse(new BulkItemResponse[] {
+                    new BulkItemResponse(0, DocWriteRequest.OpType.INDEX, new BulkItemResponse.Failure(
+                            doc.index(), doc.type(), doc.id(), new EsRejectedExecutionException("queue full")))}, 1));
+            return null;
+        }).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+
+        ElasticsearchWriter esWriter = writer(client)
+                .withMaxRetries(1)
+                .withRetryBackoffMs(TimeUnit.MINUTES.toMillis(1));
+        esWriter.init(new HashMap(), null, configurations());
+        BulkWriterResponse actual = new BulkWriterResponse();
+        esWriter.writeAsync("bro", configurations(), ImmutableList.of(tuple1), ImmutableList.of(message("guid1")), actual);
+        assertTrue(actual.getErrors().isEmpty());
+
+        // the retry would only run in a minute, so is failed rather than left for the message timeout
+        esWriter.close();
+        assertTrue(actual.getSuccesses().isEmpty());
+        Throwable error = actual.getErrors().keySet().iterator().next();
+        assertTrue(error instanceof IllegalStateException);
+        assertEquals(ImmutableList.of(tuple1), ImmutableList.copyOf(actual.getErrors().get(error)));
+    }
+
+    /**
+     * Writes a batch through a client which answers the bulk request with the given items.
+     */
+    @SuppressWarnings("unchecked")
+    private BulkWriterResponse writeAsync(List<Tuple> tuples, BulkItemResponse... items) throws Exception {
+        TransportClient client = mock(TransportClient.class);
+        doAnswer(invocation -> {
+            ((ActionListener<BulkResponse>) invocation.getArguments()[1]).onResponse(new BulkResponse(items, 1));
+            return null;
+        }).when(client).bulk(any(BulkRequest.class), any(ActionListener.class));
+
+        ElasticsearchWriter esWriter = writer(client);
+        esWriter.init(new HashMap(), null, configurations());
+        List<JSONObject> messages = new ArrayList<>();
+        for (int i = 0; i < tuples.size(); i++) {
+            messages.add(message("guid" + i));
+        }
+        BulkWriterResponse response = new BulkWriterResponse();
+        esWriter.writeAsync("bro", configurations(), tuples, messages, response);
+        return response;
+    }
+
+    private ElasticsearchWriter writer(TransportClient client) {
+        return new ElasticsearchWriter() {
+            @Override
+            protected TransportClient createClient(Map<String, Object> globalConfiguration) {
+                return client;
+            }
+        };
+    }
+
+    private WriterConfiguration configurations() {
+        WriterConfiguration configurations = mock(WriterConfiguration.class);
+        when(configurations.getGlobalConfig()).thenReturn(ImmutableMap.of("es.date.format", "yyyy"));
+        when(configurations.getIndex("bro")).thenReturn("bro");
+        return configurations;
+    }
+
+    @SuppressWarnings("unchecked")
+    private JSONObject message(String guid) {
+        JSONObject message = new JSONObject();
+        message.put("guid", guid);
+        message.put("ip.src.addr", "10.0.0.1");
+        return message;
+    }
+
+    private BulkItemResponse buildBulkItemSuccess() {
+        BulkItemResponse itemResponse = mock(BulkItemResponse.class);
+        when(itemResponse.isFailed()).thenReturn(false);
+        return itemResponse;
     }
 
     private BulkItemResponse buildBulkItemFailure(Exception e) {
@@ -40,6 +40,14 @@ public class GeoAdapter implements EnrichmentAdapter<CacheKey>, Serializable {
     return value.getField();
   }
 
+  /**
+   * Lookups only read the shared database, which is swapped atomically on update.
+   */
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   public JSONObject enrich(CacheKey value) {
@@ -56,7 +64,7 @@ public class GeoAdapter implements EnrichmentAdapter<CacheKey>, Serializable {
 
   @Override
   public boolean initializeAdapter(Map<String, Object> config) {
-    GeoLiteDatabase.INSTANCE.update((String)config.get(GeoLiteDatabase.GEO_HDFS_FILE));
+    GeoLiteDatabase.INSTANCE.update(config);
     return true;
   }
 
@@ -19,6 +19,7 @@ package org.apache.metron.enrichment.adapters.geo;
 
 import ch.hsr.geohash.WGS84Point;
 import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
@@ -27,15 +28,18 @@ import com.maxmind.geoip2.record.City;
 import com.maxmind.geoip2.record.Country;
 import com.maxmind.geoip2.record.Location;
 import com.maxmind.geoip2.record.Postal;
+import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.zip.GZIPInputStream;
@@ -55,13 +59,49 @@ public enum GeoLiteDatabase {
   protected static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   public static final String GEO_HDFS_FILE = "geo.hdfs.file";
   public static final String GEO_HDFS_FILE_DEFAULT = "/apps/metron/geo/default/GeoLite2-City.mmdb.gz";
+  /**
+   * A local directory into which the database is decompressed and then memory-mapped, rather
+   * than being read onto the heap.
+   */
+  public static final String GEO_LOCAL_DIR = "geo.local.dir";
+  /**
+   * The number of recent lookups each thread caches; 0 disables the cache.
+   */
+  public static final String GEO_CACHE_SIZE = "geo.cache.size";
+  public static final int GEO_CACHE_SIZE_DEFAULT = 1000;
 
-  private static ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-  private static final Lock readLock = lock.readLock();
-  private static final Lock writeLock = lock.writeLock();
   private static InetAddressValidator ipvalidator = new InetAddressValidator();
   private static volatile String hdfsLoc = GEO_HDFS_FILE_DEFAULT;
-  private static DatabaseReader reader = null;
+  private static volatile String localDir = null;
+  private static volatile int cacheSize = GEO_CACHE_SIZE_DEFAULT;
+  // Readers are swapped atomically on update and never closed, as lookups may still be using them.
+  // The heap or memory map of a replaced reader is released once it is garbage collected.
+  private static volatile DatabaseReader reader = null;
+  private static File localFile = null;
+  private static final ThreadLocal<LookupCache> lookupCache = ThreadLocal.withInitial(LookupCache::new);
+
+  /**
+   * A per-thread LRU cache of the most recent lookups against a given reader.
+   */
+  private static class LookupCache extends LinkedHashMap<String, Optional<HashMap<String, String>>> {
+    private DatabaseReader reader;
+
+    LookupCache() {
+      super(16, 0.75f, true);
+    }
+
+    void validate(DatabaseReader current) {
+      if (reader != current) {
+        clear();
+        reader = current;
+      }
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Optional<HashMap<String, String>>> eldest) {
+      return size() > cacheSize;
+    }
+  }
 
   public enum GeoProps {
     LOC_ID("locID"),
@@ -103,22 +143,55 @@ public enum GeoLiteDatabase {
     // Reload database if necessary (file changes on HDFS)
     LOG.trace("[Metron] Determining if GeoIpDatabase update required");
     String hdfsFile = GEO_HDFS_FILE_DEFAULT;
+    String newLocalDir = null;
     if (globalConfig != null) {
       hdfsFile = (String) globalConfig.getOrDefault(GEO_HDFS_FILE, GEO_HDFS_FILE_DEFAULT);
+      newLocalDir = (String) globalConfig.get(GEO_LOCAL_DIR);
+      cacheSize = getCacheSize(globalConfig);
     }
 
     // Always update if we don't have a DatabaseReader
-    if (reader == null || !hdfsLoc.equals(hdfsFile)) {
+    if (reader == null || !hdfsLoc.equals(hdfsFile) || !Objects.equals(localDir, newLocalDir)) {
       // Update
       hdfsLoc = hdfsFile;
-      update(hdfsFile);
+      update(hdfsFile, newLocalDir);
     } else {
       LOG.trace("[Metron] Update to GeoIpDatabase unnecessary");
     }
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Loads the database configured in the global config.
+   *
+   * @param globalConfig The global config
+   */
+  public synchronized void update(Map<String, Object> globalConfig) {
+    cacheSize = getCacheSize(globalConfig);
+    update((String) globalConfig.get(GEO_HDFS_FILE), (String) globalConfig.get(GEO_LOCAL_DIR));
+  }
+
+  /**
+   * Loads the database onto the heap.
+   *
+   * @param hdfsFile The gzipped database on HDFS
+   */
   public void update(String hdfsFile) {
+    update(hdfsFile, null);
+  }
+
+  private static int getCacheSize(Map<String, Object> globalConfig) {
+    return ConversionUtils.convert(globalConfig.getOrDefault(GEO_CACHE_SIZE, GEO_CACHE_SIZE_DEFAULT), Integer.class);
+  }
+
+  /**
+   * Loads the database, replacing the current one.  Lookups in progress complete against the
+   * database they started with.
+   *
+   * @param hdfsFile The gzipped database on HDFS
+   * @param localDir If set, the local directory into which the database is decompressed and then
+   *                 memory-mapped; otherwise the database is read onto the heap
+   */
+  public synchronized void update(String hdfsFile, String localDir) {
     // If nothing is set (or it's been unset, use the defaults)
     if (hdfsFile == null || hdfsFile.isEmpty()) {
       LOG.debug("[Metron] Using default for {}: {}", GEO_HDFS_FILE, GEO_HDFS_FILE_DEFAULT);
@@ -134,34 +207,60 @@ public enum GeoLiteDatabase {
     }
 
     try (GZIPInputStream gis = new GZIPInputStream(fs.open(new Path(hdfsFile)))) {
-      writeLock.lock();
       LOG.info("[Metron] Update to GeoIP data started with {}", hdfsFile);
-      // InputStream based DatabaseReaders are always in memory.
-      DatabaseReader newReader = new DatabaseReader.Builder(gis).withCache(new CHMCache()).build();
-      DatabaseReader oldReader = reader;
+      DatabaseReader newReader;
+      File newLocalFile = null;
+      if (localDir == null || localDir.isEmpty()) {
+        // InputStream based DatabaseReaders are always in memory.
+        newReader = new DatabaseReader.Builder(gis).withCache(new CHMCache()).build();
+      } else {
+        File dir = new File(localDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+          throw new IOException("Unable to create " + localDir);
+        }
+        newLocalFile = File.createTempFile("GeoLite2-", ".mmdb", dir);
+        newLocalFile.deleteOnExit();
+        Files.copy(gis, newLocalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        newReader = new DatabaseReader.Builder(newLocalFile)
+                .fileMode(Reader.FileMode.MEMORY_MAPPED)
+                .withCache(new CHMCache())
+                .build();
+      }
       reader = newReader;
-      // If we've never set a reader, don't close the old one
-      if (oldReader != null) {
-        oldReader.close();
+      GeoLiteDatabase.localDir = localDir;
+      // An unlinked file stays mapped until its reader is collected
+      if (localFile != null && !localFile.delete()) {
+        LOG.warn("[Metron] Unable to delete previous GeoIP data {}", localFile);
       }
+      localFile = newLocalFile;
       LOG.info("[Metron] Finished update to GeoIP data started with {}", hdfsFile);
     } catch (IOException e) {
       LOG.error("[Metron] Unable to open new database file {}", hdfsFile, e);
       throw new IllegalStateException("[Metron] Unable to update MaxMind database");
-    } finally {
-      // Don't unlock if the try failed
-      if (lock.isWriteLocked()) {
-        writeLock.unlock();
-      }
     }
   }
 
   // Optional.empty means that we don't have any geo location in database.
   // Optional exists, but empty means local IP (valid, but no info will be in the DB)
-  @SuppressWarnings("unchecked")
+  // The result may be shared with later lookups on the same thread, so must not be modified.
   public Optional<HashMap<String, String>> get(String ip) {
     // Call get every single time, returns current version. Updates behind the scenes.
     LOG.trace("[Metron] Called GeoIpDatabase.get({})", ip);
+    DatabaseReader current = reader;
+    if (cacheSize <= 0) {
+      return get(current, ip);
+    }
+    LookupCache cache = lookupCache.get();
+    cache.validate(current);
+    Optional<HashMap<String, String>> result = cache.get(ip);
+    if (result == null) {
+      result = get(current, ip);
+      cache.put(ip, result);
+    }
+    return result;
+  }
+
+  private Optional<HashMap<String, String>> get(DatabaseReader reader, String ip) {
     InetAddress addr = null;
     try {
       addr = InetAddress.getByName(ip);
@@ -175,8 +274,6 @@ public enum GeoLiteDatabase {
     }
 
     try {
-      readLock.lock();
-      addr = InetAddress.getByName(ip);
       CityResponse cityResponse = reader.city(addr);
       HashMap<String, String> geoInfo = new HashMap<>();
 
@@ -206,12 +303,10 @@ public enum GeoLiteDatabase {
       }
 
       return Optional.of(geoInfo);
-    } catch (UnknownHostException | AddressNotFoundException e) {
+    } catch (AddressNotFoundException e) {
       LOG.debug("[Metron] No result found for IP {}", ip);
     } catch (GeoIp2Exception | IOException e) {
       LOG.warn("[Metron] GeoLite2 DB encountered an error", e);
-    } finally {
-      readLock.unlock();
     }
     return Optional.empty();
   }
@@ -47,4 +47,12 @@ public abstract class AbstractHostAdapter implements EnrichmentAdapter<CacheKey>
 	public void cleanup() {
 
 	}
+
+	/**
+	 * The known hosts are only read once the adapter is created.
+	 */
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
 }
@@ -23,6 +23,8 @@ import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import org.apache.hadoop.conf.Configuration;
@@ -33,6 +35,7 @@ import org.apache.metron.enrichment.converter.EnrichmentValue;
 import org.apache.metron.enrichment.interfaces.EnrichmentAdapter;
 import org.apache.metron.enrichment.lookup.EnrichmentLookup;
 import org.apache.metron.enrichment.lookup.LookupKV;
+import org.apache.metron.enrichment.lookup.handler.KeyWithContext;
 import org.apache.metron.enrichment.lookup.accesstracker.NoopAccessTracker;
 import org.apache.metron.enrichment.utils.EnrichmentUtils;
 import org.json.simple.JSONObject;
@@ -63,31 +66,60 @@ public class SimpleHBaseAdapter implements EnrichmentAdapter<CacheKey>,Serializa
   public boolean isInitialized() {
     return lookup != null && lookup.getTable() != null;
   }
+
+  /**
+   * Each thread looks up with a table of its own.
+   */
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
   @Override
   public JSONObject enrich(CacheKey value) {
-    JSONObject enriched = new JSONObject();
+    return enrichAll(Collections.singletonList(value)).get(0);
+  }
+
+  /**
+   * Enriches the values with a single multi-get against the enrichment table, rather than
+   * one get per value.
+   */
+  @Override
+  public List<JSONObject> enrichAll(List<CacheKey> values) {
     if(!isInitialized()) {
       initializeAdapter(null);
     }
-    List<String> enrichmentTypes = value.getConfig()
-                                        .getEnrichment().getFieldToTypeMap()
-                                        .get(EnrichmentUtils.toTopLevelField(value.getField()));
-    if(isInitialized() && enrichmentTypes != null && value.getValue() != null) {
-      try {
-        for (LookupKV<EnrichmentKey, EnrichmentValue> kv :
-                lookup.get(Iterables.transform(enrichmentTypes
-                                              , new EnrichmentUtils.TypeToKey( value.coerceValue(String.class)
-                                                                             , lookup.getTable()
-                                                                             , value.getConfig().getEnrichment()
-                                                                             )
-                                              )
-                          , false
-                          )
-            )
+    List<JSONObject> ret = new ArrayList<>(values.size());
+    List<KeyWithContext<EnrichmentKey, EnrichmentLookup.HBaseContext>> keys = new ArrayList<>();
+    List<Integer> owners = new ArrayList<>();
+    for(int i = 0;i < values.size();++i) {
+      CacheKey value = values.get(i);
+      ret.add(new JSONObject());
+      List<String> enrichmentTypes = value.getConfig()
+                                          .getEnrichment().getFieldToTypeMap()
+                                          .get(EnrichmentUtils.toTopLevelField(value.getField()));
+      if(isInitialized() && enrichmentTypes != null && value.getValue() != null) {
+        for(KeyWithContext<EnrichmentKey, EnrichmentLookup.HBaseContext> key :
+                Iterables.transform(enrichmentTypes
+                                   , new EnrichmentUtils.TypeToKey( value.coerceValue(String.class)
+                                                                  , lookup.getTable()
+                                                                  , value.getConfig().getEnrichment()
+                                                                  )
+                                   )
+           )
         {
+          keys.add(key);
+          owners.add(i);
+        }
+      }
+    }
+    if(!keys.isEmpty()) {
+      try {
+        int i = 0;
+        for (LookupKV<EnrichmentKey, EnrichmentValue> kv : lookup.get(keys, false)) {
+          JSONObject enriched = ret.get(owners.get(i++));
           if (kv != null && kv.getValue() != null && kv.getValue().getMetadata() != null) {
-            for (Map.Entry<String, Object> values : kv.getValue().getMetadata().entrySet()) {
-              enriched.put(kv.getKey().type + "." + values.getKey(), values.getValue());
+            for (Map.Entry<String, Object> metadata : kv.getValue().getMetadata().entrySet()) {
+              enriched.put(kv.getKey().type + "." + metadata.getKey(), metadata.getValue());
             }
             LOG.trace("Enriched type {} => {}", kv.getKey().type, enriched);
           }
@@ -99,8 +131,8 @@ public class SimpleHBaseAdapter implements EnrichmentAdapter<CacheKey>,Serializa
         throw new RuntimeException("Unable to retrieve value: " + e.getMessage(), e);
       }
     }
-    LOG.trace("SimpleHBaseAdapter succeeded: {}", enriched);
-    return enriched;
+    LOG.trace("SimpleHBaseAdapter succeeded: {}", ret);
+    return ret;
   }
 
   @Override
@@ -108,7 +140,9 @@ public class SimpleHBaseAdapter implements EnrichmentAdapter<CacheKey>,Serializa
     String hbaseTable = config.getHBaseTable();
     Configuration hbaseConfig = HBaseConfiguration.create();
     try {
-      lookup = new EnrichmentLookup( config.getProvider().getTable(hbaseConfig, hbaseTable)
+      lookup = new EnrichmentLookup( config.getProvider()
+                                   , hbaseConfig
+                                   , hbaseTable
                                    , config.getHBaseCF()
                                    , new NoopAccessTracker()
                                    );
@@ -81,6 +81,15 @@ public class StellarAdapter implements EnrichmentAdapter<CacheKey>,Serializable
     return field;
   }
 
+  /**
+   * Each enrichment uses a processor of its own, so the adapter is as thread-safe as the
+   * Stellar functions which the enrichments call.
+   */
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   public static Iterable<Map.Entry<String, Object>> getStellarStatements(ConfigHandler handler, String field) {
     if(field.length() == 0) {
       return handler.getType().toConfig(handler.getConfig());
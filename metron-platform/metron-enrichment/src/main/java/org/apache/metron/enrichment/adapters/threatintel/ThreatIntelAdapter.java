@@ -21,6 +21,8 @@ import com.google.common.collect.Iterables;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -32,6 +34,7 @@ import org.apache.metron.enrichment.interfaces.EnrichmentAdapter;
 import org.apache.metron.enrichment.lookup.EnrichmentLookup;
 import org.apache.metron.enrichment.lookup.accesstracker.BloomAccessTracker;
 import org.apache.metron.enrichment.lookup.accesstracker.PersistentAccessTracker;
+import org.apache.metron.enrichment.lookup.handler.KeyWithContext;
 import org.apache.metron.enrichment.utils.EnrichmentUtils;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
@@ -66,30 +69,50 @@ public class ThreatIntelAdapter implements EnrichmentAdapter<CacheKey>,Serializa
 
   @Override
   public JSONObject enrich(CacheKey value) {
+    return enrichAll(Collections.singletonList(value)).get(0);
+  }
+
+  /**
+   * Checks the threat intel for all of the values with a single multi-exists against the
+   * threat intel table, rather than one request per value.
+   */
+  @Override
+  public List<JSONObject> enrichAll(List<CacheKey> values) {
     if(!isInitialized()) {
       initializeAdapter(null);
     }
-    JSONObject enriched = new JSONObject();
-    List<String> enrichmentTypes = value.getConfig()
-                                        .getThreatIntel().getFieldToTypeMap()
-                                        .get(EnrichmentUtils.toTopLevelField(value.getField()));
-    if(isInitialized() && enrichmentTypes != null) {
-      int i = 0;
-      try {
-        for (Boolean isThreat :
-                lookup.exists(Iterables.transform(enrichmentTypes
-                                                 , new EnrichmentUtils.TypeToKey(value.coerceValue(String.class)
-                                                                                , lookup.getTable()
-                                                                                , value.getConfig().getThreatIntel()
-                                                                                )
-                                                 )
-                             , false
-                             )
-            )
+    List<JSONObject> ret = new ArrayList<>(values.size());
+    List<KeyWithContext<EnrichmentKey, EnrichmentLookup.HBaseContext>> keys = new ArrayList<>();
+    List<Integer> owners = new ArrayList<>();
+    for(int i = 0;i < values.size();++i) {
+      CacheKey value = values.get(i);
+      ret.add(new JSONObject());
+      List<String> enrichmentTypes = value.getConfig()
+                                          .getThreatIntel().getFieldToTypeMap()
+                                          .get(EnrichmentUtils.toTopLevelField(value.getField()));
+      if(isInitialized() && enrichmentTypes != null) {
+        for(KeyWithContext<EnrichmentKey, EnrichmentLookup.HBaseContext> key :
+                Iterables.transform(enrichmentTypes
+                                   , new EnrichmentUtils.TypeToKey(value.coerceValue(String.class)
+                                                                  , lookup.getTable()
+                                                                  , value.getConfig().getThreatIntel()
+                                                                  )
+                                   )
+           )
         {
-          String enrichmentType = enrichmentTypes.get(i++);
+          keys.add(key);
+          owners.add(i);
+        }
+      }
+    }
+    if(!keys.isEmpty()) {
+      try {
+        int i = 0;
+        for (Boolean isThreat : lookup.exists(keys, false)) {
+          KeyWithContext<EnrichmentKey, EnrichmentLookup.HBaseContext> key = keys.get(i);
+          JSONObject enriched = ret.get(owners.get(i++));
           if (isThreat) {
-            enriched.put(enrichmentType, "alert");
+            enriched.put(key.getKey().type, "alert");
             LOG.trace("Theat Intel Enriched value => {}", enriched);
           }
         }
@@ -100,14 +123,22 @@ public class ThreatIntelAdapter implements EnrichmentAdapter<CacheKey>,Serializa
         throw new RuntimeException("Theat Intel Unable to retrieve value", e);
       }
     }
-    LOG.trace("Threat Intel Enrichment Success: {}", enriched);
-    return enriched;
+    LOG.trace("Threat Intel Enrichment Success: {}", ret);
+    return ret;
   }
 
   public boolean isInitialized() {
     return lookup != null && lookup.getTable() != null;
   }
 
+  /**
+   * Each thread looks up with a table of its own.
+   */
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   @Override
   public boolean initializeAdapter(Map<String, Object> configuration) {
     PersistentAccessTracker accessTracker;
@@ -127,7 +158,7 @@ public class ThreatIntelAdapter implements EnrichmentAdapter<CacheKey>,Serializa
               , bat
               , millisecondsBetweenPersist
       );
-      lookup = new EnrichmentLookup(config.getProvider().getTable(hbaseConfig, hbaseTable), config.getHBaseCF(), accessTracker);
+      lookup = new EnrichmentLookup(config.getProvider(), hbaseConfig, hbaseTable, config.getHBaseCF(), accessTracker);
     } catch (IOException e) {
       LOG.error("Unable to initialize ThreatIntelAdapter", e);
       return false;
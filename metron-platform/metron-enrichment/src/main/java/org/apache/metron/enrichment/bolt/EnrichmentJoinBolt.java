@@ -76,6 +76,17 @@ public class EnrichmentJoinBolt extends JoinBolt<JSONObject> {
       JSONObject obj = (JSONObject) messageGetStrategy.get(tuple);
       message.putAll(obj);
     }
+    removeEmptyFields(message);
+    message.put(getClass().getSimpleName().toLowerCase() + ".joiner.ts", "" + System.currentTimeMillis());
+    return  message;
+  }
+
+  /**
+   * Removes the fields with a null or empty value from the joined message.
+   *
+   * @param message The joined message
+   */
+  static void removeEmptyFields(JSONObject message) {
     List<Object> emptyKeys = new ArrayList<>();
     for(Object key : message.keySet()) {
       Object value = message.get(key);
@@ -86,8 +97,6 @@ public class EnrichmentJoinBolt extends JoinBolt<JSONObject> {
     for(Object o : emptyKeys) {
       message.remove(o);
     }
-    message.put(getClass().getSimpleName().toLowerCase() + ".joiner.ts", "" + System.currentTimeMillis());
-    return  message;
   }
 
  protected Map<String, ConfigHandler> getFieldToHandlerMap(String sensorType) {
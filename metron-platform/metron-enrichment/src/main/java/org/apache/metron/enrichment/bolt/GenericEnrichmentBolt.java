@@ -21,8 +21,19 @@ package org.apache.metron.enrichment.bolt;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.metron.common.Constants;
@@ -36,6 +47,7 @@ import org.apache.metron.enrichment.configuration.Enrichment;
 import org.apache.metron.enrichment.interfaces.EnrichmentAdapter;
 import org.apache.metron.stellar.dsl.Context;
 import org.apache.metron.stellar.dsl.StellarFunctions;
+import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -46,6 +58,8 @@ import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static org.apache.storm.utils.TupleUtils.isTick;
+
 /**
  * Uses an adapter to enrich telemetry messages with additional metadata
  * entries. For a list of available enrichment adapters see
@@ -80,6 +94,16 @@ public class GenericEnrichmentBolt extends ConfiguredEnrichmentBolt {
   protected Long maxCacheSize;
   protected Long maxTimeRetain;
   protected boolean invalidateCacheOnReload = false;
+  protected int maxInFlightLookups = 0;
+  protected transient ExecutorService lookupExecutor;
+  protected transient Semaphore inFlightLookups;
+  protected transient Queue<Runnable> completedLookups;
+  protected int lookupBatchSize = 1;
+  protected long lookupBatchWindowMillis = 100;
+  protected transient Map<CacheKey, CompletableFuture<JSONObject>> pendingLookups;
+  protected transient long pendingLookupsStartTime;
+  protected long sharedCacheBytes = 0;
+  protected boolean offHeapCache = false;
 
   public GenericEnrichmentBolt(String zookeeperUrl) {
     super(zookeeperUrl);
@@ -116,6 +140,70 @@ public class GenericEnrichmentBolt extends ConfiguredEnrichmentBolt {
     return this;
   }
 
+  /**
+   * Perform cache misses asynchronously rather than on the executor thread.  Enriched messages
+   * are emitted once all of their lookups complete.
+   *
+   * @param maxInFlightLookups Maximum number of lookups in flight for this task; 0 (the default)
+   *                           performs every lookup synchronously
+   * @return Instance of this class
+   */
+
+  public GenericEnrichmentBolt withMaxInFlightLookups(int maxInFlightLookups) {
+    this.maxInFlightLookups = maxInFlightLookups;
+    return this;
+  }
+
+  /**
+   * Coalesce cache misses across tuples so that the adapter can resolve them together, e.g. with
+   * a single multi-get against HBase.  Enriched messages are emitted once all of their lookups complete.
+   *
+   * @param lookupBatchSize Maximum number of distinct cache misses to resolve together; 1 (the default)
+   *                        resolves each cache miss individually
+   * @return Instance of this class
+   */
+
+  public GenericEnrichmentBolt withLookupBatchSize(int lookupBatchSize) {
+    this.lookupBatchSize = lookupBatchSize;
+    return this;
+  }
+
+  /**
+   * @param lookupBatchWindowMillis Maximum time a cache miss waits to be coalesced with others before
+   *                                being resolved
+   * @return Instance of this class
+   */
+
+  public GenericEnrichmentBolt withLookupBatchWindowMillis(long lookupBatchWindowMillis) {
+    this.lookupBatchWindowMillis = lookupBatchWindowMillis;
+    return this;
+  }
+
+  /**
+   * Share the cache with the other bolts of this worker rather than caching per task.  Tasks of
+   * the same component then reuse each other's lookups.  maxCacheSize is ignored.  Every bolt of
+   * the worker must ask for the same cache; see {@link SharedEnrichmentCache#getInstance}.
+   *
+   * @param sharedCacheBytes Approximate maximum size of the cache shared by the worker; 0 (the default)
+   *                         gives each task a cache of its own
+   * @return Instance of this class
+   */
+
+  public GenericEnrichmentBolt withSharedCache(long sharedCacheBytes) {
+    this.sharedCacheBytes = sharedCacheBytes;
+    return this;
+  }
+
+  /**
+   * @param offHeapCache Whether the shared cache holds its entries off-heap
+   * @return Instance of this class
+   */
+
+  public GenericEnrichmentBolt withOffHeapCache(boolean offHeapCache) {
+    this.offHeapCache = offHeapCache;
+    return this;
+  }
+
   public GenericEnrichmentBolt withCacheInvalidationOnReload(boolean cacheInvalidationOnReload) {
     this.invalidateCacheOnReload= cacheInvalidationOnReload;
     return this;
@@ -139,7 +227,7 @@ public class GenericEnrichmentBolt extends ConfiguredEnrichmentBolt {
                       OutputCollector collector) {
     super.prepare(conf, topologyContext, collector);
     this.collector = collector;
-    if (this.maxCacheSize == null)
+    if (this.maxCacheSize == null && !isSharedCache())
       throw new IllegalStateException("MAX_CACHE_SIZE_OBJECTS_NUM must be specified");
     if (this.maxTimeRetain == null)
       throw new IllegalStateException("MAX_TIME_RETAIN_MINUTES must be specified");
@@ -151,18 +239,73 @@ public class GenericEnrichmentBolt extends ConfiguredEnrichmentBolt {
         return adapter.enrich(key);
       }
     };
-    cache = CacheBuilder.newBuilder().maximumSize(maxCacheSize)
-            .expireAfterWrite(maxTimeRetain, TimeUnit.MINUTES)
-            .build(loader);
+    if (isSharedCache()) {
+      SharedEnrichmentCache.View view = SharedEnrichmentCache.getInstance(conf, sharedCacheBytes, offHeapCache, maxTimeRetain)
+              .view(topologyContext.getThisComponentId(), loader);
+      topologyContext.registerMetric("enrichmentCache", view, 60);
+      cache = view;
+    } else {
+      cache = CacheBuilder.newBuilder().maximumSize(maxCacheSize)
+              .expireAfterWrite(maxTimeRetain, TimeUnit.MINUTES)
+              .build(loader);
+    }
     boolean success = adapter.initializeAdapter(getConfigurations().getGlobalConfig());
     if (!success) {
       LOG.error("[Metron] GenericEnrichmentBolt could not initialize adapter");
       throw new IllegalStateException("Could not initialize adapter...");
     }
+    if (isAsync()) {
+      lookupExecutor = Executors.newFixedThreadPool(maxInFlightLookups, new ThreadFactoryBuilder()
+              .setNameFormat(enrichmentType + "-lookup-%d")
+              .setDaemon(true)
+              .build());
+      inFlightLookups = new Semaphore(maxInFlightLookups);
+    }
+    if (isBatching()) {
+      pendingLookups = new LinkedHashMap<>();
+    }
+    if (isDeferred()) {
+      completedLookups = new ConcurrentLinkedQueue<>();
+    }
     perfLog = new PerformanceLogger(() -> getConfigurations().getGlobalConfig(), GenericEnrichmentBolt.Perf.class.getName());
     initializeStellar();
   }
 
+  protected boolean isSharedCache() {
+    return sharedCacheBytes > 0;
+  }
+
+  protected boolean isAsync() {
+    return maxInFlightLookups > 0;
+  }
+
+  protected boolean isBatching() {
+    return lookupBatchSize > 1;
+  }
+
+  /**
+   * @return Whether messages are emitted once their lookups complete rather than as each tuple is executed
+   */
+  protected boolean isDeferred() {
+    return isAsync() || isBatching();
+  }
+
+  /**
+   * When lookups are deferred, request a tick tuple so that pending lookups are still resolved
+   * and completed messages are still emitted when no new tuples arrive.
+   */
+  @Override
+  public Map<String, Object> getComponentConfiguration() {
+    Map<String, Object> conf = super.getComponentConfiguration();
+    if (isDeferred()) {
+      if (conf == null) {
+        conf = new HashMap<>();
+      }
+      conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+    }
+    return conf;
+  }
+
   protected void initializeStellar() {
     stellarContext = new Context.Builder()
                          .with(Context.Capabilities.ZOOKEEPER_CLIENT, () -> client)
@@ -181,6 +324,18 @@ public class GenericEnrichmentBolt extends ConfiguredEnrichmentBolt {
   @SuppressWarnings("unchecked")
   @Override
   public void execute(Tuple tuple) {
+    if (isDeferred()) {
+      emitCompletedLookups();
+      if (!isTick(tuple)) {
+        executeAsync(tuple);
+      }
+      if (isBatching() && !pendingLookups.isEmpty()
+              && (isTick(tuple) || System.currentTimeMillis() - pendingLookupsStartTime >= lookupBatchWindowMillis)) {
+        flushPendingLookups();
+      }
+      emitCompletedLookups();
+      return;
+    }
     perfLog.mark("execute");
     String key = tuple.getStringByField("key");
     JSONObject rawMessage = (JSONObject) tuple.getValueByField("message");
@@ -245,16 +400,7 @@ public class GenericEnrichmentBolt extends ConfiguredEnrichmentBolt {
               continue;
             }
           }
-          if ( !enrichedField.isEmpty()) {
-            for (Object enrichedKey : enrichedField.keySet()) {
-              if(!StringUtils.isEmpty(prefix)) {
-                enrichedMessage.put(field + "." + enrichedKey, enrichedField.get(enrichedKey));
-              }
-              else {
-                enrichedMessage.put(enrichedKey, enrichedField.get(enrichedKey));
-              }
-            }
-          }
+          addEnrichedFields(enrichedMessage, field, prefix, enrichedField);
         }
       }
 
@@ -268,6 +414,213 @@ public class GenericEnrichmentBolt extends ConfiguredEnrichmentBolt {
     perfLog.log("execute", "key={}, elapsed time to run execute", key);
   }
 
+  /**
+   * Dispatches the lookups for every field of the message without waiting on them.  Cache hits
+   * complete immediately; cache misses are either coalesced with those of other messages or handed
+   * to the adapter's asynchronous enrichment, bounded by the number of lookups allowed in flight.
+   * Once every lookup for the message has completed,
+   * the enriched message is queued for emission on the executor thread.
+   */
+  @SuppressWarnings("unchecked")
+  protected void executeAsync(Tuple tuple) {
+    perfLog.mark("execute");
+    String key = tuple.getStringByField("key");
+    JSONObject rawMessage = (JSONObject) tuple.getValueByField("message");
+    String subGroup = "";
+
+    JSONObject enrichedMessage = new JSONObject();
+    enrichedMessage.put("adapter." + adapter.getClass().getSimpleName().toLowerCase() + ".begin.ts", "" + System.currentTimeMillis());
+    try {
+      if (rawMessage == null || rawMessage.isEmpty())
+        throw new Exception("Could not parse binary stream to JSON");
+      if (key == null)
+        throw new Exception("Key is not valid");
+      if(!rawMessage.containsKey(Constants.SENSOR_TYPE)) {
+        throw new RuntimeException("Source type is missing from enrichment fragment: " + rawMessage.toJSONString());
+      }
+      String sourceType = rawMessage.get(Constants.SENSOR_TYPE).toString();
+      List<String> fields = new ArrayList<>();
+      List<String> prefixes = new ArrayList<>();
+      List<CompletableFuture<JSONObject>> lookups = new ArrayList<>();
+      for (Object o : rawMessage.keySet()) {
+        String field = (String) o;
+        Object value =  rawMessage.get(field);
+        if (field.equals(Constants.SENSOR_TYPE)) {
+          enrichedMessage.put(Constants.SENSOR_TYPE, value);
+        } else if (value != null) {
+          SensorEnrichmentConfig config = getConfigurations().getSensorEnrichmentConfig(sourceType);
+          if(config == null) {
+            LOG.error("Unable to find SensorEnrichmentConfig for sourceType: {}", sourceType);
+            MetronError metronError = new MetronError()
+                    .withErrorType(Constants.ErrorType.ENRICHMENT_ERROR)
+                    .withMessage("Unable to find SensorEnrichmentConfig for sourceType: " + sourceType)
+                    .addRawMessage(rawMessage);
+            ErrorUtils.handleError(collector, metronError);
+            continue;
+          }
+          config.getConfiguration().putIfAbsent(STELLAR_CONTEXT_CONF, stellarContext);
+          CacheKey cacheKey= new CacheKey(field, value, config);
+          CompletableFuture<JSONObject> lookup;
+          try {
+            adapter.logAccess(cacheKey);
+            prefixes.add(adapter.getOutputPrefix(cacheKey));
+            subGroup = adapter.getStreamSubGroup(enrichmentType, field);
+            lookup = lookup(cacheKey);
+          }
+          catch(Exception e) {
+            lookup = new CompletableFuture<>();
+            lookup.completeExceptionally(e);
+            prefixes.add(null);
+          }
+          fields.add(field);
+          lookups.add(lookup);
+        }
+      }
+      String finalSubGroup = subGroup;
+      CompletableFuture.allOf(lookups.toArray(new CompletableFuture[lookups.size()]))
+              .whenComplete((v, t) -> completedLookups.add(() -> {
+                for (int i = 0; i < lookups.size(); ++i) {
+                  String field = fields.get(i);
+                  try {
+                    addEnrichedFields(enrichedMessage, field, prefixes.get(i), lookups.get(i).join());
+                  }
+                  catch(Exception e) {
+                    Throwable cause = e.getCause() == null ? e : e.getCause();
+                    LOG.error(cause.getMessage(), cause);
+                    MetronError metronError = new MetronError()
+                            .withErrorType(Constants.ErrorType.ENRICHMENT_ERROR)
+                            .withThrowable(cause)
+                            .withErrorFields(new HashSet() {{ add(field); }})
+                            .addRawMessage(rawMessage);
+                    ErrorUtils.handleError(collector, metronError);
+                  }
+                }
+                enrichedMessage.put("adapter." + adapter.getClass().getSimpleName().toLowerCase() + ".end.ts", "" + System.currentTimeMillis());
+                collector.emit(enrichmentType, new Values(key, enrichedMessage, finalSubGroup));
+              }));
+    } catch (Exception e) {
+      handleError(key, rawMessage, subGroup, enrichedMessage, e);
+    }
+    perfLog.log("execute", "key={}, elapsed time to dispatch lookups", key);
+  }
+
+  /**
+   * Looks up a key, serving it from the cache when possible.  Blocks only when the maximum
+   * number of lookups are already in flight.
+   */
+  protected CompletableFuture<JSONObject> lookup(CacheKey cacheKey) {
+    JSONObject cached = cache.getIfPresent(cacheKey);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    if (isBatching()) {
+      CompletableFuture<JSONObject> pending = pendingLookups.get(cacheKey);
+      if (pending == null) {
+        if (pendingLookups.isEmpty()) {
+          pendingLookupsStartTime = System.currentTimeMillis();
+        }
+        pending = new CompletableFuture<>();
+        pendingLookups.put(cacheKey, pending);
+        if (pendingLookups.size() >= lookupBatchSize) {
+          flushPendingLookups();
+        }
+      }
+      return pending;
+    }
+    inFlightLookups.acquireUninterruptibly();
+    CompletableFuture<JSONObject> enrichment;
+    try {
+      enrichment = adapter.enrichAsync(cacheKey, lookupExecutor);
+    }
+    catch(RuntimeException e) {
+      inFlightLookups.release();
+      throw e;
+    }
+    return enrichment.thenApply(enrichedField -> {
+      if (enrichedField == null) {
+        throw new IllegalStateException("[Metron] Could not enrich string: " + cacheKey.getValue());
+      }
+      cache.put(cacheKey, enrichedField);
+      return enrichedField;
+    }).whenComplete((enrichedField, t) -> inFlightLookups.release());
+  }
+
+  /**
+   * Resolves the pending cache misses with a single call to the adapter, asynchronously if
+   * lookups are asynchronous.  Identical keys requested by different messages are resolved once.
+   */
+  protected void flushPendingLookups() {
+    Map<CacheKey, CompletableFuture<JSONObject>> batch = pendingLookups;
+    pendingLookups = new LinkedHashMap<>();
+    if (isAsync()) {
+      inFlightLookups.acquireUninterruptibly();
+      try {
+        lookupExecutor.execute(() -> {
+          try {
+            resolveLookups(batch);
+          }
+          finally {
+            inFlightLookups.release();
+          }
+        });
+      }
+      catch(RuntimeException e) {
+        inFlightLookups.release();
+        batch.values().forEach(lookup -> lookup.completeExceptionally(e));
+      }
+    }
+    else {
+      resolveLookups(batch);
+    }
+  }
+
+  private void resolveLookups(Map<CacheKey, CompletableFuture<JSONObject>> batch) {
+    List<CacheKey> cacheKeys = new ArrayList<>(batch.keySet());
+    List<JSONObject> enrichedFields;
+    try {
+      enrichedFields = adapter.enrichAll(cacheKeys);
+    }
+    catch(Exception e) {
+      batch.values().forEach(lookup -> lookup.completeExceptionally(e));
+      return;
+    }
+    for (int i = 0; i < cacheKeys.size(); ++i) {
+      CacheKey cacheKey = cacheKeys.get(i);
+      JSONObject enrichedField = enrichedFields.get(i);
+      if (enrichedField == null) {
+        batch.get(cacheKey).completeExceptionally(new IllegalStateException("[Metron] Could not enrich string: " + cacheKey.getValue()));
+      }
+      else {
+        cache.put(cacheKey, enrichedField);
+        batch.get(cacheKey).complete(enrichedField);
+      }
+    }
+  }
+
+  /**
+   * Emits the messages whose lookups have all completed.  This must be called from the executor
+   * thread, as the output collector is not thread-safe.
+   */
+  protected void emitCompletedLookups() {
+    Runnable emission;
+    while ((emission = completedLookups.poll()) != null) {
+      emission.run();
+    }
+  }
+
+  static void addEnrichedFields(JSONObject enrichedMessage, String field, String prefix, JSONObject enrichedField) {
+    if ( !enrichedField.isEmpty()) {
+      for (Object enrichedKey : enrichedField.keySet()) {
+        if(!StringUtils.isEmpty(prefix)) {
+          enrichedMessage.put(field + "." + enrichedKey, enrichedField.get(enrichedKey));
+        }
+        else {
+          enrichedMessage.put(enrichedKey, enrichedField.get(enrichedKey));
+        }
+      }
+    }
+  }
+
   // Made protected to allow for error testing in integration test. Directly flaws inputs while everything is functioning hits other
   // errors, so this is made available in order to ensure ERROR_STREAM is output properly.
   protected void handleError(String key, JSONObject rawMessage, String subGroup, JSONObject enrichedMessage, Exception e) {
@@ -284,6 +637,9 @@ public class GenericEnrichmentBolt extends ConfiguredEnrichmentBolt {
 
   @Override
   public void cleanup() {
+    if (lookupExecutor != null) {
+      lookupExecutor.shutdownNow();
+    }
     adapter.cleanup();
   }
 
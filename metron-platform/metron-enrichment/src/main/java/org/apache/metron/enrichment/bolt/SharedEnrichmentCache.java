@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.enrichment.bolt;
+
+import com.google.common.cache.AbstractLoadingCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.storm.metric.api.IMetric;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of enrichments shared by every bolt in a worker, so that executors reuse each other's
+ * lookups rather than each warming up a cache of their own.  Entries are namespaced, typically
+ * by component, and the cache as a whole is bounded by a single memory budget.
+ * <p>
+ * Entries may optionally be held off-heap in direct buffers as serialized JSON, in which case
+ * every hit is deserialized into a new message.
+ * <p>
+ * The settings of the cache are best given in the topology configuration, so that every bolt of
+ * a worker asks for the same cache whichever is prepared first.
+ */
+public class SharedEnrichmentCache {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  // Rough per-entry overhead of the key, the map entry and the value wrapper
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+  public static final String MAX_CACHE_BYTES_CONF = "metron.enrichment.shared.cache.bytes";
+  public static final String OFF_HEAP_CONF = "metron.enrichment.shared.cache.offheap";
+  public static final String MAX_TIME_RETAIN_CONF = "metron.enrichment.shared.cache.max.time.retain.minutes";
+  private static SharedEnrichmentCache instance;
+
+  private final Cache<Key, Object> cache;
+  private final long maxCacheBytes;
+  private final boolean offHeap;
+  private final long maxTimeRetain;
+  private final Map<String, AtomicLong> evictions = new ConcurrentHashMap<>();
+
+  /**
+   * Retrieves the cache of this worker, creating it on first use.  Each setting given in the
+   * topology configuration overrides that of the caller.
+   *
+   * @param stormConf The topology configuration
+   * @param maxCacheBytes Approximate maximum size of all cached enrichments, unless given as {@value #MAX_CACHE_BYTES_CONF}
+   * @param offHeap Whether to hold cached enrichments off-heap, unless given as {@value #OFF_HEAP_CONF}
+   * @param maxTimeRetain Maximum time in minutes to retain a cached enrichment, unless given as {@value #MAX_TIME_RETAIN_CONF}
+   * @return The cache of this worker
+   * @throws IllegalStateException If the cache was already created with other settings
+   */
+  public static synchronized SharedEnrichmentCache getInstance(Map stormConf, long maxCacheBytes, boolean offHeap, long maxTimeRetain) {
+    Object bytes = stormConf == null ? null : stormConf.get(MAX_CACHE_BYTES_CONF);
+    Object heap = stormConf == null ? null : stormConf.get(OFF_HEAP_CONF);
+    Object retain = stormConf == null ? null : stormConf.get(MAX_TIME_RETAIN_CONF);
+    maxCacheBytes = bytes == null ? maxCacheBytes : Long.parseLong(bytes.toString());
+    offHeap = heap == null ? offHeap : Boolean.parseBoolean(heap.toString());
+    maxTimeRetain = retain == null ? maxTimeRetain : Long.parseLong(retain.toString());
+    if (instance == null) {
+      LOG.info("Creating shared enrichment cache of {} bytes, offHeap={}, maxTimeRetain={}", maxCacheBytes, offHeap, maxTimeRetain);
+      instance = new SharedEnrichmentCache(maxCacheBytes, offHeap, maxTimeRetain);
+    } else if (instance.maxCacheBytes != maxCacheBytes || instance.offHeap != offHeap || instance.maxTimeRetain != maxTimeRetain) {
+      throw new IllegalStateException(String.format("Shared enrichment cache already created with %d bytes, offHeap=%s and maxTimeRetain=%d"
+                      + " rather than %d bytes, offHeap=%s and maxTimeRetain=%d; set %s, %s and %s in the topology configuration"
+                      + " to give every bolt the same cache", instance.maxCacheBytes, instance.offHeap, instance.maxTimeRetain
+              , maxCacheBytes, offHeap, maxTimeRetain, MAX_CACHE_BYTES_CONF, OFF_HEAP_CONF, MAX_TIME_RETAIN_CONF));
+    }
+    return instance;
+  }
+
+  public SharedEnrichmentCache(long maxCacheBytes, boolean offHeap, long maxTimeRetain) {
+    this.maxCacheBytes = maxCacheBytes;
+    this.offHeap = offHeap;
+    this.maxTimeRetain = maxTimeRetain;
+    this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxCacheBytes)
+            .weigher((Key key, Object value) -> ENTRY_OVERHEAD_BYTES + weigh(value))
+            .expireAfterWrite(maxTimeRetain, TimeUnit.MINUTES)
+            .removalListener(notification -> {
+              if (notification.wasEvicted() && notification.getKey() != null) {
+                evictions.computeIfAbsent(notification.getKey().namespace, ns -> new AtomicLong()).incrementAndGet();
+              }
+            })
+            .build();
+  }
+
+  /**
+   * @param namespace The namespace of the view, which must be unique to the adapter behind the loader
+   * @param loader Loads enrichments missing from the cache
+   * @return A view of the entries within the namespace
+   */
+  public View view(String namespace, CacheLoader<CacheKey, JSONObject> loader) {
+    return new View(namespace, loader);
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  private static int weigh(Object value) {
+    if (value instanceof ByteBuffer) {
+      return ((ByteBuffer) value).capacity();
+    }
+    // Approximate the heap used by the strings of the message
+    return 2 * ((JSONObject) value).toJSONString().length();
+  }
+
+  private Object encode(JSONObject value) {
+    if (!offHeap) {
+      return value;
+    }
+    byte[] bytes = value.toJSONString().getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes);
+    buffer.flip();
+    return buffer;
+  }
+
+  private JSONObject decode(Object value) {
+    if (!(value instanceof ByteBuffer)) {
+      return (JSONObject) value;
+    }
+    ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    try {
+      return (JSONObject) new JSONParser().parse(new String(bytes, StandardCharsets.UTF_8));
+    } catch (ParseException e) {
+      throw new IllegalStateException("Unable to deserialize cached enrichment", e);
+    }
+  }
+
+  private static class Key {
+    private final String namespace;
+    private final CacheKey cacheKey;
+
+    Key(String namespace, CacheKey cacheKey) {
+      this.namespace = namespace;
+      this.cacheKey = cacheKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      Key key = (Key) o;
+
+      return namespace.equals(key.namespace) && cacheKey.equals(key.cacheKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * namespace.hashCode() + cacheKey.hashCode();
+    }
+  }
+
+  /**
+   * The entries of a single namespace.  Concurrent misses for the same key, from any view of
+   * the namespace, are loaded once.
+   * <p>
+   * As a metric, reports the hits and misses of this view and the evictions from its namespace
+   * since the last report.
+   */
+  public class View extends AbstractLoadingCache<CacheKey, JSONObject> implements IMetric {
+    private final String namespace;
+    private final CacheLoader<CacheKey, JSONObject> loader;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private View(String namespace, CacheLoader<CacheKey, JSONObject> loader) {
+      this.namespace = namespace;
+      this.loader = loader;
+    }
+
+    @Override
+    public JSONObject get(CacheKey cacheKey) throws ExecutionException {
+      AtomicBoolean loaded = new AtomicBoolean(false);
+      Object value = cache.get(new Key(namespace, cacheKey), () -> {
+        loaded.set(true);
+        return encode(loader.load(cacheKey));
+      });
+      (loaded.get() ? misses : hits).incrementAndGet();
+      return decode(value);
+    }
+
+    @Override
+    public JSONObject getIfPresent(Object cacheKey) {
+      Object value = cache.getIfPresent(new Key(namespace, (CacheKey) cacheKey));
+      if (value == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      return decode(value);
+    }
+
+    @Override
+    public void put(CacheKey cacheKey, JSONObject value) {
+      cache.put(new Key(namespace, cacheKey), encode(value));
+    }
+
+    @Override
+    public void invalidate(Object cacheKey) {
+      cache.invalidate(new Key(namespace, (CacheKey) cacheKey));
+    }
+
+    @Override
+    public void invalidateAll() {
+      cache.asMap().keySet().removeIf(key -> key.namespace.equals(namespace));
+    }
+
+    @Override
+    public long size() {
+      return cache.asMap().keySet().stream().filter(key -> key.namespace.equals(namespace)).count();
+    }
+
+    @Override
+    public Object getValueAndReset() {
+      Map<String, Long> metrics = new HashMap<>();
+      metrics.put("hits", hits.getAndSet(0));
+      metrics.put("misses", misses.getAndSet(0));
+      AtomicLong evicted = evictions.get(namespace);
+      // Evictions are shared by the namespace, so are only reported by one of its views
+      metrics.put("evictions", evicted == null ? 0L : evicted.getAndSet(0));
+      return metrics;
+    }
+  }
+}
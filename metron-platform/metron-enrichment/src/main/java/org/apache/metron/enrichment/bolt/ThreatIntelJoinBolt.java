@@ -107,7 +107,7 @@ public class ThreatIntelJoinBolt extends EnrichmentJoinBolt {
   @Override
   public void prepare(Map map, TopologyContext topologyContext) {
     super.prepare(map, topologyContext);
-    GeoLiteDatabase.INSTANCE.update((String)getConfigurations().getGlobalConfig().get(GeoLiteDatabase.GEO_HDFS_FILE));
+    GeoLiteDatabase.INSTANCE.update(getConfigurations().getGlobalConfig());
     initializeStellar();
   }
 
@@ -137,6 +137,25 @@ public class ThreatIntelJoinBolt extends EnrichmentJoinBolt {
   public JSONObject joinMessages(Map<String, Tuple> streamMessageMap, MessageGetStrategy messageGetStrategy) {
     JSONObject ret = super.joinMessages(streamMessageMap, messageGetStrategy);
     LOG.trace("Received joined messages: {}", ret);
+    SensorEnrichmentConfig config = getConfigurations().getSensorEnrichmentConfig(MessageUtils.getSensorType(ret));
+    return triage(ret, config, functionResolver, stellarContext);
+  }
+
+  /**
+   * Marks the message as an alert if threat intel was found for it and, if so, attaches the
+   * threat triage score of the sensor's triage rules.
+   *
+   * @param ret The message with its threat intel.
+   * @param config The sensor's enrichment config.
+   * @param functionResolver The Stellar function resolver used to evaluate the triage rules.
+   * @param stellarContext The execution context for Stellar.
+   * @return The triaged message.
+   */
+  public static JSONObject triage( JSONObject ret
+                                 , SensorEnrichmentConfig config
+                                 , FunctionResolver functionResolver
+                                 , Context stellarContext
+                                 ) {
     boolean isAlert = ret.containsKey("is_alert");
     if(!isAlert) {
       for (Object key : ret.keySet()) {
@@ -156,7 +175,6 @@ public class ThreatIntelJoinBolt extends EnrichmentJoinBolt {
     if(isAlert) {
       ret.put("is_alert" , "true");
       String sourceType = MessageUtils.getSensorType(ret);
-      SensorEnrichmentConfig config = getConfigurations().getSensorEnrichmentConfig(sourceType);
       ThreatTriageConfig triageConfig = null;
       if(config != null) {
         triageConfig = config.getThreatIntel().getTriageConfig();
@@ -212,7 +230,7 @@ public class ThreatIntelJoinBolt extends EnrichmentJoinBolt {
    * @param threatScore The threat triage score
    * @param message The telemetry message being triaged.
    */
-  private void appendThreatScore(ThreatScore threatScore, JSONObject message) {
+  private static void appendThreatScore(ThreatScore threatScore, JSONObject message) {
 
     // append the overall threat score
     message.put(THREAT_TRIAGE_SCORE_KEY, threatScore.getScore());
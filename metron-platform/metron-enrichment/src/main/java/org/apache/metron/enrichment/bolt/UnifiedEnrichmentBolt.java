@@ -0,0 +1,562 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.metron.enrichment.bolt;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.bolt.ConfiguredEnrichmentBolt;
+import org.apache.metron.common.configuration.ConfigurationType;
+import org.apache.metron.common.configuration.enrichment.EnrichmentConfig;
+import org.apache.metron.common.configuration.enrichment.SensorEnrichmentConfig;
+import org.apache.metron.common.configuration.enrichment.handler.ConfigHandler;
+import org.apache.metron.common.error.MetronError;
+import org.apache.metron.common.message.MessageFormats;
+import org.apache.metron.common.performance.PerformanceLogger;
+import org.apache.metron.common.utils.ErrorUtils;
+import org.apache.metron.common.utils.MessageUtils;
+import org.apache.metron.enrichment.adapters.geo.GeoLiteDatabase;
+import org.apache.metron.enrichment.configuration.Enrichment;
+import org.apache.metron.enrichment.interfaces.EnrichmentAdapter;
+import org.apache.metron.enrichment.utils.EnrichmentUtils;
+import org.apache.metron.enrichment.utils.ThreatIntelUtils;
+import org.apache.metron.stellar.dsl.Context;
+import org.apache.metron.stellar.dsl.StellarFunctions;
+import org.apache.metron.stellar.dsl.functions.resolver.FunctionResolver;
+import org.apache.storm.Config;
+import org.apache.storm.task.OutputCollector;
+import org.apache.storm.task.TopologyContext;
+import org.apache.storm.topology.OutputFieldsDeclarer;
+import org.apache.storm.tuple.Fields;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.Values;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.apache.metron.enrichment.bolt.GenericEnrichmentBolt.STELLAR_CONTEXT_CONF;
+import static org.apache.storm.utils.TupleUtils.isTick;
+
+/**
+ * Enriches a message with every configured enrichment adapter in a single bolt and emits
+ * the fully enriched message.
+ * <p>
+ * This is an alternative to splitting the message into per-adapter fragments with the
+ * {@link EnrichmentSplitterBolt}, enriching each fragment in a {@link GenericEnrichmentBolt}
+ * and reassembling them in the {@link EnrichmentJoinBolt}.  The fragments are instead enriched
+ * in parallel on a thread pool within the bolt, so no join cache is needed and no fragments
+ * travel between workers.
+ * <p>
+ * The executor thread does not wait on the fragments.  Once every fragment of a message is
+ * enriched, the message is queued and then joined, triaged and emitted on the executor thread,
+ * either as the next tuple is executed or on a tick.  At most {@link #withMaxPendingMessages(int)}
+ * messages are pending at once.
+ * <p>
+ * Each task holds a single instance of each adapter, which is called concurrently for the
+ * fragments of a message that share that adapter, so every adapter must be
+ * {@link EnrichmentAdapter#isThreadSafe() thread-safe} when there is more than one thread.
+ **/
+@SuppressWarnings({"rawtypes", "serial"})
+public class UnifiedEnrichmentBolt extends ConfiguredEnrichmentBolt {
+
+  public static class Perf {} // used for performance logging
+  private PerformanceLogger perfLog; // not static bc multiple bolts may exist in same worker
+  protected static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /**
+   * Which portion of the sensor enrichment config the bolt applies.
+   */
+  public enum Strategy {
+    ENRICHMENT(SensorEnrichmentConfig::getEnrichment, EnrichmentUtils::getEnrichmentKey)
+    ,THREAT_INTEL(SensorEnrichmentConfig::getThreatIntel, ThreatIntelUtils::getThreatIntelKey)
+    ;
+    Function<SensorEnrichmentConfig, EnrichmentConfig> configGetter;
+    BiFunction<String, String, String> keyNamer;
+    Strategy(Function<SensorEnrichmentConfig, EnrichmentConfig> configGetter, BiFunction<String, String, String> keyNamer) {
+      this.configGetter = configGetter;
+      this.keyNamer = keyNamer;
+    }
+  }
+
+  private OutputCollector collector;
+  private Context stellarContext;
+  private FunctionResolver functionResolver;
+  protected Strategy strategy = Strategy.ENRICHMENT;
+  protected Map<String, EnrichmentAdapter<CacheKey>> adapters = new HashMap<>();
+  protected String messageFieldName;
+  protected Long maxCacheSize;
+  protected Long maxTimeRetain;
+  protected int numThreads = Runtime.getRuntime().availableProcessors();
+  protected int maxPendingMessages = 1000;
+  protected boolean invalidateCacheOnReload = false;
+  protected transient Map<String, LoadingCache<CacheKey, JSONObject>> caches;
+  protected transient ExecutorService enrichmentExecutor;
+  protected transient Semaphore pendingMessages;
+  protected transient Queue<Runnable> completedMessages;
+
+  public UnifiedEnrichmentBolt(String zookeeperUrl) {
+    super(zookeeperUrl);
+  }
+
+  /**
+   * @param enrichments The enrichments to apply, each keyed by its type in the sensor enrichment config
+   * @return Instance of this class
+   */
+
+  public UnifiedEnrichmentBolt withEnrichments(List<Enrichment> enrichments) {
+    for (Enrichment enrichment : enrichments) {
+      adapters.put(enrichment.getType(), enrichment.getAdapter());
+    }
+    return this;
+  }
+
+  /**
+   * @param strategy Either ENRICHMENT or THREAT_INTEL
+   * @return Instance of this class
+   */
+
+  public UnifiedEnrichmentBolt withStrategy(String strategy) {
+    this.strategy = Strategy.valueOf(strategy);
+    return this;
+  }
+
+  /**
+   * @param messageFieldName The field of the tuple holding the message; if unset, the message is
+   *                         parsed from the raw bytes of the tuple
+   * @return Instance of this class
+   */
+
+  public UnifiedEnrichmentBolt withMessageFieldName(String messageFieldName) {
+    this.messageFieldName = messageFieldName;
+    return this;
+  }
+
+  /**
+   * @param maxCacheSize Maximum size of each adapter's cache before flushing
+   * @return Instance of this class
+   */
+
+  public UnifiedEnrichmentBolt withMaxCacheSize(long maxCacheSize) {
+    this.maxCacheSize = maxCacheSize;
+    return this;
+  }
+
+  /**
+   * @param maxTimeRetain Maximum time to retain cached entry before expiring
+   * @return Instance of this class
+   */
+
+  public UnifiedEnrichmentBolt withMaxTimeRetain(long maxTimeRetain) {
+    this.maxTimeRetain = maxTimeRetain;
+    return this;
+  }
+
+  /**
+   * @param numThreads Number of threads used to enrich the fragments of each message in parallel
+   * @return Instance of this class
+   */
+
+  public UnifiedEnrichmentBolt withNumThreads(int numThreads) {
+    this.numThreads = numThreads;
+    return this;
+  }
+
+  /**
+   * @param maxPendingMessages Maximum number of messages being enriched at once by a task
+   * @return Instance of this class
+   */
+
+  public UnifiedEnrichmentBolt withMaxPendingMessages(int maxPendingMessages) {
+    this.maxPendingMessages = maxPendingMessages;
+    return this;
+  }
+
+  public UnifiedEnrichmentBolt withCacheInvalidationOnReload(boolean cacheInvalidationOnReload) {
+    this.invalidateCacheOnReload = cacheInvalidationOnReload;
+    return this;
+  }
+
+  @Override
+  public void reloadCallback(String name, ConfigurationType type) {
+    if(invalidateCacheOnReload && caches != null) {
+      for (LoadingCache<CacheKey, JSONObject> cache : caches.values()) {
+        cache.invalidateAll();
+      }
+    }
+    if(type == ConfigurationType.GLOBAL) {
+      for (EnrichmentAdapter<CacheKey> adapter : adapters.values()) {
+        adapter.updateAdapter(getConfigurations().getGlobalConfig());
+      }
+      if (strategy == Strategy.THREAT_INTEL) {
+        GeoLiteDatabase.INSTANCE.updateIfNecessary(getConfigurations().getGlobalConfig());
+      }
+    }
+  }
+
+  @Override
+  public void prepare(Map conf, TopologyContext topologyContext, OutputCollector collector) {
+    super.prepare(conf, topologyContext, collector);
+    this.collector = collector;
+    if (this.maxCacheSize == null)
+      throw new IllegalStateException("MAX_CACHE_SIZE_OBJECTS_NUM must be specified");
+    if (this.maxTimeRetain == null)
+      throw new IllegalStateException("MAX_TIME_RETAIN_MINUTES must be specified");
+    if (this.adapters.isEmpty())
+      throw new IllegalStateException("Enrichments must be specified");
+    caches = new HashMap<>();
+    for (Map.Entry<String, EnrichmentAdapter<CacheKey>> kv : adapters.entrySet()) {
+      EnrichmentAdapter<CacheKey> adapter = kv.getValue();
+      if (numThreads > 1 && !adapter.isThreadSafe()) {
+        throw new IllegalStateException("The adapter for " + kv.getKey() + " (" + adapter.getClass().getName()
+                + ") is not thread-safe; it may only be run with a single thread");
+      }
+      if (!adapter.initializeAdapter(getConfigurations().getGlobalConfig())) {
+        LOG.error("[Metron] UnifiedEnrichmentBolt could not initialize adapter for {}", kv.getKey());
+        throw new IllegalStateException("Could not initialize adapter for " + kv.getKey() + "...");
+      }
+      caches.put(kv.getKey(), CacheBuilder.newBuilder().maximumSize(maxCacheSize)
+              .expireAfterWrite(maxTimeRetain, TimeUnit.MINUTES)
+              .build(new CacheLoader<CacheKey, JSONObject>() {
+                @Override
+                public JSONObject load(CacheKey key) throws Exception {
+                  return adapter.enrich(key);
+                }
+              }));
+    }
+    enrichmentExecutor = Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder()
+            .setNameFormat(strategy.name().toLowerCase() + "-unified-%d")
+            .setDaemon(true)
+            .build());
+    pendingMessages = new Semaphore(maxPendingMessages);
+    completedMessages = new ConcurrentLinkedQueue<>();
+    if (strategy == Strategy.THREAT_INTEL) {
+      GeoLiteDatabase.INSTANCE.update(getConfigurations().getGlobalConfig());
+    }
+    perfLog = new PerformanceLogger(() -> getConfigurations().getGlobalConfig(), Perf.class.getName());
+    initializeStellar();
+  }
+
+  protected void initializeStellar() {
+    stellarContext = new Context.Builder()
+                         .with(Context.Capabilities.ZOOKEEPER_CLIENT, () -> client)
+                         .with(Context.Capabilities.GLOBAL_CONFIG, () -> getConfigurations().getGlobalConfig())
+                         .with(Context.Capabilities.STELLAR_CONFIG, () -> getConfigurations().getGlobalConfig())
+                         .build();
+    StellarFunctions.initialize(stellarContext);
+    functionResolver = StellarFunctions.FUNCTION_RESOLVER();
+  }
+
+  /**
+   * Request a tick tuple so that completed messages are still emitted when no new tuples arrive.
+   */
+  @Override
+  public Map<String, Object> getComponentConfiguration() {
+    Map<String, Object> conf = super.getComponentConfiguration();
+    if (conf == null) {
+      conf = new HashMap<>();
+    }
+    conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+    return conf;
+  }
+
+  @Override
+  public void declareOutputFields(OutputFieldsDeclarer declarer) {
+    declarer.declareStream("message", new Fields("key", "message"));
+    declarer.declareStream("error", new Fields("message"));
+  }
+
+  @Override
+  public void execute(Tuple tuple) {
+    emitCompletedMessages();
+    if (!isTick(tuple)) {
+      executeAsync(tuple);
+    }
+    emitCompletedMessages();
+  }
+
+  /**
+   * Starts enriching the fragments of a message without waiting on them.  Once they are all
+   * enriched, the message is queued to be completed and emitted on the executor thread.
+   */
+  protected void executeAsync(Tuple tuple) {
+    perfLog.mark("execute");
+    JSONObject message = null;
+    String key = null;
+    try {
+      message = generateMessage(tuple);
+      key = getKey(tuple, message);
+      acquirePendingMessage();
+      JSONObject rawMessage = message;
+      String messageKey = key;
+      Queue<MetronError> errors = new ConcurrentLinkedQueue<>();
+      PendingMessage pending;
+      try {
+        pending = enrichAsync(message, errors);
+      }
+      catch (RuntimeException e) {
+        pendingMessages.release();
+        throw e;
+      }
+      pending.fragments.whenComplete((v, t) -> completedMessages.add(() -> {
+        pendingMessages.release();
+        for (MetronError error : errors) {
+          ErrorUtils.handleError(collector, error);
+        }
+        try {
+          collector.emit("message", tuple, new Values(messageKey, complete(pending)));
+        } catch (Exception e) {
+          handleError(rawMessage, e);
+        }
+        collector.ack(tuple);
+      }));
+    } catch (Exception e) {
+      handleError(message, e);
+      collector.ack(tuple);
+    }
+    perfLog.log("execute", "key={}, elapsed time to dispatch enrichments", key);
+  }
+
+  /**
+   * Waits for a message to be allowed in flight, emitting the messages which complete meanwhile.
+   */
+  private void acquirePendingMessage() throws InterruptedException {
+    while (!pendingMessages.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+      emitCompletedMessages();
+    }
+  }
+
+  /**
+   * Emits the messages whose fragments have all been enriched.  This must be called from the
+   * executor thread, as the output collector is not thread-safe.
+   */
+  protected void emitCompletedMessages() {
+    Runnable emission;
+    while ((emission = completedMessages.poll()) != null) {
+      emission.run();
+    }
+  }
+
+  private void handleError(JSONObject message, Exception e) {
+    LOG.error("[Metron] Unable to enrich message: {}", message, e);
+    MetronError error = new MetronError()
+            .withErrorType(Constants.ErrorType.ENRICHMENT_ERROR)
+            .withThrowable(e);
+    if (message != null) {
+      error.addRawMessage(message);
+    }
+    ErrorUtils.handleError(collector, error);
+  }
+
+  public String getKey(Tuple tuple, JSONObject message) {
+    String key = null, guid = null;
+    try {
+      key = tuple.getStringByField("key");
+      guid = (String)message.get(Constants.GUID);
+    }
+    catch(Throwable t) {
+      //swallowing this just in case.
+    }
+    if(key != null) {
+      return key;
+    }
+    else if(guid != null) {
+      return guid;
+    }
+    else {
+      return UUID.randomUUID().toString();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public JSONObject generateMessage(Tuple tuple) throws Exception {
+    JSONObject message;
+    if (messageFieldName == null) {
+      message = MessageFormats.decodeAny(tuple.getBinary(0));
+    } else {
+      message = (JSONObject) tuple.getValueByField(messageFieldName);
+    }
+    if (message == null) {
+      throw new IllegalStateException("Unable to find a message in the tuple");
+    }
+    return message;
+  }
+
+  /**
+   * A message whose fragments are being enriched.
+   */
+  protected static class PendingMessage {
+    private final JSONObject message;
+    private final SensorEnrichmentConfig config;
+    private final List<CompletableFuture<JSONObject>> enrichments;
+    private final CompletableFuture<Void> fragments;
+    private final String timingPrefix;
+
+    PendingMessage(JSONObject message, SensorEnrichmentConfig config, List<CompletableFuture<JSONObject>> enrichments, String timingPrefix) {
+      this.message = message;
+      this.config = config;
+      this.enrichments = enrichments;
+      this.fragments = CompletableFuture.allOf(enrichments.toArray(new CompletableFuture[enrichments.size()]));
+      this.timingPrefix = timingPrefix;
+    }
+  }
+
+  /**
+   * Splits the message into a fragment per enrichment, exactly as the {@link EnrichmentSplitterBolt}
+   * would, and starts enriching the fragments in parallel on the thread pool.
+   *
+   * @param message The message to enrich
+   * @param errors Collects the errors enriching fields, to be emitted from the executor thread
+   * @return The message being enriched
+   */
+  @SuppressWarnings("unchecked")
+  protected PendingMessage enrichAsync(JSONObject message, Queue<MetronError> errors) {
+    String timingPrefix = getClass().getSimpleName().toLowerCase() + "." + strategy.name().toLowerCase();
+    message.put(timingPrefix + ".begin.ts", "" + System.currentTimeMillis());
+    String sensorType = MessageUtils.getSensorType(message);
+    if(sensorType == null) {
+      throw new IllegalStateException("Unable to find source type for message: " + message);
+    }
+    SensorEnrichmentConfig config = getConfigurations().getSensorEnrichmentConfig(sensorType);
+    List<CompletableFuture<JSONObject>> fragments = new ArrayList<>();
+    if (config == null) {
+      LOG.info("Unable to retrieve a sensor enrichment config of {}", sensorType);
+    }
+    else {
+      config.getConfiguration().putIfAbsent(STELLAR_CONTEXT_CONF, stellarContext);
+      EnrichmentConfig enrichmentConfig = strategy.configGetter.apply(config);
+      Map<String, Object> fieldMap = enrichmentConfig.getFieldMap();
+      Map<String, ConfigHandler> fieldToHandler = enrichmentConfig.getEnrichmentConfigs();
+      Set<String> enrichmentTypes = new HashSet<>(fieldMap.keySet());
+      enrichmentTypes.addAll(fieldToHandler.keySet());
+      for (String enrichmentType : enrichmentTypes) {
+        if (!adapters.containsKey(enrichmentType)) {
+          LOG.warn("No enrichment is configured for {}; skipping it", enrichmentType);
+          continue;
+        }
+        ConfigHandler retriever = fieldToHandler.get(enrichmentType);
+        List<JSONObject> enrichmentObjects = retriever.getType()
+                .splitByFields( message
+                        , fieldMap.get(enrichmentType)
+                        , field -> strategy.keyNamer.apply(enrichmentType, field)
+                        , retriever
+                );
+        for (JSONObject enrichmentObject : enrichmentObjects) {
+          enrichmentObject.put(Constants.SENSOR_TYPE, sensorType);
+          fragments.add(CompletableFuture.supplyAsync(() -> enrichFragment(enrichmentType, enrichmentObject, config, errors)
+                                                     , enrichmentExecutor
+                                                     ));
+        }
+      }
+    }
+    return new PendingMessage(message, config, fragments, timingPrefix);
+  }
+
+  /**
+   * Joins the enriched fragments back into the message and triages it.  The fragments must all
+   * have completed; triage runs Stellar, so this is called on the executor thread.
+   *
+   * @param pending The message whose fragments have been enriched
+   * @return The enriched message
+   */
+  @SuppressWarnings("unchecked")
+  protected JSONObject complete(PendingMessage pending) {
+    JSONObject ret = new JSONObject(pending.message);
+    for (CompletableFuture<JSONObject> fragment : pending.enrichments) {
+      ret.putAll(fragment.join());
+    }
+    EnrichmentJoinBolt.removeEmptyFields(ret);
+    if (strategy == Strategy.THREAT_INTEL) {
+      ret = ThreatIntelJoinBolt.triage(ret, pending.config, functionResolver, stellarContext);
+    }
+    ret.put(pending.timingPrefix + ".end.ts", "" + System.currentTimeMillis());
+    return ret;
+  }
+
+  /**
+   * Enriches a single fragment in the same way as the {@link GenericEnrichmentBolt}.  Errors
+   * enriching a field are queued so that they may be emitted from the executor thread.
+   */
+  @SuppressWarnings("unchecked")
+  protected JSONObject enrichFragment(String enrichmentType, JSONObject fragment, SensorEnrichmentConfig config, Queue<MetronError> errors) {
+    EnrichmentAdapter<CacheKey> adapter = adapters.get(enrichmentType);
+    LoadingCache<CacheKey, JSONObject> cache = caches.get(enrichmentType);
+    JSONObject enrichedMessage = new JSONObject();
+    enrichedMessage.put("adapter." + adapter.getClass().getSimpleName().toLowerCase() + ".begin.ts", "" + System.currentTimeMillis());
+    for (Object o : fragment.keySet()) {
+      String field = (String) o;
+      Object value = fragment.get(field);
+      if (field.equals(Constants.SENSOR_TYPE)) {
+        enrichedMessage.put(Constants.SENSOR_TYPE, value);
+      } else if (value != null) {
+        CacheKey cacheKey = new CacheKey(field, value, config);
+        try {
+          adapter.logAccess(cacheKey);
+          String prefix = adapter.getOutputPrefix(cacheKey);
+          JSONObject enrichedField = cache.getUnchecked(cacheKey);
+          if (enrichedField == null)
+            throw new Exception("[Metron] Could not enrich string: " + value);
+          GenericEnrichmentBolt.addEnrichedFields(enrichedMessage, field, prefix, enrichedField);
+        }
+        catch(Exception e) {
+          LOG.error(e.getMessage(), e);
+          errors.add(new MetronError()
+                  .withErrorType(Constants.ErrorType.ENRICHMENT_ERROR)
+                  .withThrowable(e)
+                  .withErrorFields(new HashSet() {{ add(field); }})
+                  .addRawMessage(fragment));
+        }
+      }
+    }
+    enrichedMessage.put("adapter." + adapter.getClass().getSimpleName().toLowerCase() + ".end.ts", "" + System.currentTimeMillis());
+    return enrichedMessage;
+  }
+
+  @Override
+  public void cleanup() {
+    if (enrichmentExecutor != null) {
+      enrichmentExecutor.shutdownNow();
+    }
+    for (EnrichmentAdapter<CacheKey> adapter : adapters.values()) {
+      adapter.cleanup();
+    }
+  }
+
+  public Context getStellarContext() {
+    return stellarContext;
+  }
+}
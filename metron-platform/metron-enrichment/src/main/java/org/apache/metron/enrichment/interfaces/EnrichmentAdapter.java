@@ -20,7 +20,11 @@ package org.apache.metron.enrichment.interfaces;
 
 import org.json.simple.JSONObject;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public interface EnrichmentAdapter<T>
 {
@@ -33,4 +37,44 @@ public interface EnrichmentAdapter<T>
 	default String getStreamSubGroup(String enrichmentType, String field) {
 		return "";
 	}
+
+	/**
+	 * Whether the adapter may be called from several threads at once, as the
+	 * {@link org.apache.metron.enrichment.bolt.UnifiedEnrichmentBolt} does.  Adapters are assumed
+	 * not to be, unless they say otherwise.
+	 *
+	 * @return True if the adapter is safe to call concurrently
+	 */
+	default boolean isThreadSafe() {
+		return false;
+	}
+
+	/**
+	 * Enrich a value without blocking the caller.  The default implementation runs
+	 * {@link #enrich(Object)} on the supplied executor; adapters backed by a non-blocking
+	 * client may override this to complete the future directly from that client.
+	 *
+	 * @param value The value to enrich
+	 * @param executor The executor on which blocking lookups may be run
+	 * @return A future holding the enrichment
+	 */
+	default CompletableFuture<JSONObject> enrichAsync(T value, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> enrich(value), executor);
+	}
+
+	/**
+	 * Enrich several values at once.  The default implementation calls {@link #enrich(Object)}
+	 * for each value; adapters backed by a store that supports multi-gets may override this to
+	 * resolve all of the values in as few round trips as possible.
+	 *
+	 * @param values The values to enrich
+	 * @return The enrichments, in the same order as the values
+	 */
+	default List<JSONObject> enrichAll(List<T> values) {
+		List<JSONObject> ret = new ArrayList<>(values.size());
+		for(T value : values) {
+			ret.add(enrich(value));
+		}
+		return ret;
+	}
 }
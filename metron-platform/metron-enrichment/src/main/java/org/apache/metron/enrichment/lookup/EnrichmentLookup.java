@@ -18,6 +18,7 @@
 package org.apache.metron.enrichment.lookup;
 
 import com.google.common.collect.Iterables;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
@@ -27,8 +28,10 @@ import org.apache.metron.enrichment.converter.EnrichmentKey;
 import org.apache.metron.enrichment.converter.EnrichmentValue;
 import org.apache.metron.enrichment.lookup.accesstracker.AccessTracker;
 import org.apache.metron.enrichment.lookup.handler.KeyWithContext;
+import org.apache.metron.hbase.TableProvider;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -116,19 +119,59 @@ public class EnrichmentLookup extends Lookup<EnrichmentLookup.HBaseContext, Enri
     }
   }
   private HTableInterface table;
+  private ThreadLocal<HTableInterface> tables;
+  private List<HTableInterface> openTables = Collections.synchronizedList(new ArrayList<>());
+
   public EnrichmentLookup(HTableInterface table, String columnFamily, AccessTracker tracker) {
     this.table = table;
     this.setLookupHandler(new Handler(columnFamily));
     this.setAccessTracker(tracker);
   }
 
+  /**
+   * Looks up with a table of its own on each thread, as HBase tables are not thread-safe.
+   *
+   * @param provider Opens the table of each thread.
+   * @param config The HBase configuration.
+   * @param tableName The name of the table.
+   * @param columnFamily The column family.
+   * @param tracker Tracks the keys accessed.
+   */
+  public EnrichmentLookup(TableProvider provider, Configuration config, String tableName, String columnFamily, AccessTracker tracker) throws IOException {
+    this(provider.getTable(config, tableName), columnFamily, tracker);
+    openTables.add(table);
+    tables = ThreadLocal.withInitial(() -> {
+      try {
+        HTableInterface t = provider.getTable(config, tableName);
+        openTables.add(t);
+        return t;
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to open " + tableName, e);
+      }
+    });
+    tables.set(table);
+  }
+
+  /**
+   * @return The table of the calling thread.
+   */
   public HTableInterface getTable() {
-    return table;
+    return tables == null ? table : tables.get();
   }
 
   @Override
   public void close() throws Exception {
     super.close();
-    table.close();
+    if(tables == null) {
+      table.close();
+    }
+    else {
+      synchronized(openTables) {
+        for(HTableInterface t : openTables) {
+          t.close();
+        }
+        openTables.clear();
+      }
+    }
   }
 }
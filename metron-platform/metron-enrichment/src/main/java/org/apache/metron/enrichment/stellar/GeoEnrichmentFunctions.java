@@ -64,7 +64,8 @@ public class GeoEnrichmentFunctions {
 
         Optional<HashMap<String, String>> result = GeoLiteDatabase.INSTANCE.get(ip);
         if(result.isPresent()) {
-          return result.get();
+          // Copy, as the result may be cached and shared with later lookups
+          return new HashMap<>(result.get());
         } else {
           return Collections.EMPTY_MAP;
         }
@@ -96,8 +97,7 @@ public class GeoEnrichmentFunctions {
     public void initialize(Context context) {
         LOG.info("Initializing GeoEnrichmentFunctions");
         Map<String, Object> config = getConfig(context);
-        String hdfsDir = (String) config.get(GeoLiteDatabase.GEO_HDFS_FILE);
-        GeoLiteDatabase.INSTANCE.update(hdfsDir);
+        GeoLiteDatabase.INSTANCE.update(config);
         initialized = true;
     }
 
@@ -19,4 +19,6 @@
 METRON_VERSION=${project.version}
 METRON_HOME=/usr/metron/$METRON_VERSION
 TOPOLOGY_JAR=${project.artifactId}-$METRON_VERSION-uber.jar
-storm jar $METRON_HOME/lib/$TOPOLOGY_JAR org.apache.storm.flux.Flux --remote $METRON_HOME/flux/enrichment/remote.yaml --filter $METRON_HOME/config/enrichment.properties
+# Set ENRICHMENT_FLUX=remote-unified.yaml to run the enrichments within a single bolt rather than split/join
+ENRICHMENT_FLUX=${ENRICHMENT_FLUX:-remote.yaml}
+storm jar $METRON_HOME/lib/$TOPOLOGY_JAR org.apache.storm.flux.Flux --remote $METRON_HOME/flux/enrichment/$ENRICHMENT_FLUX --filter $METRON_HOME/config/enrichment.properties
@@ -187,4 +187,47 @@ public class GeoLiteDatabaseTest {
 
     Assert.assertEquals("Remote Local IP should return result based on DB", expectedNoDmaMessage, result.get());
   }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testMemoryMappedUpdate() throws Exception {
+    HashMap<String, Object> globalConfig = new HashMap<>();
+    globalConfig.put(GeoLiteDatabase.GEO_HDFS_FILE, geoHdfsFile.getAbsolutePath());
+    globalConfig.put(GeoLiteDatabase.GEO_LOCAL_DIR, testFolder.getRoot().getAbsolutePath());
+    GeoLiteDatabase.INSTANCE.updateIfNecessary(globalConfig);
+    Optional<HashMap<String, String>> result = GeoLiteDatabase.INSTANCE.get(IP_NO_DMA);
+    Assert.assertEquals("Remote Local IP should return result based on DB", expectedNoDmaMessage, result.get());
+
+    // A reload replaces the local copy of the database
+    globalConfig.put(GeoLiteDatabase.GEO_HDFS_FILE, geoHdfsFile_update.getAbsolutePath());
+    GeoLiteDatabase.INSTANCE.updateIfNecessary(globalConfig);
+    Assert.assertEquals(1, testFolder.getRoot().listFiles().length);
+    result = GeoLiteDatabase.INSTANCE.get(IP_NO_DMA);
+    Assert.assertEquals("Remote Local IP should return result based on DB", expectedNoDmaMessage, result.get());
+
+    globalConfig.remove(GeoLiteDatabase.GEO_LOCAL_DIR);
+    GeoLiteDatabase.INSTANCE.updateIfNecessary(globalConfig);
+    Assert.assertEquals(0, testFolder.getRoot().listFiles().length);
+  }
+
+  @Test
+  public void testCachedLookups() throws Exception {
+    HashMap<String, Object> globalConfig = new HashMap<>();
+    globalConfig.put(GeoLiteDatabase.GEO_HDFS_FILE, geoHdfsFile.getAbsolutePath());
+    GeoLiteDatabase.INSTANCE.update(globalConfig);
+    Optional<HashMap<String, String>> result = GeoLiteDatabase.INSTANCE.get(IP_NO_DMA);
+    Assert.assertSame(result.get(), GeoLiteDatabase.INSTANCE.get(IP_NO_DMA).get());
+
+    // A reload invalidates the cache
+    GeoLiteDatabase.INSTANCE.update(globalConfig);
+    Assert.assertNotSame(result.get(), GeoLiteDatabase.INSTANCE.get(IP_NO_DMA).get());
+    Assert.assertEquals(result.get(), GeoLiteDatabase.INSTANCE.get(IP_NO_DMA).get());
+
+    globalConfig.put(GeoLiteDatabase.GEO_CACHE_SIZE, 0);
+    GeoLiteDatabase.INSTANCE.update(globalConfig);
+    result = GeoLiteDatabase.INSTANCE.get(IP_NO_DMA);
+    Assert.assertNotSame(result.get(), GeoLiteDatabase.INSTANCE.get(IP_NO_DMA).get());
+    globalConfig.remove(GeoLiteDatabase.GEO_CACHE_SIZE);
+    GeoLiteDatabase.INSTANCE.update(globalConfig);
+  }
 }
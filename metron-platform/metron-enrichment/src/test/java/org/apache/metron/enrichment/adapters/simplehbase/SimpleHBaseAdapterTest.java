@@ -20,16 +20,21 @@ package org.apache.metron.enrichment.adapters.simplehbase;
 
 import com.google.common.collect.ImmutableMap;
 import org.adrianwalker.multilinestring.Multiline;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
 import org.apache.metron.common.configuration.enrichment.SensorEnrichmentConfig;
 import org.apache.metron.enrichment.bolt.CacheKey;
 import org.apache.metron.enrichment.converter.EnrichmentKey;
 import org.apache.metron.enrichment.converter.EnrichmentValue;
 import org.apache.metron.enrichment.lookup.EnrichmentLookup;
 import org.apache.metron.enrichment.converter.EnrichmentHelper;
+import org.apache.metron.hbase.TableProvider;
 import org.apache.metron.hbase.mock.MockHTable;
 import org.apache.metron.hbase.mock.MockHBaseTableProvider;
 import org.apache.metron.enrichment.lookup.LookupKV;
 import org.apache.metron.enrichment.lookup.accesstracker.BloomAccessTracker;
+import org.apache.metron.enrichment.lookup.accesstracker.NoopAccessTracker;
 import org.apache.metron.enrichment.lookup.accesstracker.PersistentAccessTracker;
 import org.apache.metron.common.utils.JSONUtils;
 import org.json.simple.JSONObject;
@@ -38,9 +43,23 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class SimpleHBaseAdapterTest {
 
@@ -105,6 +124,15 @@ public class SimpleHBaseAdapterTest {
   public void setup() throws Exception {
     final MockHTable trackerTable = (MockHTable) MockHBaseTableProvider.addToCache(atTableName, cf);
     final MockHTable hbaseTable = (MockHTable) MockHBaseTableProvider.addToCache(hbaseTableName, cf);
+    load(hbaseTable);
+    BloomAccessTracker bat = new BloomAccessTracker(hbaseTableName, 100, 0.03);
+    PersistentAccessTracker pat = new PersistentAccessTracker(hbaseTableName, "0", trackerTable, cf, bat, 0L);
+    lookup = new EnrichmentLookup(hbaseTable, cf, pat);
+    JSONParser jsonParser = new JSONParser();
+    expectedMessage = (JSONObject) jsonParser.parse(expectedMessageString);
+  }
+
+  private void load(MockHTable hbaseTable) throws IOException {
     EnrichmentHelper.INSTANCE.load(hbaseTable, cf, new ArrayList<LookupKV<EnrichmentKey, EnrichmentValue>>() {{
       add(new LookupKV<>(new EnrichmentKey(PLAYFUL_CLASSIFICATION_TYPE, "10.0.2.3")
                       , new EnrichmentValue(PLAYFUL_ENRICHMENT)
@@ -117,11 +145,6 @@ public class SimpleHBaseAdapterTest {
               )
       );
     }});
-    BloomAccessTracker bat = new BloomAccessTracker(hbaseTableName, 100, 0.03);
-    PersistentAccessTracker pat = new PersistentAccessTracker(hbaseTableName, "0", trackerTable, cf, bat, 0L);
-    lookup = new EnrichmentLookup(hbaseTable, cf, pat);
-    JSONParser jsonParser = new JSONParser();
-    expectedMessage = (JSONObject) jsonParser.parse(expectedMessageString);
   }
 
   @Test
@@ -170,6 +193,69 @@ public class SimpleHBaseAdapterTest {
     Assert.assertNotNull(actualMessage);
     Assert.assertEquals(new JSONObject(new HashMap<String, Object>()), actualMessage);
   }
+
+  @Test
+  public void testEnrichAll() throws Exception {
+    SimpleHBaseAdapter sha = new SimpleHBaseAdapter();
+    sha.lookup = lookup;
+    SensorEnrichmentConfig broSc = JSONUtils.INSTANCE.load(sourceConfigWithCFStr, SensorEnrichmentConfig.class);
+    List<JSONObject> actualMessages = sha.enrichAll(Arrays.asList(new CacheKey("ip_dst_addr", "10.0.2.4", broSc)
+                                                                , new CacheKey("test", "test", broSc)
+                                                                , new CacheKey("ip_dst_addr", "10.0.2.3", broSc)
+                                                                ));
+    Assert.assertEquals(Arrays.asList(new JSONObject(ImmutableMap.of("cf1.key", "value"))
+                                     , new JSONObject()
+                                     , expectedMessage
+                                     )
+                       , actualMessages
+                       );
+  }
+
+  @Test
+  public void testEnrichAllConcurrently() throws Exception {
+    // both batches are in flight at once; fail if they are ever on the same table
+    CyclicBarrier bothBatches = new CyclicBarrier(2);
+    Set<HTableInterface> inUse = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    AtomicBoolean shared = new AtomicBoolean();
+    TableProvider provider = (config, tableName) -> {
+      MockHTable table = new MockHTable(tableName, cf, cf1) {
+        @Override
+        public Result[] get(List<Get> gets) throws IOException {
+          if(!inUse.add(this)) {
+            shared.set(true);
+          }
+          try {
+            bothBatches.await(10, TimeUnit.SECONDS);
+            return super.get(gets);
+          } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+            throw new IOException(e);
+          } finally {
+            inUse.remove(this);
+          }
+        }
+      };
+      load(table);
+      return table;
+    };
+    SimpleHBaseAdapter sha = new SimpleHBaseAdapter();
+    sha.lookup = new EnrichmentLookup(provider, null, hbaseTableName, cf, new NoopAccessTracker());
+    SensorEnrichmentConfig broSc = JSONUtils.INSTANCE.load(sourceConfigWithCFStr, SensorEnrichmentConfig.class);
+    List<CacheKey> batch = Arrays.asList(new CacheKey("ip_dst_addr", "10.0.2.4", broSc)
+                                       , new CacheKey("ip_dst_addr", "10.0.2.3", broSc)
+                                       );
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<List<JSONObject>> first = executor.submit(() -> sha.enrichAll(batch));
+      Future<List<JSONObject>> second = executor.submit(() -> sha.enrichAll(batch));
+      List<JSONObject> expected = Arrays.asList(new JSONObject(ImmutableMap.of("cf1.key", "value")), expectedMessage);
+      Assert.assertEquals(expected, first.get(30, TimeUnit.SECONDS));
+      Assert.assertEquals(expected, second.get(30, TimeUnit.SECONDS));
+      Assert.assertFalse(shared.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   @Test(expected = Exception.class)
   public void testInitializeAdapter() {
     SimpleHBaseConfig config = new SimpleHBaseConfig();
@@ -43,7 +43,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 
 public class ThreatIntelAdapterTest {
@@ -136,6 +138,18 @@ public class ThreatIntelAdapterTest {
     Assert.assertEquals(actualMessage,new JSONObject());
   }
 
+  @Test
+  public void testEnrichAll() throws Exception {
+    ThreatIntelAdapter tia = new ThreatIntelAdapter();
+    tia.lookup = lookup;
+    SensorEnrichmentConfig broSc = JSONUtils.INSTANCE.load(sourceConfigStr, SensorEnrichmentConfig.class);
+    List<JSONObject> actualMessages = tia.enrichAll(Arrays.asList(new CacheKey("ip_dst_addr", "10.0.2.4", broSc)
+                                                                , new CacheKey("test", "test", broSc)
+                                                                , new CacheKey("ip_dst_addr", "10.0.2.3", broSc)
+                                                                ));
+    Assert.assertEquals(Arrays.asList(new JSONObject(), new JSONObject(), expectedMessage), actualMessages);
+  }
+
   @Test
   public void testInitializeAdapter() {
 
@@ -32,11 +32,14 @@ import org.apache.metron.enrichment.interfaces.EnrichmentAdapter;
 import org.apache.metron.test.bolt.BaseEnrichmentBoltTest;
 import org.apache.metron.test.error.MetronErrorJSONMatcher;
 import org.apache.metron.test.utils.UnitTestHelper;
+import org.apache.storm.Config;
+import org.apache.storm.tuple.Tuple;
 import org.apache.storm.tuple.Values;
 import org.hamcrest.Description;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
@@ -46,13 +49,20 @@ import org.mockito.MockitoAnnotations;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -243,4 +253,178 @@ public class GenericEnrichmentBoltTest extends BaseEnrichmentBoltTest {
             .withThrowable(new CacheLoader.InvalidCacheLoadException("CacheLoader returned null for key CacheKey{field='field1', value='value1'}."));
     verify(outputCollector, times(1)).emit(eq(Constants.ERROR_STREAM), argThat(new MetronErrorJSONMatcher(error.getJSONObject())));
   }
+
+  @Test
+  public void testAsyncLookups() throws IOException {
+    when(tuple.getSourceComponent()).thenReturn("unit test component");
+    when(tuple.getSourceStreamId()).thenReturn("unit test stream");
+    String key = "someKey";
+    String enrichmentType = "enrichmentType";
+    Enrichment<EnrichmentAdapter<CacheKey>> testEnrichment = new Enrichment<>();
+    testEnrichment.setType(enrichmentType);
+    testEnrichment.setAdapter(enrichmentAdapter);
+    GenericEnrichmentBolt genericEnrichmentBolt = new GenericEnrichmentBolt("zookeeperUrl") {
+      @Override
+      protected void initializeStellar() {
+        //do not initialize stellar here.
+      }
+    };
+    genericEnrichmentBolt.setCuratorFramework(client);
+    genericEnrichmentBolt.setZKCache(cache);
+    genericEnrichmentBolt.getConfigurations().updateSensorEnrichmentConfig(sensorType, new FileInputStream(sampleSensorEnrichmentConfigPath));
+    genericEnrichmentBolt.withEnrichment(testEnrichment)
+                         .withMaxCacheSize(100)
+                         .withMaxTimeRetain(10000)
+                         .withMaxInFlightLookups(2);
+    Assert.assertEquals(1, genericEnrichmentBolt.getComponentConfiguration().get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+    when(enrichmentAdapter.initializeAdapter(any())).thenReturn(true);
+    genericEnrichmentBolt.prepare(new HashMap(), topologyContext, outputCollector);
+
+    SensorEnrichmentConfig sensorEnrichmentConfig = SensorEnrichmentConfig.
+            fromBytes(ConfigurationsUtils.readSensorEnrichmentConfigsFromFile(TestConstants.SAMPLE_CONFIG_PATH).get(sensorType));
+    sensorEnrichmentConfig.getConfiguration().put(GenericEnrichmentBolt.STELLAR_CONTEXT_CONF, genericEnrichmentBolt.getStellarContext());
+    CacheKey cacheKey1 = new CacheKey("field1", "value1", sensorEnrichmentConfig);
+    CacheKey cacheKey2 = new CacheKey("field2", "value2", sensorEnrichmentConfig);
+    CompletableFuture<JSONObject> field2Lookup = new CompletableFuture<>();
+    when(enrichmentAdapter.getOutputPrefix(cacheKey1)).thenReturn("field1");
+    when(enrichmentAdapter.getOutputPrefix(cacheKey2)).thenReturn("field2");
+    when(enrichmentAdapter.enrichAsync(eq(cacheKey1), any())).thenReturn(CompletableFuture.completedFuture(enrichedField1));
+    when(enrichmentAdapter.enrichAsync(eq(cacheKey2), any())).thenReturn(field2Lookup);
+    when(tuple.getStringByField("key")).thenReturn(key);
+    when(tuple.getValueByField("message")).thenReturn(originalMessage);
+
+    // the message is not emitted until every lookup completes
+    genericEnrichmentBolt.execute(tuple);
+    verify(outputCollector, times(0)).emit(eq(enrichmentType), any());
+    Assert.assertEquals(1, genericEnrichmentBolt.inFlightLookups.availablePermits());
+
+    // a tick tuple emits the completed message
+    Tuple tick = mock(Tuple.class);
+    when(tick.getSourceComponent()).thenReturn(org.apache.storm.Constants.SYSTEM_COMPONENT_ID);
+    when(tick.getSourceStreamId()).thenReturn(org.apache.storm.Constants.SYSTEM_TICK_STREAM_ID);
+    field2Lookup.complete(enrichedField2);
+    genericEnrichmentBolt.execute(tick);
+    verify(outputCollector, times(1)).emit(eq(enrichmentType), argThat(new EnrichedMessageMatcher(key, enrichedMessage)));
+    Assert.assertEquals(2, genericEnrichmentBolt.inFlightLookups.availablePermits());
+
+    // both lookups are now served from the cache
+    genericEnrichmentBolt.execute(tuple);
+    verify(enrichmentAdapter, times(1)).enrichAsync(eq(cacheKey1), any());
+    verify(enrichmentAdapter, times(1)).enrichAsync(eq(cacheKey2), any());
+    verify(outputCollector, times(2)).emit(eq(enrichmentType), argThat(new EnrichedMessageMatcher(key, enrichedMessage)));
+
+    // a failed lookup is reported against its field, and the rest of the message is still emitted
+    reset(outputCollector);
+    genericEnrichmentBolt.cache.invalidateAll();
+    CompletableFuture<JSONObject> failedLookup = new CompletableFuture<>();
+    failedLookup.completeExceptionally(new IllegalStateException("lookup failed"));
+    when(enrichmentAdapter.enrichAsync(eq(cacheKey2), any())).thenReturn(failedLookup);
+    UnitTestHelper.setLog4jLevel(GenericEnrichmentBolt.class, Level.FATAL);
+    genericEnrichmentBolt.execute(tuple);
+    UnitTestHelper.setLog4jLevel(GenericEnrichmentBolt.class, Level.ERROR);
+    MetronError error = new MetronError()
+            .withErrorType(Constants.ErrorType.ENRICHMENT_ERROR)
+            .withErrorFields(new HashSet<String>() {{ add("field2"); }})
+            .addRawMessage(originalMessage)
+            .withThrowable(new IllegalStateException("lookup failed"));
+    verify(outputCollector, times(1)).emit(eq(Constants.ERROR_STREAM), argThat(new MetronErrorJSONMatcher(error.getJSONObject())));
+    verify(outputCollector, times(1)).emit(eq(enrichmentType), argThat(new EnrichedMessageMatcher(key, new JSONObject(ImmutableMap.of(
+            "field1.enrichedField1", "enrichedValue1",
+            "source.type", "test")))));
+    genericEnrichmentBolt.cleanup();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testCoalescedLookups() throws IOException {
+    String enrichmentType = "enrichmentType";
+    Enrichment<EnrichmentAdapter<CacheKey>> testEnrichment = new Enrichment<>();
+    testEnrichment.setType(enrichmentType);
+    testEnrichment.setAdapter(enrichmentAdapter);
+    GenericEnrichmentBolt genericEnrichmentBolt = new GenericEnrichmentBolt("zookeeperUrl") {
+      @Override
+      protected void initializeStellar() {
+        //do not initialize stellar here.
+      }
+    };
+    genericEnrichmentBolt.setCuratorFramework(client);
+    genericEnrichmentBolt.setZKCache(cache);
+    genericEnrichmentBolt.getConfigurations().updateSensorEnrichmentConfig(sensorType, new FileInputStream(sampleSensorEnrichmentConfigPath));
+    genericEnrichmentBolt.withEnrichment(testEnrichment)
+                         .withMaxCacheSize(100)
+                         .withMaxTimeRetain(10000)
+                         .withLookupBatchSize(3)
+                         .withLookupBatchWindowMillis(TimeUnit.HOURS.toMillis(1));
+    Assert.assertEquals(1, genericEnrichmentBolt.getComponentConfiguration().get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+    when(enrichmentAdapter.initializeAdapter(any())).thenReturn(true);
+    genericEnrichmentBolt.prepare(new HashMap(), topologyContext, outputCollector);
+
+    SensorEnrichmentConfig sensorEnrichmentConfig = SensorEnrichmentConfig.
+            fromBytes(ConfigurationsUtils.readSensorEnrichmentConfigsFromFile(TestConstants.SAMPLE_CONFIG_PATH).get(sensorType));
+    sensorEnrichmentConfig.getConfiguration().put(GenericEnrichmentBolt.STELLAR_CONTEXT_CONF, genericEnrichmentBolt.getStellarContext());
+    CacheKey cacheKey1 = new CacheKey("field1", "value1", sensorEnrichmentConfig);
+    CacheKey cacheKey2 = new CacheKey("field2", "value2", sensorEnrichmentConfig);
+    CacheKey cacheKey3 = new CacheKey("field2", "value3", sensorEnrichmentConfig);
+    CacheKey cacheKey4 = new CacheKey("field2", "value4", sensorEnrichmentConfig);
+    when(enrichmentAdapter.getOutputPrefix(any())).thenAnswer(invocation -> ((CacheKey) invocation.getArguments()[0]).getField());
+    when(enrichmentAdapter.enrichAll(any())).thenAnswer(invocation -> {
+      List<JSONObject> enrichedFields = new ArrayList<>();
+      for (CacheKey cacheKey : (List<CacheKey>) invocation.getArguments()[0]) {
+        enrichedFields.add(cacheKey.getField().equals("field1") ? enrichedField1 : enrichedField2);
+      }
+      return enrichedFields;
+    });
+
+    Tuple tuple1 = createTuple("key1", originalMessage);
+    Tuple tuple2 = createTuple("key2", new JSONObject(ImmutableMap.of("field1", "value1", "field2", "value3", "source.type", "test")));
+    Tuple tuple3 = createTuple("key3", new JSONObject(ImmutableMap.of("field2", "value4", "source.type", "test")));
+
+    // cache misses are held until the batch is full
+    genericEnrichmentBolt.execute(tuple1);
+    verify(enrichmentAdapter, times(0)).enrichAll(any());
+    verify(outputCollector, times(0)).emit(eq(enrichmentType), any());
+
+    // the duplicate key is coalesced, filling the batch, which is resolved with a single call to the adapter
+    genericEnrichmentBolt.execute(tuple2);
+    verify(enrichmentAdapter, times(1)).enrichAll(argThat(new ArgumentMatcher<List<CacheKey>>() {
+      @Override
+      public boolean matches(Object o) {
+        return new HashSet<>((List<CacheKey>) o).equals(new HashSet<>(Arrays.asList(cacheKey1, cacheKey2, cacheKey3)));
+      }
+    }));
+    verify(enrichmentAdapter, times(0)).enrich(any());
+    verify(outputCollector, times(1)).emit(eq(enrichmentType), argThat(new EnrichedMessageMatcher("key1", enrichedMessage)));
+    verify(outputCollector, times(1)).emit(eq(enrichmentType), argThat(new EnrichedMessageMatcher("key2", new JSONObject(ImmutableMap.of(
+            "field1.enrichedField1", "enrichedValue1",
+            "field2.enrichedField2", "enrichedValue2",
+            "source.type", "test")))));
+
+    // a partial batch is resolved on a tick
+    genericEnrichmentBolt.execute(tuple3);
+    verify(enrichmentAdapter, times(1)).enrichAll(any());
+    Tuple tick = mock(Tuple.class);
+    when(tick.getSourceComponent()).thenReturn(org.apache.storm.Constants.SYSTEM_COMPONENT_ID);
+    when(tick.getSourceStreamId()).thenReturn(org.apache.storm.Constants.SYSTEM_TICK_STREAM_ID);
+    genericEnrichmentBolt.execute(tick);
+    verify(enrichmentAdapter, times(2)).enrichAll(any());
+    verify(enrichmentAdapter, times(1)).enrichAll(Collections.singletonList(cacheKey4));
+    verify(outputCollector, times(1)).emit(eq(enrichmentType), argThat(new EnrichedMessageMatcher("key3", new JSONObject(ImmutableMap.of(
+            "field2.enrichedField2", "enrichedValue2",
+            "source.type", "test")))));
+
+    // subsequent lookups are served from the cache without waiting on a batch
+    genericEnrichmentBolt.execute(tuple1);
+    verify(enrichmentAdapter, times(2)).enrichAll(any());
+    verify(outputCollector, times(2)).emit(eq(enrichmentType), argThat(new EnrichedMessageMatcher("key1", enrichedMessage)));
+    genericEnrichmentBolt.cleanup();
+  }
+
+  private Tuple createTuple(String key, JSONObject message) {
+    Tuple tuple = mock(Tuple.class);
+    when(tuple.getSourceComponent()).thenReturn("unit test component");
+    when(tuple.getSourceStreamId()).thenReturn("unit test stream");
+    when(tuple.getStringByField("key")).thenReturn(key);
+    when(tuple.getValueByField("message")).thenReturn(message);
+    return tuple;
+  }
 }
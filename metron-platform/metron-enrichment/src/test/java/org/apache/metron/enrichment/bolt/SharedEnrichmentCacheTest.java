@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.enrichment.bolt;
+
+import com.google.common.cache.CacheLoader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.simple.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SharedEnrichmentCacheTest {
+
+  private static class CountingLoader extends CacheLoader<CacheKey, JSONObject> {
+    private final String prefix;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    CountingLoader(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public JSONObject load(CacheKey key) {
+      loads.incrementAndGet();
+      JSONObject enriched = new JSONObject();
+      enriched.put("enriched", prefix + key.getValue());
+      return enriched;
+    }
+  }
+
+  private static CacheKey key(String value) {
+    return new CacheKey("field", value, null);
+  }
+
+  @Test
+  public void testGetInstanceSettings() {
+    Map<String, Object> stormConf = new HashMap<>();
+    stormConf.put(SharedEnrichmentCache.MAX_CACHE_BYTES_CONF, 4096);
+    stormConf.put(SharedEnrichmentCache.MAX_TIME_RETAIN_CONF, "10");
+    SharedEnrichmentCache cache = SharedEnrichmentCache.getInstance(stormConf, 1024, false, 5);
+
+    // the topology settings take precedence over those of each bolt
+    Assert.assertSame(cache, SharedEnrichmentCache.getInstance(stormConf, 2048, false, 20));
+    try {
+      SharedEnrichmentCache.getInstance(new HashMap<>(), 1024, false, 5);
+      Assert.fail("A bolt asking for other settings should not be given the cache");
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage().contains(SharedEnrichmentCache.MAX_CACHE_BYTES_CONF));
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testViewsShareNamespace() throws Exception {
+    SharedEnrichmentCache cache = new SharedEnrichmentCache(1024 * 1024, false, 10);
+    CountingLoader loader = new CountingLoader("a-");
+    CountingLoader otherLoader = new CountingLoader("b-");
+    SharedEnrichmentCache.View view = cache.view("componentA", loader);
+    SharedEnrichmentCache.View sameComponentView = cache.view("componentA", loader);
+    SharedEnrichmentCache.View otherComponentView = cache.view("componentB", otherLoader);
+
+    Assert.assertEquals("a-value", view.get(key("value")).get("enriched"));
+    Assert.assertEquals("a-value", sameComponentView.get(key("value")).get("enriched"));
+    Assert.assertEquals(1, loader.loads.get());
+    Assert.assertEquals("b-value", otherComponentView.get(key("value")).get("enriched"));
+    Assert.assertEquals(1, otherLoader.loads.get());
+
+    Map<String, Long> metrics = (Map<String, Long>) view.getValueAndReset();
+    Assert.assertEquals(0L, (long) metrics.get("hits"));
+    Assert.assertEquals(1L, (long) metrics.get("misses"));
+    metrics = (Map<String, Long>) sameComponentView.getValueAndReset();
+    Assert.assertEquals(1L, (long) metrics.get("hits"));
+    Assert.assertEquals(0L, (long) metrics.get("misses"));
+
+    view.invalidateAll();
+    Assert.assertEquals(0, view.size());
+    Assert.assertEquals(1, otherComponentView.size());
+    Assert.assertNull(sameComponentView.getIfPresent(key("value")));
+  }
+
+  @Test
+  public void testOffHeap() throws Exception {
+    SharedEnrichmentCache cache = new SharedEnrichmentCache(1024 * 1024, true, 10);
+    SharedEnrichmentCache.View view = cache.view("component", new CountingLoader("a-"));
+
+    JSONObject first = view.get(key("value"));
+    JSONObject second = view.get(key("value"));
+    Assert.assertEquals("a-value", second.get("enriched"));
+    Assert.assertEquals(first, second);
+    Assert.assertNotSame(first, second);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testEvictionsWithinBudget() throws Exception {
+    // Room for only a few entries
+    SharedEnrichmentCache cache = new SharedEnrichmentCache(1024, false, 10);
+    SharedEnrichmentCache.View view = cache.view("component", new CountingLoader("a-"));
+    for (int i = 0; i < 100; ++i) {
+      view.getUnchecked(key("value" + i));
+    }
+    Assert.assertTrue(cache.size() < 100);
+
+    Map<String, Long> metrics = (Map<String, Long>) view.getValueAndReset();
+    Assert.assertEquals(100L, (long) metrics.get("misses"));
+    Assert.assertEquals(100L - cache.size(), (long) metrics.get("evictions"));
+    metrics = (Map<String, Long>) view.getValueAndReset();
+    Assert.assertEquals(0L, (long) metrics.get("evictions"));
+  }
+}
@@ -0,0 +1,329 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.enrichment.bolt;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.adrianwalker.multilinestring.Multiline;
+import org.apache.log4j.Level;
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.error.MetronError;
+import org.apache.metron.enrichment.adapters.geo.GeoLiteDatabase;
+import org.apache.metron.enrichment.configuration.Enrichment;
+import org.apache.metron.enrichment.interfaces.EnrichmentAdapter;
+import org.apache.metron.test.bolt.BaseEnrichmentBoltTest;
+import org.apache.metron.test.error.MetronErrorJSONMatcher;
+import org.apache.metron.test.utils.UnitTestHelper;
+import org.apache.storm.tuple.Tuple;
+import org.apache.storm.tuple.Values;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UnifiedEnrichmentBoltTest extends BaseEnrichmentBoltTest {
+
+  /**
+   * {
+   * "ip_src_addr": "ip1",
+   * "ip_dst_addr": "ip2",
+   * "source.type": "test",
+   * "enrichments.geo.ip_src_addr.location": "geo-ip1",
+   * "enrichments.geo.ip_dst_addr.location": "geo-ip2",
+   * "enrichments.host.ip_src_addr.location": "host-ip1",
+   * "enrichments.host.ip_dst_addr.location": "host-ip2",
+   * "enrichments.hbaseEnrichment.ip_src_addr.location": "hbaseEnrichment-ip1",
+   * "enrichments.hbaseEnrichment.ip_dst_addr.location": "hbaseEnrichment-ip2"
+   * }
+   */
+  @Multiline
+  private String enrichedMessageString;
+
+  /**
+   * {
+   * "ip_src_addr": "10.0.2.3",
+   * "ip_dst_addr": "ip2",
+   * "source.type": "test"
+   * }
+   */
+  @Multiline
+  private String threatMessageString;
+
+  private JSONObject enrichedMessage;
+  private JSONObject threatMessage;
+
+  @Before
+  public void parseMessages() throws ParseException {
+    JSONParser parser = new JSONParser();
+    enrichedMessage = (JSONObject) parser.parse(enrichedMessageString);
+    threatMessage = (JSONObject) parser.parse(threatMessageString);
+  }
+
+  @SuppressWarnings("unchecked")
+  private EnrichmentAdapter<CacheKey> createAdapter(String enrichmentType) {
+    EnrichmentAdapter<CacheKey> adapter = mock(EnrichmentAdapter.class);
+    when(adapter.initializeAdapter(any())).thenReturn(true);
+    when(adapter.isThreadSafe()).thenReturn(true);
+    when(adapter.getOutputPrefix(any())).thenAnswer(invocation -> ((CacheKey) invocation.getArguments()[0]).getField());
+    when(adapter.enrich(any())).thenAnswer(invocation -> {
+      CacheKey cacheKey = (CacheKey) invocation.getArguments()[0];
+      return new JSONObject(ImmutableMap.of("location", enrichmentType + "-" + cacheKey.getValue()));
+    });
+    return adapter;
+  }
+
+  private UnifiedEnrichmentBolt createBolt(List<Enrichment> enrichments, String strategy) throws IOException {
+    UnifiedEnrichmentBolt unifiedEnrichmentBolt = configureBolt(enrichments, strategy);
+    unifiedEnrichmentBolt.prepare(new HashMap<>(), topologyContext, outputCollector);
+    return unifiedEnrichmentBolt;
+  }
+
+  private UnifiedEnrichmentBolt configureBolt(List<Enrichment> enrichments, String strategy) throws IOException {
+    UnifiedEnrichmentBolt unifiedEnrichmentBolt = new UnifiedEnrichmentBolt("zookeeperUrl");
+    unifiedEnrichmentBolt.setCuratorFramework(client);
+    unifiedEnrichmentBolt.setZKCache(cache);
+    unifiedEnrichmentBolt.getConfigurations().updateSensorEnrichmentConfig(sensorType, new FileInputStream(sampleSensorEnrichmentConfigPath));
+    HashMap<String, Object> globalConfig = new HashMap<>();
+    String baseDir = UnitTestHelper.findDir("GeoLite");
+    File geoHdfsFile = new File(new File(baseDir), "GeoIP2-City-Test.mmdb.gz");
+    globalConfig.put(GeoLiteDatabase.GEO_HDFS_FILE, geoHdfsFile.getAbsolutePath());
+    unifiedEnrichmentBolt.getConfigurations().updateGlobalConfig(globalConfig);
+    unifiedEnrichmentBolt.withEnrichments(enrichments)
+                         .withStrategy(strategy)
+                         .withMaxCacheSize(100)
+                         .withMaxTimeRetain(10000)
+                         .withNumThreads(2);
+    return unifiedEnrichmentBolt;
+  }
+
+  private Tuple tick() {
+    Tuple tick = mock(Tuple.class);
+    when(tick.getSourceComponent()).thenReturn(org.apache.storm.Constants.SYSTEM_COMPONENT_ID);
+    when(tick.getSourceStreamId()).thenReturn(org.apache.storm.Constants.SYSTEM_TICK_STREAM_ID);
+    return tick;
+  }
+
+  /**
+   * Waits for every pending message to be enriched, then emits them with a tick.
+   */
+  private void completePendingMessages(UnifiedEnrichmentBolt unifiedEnrichmentBolt) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (unifiedEnrichmentBolt.pendingMessages.availablePermits() + unifiedEnrichmentBolt.completedMessages.size()
+            < unifiedEnrichmentBolt.maxPendingMessages && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    unifiedEnrichmentBolt.execute(tick());
+  }
+
+  @Test
+  public void testEnrichment() throws Exception {
+    List<Enrichment> enrichments = new ArrayList<>();
+    for (String enrichmentType : new String[] { "geo", "host", "hbaseEnrichment" }) {
+      enrichments.add(new Enrichment<>(enrichmentType, createAdapter(enrichmentType)));
+    }
+    UnifiedEnrichmentBolt unifiedEnrichmentBolt = createBolt(enrichments, "ENRICHMENT");
+
+    when(tuple.getStringByField("key")).thenReturn(key);
+    when(tuple.getBinary(0)).thenReturn(sampleMessageString.getBytes());
+    unifiedEnrichmentBolt.execute(tuple);
+    completePendingMessages(unifiedEnrichmentBolt);
+
+    // every enrichment is joined into the message, which is emitted once, anchored to the input
+    ArgumentCaptor<Values> emitted = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(1)).emit(eq("message"), eq(tuple), emitted.capture());
+    Assert.assertEquals(key, emitted.getValue().get(0));
+    JSONObject actualMessage = (JSONObject) emitted.getValue().get(1);
+    removeTimingFields(actualMessage);
+    Assert.assertEquals(enrichedMessage, actualMessage);
+    verify(outputCollector, times(1)).ack(tuple);
+    verify(outputCollector, times(0)).emit(eq(Constants.ERROR_STREAM), any(Values.class));
+    unifiedEnrichmentBolt.cleanup();
+  }
+
+  @Test
+  public void testEnrichmentError() throws Exception {
+    EnrichmentAdapter<CacheKey> hostAdapter = createAdapter("host");
+    IllegalStateException exception = new IllegalStateException("host lookup failed");
+    doThrow(exception).when(hostAdapter).enrich(any());
+    List<Enrichment> enrichments = new ArrayList<>();
+    enrichments.add(new Enrichment<>("geo", createAdapter("geo")));
+    enrichments.add(new Enrichment<>("host", hostAdapter));
+    UnifiedEnrichmentBolt unifiedEnrichmentBolt = createBolt(enrichments, "ENRICHMENT");
+
+    when(tuple.getStringByField("key")).thenReturn(key);
+    when(tuple.getBinary(0)).thenReturn(sampleMessageString.getBytes());
+    UnitTestHelper.setLog4jLevel(UnifiedEnrichmentBolt.class, Level.FATAL);
+    unifiedEnrichmentBolt.execute(tuple);
+    completePendingMessages(unifiedEnrichmentBolt);
+    UnitTestHelper.setLog4jLevel(UnifiedEnrichmentBolt.class, Level.ERROR);
+
+    // a failed enrichment is reported against its field and the rest of the message is still emitted
+    ArgumentCaptor<Values> emitted = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(1)).emit(eq("message"), eq(tuple), emitted.capture());
+    JSONObject actualMessage = (JSONObject) emitted.getValue().get(1);
+    removeTimingFields(actualMessage);
+    Assert.assertEquals(new JSONObject(ImmutableMap.of(
+            "ip_src_addr", "ip1",
+            "ip_dst_addr", "ip2",
+            "source.type", "test",
+            "enrichments.geo.ip_src_addr.location", "geo-ip1",
+            "enrichments.geo.ip_dst_addr.location", "geo-ip2")), actualMessage);
+    for (String field : new String[] { "enrichments.host.ip_src_addr", "enrichments.host.ip_dst_addr" }) {
+      MetronError error = new MetronError()
+              .withErrorType(Constants.ErrorType.ENRICHMENT_ERROR)
+              .withThrowable(new UncheckedExecutionException(exception))
+              .withErrorFields(new HashSet<String>() {{ add(field); }})
+              .addRawMessage(hostMessage);
+      verify(outputCollector, times(1)).emit(eq(Constants.ERROR_STREAM), argThat(new MetronErrorJSONMatcher(error.getJSONObject())));
+    }
+    verify(outputCollector, times(1)).ack(tuple);
+    unifiedEnrichmentBolt.cleanup();
+  }
+
+  @Test
+  public void testThreatIntel() throws Exception {
+    EnrichmentAdapter<CacheKey> threatIntelAdapter = createAdapter("hbaseThreatIntel");
+    doReturn("").when(threatIntelAdapter).getOutputPrefix(any());
+    doAnswer(invocation -> {
+      CacheKey cacheKey = (CacheKey) invocation.getArguments()[0];
+      return "10.0.2.3".equals(cacheKey.getValue()) ? new JSONObject(ImmutableMap.of(cacheKey.getField(), "alert")) : new JSONObject();
+    }).when(threatIntelAdapter).enrich(any());
+    List<Enrichment> threatIntels = new ArrayList<>();
+    threatIntels.add(new Enrichment<>("hbaseThreatIntel", threatIntelAdapter));
+    UnifiedEnrichmentBolt unifiedEnrichmentBolt = createBolt(threatIntels, "THREAT_INTEL").withMessageFieldName("message");
+
+    when(tuple.getStringByField("key")).thenReturn(key);
+    when(tuple.getValueByField("message")).thenReturn(threatMessage);
+    unifiedEnrichmentBolt.execute(tuple);
+    completePendingMessages(unifiedEnrichmentBolt);
+
+    // the threat intel marks the message as an alert, which is then triaged
+    ArgumentCaptor<Values> emitted = ArgumentCaptor.forClass(Values.class);
+    verify(outputCollector, times(1)).emit(eq("message"), eq(tuple), emitted.capture());
+    JSONObject actualMessage = (JSONObject) emitted.getValue().get(1);
+    Assert.assertEquals("alert", actualMessage.get("threatintels.hbaseThreatIntel.ip_src_addr"));
+    Assert.assertFalse(actualMessage.containsKey("threatintels.hbaseThreatIntel.ip_dst_addr"));
+    Assert.assertEquals("true", actualMessage.get("is_alert"));
+    Assert.assertEquals(10.0, actualMessage.get(ThreatIntelJoinBolt.THREAT_TRIAGE_SCORE_KEY));
+    verify(outputCollector, times(1)).ack(tuple);
+    unifiedEnrichmentBolt.cleanup();
+  }
+
+  @Test
+  public void testUnparseableMessage() throws Exception {
+    List<Enrichment> enrichments = new ArrayList<>();
+    enrichments.add(new Enrichment<>("geo", createAdapter("geo")));
+    UnifiedEnrichmentBolt unifiedEnrichmentBolt = createBolt(enrichments, "ENRICHMENT");
+
+    when(tuple.getBinary(0)).thenReturn("{ not json".getBytes());
+    UnitTestHelper.setLog4jLevel(UnifiedEnrichmentBolt.class, Level.FATAL);
+    unifiedEnrichmentBolt.execute(tuple);
+    completePendingMessages(unifiedEnrichmentBolt);
+    UnitTestHelper.setLog4jLevel(UnifiedEnrichmentBolt.class, Level.ERROR);
+
+    // the error is reported and the tuple is still acked
+    verify(outputCollector, times(0)).emit(eq("message"), any(Tuple.class), any(Values.class));
+    verify(outputCollector, times(1)).emit(eq(Constants.ERROR_STREAM), any(Values.class));
+    verify(outputCollector, times(1)).ack(tuple);
+    unifiedEnrichmentBolt.cleanup();
+  }
+
+  @Test
+  public void testExecuteDoesNotWaitOnEnrichments() throws Exception {
+    CountDownLatch lookup = new CountDownLatch(1);
+    EnrichmentAdapter<CacheKey> hostAdapter = createAdapter("host");
+    doAnswer(invocation -> {
+      lookup.await();
+      CacheKey cacheKey = (CacheKey) invocation.getArguments()[0];
+      return new JSONObject(ImmutableMap.of("location", "host-" + cacheKey.getValue()));
+    }).when(hostAdapter).enrich(any());
+    List<Enrichment> enrichments = new ArrayList<>();
+    enrichments.add(new Enrichment<>("host", hostAdapter));
+    UnifiedEnrichmentBolt unifiedEnrichmentBolt = createBolt(enrichments, "ENRICHMENT");
+
+    when(tuple.getStringByField("key")).thenReturn(key);
+    when(tuple.getBinary(0)).thenReturn(sampleMessageString.getBytes());
+
+    // the message is pending until its lookups complete, without blocking the executor thread
+    unifiedEnrichmentBolt.execute(tuple);
+    unifiedEnrichmentBolt.execute(tick());
+    verify(outputCollector, times(0)).emit(eq("message"), any(Tuple.class), any(Values.class));
+    verify(outputCollector, times(0)).ack(tuple);
+
+    lookup.countDown();
+    completePendingMessages(unifiedEnrichmentBolt);
+    verify(outputCollector, times(1)).emit(eq("message"), eq(tuple), any(Values.class));
+    verify(outputCollector, times(1)).ack(tuple);
+    Assert.assertEquals(unifiedEnrichmentBolt.maxPendingMessages, unifiedEnrichmentBolt.pendingMessages.availablePermits());
+    unifiedEnrichmentBolt.cleanup();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRejectsAdaptersWhichAreNotThreadSafe() throws Exception {
+    EnrichmentAdapter<CacheKey> hostAdapter = createAdapter("host");
+    when(hostAdapter.isThreadSafe()).thenReturn(false);
+    List<Enrichment> enrichments = new ArrayList<>();
+    enrichments.add(new Enrichment<>("host", hostAdapter));
+    createBolt(enrichments, "ENRICHMENT");
+  }
+
+  @Test
+  public void testAcceptsAdaptersWhichAreNotThreadSafeWithOneThread() throws Exception {
+    EnrichmentAdapter<CacheKey> hostAdapter = createAdapter("host");
+    when(hostAdapter.isThreadSafe()).thenReturn(false);
+    List<Enrichment> enrichments = new ArrayList<>();
+    enrichments.add(new Enrichment<>("host", hostAdapter));
+    UnifiedEnrichmentBolt unifiedEnrichmentBolt = configureBolt(enrichments, "ENRICHMENT").withNumThreads(1);
+    unifiedEnrichmentBolt.prepare(new HashMap<>(), topologyContext, outputCollector);
+    unifiedEnrichmentBolt.cleanup();
+  }
+
+  @Override
+  public void removeTimingFields(JSONObject message) {
+    List<Object> keys = new ArrayList<>(message.keySet());
+    for (Object key : keys) {
+      if (key.toString().endsWith(".ts")) {
+        message.remove(key);
+      }
+    }
+  }
+}
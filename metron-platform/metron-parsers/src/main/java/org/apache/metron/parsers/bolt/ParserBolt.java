@@ -18,6 +18,7 @@
 package org.apache.metron.parsers.bolt;
 
 import static org.apache.metron.common.Constants.METADATA_PREFIX;
+import static org.apache.storm.utils.TupleUtils.isTick;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import java.io.IOException;
@@ -26,6 +27,7 @@ import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -48,6 +50,7 @@ import org.apache.metron.parsers.interfaces.MessageFilter;
 import org.apache.metron.parsers.interfaces.MessageParser;
 import org.apache.metron.stellar.dsl.Context;
 import org.apache.metron.stellar.dsl.StellarFunctions;
+import org.apache.storm.Config;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.task.TopologyContext;
 import org.apache.storm.topology.OutputFieldsDeclarer;
@@ -68,6 +71,8 @@ public class ParserBolt extends ConfiguredParserBolt implements Serializable {
   private WriterHandler writer;
   private Context stellarContext;
   private transient MessageGetStrategy messageGetStrategy;
+  private transient List<Tuple> batch;
+  private transient long batchStartTime;
   public ParserBolt( String zookeeperUrl
                    , String sensorType
                    , MessageParser<JSONObject> parser
@@ -95,6 +100,7 @@ public class ParserBolt extends ConfiguredParserBolt implements Serializable {
     super.prepare(stormConf, context, collector);
     messageGetStrategy = MessageGetters.DEFAULT_BYTES_FROM_POSITION.get();
     this.collector = collector;
+    this.batch = new ArrayList<>();
     initializeStellar();
     if(getSensorParserConfig() != null && filter == null) {
       getSensorParserConfig().getParserConfig().putIfAbsent("stellarContext", stellarContext);
@@ -119,6 +125,20 @@ public class ParserBolt extends ConfiguredParserBolt implements Serializable {
     parser.configure(config.getParserConfig());
   }
 
+  /**
+   * Request a tick tuple regardless of the batch size the topology was submitted with, as batching
+   * may be enabled later through the sensor config and partial batches are drained on the tick.
+   */
+  @Override
+  public Map<String, Object> getComponentConfiguration() {
+    Map<String, Object> conf = super.getComponentConfiguration();
+    if (conf == null) {
+      conf = new HashMap<>();
+    }
+    conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+    return conf;
+  }
+
   protected void initializeStellar() {
     this.stellarContext = new Context.Builder()
                                 .with(Context.Capabilities.ZOOKEEPER_CLIENT, () -> client)
@@ -164,57 +184,46 @@ public class ParserBolt extends ConfiguredParserBolt implements Serializable {
   @SuppressWarnings("unchecked")
   @Override
   public void execute(Tuple tuple) {
-    byte[] originalMessage = (byte[]) messageGetStrategy.get(tuple);
+    if (isTick(tuple)) {
+      try {
+        if (!batch.isEmpty()) {
+          executeBatch();
+        }
+        writer.drainCompletions();
+      }
+      finally {
+        collector.ack(tuple);
+      }
+      return;
+    }
     SensorParserConfig sensorParserConfig = getSensorParserConfig();
+    int batchSize = sensorParserConfig == null || sensorParserConfig.getParserBatchSize() == null ? 1 : sensorParserConfig.getParserBatchSize();
+    if (batchSize <= 1 && batch.isEmpty()) {
+      executeSingle(tuple, sensorParserConfig);
+      return;
+    }
+    if (batch.isEmpty()) {
+      batchStartTime = System.currentTimeMillis();
+    }
+    batch.add(tuple);
+    if (batch.size() >= batchSize || isBatchExpired(sensorParserConfig)) {
+      executeBatch();
+    }
+  }
+
+  private void executeSingle(Tuple tuple, SensorParserConfig sensorParserConfig) {
+    byte[] originalMessage = (byte[]) messageGetStrategy.get(tuple);
     try {
       //we want to ack the tuple in the situation where we have are not doing a bulk write
       //otherwise we want to defer to the writerComponent who will ack on bulk commit.
       boolean ackTuple = !writer.handleAck();
       int numWritten = 0;
       if(sensorParserConfig != null) {
-        Map<String, Object> metadata = getMetadata(tuple, sensorParserConfig.getReadMetadata());
         List<FieldValidator> fieldValidations = getConfigurations().getFieldValidations();
-        Optional<List<JSONObject>> messages = parser.parseOptional(originalMessage);
-        for (JSONObject message : messages.orElse(Collections.emptyList())) {
-          message.put(Constants.SENSOR_TYPE, getSensorType());
-          if(sensorParserConfig.getMergeMetadata()) {
-            message.putAll(metadata);
-          }
-          for (FieldTransformer handler : sensorParserConfig.getFieldTransformations()) {
-            if (handler != null) {
-              if(!sensorParserConfig.getMergeMetadata()) {
-                //if we haven't merged metadata, then we need to pass them along as configuration params.
-                handler.transformAndUpdate(message, stellarContext, sensorParserConfig.getParserConfig(), metadata);
-              }
-              else {
-                handler.transformAndUpdate(message, stellarContext, sensorParserConfig.getParserConfig());
-              }
-            }
-          }
-          if(!message.containsKey(Constants.GUID)) {
-            message.put(Constants.GUID, UUID.randomUUID().toString());
-          }
-
-          if (parser.validate(message) && (filter == null || filter.emitTuple(message, stellarContext))) {
-            numWritten++;
-            List<FieldValidator> failedValidators = getFailedValidators(message, fieldValidations);
-            if(failedValidators.size() > 0) {
-              MetronError error = new MetronError()
-                      .withErrorType(Constants.ErrorType.PARSER_INVALID)
-                      .withSensorType(getSensorType())
-                      .addRawMessage(message);
-              Set<String> errorFields = failedValidators.stream()
-                      .flatMap(fieldValidator -> fieldValidator.getInput().stream())
-                      .collect(Collectors.toSet());
-              if (!errorFields.isEmpty()) {
-                error.withErrorFields(errorFields);
-              }
-              ErrorUtils.handleError(collector, error);
-            }
-            else {
-              writer.write(getSensorType(), tuple, message, getConfigurations(), messageGetStrategy);
-            }
-          }
+        List<JSONObject> messages = new ArrayList<>();
+        numWritten = parse(tuple, originalMessage, sensorParserConfig, fieldValidations, messages);
+        for (JSONObject message : messages) {
+          writer.write(getSensorType(), tuple, message, getConfigurations(), messageGetStrategy);
         }
       }
       //if we are supposed to ack the tuple OR if we've never passed this tuple to the bulk writer
@@ -228,6 +237,126 @@ public class ParserBolt extends ConfiguredParserBolt implements Serializable {
     }
   }
 
+  /**
+   * Parse, transform and validate every tuple in the current batch, then hand all of the valid
+   * messages to the writer in a single call.  The sensor config and field validations are read
+   * once for the whole batch rather than once per tuple.
+   */
+  private void executeBatch() {
+    List<Tuple> tuples = new ArrayList<>(batch);
+    batch.clear();
+    SensorParserConfig sensorParserConfig = getSensorParserConfig();
+    boolean ackTuples = !writer.handleAck();
+    List<Tuple> writtenTuples = new ArrayList<>(tuples.size());
+    List<JSONObject> writtenMessages = new ArrayList<>(tuples.size());
+    Map<Tuple, byte[]> originalMessages = new LinkedHashMap<>();
+    List<FieldValidator> fieldValidations = getConfigurations().getFieldValidations();
+    for (Tuple tuple : tuples) {
+      byte[] originalMessage = (byte[]) messageGetStrategy.get(tuple);
+      try {
+        List<JSONObject> messages = new ArrayList<>();
+        if (sensorParserConfig != null) {
+          parse(tuple, originalMessage, sensorParserConfig, fieldValidations, messages);
+        }
+        if (messages.isEmpty()) {
+          //nothing from this tuple will ever reach the writer, so we ack it ourselves.
+          collector.ack(tuple);
+          continue;
+        }
+        for (JSONObject message : messages) {
+          writtenTuples.add(tuple);
+          writtenMessages.add(message);
+        }
+        originalMessages.put(tuple, originalMessage);
+      } catch (Throwable ex) {
+        handleError(originalMessage, tuple, ex, collector);
+      }
+    }
+    if (writtenMessages.isEmpty()) {
+      return;
+    }
+    try {
+      writer.write(getSensorType(), writtenTuples, writtenMessages, getConfigurations(), messageGetStrategy);
+      if (ackTuples) {
+        originalMessages.keySet().forEach(t -> collector.ack(t));
+      }
+    } catch (Throwable ex) {
+      for (Map.Entry<Tuple, byte[]> kv : originalMessages.entrySet()) {
+        handleError(kv.getValue(), kv.getKey(), ex, collector);
+      }
+    }
+  }
+
+  private boolean isBatchExpired(SensorParserConfig sensorParserConfig) {
+    if (sensorParserConfig == null || sensorParserConfig.getParserBatchTimeout() == null
+            || sensorParserConfig.getParserBatchTimeout() <= 0) {
+      //without a timeout, partial batches are only drained on the tick tuple.
+      return false;
+    }
+    return System.currentTimeMillis() - batchStartTime >= sensorParserConfig.getParserBatchTimeout();
+  }
+
+  /**
+   * Parse a single tuple, apply the field transformations and run the validations.  Messages which
+   * should be written are added to validMessages; messages which fail the field validations are sent
+   * to the error stream.
+   *
+   * @return The number of messages which passed the parser validation and the filter.
+   */
+  private int parse( Tuple tuple
+                   , byte[] originalMessage
+                   , SensorParserConfig sensorParserConfig
+                   , List<FieldValidator> fieldValidations
+                   , List<JSONObject> validMessages
+                   )
+  {
+    int numWritten = 0;
+    Map<String, Object> metadata = getMetadata(tuple, sensorParserConfig.getReadMetadata());
+    Optional<List<JSONObject>> messages = parser.parseOptional(originalMessage);
+    for (JSONObject message : messages.orElse(Collections.emptyList())) {
+      message.put(Constants.SENSOR_TYPE, getSensorType());
+      if(sensorParserConfig.getMergeMetadata()) {
+        message.putAll(metadata);
+      }
+      for (FieldTransformer handler : sensorParserConfig.getFieldTransformations()) {
+        if (handler != null) {
+          if(!sensorParserConfig.getMergeMetadata()) {
+            //if we haven't merged metadata, then we need to pass them along as configuration params.
+            handler.transformAndUpdate(message, stellarContext, sensorParserConfig.getParserConfig(), metadata);
+          }
+          else {
+            handler.transformAndUpdate(message, stellarContext, sensorParserConfig.getParserConfig());
+          }
+        }
+      }
+      if(!message.containsKey(Constants.GUID)) {
+        message.put(Constants.GUID, UUID.randomUUID().toString());
+      }
+
+      if (parser.validate(message) && (filter == null || filter.emitTuple(message, stellarContext))) {
+        numWritten++;
+        List<FieldValidator> failedValidators = getFailedValidators(message, fieldValidations);
+        if(failedValidators.size() > 0) {
+          MetronError error = new MetronError()
+                  .withErrorType(Constants.ErrorType.PARSER_INVALID)
+                  .withSensorType(getSensorType())
+                  .addRawMessage(message);
+          Set<String> errorFields = failedValidators.stream()
+                  .flatMap(fieldValidator -> fieldValidator.getInput().stream())
+                  .collect(Collectors.toSet());
+          if (!errorFields.isEmpty()) {
+            error.withErrorFields(errorFields);
+          }
+          ErrorUtils.handleError(collector, error);
+        }
+        else {
+          validMessages.add(message);
+        }
+      }
+    }
+    return numWritten;
+  }
+
   protected void handleError(byte[] originalMessage, Tuple tuple, Throwable ex, OutputCollector collector) {
     MetronError error = new MetronError()
             .withErrorType(Constants.ErrorType.PARSER_ERROR)
@@ -33,8 +33,7 @@ import org.apache.metron.writer.WriterToBulkWriter;
 import org.json.simple.JSONObject;
 
 import java.io.Serializable;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
@@ -72,8 +71,8 @@ public class WriterHandler implements Serializable {
     }
     this.writerComponent = new BulkWriterComponent<JSONObject>(collector, isBulk, isBulk) {
       @Override
-      protected Collection<Tuple> createTupleCollection() {
-        return new HashSet<>();
+      protected boolean collapseRepeatedTuples() {
+        return true;
       }
     };
   }
@@ -87,7 +86,31 @@ public class WriterHandler implements Serializable {
     writerComponent.write(sensorType, tuple, message, messageWriter, writerTransformer.apply(configurations), messageGetStrategy);
   }
 
+  /**
+   * Write a batch of messages.  The writer configuration is resolved once for the whole batch.
+   * The tuples and messages are parallel lists; a tuple may appear more than once if it
+   * produced several messages.
+   */
+  public void write( String sensorType
+                   , List<Tuple> tuples
+                   , List<JSONObject> messages
+                   , ParserConfigurations configurations
+                   , MessageGetStrategy messageGetStrategy
+                   ) throws Exception {
+    WriterConfiguration writerConfiguration = writerTransformer.apply(configurations);
+    for(int i = 0;i < messages.size();++i) {
+      writerComponent.write(sensorType, tuples.get(i), messages.get(i), messageWriter, writerConfiguration, messageGetStrategy);
+    }
+  }
+
   public void errorAll(String sensorType, Throwable e, MessageGetStrategy messageGetStrategy) {
     writerComponent.errorAll(sensorType, e, messageGetStrategy);
   }
+
+  /**
+   * Acks and fails the tuples whose messages a bulk writer has reported since the last call.
+   */
+  public void drainCompletions() {
+    writerComponent.drainCompletions();
+  }
 }
@@ -568,6 +568,96 @@ public void testImplicitBatchOfOne() throws Exception {
 
   }
 
+  /**
+   {
+    "parserBatchSize" : 3
+   }
+   */
+  @Multiline
+  public static String parserBatchConfig;
+
+  private ParserBolt createBatchingParserBolt(String sensorType) {
+    ParserBolt parserBolt = new ParserBolt("zookeeperUrl", sensorType, parser, new WriterHandler(writer)) {
+      @Override
+      protected SensorParserConfig getSensorParserConfig() {
+        try {
+          return SensorParserConfig.fromBytes(Bytes.toBytes(parserBatchConfig));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      @Override
+      protected ConfigurationsUpdater<ParserConfigurations> createUpdater() {
+        return ParserBoltTest.createUpdater();
+      }
+    };
+    parserBolt.setCuratorFramework(client);
+    parserBolt.setZKCache(cache);
+    parserBolt.prepare(new HashMap(), topologyContext, outputCollector);
+    return parserBolt;
+  }
+
+  @Test
+  public void testParserBatch() throws Exception {
+    String sensorType = "yaf";
+    ParserBolt parserBolt = createBatchingParserBolt(sensorType);
+    when(parser.validate(any())).thenReturn(true);
+    when(parser.parseOptional(any())).thenAnswer(invocation -> Optional.of(ImmutableList.of(new JSONObject())));
+    parserBolt.execute(t1);
+    parserBolt.execute(t2);
+    verify(parser, times(0)).parseOptional(any());
+    verify(writer, times(0)).write(any(), any(), any(), any());
+    verify(outputCollector, times(0)).ack(any());
+    parserBolt.execute(t3);
+    verify(parser, times(3)).parseOptional(any());
+    verify(writer, times(1)).write(eq(sensorType), any(), eq(t1), any());
+    verify(writer, times(1)).write(eq(sensorType), any(), eq(t2), any());
+    verify(writer, times(1)).write(eq(sensorType), any(), eq(t3), any());
+    verify(outputCollector, times(1)).ack(t1);
+    verify(outputCollector, times(1)).ack(t2);
+    verify(outputCollector, times(1)).ack(t3);
+  }
+
+  @Test
+  public void testParserBatchFlushedOnTick() throws Exception {
+    String sensorType = "yaf";
+    ParserBolt parserBolt = createBatchingParserBolt(sensorType);
+    when(parser.validate(any())).thenReturn(true);
+    when(parser.parseOptional(any())).thenAnswer(invocation -> Optional.of(ImmutableList.of(new JSONObject())));
+    Tuple tick = mock(Tuple.class);
+    when(tick.getSourceComponent()).thenReturn(org.apache.storm.Constants.SYSTEM_COMPONENT_ID);
+    when(tick.getSourceStreamId()).thenReturn(org.apache.storm.Constants.SYSTEM_TICK_STREAM_ID);
+    parserBolt.execute(t1);
+    verify(writer, times(0)).write(any(), any(), any(), any());
+    parserBolt.execute(tick);
+    verify(writer, times(1)).write(eq(sensorType), any(), eq(t1), any());
+    verify(outputCollector, times(1)).ack(t1);
+    verify(outputCollector, times(1)).ack(tick);
+  }
+
+  @Test
+  public void testTickRequestedWithoutBatching() throws Exception {
+    ParserBolt parserBolt = new ParserBolt("zookeeperUrl", "yaf", parser, new WriterHandler(writer));
+    Assert.assertEquals(1, parserBolt.getComponentConfiguration().get(org.apache.storm.Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+  }
+
+  @Test
+  public void testParserBatchWithError() throws Exception {
+    String sensorType = "yaf";
+    ParserBolt parserBolt = createBatchingParserBolt(sensorType);
+    when(parser.validate(any())).thenReturn(true);
+    when(parser.parseOptional(any())).thenAnswer(invocation -> Optional.of(ImmutableList.of(new JSONObject())));
+    doThrow(new Exception()).when(writer).write(any(), any(), any(), any());
+    parserBolt.execute(t1);
+    parserBolt.execute(t2);
+    parserBolt.execute(t3);
+    verify(outputCollector, times(1)).ack(t1);
+    verify(outputCollector, times(1)).ack(t2);
+    verify(outputCollector, times(1)).ack(t3);
+    verify(outputCollector, times(3)).emit(eq(Constants.ERROR_STREAM), any());
+  }
+
   protected void buildGlobalConfig(ParserBolt parserBolt) {
     HashMap<String, Object> globalConfig = new HashMap<>();
     Map<String, Object> fieldValidation = new HashMap<>();
@@ -17,15 +17,17 @@
  */
 package org.apache.metron.solr.writer;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.storm.task.TopologyContext;
-import org.apache.storm.tuple.Tuple;
+import org.apache.metron.common.Constants;
 import org.apache.metron.common.configuration.Configurations;
+import org.apache.metron.common.configuration.ConfigurationsUtils;
 import org.apache.metron.common.configuration.EnrichmentConfigurations;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
-import org.apache.metron.common.writer.BulkMessageWriter;
-import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.metron.common.writer.BatchMessageWriter;
+import org.apache.metron.common.writer.WriteCallback;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
@@ -33,24 +35,91 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public class SolrWriter implements BulkMessageWriter<JSONObject>, Serializable {
+/**
+ * Writes messages to a Solr collection.
+ *
+ * <p>By default each message is added on its own and a failure fails the batch.  With
+ * {@code solr.concurrentRequests} set, each batch is split into update requests of at most
+ * {@code solr.maxDocsPerRequest} documents, up to {@code solr.concurrentRequests} of which are in flight
+ * at once.  A request which Solr rejects with a client error is split and sent again until the documents
+ * it rejects are found, so that only they fail; any other failure fails the whole request.  Documents are
+ * keyed by the guid of their message, so that a document sent again replaces itself.
+ *
+ * <p>Documents are visible to searches once committed; either by {@code solr.commitWithinMs}, which
+ * leaves Solr to commit them within that time, or by a commit after each batch with
+ * {@link #withShouldCommit(boolean)}.  That commit is a soft commit, which opens a new searcher
+ * without flushing the index to disk, when {@code solr.softCommit} is true.
+ */
+public class SolrWriter implements BatchMessageWriter<JSONObject>, Serializable {
 
   public static final String DEFAULT_COLLECTION = "metron";
 
+  public static final String CONCURRENT_REQUESTS_CONF = "solr.concurrentRequests";
+  public static final String MAX_DOCS_PER_REQUEST_CONF = "solr.maxDocsPerRequest";
+  public static final String COMMIT_WITHIN_MS_CONF = "solr.commitWithinMs";
+  public static final String SOFT_COMMIT_CONF = "solr.softCommit";
+
+  public static final int DEFAULT_CONCURRENT_REQUESTS = 0;
+  public static final int DEFAULT_MAX_DOCS_PER_REQUEST = 1000;
+  public static final int DEFAULT_COMMIT_WITHIN_MS = -1;
+  public static final boolean DEFAULT_SOFT_COMMIT = false;
+
   private static final Logger LOG = LoggerFactory
           .getLogger(SolrWriter.class);
 
   private boolean shouldCommit = false;
+  private Integer concurrentRequests;
+  private Integer maxDocsPerRequest;
+  private Integer commitWithinMs;
+  private Boolean softCommit;
   private MetronSolrClient solr;
+  private transient ExecutorService updates;
 
   public SolrWriter withShouldCommit(boolean shouldCommit) {
     this.shouldCommit = shouldCommit;
     return this;
   }
 
+  /**
+   * @param concurrentRequests The maximum number of update requests in flight at once; 0 adds each message on its own.
+   */
+  public SolrWriter withConcurrentRequests(Integer concurrentRequests) {
+    this.concurrentRequests = concurrentRequests;
+    return this;
+  }
+
+  /**
+   * @param maxDocsPerRequest The number of documents after which a batch is split into another update request.
+   */
+  public SolrWriter withMaxDocsPerRequest(Integer maxDocsPerRequest) {
+    this.maxDocsPerRequest = maxDocsPerRequest;
+    return this;
+  }
+
+  /**
+   * @param commitWithinMs The time in milliseconds within which Solr commits the documents added; -1 never.
+   */
+  public SolrWriter withCommitWithinMs(Integer commitWithinMs) {
+    this.commitWithinMs = commitWithinMs;
+    return this;
+  }
+
+  /**
+   * @param softCommit True if the commit after each batch is a soft commit.
+   */
+  public SolrWriter withSoftCommit(Boolean softCommit) {
+    this.softCommit = softCommit;
+    return this;
+  }
+
   public SolrWriter withMetronSolrClient(MetronSolrClient solr) {
     this.solr = solr;
     return this;
@@ -63,28 +132,119 @@ public class SolrWriter implements BulkMessageWriter<JSONObject>, Serializable {
     String collection = getCollection(configurations);
     solr.createCollection(collection, (Integer) globalConfiguration.get("solr.numShards"), (Integer) globalConfiguration.get("solr.replicationFactor"));
     solr.setDefaultCollection(collection);
+    concurrentRequests = ConfigurationsUtils.getSetting(concurrentRequests, globalConfiguration, CONCURRENT_REQUESTS_CONF, Integer.class, DEFAULT_CONCURRENT_REQUESTS);
+    maxDocsPerRequest = ConfigurationsUtils.getSetting(maxDocsPerRequest, globalConfiguration, MAX_DOCS_PER_REQUEST_CONF, Integer.class, DEFAULT_MAX_DOCS_PER_REQUEST);
+    commitWithinMs = ConfigurationsUtils.getSetting(commitWithinMs, globalConfiguration, COMMIT_WITHIN_MS_CONF, Integer.class, DEFAULT_COMMIT_WITHIN_MS);
+    softCommit = ConfigurationsUtils.getSetting(softCommit, globalConfiguration, SOFT_COMMIT_CONF, Boolean.class, DEFAULT_SOFT_COMMIT);
+    if(maxDocsPerRequest <= 0) {
+      throw new IllegalArgumentException(MAX_DOCS_PER_REQUEST_CONF + " must be positive, but was " + maxDocsPerRequest);
+    }
+    if(concurrentRequests > 0 && updates == null) {
+      updates = Executors.newFixedThreadPool(concurrentRequests, new ThreadFactoryBuilder()
+              .setNameFormat("solr-writer-%d")
+              .setDaemon(true)
+              .build());
+    }
   }
 
   @Override
-  public BulkWriterResponse write(String sourceType, WriterConfiguration configurations, Iterable<Tuple> tuples, List<JSONObject> messages) throws Exception {
+  public <ID_T> void write(String sourceType, WriterConfiguration configurations, List<ID_T> ids, List<JSONObject> messages, WriteCallback<ID_T> callback) throws Exception {
+    String collection = getCollection(configurations);
+    if(updates == null) {
+      for(JSONObject message: messages) {
+        SolrInputDocument document = toDocument(sourceType, message);
+        if(commitWithinMs < 0) {
+          solr.add(document);
+        }
+        else {
+          solr.add(document, commitWithinMs);
+        }
+      }
+      commit(collection);
+
+      // each message is added on its own, so a failure fails the entire batch
+      for(ID_T id : ids) {
+        callback.onSuccess(id);
+      }
+      return;
+    }
+
+    List<SolrInputDocument> documents = new ArrayList<>(messages.size());
     for(JSONObject message: messages) {
-      SolrInputDocument document = new SolrInputDocument();
-      document.addField("id", getIdValue(message));
-      document.addField("sensorType", sourceType);
-      for(Object key: message.keySet()) {
-        Object value = message.get(key);
-        document.addField(getFieldName(key, value), value);
+      documents.add(toDocument(sourceType, message));
+    }
+    Throwable[] failures = new Throwable[documents.size()];
+    List<Future<?>> requests = new ArrayList<>();
+    for(int from = 0; from < documents.size(); from += maxDocsPerRequest) {
+      final int start = from;
+      final int end = Math.min(from + maxDocsPerRequest, documents.size());
+      requests.add(updates.submit(() -> add(collection, documents, start, end, failures)));
+    }
+    for(Future<?> request : requests) {
+      request.get();
+    }
+    commit(collection);
+
+    for(int i = 0; i < failures.length; i++) {
+      if(failures[i] == null) {
+        callback.onSuccess(ids.get(i));
+      }
+      else {
+        callback.onError(ids.get(i), failures[i]);
+      }
+    }
+  }
+
+  /**
+   * Adds the documents from start up to end in a single update request.  If Solr rejects a document of it,
+   * each half is sent on its own, until the failure of each document that cannot be added is recorded.
+   * Any other failure, such as a lost connection or a server error, fails every document of the request.
+   */
+  private void add(String collection, List<SolrInputDocument> documents, int start, int end, Throwable[] failures) {
+    try {
+      solr.add(collection, documents.subList(start, end), commitWithinMs);
+    } catch (Exception e) {
+      if(end - start == 1 || !isRejected(e)) {
+        LOG.debug("Unable to add documents {}..{} to {}", start, end - 1, collection, e);
+        Arrays.fill(failures, start, end, e);
+      }
+      else {
+        // documents are keyed by their guid, so sending them again replaces any which were added
+        int middle = (start + end) >>> 1;
+        add(collection, documents, start, middle, failures);
+        add(collection, documents, middle, end, failures);
       }
-      UpdateResponse response = solr.add(document);
     }
-    if (shouldCommit) {
-      solr.commit(getCollection(configurations));
+  }
+
+  /**
+   * @return True if Solr rejected the content of the request, rather than being unable to handle it.
+   */
+  private static boolean isRejected(Exception e) {
+    return e instanceof SolrException && ((SolrException) e).code() >= 400 && ((SolrException) e).code() < 500;
+  }
+
+  private void commit(String collection) throws IOException, SolrServerException {
+    if(!shouldCommit) {
+      return;
     }
+    if(softCommit) {
+      solr.commit(collection, true, true, true);
+    }
+    else {
+      solr.commit(collection);
+    }
+  }
 
-    // Solr commits the entire batch or throws an exception for it.  There's no way to get partial failures.
-    BulkWriterResponse response = new BulkWriterResponse();
-    response.addAllSuccesses(tuples);
-    return response;
+  private SolrInputDocument toDocument(String sourceType, JSONObject message) {
+    SolrInputDocument document = new SolrInputDocument();
+    document.addField("id", getIdValue(message));
+    document.addField("sensorType", sourceType);
+    for(Object key: message.keySet()) {
+      Object value = message.get(key);
+      document.addField(getFieldName(key, value), value);
+    }
+    return document;
   }
 
   @Override
@@ -97,8 +257,12 @@ public class SolrWriter implements BulkMessageWriter<JSONObject>, Serializable {
     return collection != null ? collection : DEFAULT_COLLECTION;
   }
 
-  private int getIdValue(JSONObject message) {
-    return message.toJSONString().hashCode();
+  /**
+   * @return The guid of the message, or a hash of its content if it has none.
+   */
+  private Object getIdValue(JSONObject message) {
+    Object guid = message.get(Constants.GUID);
+    return guid != null ? guid.toString() : message.toJSONString().hashCode();
   }
 
   protected String getFieldName(Object key, Object value) {
@@ -119,6 +283,9 @@ public class SolrWriter implements BulkMessageWriter<JSONObject>, Serializable {
 
   @Override
   public void close() throws Exception {
+    if(updates != null) {
+      updates.shutdown();
+    }
     solr.close();
   }
 }
@@ -20,20 +20,32 @@ package org.apache.metron.solr.writer;
 import org.apache.metron.common.configuration.EnrichmentConfigurations;
 import org.apache.metron.common.configuration.IndexingConfigurations;
 import org.apache.metron.common.configuration.writer.IndexingWriterConfiguration;
+import org.apache.metron.common.writer.BulkWriterResponse;
 import org.apache.metron.enrichment.integration.utils.SampleUtil;
+import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.hamcrest.Description;
+import org.apache.storm.tuple.Tuple;
 import org.json.simple.JSONObject;
+import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -137,4 +149,104 @@ public class SolrWriterTest {
     verify(solr, times(1)).commit(collection);
 
   }
+
+  @Test
+  public void testConcurrentWriterFailsOnlyRejectedDocuments() throws Exception {
+    IndexingConfigurations configurations = SampleUtil.getSampleIndexingConfigs();
+    List<JSONObject> messages = new ArrayList<>();
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      JSONObject message = new JSONObject();
+      message.put("intField", i);
+      message.put("doubleField", i == 3 ? "not a double" : (double) i);
+      messages.add(message);
+      tuples.add(Mockito.mock(Tuple.class));
+    }
+
+    MetronSolrClient solr = Mockito.mock(MetronSolrClient.class);
+    List<Integer> requestSizes = new ArrayList<>();
+    doAnswer(invocation -> {
+      Collection<SolrInputDocument> documents = (Collection<SolrInputDocument>) invocation.getArguments()[1];
+      synchronized (requestSizes) {
+        requestSizes.add(documents.size());
+      }
+      for (SolrInputDocument document : documents) {
+        if (document.get("doubleField_s") != null) {
+          throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "doubleField must be a double");
+        }
+      }
+      return null;
+    }).when(solr).add(eq("metron"), anyCollectionOf(SolrInputDocument.class), eq(5000));
+
+    SolrWriter writer = new SolrWriter()
+            .withMetronSolrClient(solr)
+            .withConcurrentRequests(2)
+            .withMaxDocsPerRequest(2)
+            .withCommitWithinMs(5000)
+            .withShouldCommit(true)
+            .withSoftCommit(true);
+    writer.init(null, null, new IndexingWriterConfiguration("solr", configurations));
+    BulkWriterResponse response = writer.write("test", new IndexingWriterConfiguration("solr", configurations), tuples, messages);
+
+    // the batch is sent as requests of 2, 2 and 1 documents, and the failed one is sent again per document
+    Assert.assertEquals(5, requestSizes.size());
+    Assert.assertEquals(4, response.getSuccesses().size());
+    Assert.assertFalse(response.getSuccesses().contains(tuples.get(3)));
+    Assert.assertEquals(1, response.getErrors().size());
+    Assert.assertTrue(response.getErrors().values().iterator().next().contains(tuples.get(3)));
+    verify(solr, times(0)).add(any(SolrInputDocument.class));
+    verify(solr, times(1)).commit("metron", true, true, true);
+    writer.close();
+  }
+
+  @Test
+  public void testConcurrentWriterFailsWholeRequestOnTransportError() throws Exception {
+    IndexingConfigurations configurations = SampleUtil.getSampleIndexingConfigs();
+    List<JSONObject> messages = new ArrayList<>();
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      JSONObject message = new JSONObject();
+      message.put("guid", "guid" + i);
+      message.put("intField", i);
+      messages.add(message);
+      tuples.add(Mockito.mock(Tuple.class));
+    }
+
+    MetronSolrClient solr = Mockito.mock(MetronSolrClient.class);
+    List<Integer> requestSizes = new ArrayList<>();
+    List<Object> ids = new ArrayList<>();
+    doAnswer(invocation -> {
+      Collection<SolrInputDocument> documents = (Collection<SolrInputDocument>) invocation.getArguments()[1];
+      synchronized (requestSizes) {
+        requestSizes.add(documents.size());
+        for (SolrInputDocument document : documents) {
+          ids.add(document.getFieldValue("id"));
+        }
+      }
+      for (SolrInputDocument document : documents) {
+        if ("guid3".equals(document.getFieldValue("id"))) {
+          throw new SolrServerException("Connection refused");
+        }
+      }
+      return null;
+    }).when(solr).add(eq("metron"), anyCollectionOf(SolrInputDocument.class), eq(-1));
+
+    SolrWriter writer = new SolrWriter()
+            .withMetronSolrClient(solr)
+            .withConcurrentRequests(2)
+            .withMaxDocsPerRequest(2);
+    writer.init(null, null, new IndexingWriterConfiguration("solr", configurations));
+    BulkWriterResponse response = writer.write("test", new IndexingWriterConfiguration("solr", configurations), tuples, messages);
+
+    // the request is not split, as Solr could not be reached rather than rejecting a document
+    Assert.assertEquals(3, requestSizes.size());
+    Assert.assertEquals(5, ids.size());
+    Assert.assertTrue(ids.containsAll(Arrays.asList("guid0", "guid1", "guid2", "guid3", "guid4")));
+    Assert.assertEquals(3, response.getSuccesses().size());
+    Assert.assertEquals(1, response.getErrors().size());
+    Collection<Tuple> failed = response.getErrors().values().iterator().next();
+    Assert.assertEquals(2, failed.size());
+    Assert.assertTrue(failed.containsAll(Arrays.asList(tuples.get(2), tuples.get(3))));
+    writer.close();
+  }
 }
@@ -19,27 +19,41 @@
 package org.apache.metron.writer;
 
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.metron.common.Constants;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
 import org.apache.metron.common.error.MetronError;
 import org.apache.metron.common.message.MessageGetStrategy;
 import org.apache.metron.common.system.Clock;
 import org.apache.metron.common.utils.ErrorUtils;
+import org.apache.metron.common.writer.AsyncBatchMessageWriter;
+import org.apache.metron.common.writer.BatchMessageWriter;
 import org.apache.metron.common.writer.BulkMessageWriter;
 import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.metron.common.writer.WriteCallback;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.tuple.Tuple;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.AbstractList;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This component implements message batching, with both flush on queue size, and flush on queue timeout.
@@ -65,14 +79,32 @@ import java.util.concurrent.TimeUnit;
  *   will not age out of the Storm topology, but it does not guarantee the flush interval requested, for
  *   sensor types not receiving at least one message every second.
  *
+ * The tuples and messages of each sensor are buffered in a ring of preallocated slots, which are reused
+ * from batch to batch, so batching builds no collections.  A {@link BatchMessageWriter} is handed lists
+ * backed by the ring, which are only valid for the duration of the call to the writer.  Any other
+ * {@link BulkMessageWriter} may keep the lists it is handed, so is handed copies.  Only the sensors with a
+ * batch open are checked for timeouts on each Tick Tuple.
+ *
+ * Batches may optionally be flushed by a background thread, so that a slow writer does not hold up the
+ * buffering of the next batch.  The ring of each sensor holds two batches, so the bolt only blocks if a
+ * sensor fills a second batch before the first has been written.
+ *
+ * An {@link AsyncBatchMessageWriter} is not waited on when the component handles commits and errors itself.
+ * Its tuples are acked or failed as the writer reports each message.
+ *
+ * Outcomes reported on any thread other than the one calling the component, whether by the background flush
+ * or by an asynchronous writer, are queued for the thread calling the component, which is the only thread that
+ * uses the collector.  The outcomes are drained on each call to write, flushTimeouts and errorAll, or
+ * explicitly through drainCompletions.
+ *
  * @param <MESSAGE_T>
  */
 public class BulkWriterComponent<MESSAGE_T> {
   public static final Logger LOG = LoggerFactory
             .getLogger(BulkWriterComponent.class);
-  private Map<String, Collection<Tuple>> sensorTupleMap = new HashMap<>();
-  private Map<String, List<MESSAGE_T>> sensorMessageMap = new HashMap<>();
-  private Map<String, long[]> batchTimeoutMap = new HashMap<>();
+  private Map<String, SensorBuffer> sensorBuffers = new HashMap<>();
+  // the buffers with a batch open, which are the only ones that can time out
+  private List<SensorBuffer> openBuffers = new ArrayList<>();
   private OutputCollector collector;
   //In test scenarios, defaultBatchTimeout may not be correctly initialized, so do it here.
   //This is a conservative defaultBatchTimeout for a vanilla bolt with batchTimeoutDivisor=2
@@ -80,9 +112,10 @@ public class BulkWriterComponent<MESSAGE_T> {
   private int defaultBatchTimeout = UNINITIALIZED_DEFAULT_BATCH_TIMEOUT;
   private boolean handleCommit = true;
   private boolean handleError = true;
-  private static final int LAST_CREATE_TIME_MS = 0; //index zero'th element of long[] in batchTimeoutMap
-  private static final int TIMEOUT_MS = 1;          //index next element of long[] in batchTimeoutMap
   private Clock clock = new Clock();
+  private ExecutorService flusher = null;
+  // outcomes reported from other threads, to be handled on the thread calling the component
+  private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();
 
   public BulkWriterComponent(OutputCollector collector) {
     this.collector = collector;
@@ -103,6 +136,47 @@ public class BulkWriterComponent<MESSAGE_T> {
     return this;
   }
 
+  /**
+   * Flushes batches on a background thread rather than the thread writing the messages.  As errors
+   * cannot then be thrown back to the caller, the component must handle commits and errors itself.
+   * @return this mutated BulkWriterComponent
+   */
+  public BulkWriterComponent<MESSAGE_T> withBackgroundFlush() {
+    if(!handleCommit || !handleError) {
+      throw new IllegalStateException("Flushing in the background requires commits and errors to be handled");
+    }
+    this.flusher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("bulk-writer-flush-%d")
+            .setDaemon(true)
+            .build());
+    return this;
+  }
+
+  /**
+   * Stops the background flush, if any, once the batches already handed to it have been written.
+   */
+  public void close() {
+    if(flusher != null) {
+      flusher.shutdown();
+    }
+  }
+
+  /**
+   * Acks and fails the tuples whose outcome has been reported since the last drain.  This must be called
+   * from the thread that owns the collector.
+   */
+  public void drainCompletions() {
+    Completion completion;
+    while ((completion = completions.poll()) != null) {
+      if (completion.error == null) {
+        commit(completion.tuples);
+      }
+      else {
+        error(completion.sensorType, completion.error, completion.tuples, completion.messageGetStrategy);
+      }
+    }
+  }
+
   public void commit(Iterable<Tuple> tuples) {
     tuples.forEach(t -> collector.ack(t));
     if(LOG.isDebugEnabled()) {
@@ -134,21 +208,30 @@ public class BulkWriterComponent<MESSAGE_T> {
     }
   }
 
-  protected Collection<Tuple> createTupleCollection() {
-    return new ArrayList<>();
+  /**
+   * Whether a tuple written several times within a batch, as when it produced several messages, should be
+   * passed to the writer once.  The batch size then counts tuples rather than messages, and the writer
+   * is passed the tuples as a set.
+   */
+  protected boolean collapseRepeatedTuples() {
+    return false;
   }
 
   public void errorAll(Throwable e, MessageGetStrategy messageGetStrategy) {
-    for(String key : new HashSet<>(sensorTupleMap.keySet())) {
-      errorAll(key, e, messageGetStrategy);
+    drainCompletions();
+    for(int i = openBuffers.size() - 1;i >= 0;--i) {
+      errorAll(openBuffers.get(i).sensorType, e, messageGetStrategy);
     }
   }
 
   public void errorAll(String sensorType, Throwable e, MessageGetStrategy messageGetStrategy) {
-    Collection<Tuple> tuples = Optional.ofNullable(sensorTupleMap.get(sensorType)).orElse(new ArrayList<>());
-    error(sensorType, e, tuples, messageGetStrategy);
-    sensorTupleMap.remove(sensorType);
-    sensorMessageMap.remove(sensorType);
+    drainCompletions();
+    SensorBuffer buffer = sensorBuffers.get(sensorType);
+    if(buffer == null || !buffer.open) {
+      error(sensorType, e, new ArrayList<>(), messageGetStrategy);
+      return;
+    }
+    fail(buffer, e, messageGetStrategy);
   }
 
   public void write( String sensorType
@@ -159,84 +242,112 @@ public class BulkWriterComponent<MESSAGE_T> {
                    , MessageGetStrategy messageGetStrategy
                    ) throws Exception
   {
+    drainCompletions();
     if (!configurations.isEnabled(sensorType)) {
       collector.ack(tuple);
       return;
     }
     int batchSize = configurations.getBatchSize(sensorType);
-
-    if (batchSize <= 1) { //simple case - no batching, no timeouts
-      Collection<Tuple> tupleList = sensorTupleMap.get(sensorType);  //still read in case batchSize changed
-      if (tupleList == null) {
-        tupleList = createTupleCollection();
-      }
-      tupleList.add(tuple);
-
-      List<MESSAGE_T> messageList = sensorMessageMap.get(sensorType);  //still read in case batchSize changed
-      if (messageList == null) {
-        messageList = new ArrayList<>();
-      }
-      messageList.add(message);
-
-      flush(sensorType, bulkMessageWriter, configurations, messageGetStrategy, tupleList, messageList);
-      return;
+    SensorBuffer buffer = sensorBuffers.get(sensorType);
+    if (buffer == null) {
+      buffer = new SensorBuffer(sensorType, batchSize);
+      sensorBuffers.put(sensorType, buffer);
     }
 
-    //Otherwise do the full batch buffering with timeouts
-    long[] batchTimeoutInfo = batchTimeoutMap.get(sensorType);
-    if (batchTimeoutInfo == null) {
-      //lazily create the batchTimeoutInfo array, once per sensor.
-      batchTimeoutInfo = new long[] {0L, 0L};
-      batchTimeoutMap.put(sensorType, batchTimeoutInfo);
-    }
-
-    Collection<Tuple> tupleList = sensorTupleMap.get(sensorType);
-    if (tupleList == null) {
+    if (!buffer.open) {
       //This block executes at the beginning of every batch, per sensor.
-      tupleList = createTupleCollection();
-      sensorTupleMap.put(sensorType, tupleList);
-      batchTimeoutInfo[LAST_CREATE_TIME_MS] = clock.currentTimeMillis();
+      buffer.open = true;
+      openBuffers.add(buffer);
+      buffer.createTimeMs = clock.currentTimeMillis();
       //configurations can change, so (re)init getBatchTimeout(sensorType) at start of every batch
       int batchTimeoutSecs = configurations.getBatchTimeout(sensorType);
       if (batchTimeoutSecs <= 0 || batchTimeoutSecs > defaultBatchTimeout) {
         batchTimeoutSecs = defaultBatchTimeout;
       }
-      batchTimeoutInfo[TIMEOUT_MS] = TimeUnit.SECONDS.toMillis(batchTimeoutSecs);
-    }
-    tupleList.add(tuple);
-
-    List<MESSAGE_T> messageList = sensorMessageMap.get(sensorType);
-    if (messageList == null) {
-      messageList = new ArrayList<>();
-      sensorMessageMap.put(sensorType, messageList);
+      buffer.timeoutMs = TimeUnit.SECONDS.toMillis(batchTimeoutSecs);
     }
-    messageList.add(message);
+    buffer.add(tuple, message, batchSize);
 
-    //Check for batchSize flush
-    if (tupleList.size() >= batchSize) {
-      flush(sensorType, bulkMessageWriter, configurations, messageGetStrategy, tupleList, messageList);
+    //Check for batchSize flush; with batchSize <= 1 there is no batching, and so no timeouts
+    if (buffer.batchTuples() >= batchSize) {
+      flush(buffer, bulkMessageWriter, configurations, messageGetStrategy);
       return;
     }
-    //Check for batchTimeout flush (if the tupleList isn't brand new).
+    //Check for batchTimeout flush (if the batch isn't brand new).
     //Debugging note: If your queue always flushes at length==2 regardless of feed rate,
     //it may mean defaultBatchTimeout has somehow been set to zero.
-    if (tupleList.size() > 1 && (clock.currentTimeMillis() - batchTimeoutInfo[LAST_CREATE_TIME_MS] >= batchTimeoutInfo[TIMEOUT_MS])) {
-      flush(sensorType, bulkMessageWriter, configurations, messageGetStrategy, tupleList, messageList);
+    if (buffer.batchTuples() > 1 && (clock.currentTimeMillis() - buffer.createTimeMs >= buffer.timeoutMs)) {
+      flush(buffer, bulkMessageWriter, configurations, messageGetStrategy);
       return;
     }
   }
 
-  private void flush( String sensorType
+  /**
+   * Closes the open batch of a sensor and writes it, either now or in the background.
+   */
+  private void flush( SensorBuffer buffer
                     , BulkMessageWriter<MESSAGE_T> bulkMessageWriter
                     , WriterConfiguration configurations
-		                , MessageGetStrategy messageGetStrategy
-                    , Collection<Tuple> tupleList
-                    , List<MESSAGE_T> messageList
+                    , MessageGetStrategy messageGetStrategy
                     ) throws Exception
   {
+    Batch batch = close(buffer);
+    if (flusher == null) {
+      flush(batch, bulkMessageWriter, configurations, messageGetStrategy, false);
+    }
+    else {
+      flusher.execute(() -> {
+        try {
+          flush(batch, bulkMessageWriter, configurations, messageGetStrategy, true);
+        } catch (Exception e) {
+          // errors are always handled when flushing in the background, so should not be thrown
+          LOG.error("Unable to flush batch for sensor {}", batch.buffer.sensorType, e);
+        }
+      });
+    }
+  }
+
+  /**
+   * Writes a closed batch.  In the background the outcome is queued for the thread calling the component,
+   * which requires the component to handle commits and errors.
+   */
+  private void flush( Batch batch
+                    , BulkMessageWriter<MESSAGE_T> bulkMessageWriter
+                    , WriterConfiguration configurations
+                    , MessageGetStrategy messageGetStrategy
+                    , boolean background
+                    ) throws Exception
+  {
+    String sensorType = batch.buffer.sensorType;
+    Collection<Tuple> tupleList = batch.tuples;
     long startTime = System.currentTimeMillis(); //no need to mock, so use real time
     try {
-      BulkWriterResponse response = bulkMessageWriter.write(sensorType, configurations, tupleList, messageList);
+      if (isAsync(bulkMessageWriter, batch)) {
+        writeAsync(sensorType, (AsyncBatchMessageWriter<MESSAGE_T>) bulkMessageWriter, configurations, batch, messageGetStrategy);
+        if (!background) {
+          // a writer may know some outcomes as soon as it returns
+          drainCompletions();
+        }
+        return;
+      }
+      BulkWriterResponse response;
+      if (bulkMessageWriter instanceof BatchMessageWriter) {
+        response = bulkMessageWriter.write(sensorType, configurations, tupleList, batch.messages);
+      }
+      else {
+        // the writer may keep the batch, whose slots are reused once it is released
+        Collection<Tuple> tuples = collapseRepeatedTuples() ? new LinkedHashSet<>(tupleList) : new ArrayList<>(tupleList);
+        response = bulkMessageWriter.write(sensorType, configurations, tuples, new ArrayList<>(batch.messages));
+      }
+
+      if (background) {
+        // the response holds its own copy of the tuples, so outlives the batch
+        completions.add(new Completion(sensorType, response.getSuccesses(), null, messageGetStrategy));
+        for (Map.Entry<Throwable, Collection<Tuple>> entry : response.getErrors().entrySet()) {
+          completions.add(new Completion(sensorType, entry.getValue(), entry.getKey(), messageGetStrategy));
+        }
+        return;
+      }
 
       // Commit or error piecemeal.
       if(handleCommit) {
@@ -249,7 +360,10 @@ public class BulkWriterComponent<MESSAGE_T> {
         throw new IllegalStateException("Unhandled bulk errors in response: " + response.getErrors());
       }
     } catch (Throwable e) {
-      if(handleError) {
+      if(background) {
+        completions.add(new Completion(sensorType, new ArrayList<>(tupleList), e, messageGetStrategy));
+      }
+      else if(handleError) {
         error(sensorType, e, tupleList, messageGetStrategy);
       }
       else {
@@ -257,14 +371,84 @@ public class BulkWriterComponent<MESSAGE_T> {
       }
     }
     finally {
-      sensorTupleMap.remove(sensorType);
-      sensorMessageMap.remove(sensorType);
+      batch.release();
     }
     long endTime = System.currentTimeMillis();
     long elapsed = endTime - startTime;
     LOG.debug("Bulk batch for sensor {} completed in ~{} ns", sensorType, elapsed);
   }
 
+  /**
+   * Whether the outcome of a batch can be reported by the writer as each message is written, which needs a
+   * single message per tuple.
+   */
+  private boolean isAsync(BulkMessageWriter<MESSAGE_T> bulkMessageWriter, Batch batch) {
+    return bulkMessageWriter instanceof AsyncBatchMessageWriter
+            && handleCommit && handleError
+            && batch.tuples.size() == batch.messages.size();
+  }
+
+  /**
+   * Writes a batch without waiting for it, queueing the ack or failure of each tuple as the writer reports it.
+   */
+  private void writeAsync( String sensorType
+                         , AsyncBatchMessageWriter<MESSAGE_T> bulkMessageWriter
+                         , WriterConfiguration configurations
+                         , Batch batch
+                         , MessageGetStrategy messageGetStrategy
+                         ) throws Exception
+  {
+    // the ring slots are reused once the batch is released, so the writer is given its own ids
+    List<Tuple> tuples = new ArrayList<>(batch.tuples);
+    bulkMessageWriter.writeAsync(sensorType, configurations, tuples, batch.messages, new WriteCallback<Tuple>() {
+      @Override
+      public void onSuccess(Tuple tuple) {
+        completions.add(new Completion(sensorType, Collections.singletonList(tuple), null, messageGetStrategy));
+      }
+
+      @Override
+      public void onError(Tuple tuple, Throwable e) {
+        completions.add(new Completion(sensorType, Collections.singletonList(tuple), e, messageGetStrategy));
+      }
+    });
+  }
+
+  /**
+   * Closes the open batch of a sensor and fails it, either now or in the background.
+   */
+  private void fail(SensorBuffer buffer, Throwable e, MessageGetStrategy messageGetStrategy) {
+    Batch batch = close(buffer);
+    if (flusher == null) {
+      fail(batch, e, messageGetStrategy);
+    }
+    else {
+      // queued behind the batches already handed to the background flush
+      flusher.execute(() -> {
+        List<Tuple> tuples = new ArrayList<>(batch.tuples);
+        batch.release();
+        completions.add(new Completion(batch.buffer.sensorType, tuples, e, messageGetStrategy));
+      });
+    }
+  }
+
+  private void fail(Batch batch, Throwable e, MessageGetStrategy messageGetStrategy) {
+    try {
+      error(batch.buffer.sensorType, e, batch.tuples, messageGetStrategy);
+    } finally {
+      batch.release();
+    }
+  }
+
+  private Batch close(SensorBuffer buffer) {
+    Batch batch = new Batch(buffer);
+    buffer.batchStart = buffer.written;
+    buffer.tupleBatchStart = buffer.tupleWritten;
+    buffer.batchTupleSet.clear();
+    buffer.open = false;
+    openBuffers.remove(buffer);
+    return batch;
+  }
+
   // Flushes all queues older than their batchTimeouts.
   public void flushTimeouts(
             BulkMessageWriter<MESSAGE_T> bulkMessageWriter
@@ -272,15 +456,12 @@ public class BulkWriterComponent<MESSAGE_T> {
           , MessageGetStrategy messageGetStrategy
           ) throws Exception
   {
+    drainCompletions();
     // No need to do "all" sensorTypes here, just the ones that have data batched up.
-    // Note queues with batchSize == 1 don't get batched, so they never persist in the sensorTupleMap.
-    for (String sensorType : sensorTupleMap.keySet()) {
-      long[] batchTimeoutInfo = batchTimeoutMap.get(sensorType);
-      if (batchTimeoutInfo == null  //Shouldn't happen, but conservatively flush if so
-          || clock.currentTimeMillis() - batchTimeoutInfo[LAST_CREATE_TIME_MS] >= batchTimeoutInfo[TIMEOUT_MS]) {
-        flush(sensorType, bulkMessageWriter, configurations, messageGetStrategy
-	            , sensorTupleMap.get(sensorType), sensorMessageMap.get(sensorType));
-        return;
+    for (int i = openBuffers.size() - 1; i >= 0; --i) {
+      SensorBuffer buffer = openBuffers.get(i);
+      if (clock.currentTimeMillis() - buffer.createTimeMs >= buffer.timeoutMs) {
+        flush(buffer, bulkMessageWriter, configurations, messageGetStrategy);
       }
     }
   }
@@ -291,4 +472,203 @@ public class BulkWriterComponent<MESSAGE_T> {
   public void setDefaultBatchTimeout(int defaultBatchTimeout) {
     this.defaultBatchTimeout = defaultBatchTimeout;
   }
+
+  /**
+   * The tuples and messages of a sensor, held in rings of slots addressed by ever increasing sequence
+   * numbers.  The open batch runs from the start of the batch to the last slot written, and slots are
+   * only reused once the batch that they belong to has been flushed.  Only the flush, which may run on
+   * the background thread, advances the flushed sequences.
+   */
+  private class SensorBuffer {
+    private final String sensorType;
+    private Object[] tuples;
+    private Object[] messages;
+    private long written;
+    private long batchStart;
+    private volatile long flushed;
+    private long tupleWritten;
+    private long tupleBatchStart;
+    private volatile long tupleFlushed;
+    private boolean open;
+    // the tuples of the open batch, when repeated tuples are collapsed
+    private final Set<Tuple> batchTupleSet = new HashSet<>();
+    private long createTimeMs;
+    private long timeoutMs;
+
+    SensorBuffer(String sensorType, int batchSize) {
+      this.sensorType = sensorType;
+      this.tuples = new Object[capacityFor(batchSize)];
+      this.messages = new Object[tuples.length];
+    }
+
+    int batchTuples() {
+      return (int) (tupleWritten - tupleBatchStart);
+    }
+
+    void add(Tuple tuple, MESSAGE_T message, int batchSize) {
+      if (messages.length < capacityFor(batchSize) || written - flushed == messages.length) {
+        awaitFlushed();
+        if (messages.length < capacityFor(batchSize) || written - flushed == messages.length) {
+          resize(Math.max(capacityFor(batchSize), 2 * messages.length));
+        }
+      }
+      messages[index(written++)] = message;
+      if (!collapseRepeatedTuples() || batchTupleSet.add(tuple)) {
+        tuples[index(tupleWritten++)] = tuple;
+      }
+    }
+
+    /**
+     * Waits for the batches handed to the background flush to be written, when the ring is full.
+     */
+    private void awaitFlushed() {
+      while (flushed != batchStart && written - flushed == messages.length) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+    }
+
+    /**
+     * Grows the rings, which is only possible while none of their slots are being flushed.
+     */
+    private void resize(int capacity) {
+      while (flushed != batchStart) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+      tuples = copy(tuples, tupleBatchStart, tupleWritten, capacity);
+      messages = copy(messages, batchStart, written, capacity);
+    }
+
+    private Object[] copy(Object[] slots, long start, long end, int capacity) {
+      Object[] resized = new Object[capacity];
+      for (long i = start; i < end; ++i) {
+        resized[(int) (i & (capacity - 1))] = slots[(int) (i & (slots.length - 1))];
+      }
+      return resized;
+    }
+
+    private int index(long sequence) {
+      return (int) (sequence & (messages.length - 1));
+    }
+  }
+
+  /**
+   * A closed batch of a sensor, which holds on to its slots until it has been flushed.
+   */
+  private class Batch {
+    private final SensorBuffer buffer;
+    private final Slots<Tuple> tupleSlots;
+    private final Slots<MESSAGE_T> messageSlots;
+    private final Collection<Tuple> tuples;
+    private final List<MESSAGE_T> messages;
+    private final long end;
+    private final long tupleEnd;
+
+    Batch(SensorBuffer buffer) {
+      this.buffer = buffer;
+      this.tupleSlots = new Slots<>(buffer.tuples, buffer.tupleBatchStart, buffer.tupleWritten);
+      this.messageSlots = new Slots<>(buffer.messages, buffer.batchStart, buffer.written);
+      this.tuples = collapseRepeatedTuples() ? new DistinctSlots<>(tupleSlots) : tupleSlots;
+      this.messages = messageSlots;
+      this.end = buffer.written;
+      this.tupleEnd = buffer.tupleWritten;
+    }
+
+    /**
+     * Clears the slots of the batch, so that an idle sensor does not keep its last batches reachable,
+     * and releases them to be reused.
+     */
+    void release() {
+      tupleSlots.empty();
+      messageSlots.empty();
+      buffer.tupleFlushed = tupleEnd;
+      buffer.flushed = end;
+    }
+  }
+
+  /**
+   * The outcome of tuples written on another thread, which are acked when there is no error.
+   */
+  private static class Completion {
+    private final String sensorType;
+    private final Collection<Tuple> tuples;
+    private final Throwable error;
+    private final MessageGetStrategy messageGetStrategy;
+
+    Completion(String sensorType, Collection<Tuple> tuples, Throwable error, MessageGetStrategy messageGetStrategy) {
+      this.sensorType = sensorType;
+      this.tuples = tuples;
+      this.error = error;
+      this.messageGetStrategy = messageGetStrategy;
+    }
+  }
+
+  /**
+   * @return The capacity of the rings of a sensor, which hold two batches.
+   */
+  private static int capacityFor(int batchSize) {
+    int capacity = Integer.highestOneBit(Math.max(batchSize, 1));
+    if (capacity < batchSize) {
+      capacity <<= 1;
+    }
+    return 2 * capacity;
+  }
+
+  /**
+   * A batch of slots of a ring, from one sequence up to another.
+   */
+  private static class Slots<T> extends AbstractList<T> {
+    private final Object[] slots;
+    private final long start;
+    private final int size;
+
+    Slots(Object[] slots, long start, long end) {
+      this.slots = slots;
+      this.start = start;
+      this.size = (int) (end - start);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      return (T) slots[(int) ((start + index) & (slots.length - 1))];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Nulls out the slots, which are no longer read once the batch has been written.
+     */
+    void empty() {
+      for (long i = start; i < start + size; ++i) {
+        slots[(int) (i & (slots.length - 1))] = null;
+      }
+    }
+  }
+
+  /**
+   * Slots known to hold distinct elements.
+   */
+  private static class DistinctSlots<T> extends AbstractSet<T> {
+    private final Slots<T> slots;
+
+    DistinctSlots(Slots<T> slots) {
+      this.slots = slots;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return slots.iterator();
+    }
+
+    @Override
+    public int size() {
+      return slots.size();
+    }
+  }
 }
@@ -59,6 +59,7 @@ public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
   private int requestedTickFreqSecs;
   private int defaultBatchTimeout;
   private int batchTimeoutDivisor = 1;
+  private boolean backgroundFlush = false;
 
   public BulkMessageWriterBolt(String zookeeperUrl) {
     super(zookeeperUrl);
@@ -110,6 +111,19 @@ public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
     return this;
   }
 
+  /**
+   * Hand full and timed out batches to a background thread so that the executor thread
+   * can keep accepting tuples while the writer is busy.  Each sensor still flushes its
+   * batches in order.  Default value, if not otherwise set, is false.
+   *
+   * @param backgroundFlush
+   * @return BulkMessageWriterBolt
+   */
+  public BulkMessageWriterBolt withBackgroundFlush(boolean backgroundFlush) {
+    this.backgroundFlush = backgroundFlush;
+    return this;
+  }
+
   /**
    * Used only for unit testing
    * @param defaultBatchTimeout
@@ -163,6 +177,9 @@ public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
   @Override
   public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
     this.writerComponent = new BulkWriterComponent<>(collector);
+    if (backgroundFlush) {
+      writerComponent.withBackgroundFlush();
+    }
     this.collector = collector;
     super.prepare(stormConf, context, collector);
     if (messageGetField != null) {
@@ -205,6 +222,8 @@ public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
   public void execute(Tuple tuple) {
     if (isTick(tuple)) {
       try {
+        // batches written in the background are acked here even when the bolt is otherwise idle
+        writerComponent.drainCompletions();
         if (!(bulkMessageWriter instanceof WriterToBulkWriter)) {
           //WriterToBulkWriter doesn't allow batching, so no need to flush on Tick.
           LOG.debug("Flushing message queues older than their batchTimeouts");
@@ -246,6 +265,14 @@ public class BulkMessageWriterBolt extends ConfiguredIndexingBolt {
     }
   }
 
+  @Override
+  public void cleanup() {
+    if (writerComponent != null) {
+      writerComponent.close();
+    }
+    super.cleanup();
+  }
+
   @Override
   public void declareOutputFields(OutputFieldsDeclarer declarer) {
     declarer.declareStream(Constants.ERROR_STREAM, new Fields("message"));
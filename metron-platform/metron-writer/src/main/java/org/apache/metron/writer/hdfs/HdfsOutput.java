@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.hdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.json.simple.JSONObject;
+
+/**
+ * Lays out the messages written by a {@link SourceHandler} in its current file.
+ */
+public interface HdfsOutput {
+
+  /**
+   * Starts a new file.
+   * @param out The stream of the new file.
+   */
+  void open(OutputStream out) throws IOException;
+
+  void write(JSONObject message) throws IOException;
+
+  /**
+   * Writes out any buffered messages, so that they can be synced.
+   */
+  void flush() throws IOException;
+
+  /**
+   * @return The size in bytes of the messages held in memory rather than written to the stream, which will
+   * still be written to the current file.
+   */
+  long getBufferedBytes();
+
+  /**
+   * @return True if the messages of the current file can be read once it is flushed and synced, or false if
+   * they can only be read once the file is closed.
+   */
+  boolean isDurableOnSync();
+
+  /**
+   * Hands over the current file, to be finished and closed while the next file is written.
+   * @return Writes out any buffered messages of the file and closes its stream.
+   */
+  Closeable detach();
+
+  /**
+   * Writes out any buffered messages and closes the stream of the current file.
+   */
+  void close() throws IOException;
+}
@@ -17,17 +17,21 @@
  */
 package org.apache.metron.writer.hdfs;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.metron.common.configuration.IndexingConfigurations;
 import org.apache.metron.stellar.dsl.Context;
 import org.apache.metron.stellar.dsl.MapVariableResolver;
 import org.apache.metron.stellar.dsl.StellarFunctions;
 import org.apache.metron.stellar.dsl.VariableResolver;
 import org.apache.metron.stellar.common.StellarProcessor;
+import org.apache.storm.Config;
 import org.apache.storm.task.TopologyContext;
-import org.apache.storm.tuple.Tuple;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
-import org.apache.metron.common.writer.BulkMessageWriter;
-import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.metron.common.writer.AsyncBatchMessageWriter;
+import org.apache.metron.common.writer.WriteCallback;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
 import org.apache.storm.hdfs.bolt.format.FileNameFormat;
 import org.apache.storm.hdfs.bolt.rotation.FileRotationPolicy;
 import org.apache.storm.hdfs.bolt.rotation.NoRotationPolicy;
@@ -38,17 +42,54 @@ import org.json.simple.JSONObject;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class HdfsWriter implements AsyncBatchMessageWriter<JSONObject>, Serializable {
+
+  /**
+   * The layout of the files written.
+   */
+  public enum OutputFormat {
+    /**
+     * A line of JSON per message.
+     */
+    JSON,
+    /**
+     * Parquet files of compressed columns, with a schema per sensor.
+     */
+    PARQUET
+  }
+
+  /**
+   * Storm's default for topology.message.timeout.secs.
+   */
+  static final long DEFAULT_MESSAGE_TIMEOUT_SECS = 30;
 
-public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
   List<RotationAction> rotationActions = new ArrayList<>();
   FileRotationPolicy rotationPolicy = new NoRotationPolicy();
   SyncPolicy syncPolicy;
   FileNameFormat fileNameFormat;
-  Map<SourceHandlerKey, SourceHandler> sourceHandlerMap = new HashMap<>();
+  // handlers remove themselves when they rotate, possibly on their timer thread
+  Map<SourceHandlerKey, SourceHandler> sourceHandlerMap = new ConcurrentHashMap<>();
   int maxOpenFiles = 500;
+  OutputFormat outputFormat = OutputFormat.JSON;
+  String compressionCodec = "snappy";
+  int rowGroupBytes = 8 * 1024 * 1024;
+  boolean asyncFileOperations = false;
   transient StellarProcessor stellarProcessor;
   transient Map stormConfig;
   transient SyncPolicyCreator syncPolicyCreator;
+  transient Map<String, ParquetOutput.Columns> columns;
+  transient Configuration hadoopConfig;
+  transient ExecutorService fileOperations;
+  transient long maxFileAgeMillis;
+  transient int taskId;
 
 
   public HdfsWriter withFileNameFormat(FileNameFormat fileNameFormat){
@@ -75,11 +116,75 @@ public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
     return this;
   }
 
+  /**
+   * Each task writes its own files without waiting on other threads, and hands syncs and rotations to a
+   * background thread rather than waiting on HDFS.  The files written by a batch are synced once it has been
+   * written, and the batch is only acked once the sync, and the closing of any file it rotated, succeeds.
+   * A timed rotation happens between writes.
+   * @param asyncFileOperations True to sync and rotate files in the background.
+   */
+  public HdfsWriter withAsyncFileOperations(boolean asyncFileOperations) {
+    this.asyncFileOperations = asyncFileOperations;
+    return this;
+  }
+
+  /**
+   * @param outputFormat The layout of the files written; JSON or PARQUET.  PARQUET needs asynchronous file operations,
+   *                     as a batch is only acked once its file is closed.
+   */
+  public HdfsWriter withOutputFormat(String outputFormat) {
+    this.outputFormat = OutputFormat.valueOf(outputFormat.toUpperCase());
+    return this;
+  }
+
+  /**
+   * @param compressionCodec The codec compressing the columns of PARQUET files; uncompressed, snappy or gzip.
+   */
+  public HdfsWriter withCompressionCodec(String compressionCodec) {
+    this.compressionCodec = compressionCodec;
+    return this;
+  }
+
+  /**
+   * @param rowGroupBytes The size in bytes of the groups of rows of PARQUET files buffered and written a column at a time.
+   */
+  public HdfsWriter withRowGroupBytes(int rowGroupBytes) {
+    this.rowGroupBytes = rowGroupBytes;
+    return this;
+  }
+
   @Override
   public void init(Map stormConfig, TopologyContext topologyContext, WriterConfiguration configurations) {
+    if(outputFormat == OutputFormat.PARQUET && !asyncFileOperations) {
+      // rows are only durable once their file is closed, which a batch written synchronously cannot wait for
+      throw new IllegalArgumentException("PARQUET output needs asynchronous file operations");
+    }
+    if(asyncFileOperations && outputFormat == OutputFormat.PARQUET && rotationPolicy instanceof NoRotationPolicy) {
+      // a batch is only acked once its Parquet file is closed, so every file must be rotated
+      throw new IllegalArgumentException("Asynchronous file operations with PARQUET output need a rotation policy");
+    }
     this.stormConfig = stormConfig;
     this.stellarProcessor = new StellarProcessor();
-    this.fileNameFormat.prepare(stormConfig,topologyContext);
+    this.columns = new HashMap<>();
+    this.hadoopConfig = new Configuration();
+    // outside of a topology there is a single task
+    this.taskId = topologyContext == null ? 0 : topologyContext.getThisTaskId();
+    if(asyncFileOperations && outputFormat == OutputFormat.PARQUET) {
+      // a written Parquet file is rotated every third of the message timeout, so that a message waits for at most
+      // two rotations, one of them possibly put off while the task was writing, before it is acked
+      Object timeout = stormConfig == null ? null : stormConfig.get(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS);
+      long timeoutSecs = timeout == null ? DEFAULT_MESSAGE_TIMEOUT_SECS : Long.parseLong(timeout.toString());
+      this.maxFileAgeMillis = TimeUnit.SECONDS.toMillis(timeoutSecs) / 3;
+    }
+    if(asyncFileOperations) {
+      this.fileOperations = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+              .setNameFormat("hdfs-writer-" + taskId + "-%d")
+              .setDaemon(true)
+              .build());
+    }
+    if(topologyContext != null) {
+      this.fileNameFormat.prepare(stormConfig,topologyContext);
+    }
     if(syncPolicy != null) {
       //if the user has specified the sync policy, we don't want to override their wishes.
       syncPolicyCreator = new ClonedSyncPolicyCreator(syncPolicy);
@@ -92,32 +197,87 @@ public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
 
 
   @Override
-  public BulkWriterResponse write(String sourceType
+  public <ID_T> void write(String sourceType
                    , WriterConfiguration configurations
-                   , Iterable<Tuple> tuples
+                   , List<ID_T> ids
                    , List<JSONObject> messages
+                   , WriteCallback<ID_T> callback
                    ) throws Exception
   {
-    BulkWriterResponse response = new BulkWriterResponse();
-
     // Currently treating all the messages in a group for pass/failure.
     try {
-      // Messages can all result in different HDFS paths, because of Stellar Expressions, so we'll need to iterate through
-      for(JSONObject message : messages) {
-        String path = getHdfsPathExtension(
-                sourceType,
-                (String)configurations.getSensorConfig(sourceType).getOrDefault(IndexingConfigurations.OUTPUT_PATH_FUNCTION_CONF, ""),
-                message
-        );
-        SourceHandler handler = getSourceHandler(sourceType, path, configurations);
-        handler.handle(message, sourceType, configurations, syncPolicyCreator);
+      handle(sourceType, configurations, messages).get();
+    } catch (Exception e) {
+      Throwable error = e instanceof ExecutionException ? e.getCause() : e;
+      for(ID_T id : ids) {
+        callback.onError(id, error);
       }
+      return;
+    }
+
+    for(ID_T id : ids) {
+      callback.onSuccess(id);
+    }
+  }
+
+  @Override
+  public <ID_T> void writeAsync(String sourceType
+                               , WriterConfiguration configurations
+                               , List<ID_T> ids
+                               , List<JSONObject> messages
+                               , WriteCallback<ID_T> callback
+                               ) throws Exception {
+    List<ID_T> batch = new ArrayList<>(ids);
+    CompletableFuture<Void> durable;
+    try {
+      durable = handle(sourceType, configurations, messages);
     } catch (Exception e) {
-      response.addAllErrors(e, tuples);
+      for(ID_T id : batch) {
+        callback.onError(id, e);
+      }
+      return;
+    }
+
+    durable.whenComplete((nothing, e) -> {
+      Throwable error = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      for(ID_T id : batch) {
+        if(error == null) {
+          callback.onSuccess(id);
+        }
+        else {
+          callback.onError(id, error);
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes each message to the file of its path.
+   * @return Completes once the files written are synced in the background, or closed if their output is not durable on
+   * sync, or at once if files are synced as they are written.
+   */
+  private CompletableFuture<Void> handle(String sourceType, WriterConfiguration configurations, List<JSONObject> messages) throws IOException {
+    Set<SourceHandler> handlers = new LinkedHashSet<>();
+    // Messages can all result in different HDFS paths, because of Stellar Expressions, so we'll need to iterate through
+    for(JSONObject message : messages) {
+      String path = getHdfsPathExtension(
+              sourceType,
+              (String)configurations.getSensorConfig(sourceType).getOrDefault(IndexingConfigurations.OUTPUT_PATH_FUNCTION_CONF, ""),
+              message
+      );
+      SourceHandler handler = getSourceHandler(sourceType, path, configurations);
+      handler.handle(message, sourceType, configurations, syncPolicyCreator);
+      handlers.add(handler);
     }
 
-    response.addAllSuccesses(tuples);
-    return response;
+    if(fileOperations == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    List<CompletableFuture<Void>> synced = new ArrayList<>();
+    for(SourceHandler handler : handlers) {
+      synced.add(handler.syncAsync());
+    }
+    return CompletableFuture.allOf(synced.toArray(new CompletableFuture[0]));
   }
 
   public String getHdfsPathExtension(String sourceType, String stellarFunction, JSONObject message) {
@@ -147,10 +307,34 @@ public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
     }
     // Everything is closed, so just clear it
     sourceHandlerMap.clear();
+    if(fileOperations != null) {
+      // let the files rotated in the background be closed
+      fileOperations.shutdown();
+      try {
+        fileOperations.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  HdfsOutput createOutput(String sourceType, WriterConfiguration config) {
+    if(outputFormat == OutputFormat.PARQUET) {
+      Object schema = config == null ? null : config.getSensorConfig(sourceType).get(IndexingConfigurations.OUTPUT_SCHEMA_CONF);
+      MessageType configured = schema == null ? null : MessageTypeParser.parseMessageType(schema.toString());
+      ParquetOutput.Columns sensorColumns = columns.get(sourceType);
+      if(sensorColumns == null || !Objects.equals(configured, sensorColumns.getConfigured())) {
+        // a new schema in the indexing configuration applies to the files opened from now on
+        sensorColumns = new ParquetOutput.Columns(sourceType, configured);
+        columns.put(sourceType, sensorColumns);
+      }
+      return new ParquetOutput(sensorColumns, hadoopConfig, compressionCodec, rowGroupBytes);
+    }
+    return new JsonOutput();
   }
 
   synchronized SourceHandler getSourceHandler(String sourceType, String stellarResult, WriterConfiguration config) throws IOException {
-    SourceHandlerKey key = new SourceHandlerKey(sourceType, stellarResult);
+    SourceHandlerKey key = new SourceHandlerKey(sourceType, stellarResult, taskId);
     SourceHandler ret = sourceHandlerMap.get(key);
     if(ret == null) {
       if(sourceHandlerMap.size() >= maxOpenFiles) {
@@ -160,7 +344,10 @@ public class HdfsWriter implements BulkMessageWriter<JSONObject>, Serializable {
                               rotationPolicy,
                               syncPolicyCreator.create(sourceType, config),
                               new PathExtensionFileNameFormat(key.getStellarResult(), fileNameFormat),
-                              new SourceHandlerCallback(sourceHandlerMap, key));
+                              new SourceHandlerCallback(sourceHandlerMap, key),
+                              createOutput(sourceType, config),
+                              fileOperations,
+                              maxFileAgeMillis);
       sourceHandlerMap.put(key, ret);
     }
     return ret;
@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.hdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import org.apache.metron.common.message.MessageFormats;
+import org.json.simple.JSONObject;
+
+/**
+ * Writes each message as a line of JSON.
+ */
+public class JsonOutput implements HdfsOutput {
+  private OutputStream out;
+
+  @Override
+  public void open(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(JSONObject message) throws IOException {
+    byte[] json = MessageFormats.JSON.encode(message);
+    byte[] bytes = Arrays.copyOf(json, json.length + 1);
+    bytes[json.length] = '\n';
+    out.write(bytes);
+  }
+
+  @Override
+  public void flush() {
+    // every message is written straight to the stream
+  }
+
+  @Override
+  public long getBufferedBytes() {
+    return 0;
+  }
+
+  @Override
+  public boolean isDurableOnSync() {
+    return true;
+  }
+
+  @Override
+  public Closeable detach() {
+    return out;
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,597 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.hdfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.example.GroupReadSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes messages as rows of a Parquet file, compressed a column at a time.
+ *
+ * <p>Each field of a message is written to a column of its own.  The columns of a sensor are either
+ * given as a Parquet schema, or inferred from its messages: each column is named after its field,
+ * with any character other than a letter, digit or underscore replaced by an underscore, and fields
+ * whose names would collide are told apart by a suffix; 'ip_src_addr_2' for 'ip.src.addr' when
+ * 'ip_src_addr' is already taken.  The original name of the field of each column is kept in the
+ * file metadata under {@link #FIELDS_METADATA}.
+ *
+ * <p>The columns of a file are fixed when its first message is written.  Fields which have no column
+ * in the file, or whose values do not fit the type of their column, are written together as JSON text
+ * to the {@link #UNMAPPED_COLUMN} column, so the file never needs to be rotated early.
+ */
+public class ParquetOutput implements HdfsOutput {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /**
+   * The column holding, as a JSON object, the fields of a message which have no column of their own.
+   */
+  public static final String UNMAPPED_COLUMN = "_unmapped";
+
+  /**
+   * The key of the file metadata holding, as a JSON object, the name of the field of each column.
+   */
+  public static final String FIELDS_METADATA = "metron.fields";
+
+  /**
+   * The columns of the messages of a sensor, shared by all of its files.  An inferred set of
+   * columns only grows: a column is added for each new field, and its type widened to hold
+   * every value seen for it.
+   */
+  public static class Columns {
+    private final String name;
+    private final MessageType configured;
+    // the column of each field, the field of each column, and the type of each inferred column
+    private final Map<String, String> columnOfField = new HashMap<>();
+    private final Map<String, String> fieldOfColumn = new LinkedHashMap<>();
+    private final Map<String, PrimitiveTypeName> types = new HashMap<>();
+
+    /**
+     * @param name The name of the schema; usually the sensor.
+     * @param configured The schema of the files, or null to infer the columns from the messages.
+     */
+    public Columns(String name, MessageType configured) {
+      this.name = columnName(name);
+      this.configured = configured;
+      if (configured != null) {
+        for (Type column : configured.getFields()) {
+          if (!column.isPrimitive() || !column.isRepetition(Type.Repetition.OPTIONAL)
+                  || !isSupported(column.asPrimitiveType().getPrimitiveTypeName())) {
+            throw new IllegalArgumentException("Unable to write column " + column + " of " + name
+                    + "; each column must be an optional boolean, int32, int64, float, double or binary");
+          }
+        }
+        if (configured.containsField(UNMAPPED_COLUMN)
+                && !configured.getType(UNMAPPED_COLUMN).asPrimitiveType().getPrimitiveTypeName().equals(PrimitiveTypeName.BINARY)) {
+          throw new IllegalArgumentException("Unable to write column " + UNMAPPED_COLUMN + " of " + name + "; it must be binary");
+        }
+      }
+    }
+
+    public MessageType getConfigured() {
+      return configured;
+    }
+
+    /**
+     * Assigns a column to each new field of a message and widens the inferred types of its columns.
+     */
+    public synchronized void widen(JSONObject message) {
+      for (Object entry : message.entrySet()) {
+        String field = String.valueOf(((Map.Entry) entry).getKey());
+        Object value = ((Map.Entry) entry).getValue();
+        String column = columnOfField.get(field);
+        if (column == null && !columnOfField.containsKey(field)) {
+          column = assign(field);
+          columnOfField.put(field, column);
+          if (column != null) {
+            fieldOfColumn.put(column, field);
+          }
+        }
+        if (column != null && configured == null && value != null) {
+          types.merge(column, typeOf(value), Columns::merge);
+        }
+      }
+    }
+
+    /**
+     * @return The columns of a new file.
+     */
+    synchronized FileSchema snapshot() {
+      List<Type> columns = new ArrayList<>();
+      if (configured != null) {
+        columns.addAll(configured.getFields());
+      } else {
+        for (String column : fieldOfColumn.keySet()) {
+          PrimitiveTypeName type = types.getOrDefault(column, PrimitiveTypeName.BINARY);
+          columns.add(type == PrimitiveTypeName.BINARY
+                  ? Types.optional(type).as(OriginalType.UTF8).named(column)
+                  : Types.optional(type).named(column));
+        }
+        columns.add(Types.optional(PrimitiveTypeName.BINARY).as(OriginalType.UTF8).named(UNMAPPED_COLUMN));
+      }
+      return new FileSchema(new MessageType(configured == null ? name : configured.getName(), columns)
+                           , new HashMap<>(columnOfField)
+                           , new LinkedHashMap<>(fieldOfColumn));
+    }
+
+    /**
+     * @return The column of a field not seen before, or null if it has none.
+     */
+    private String assign(String field) {
+      String column = columnName(field);
+      if (configured != null) {
+        if (field.equals(UNMAPPED_COLUMN) || column.equals(UNMAPPED_COLUMN)) {
+          return null;
+        }
+        // a column named after the field as it is takes it from a field of the same column name
+        if (configured.containsField(field)) {
+          String previous = fieldOfColumn.get(field);
+          if (previous != null) {
+            LOG.warn("Field {} of {} is written to {}, as column {} is named after field {}"
+                    , previous, this.name, UNMAPPED_COLUMN, field, field);
+            columnOfField.put(previous, null);
+          }
+          return field;
+        }
+        if (configured.containsField(column)) {
+          if (!fieldOfColumn.containsKey(column)) {
+            return column;
+          }
+          LOG.warn("Field {} of {} is written to {}, as column {} is taken by field {}"
+                  , field, this.name, UNMAPPED_COLUMN, column, fieldOfColumn.get(column));
+        }
+        return null;
+      }
+      String unique = column;
+      for (int i = 2; fieldOfColumn.containsKey(unique) || unique.equals(UNMAPPED_COLUMN); i++) {
+        unique = column + "_" + i;
+      }
+      if (!unique.equals(column)) {
+        LOG.info("Field {} of {} is written to column {}, as {} is taken by field {}"
+                , field, this.name, unique, column, fieldOfColumn.get(column));
+      }
+      return unique;
+    }
+
+    private static PrimitiveTypeName merge(PrimitiveTypeName a, PrimitiveTypeName b) {
+      if (a == b) {
+        return a;
+      }
+      if (isNumber(a) && isNumber(b)) {
+        return PrimitiveTypeName.DOUBLE;
+      }
+      return PrimitiveTypeName.BINARY;
+    }
+
+    private static boolean isNumber(PrimitiveTypeName type) {
+      return type == PrimitiveTypeName.INT64 || type == PrimitiveTypeName.DOUBLE;
+    }
+  }
+
+  /**
+   * The columns of a file, and the column of each field.
+   */
+  static class FileSchema {
+    private final MessageType schema;
+    private final Map<String, String> columnOfField;
+    private final Map<String, String> fieldOfColumn;
+
+    FileSchema(MessageType schema, Map<String, String> columnOfField, Map<String, String> fieldOfColumn) {
+      this.schema = schema;
+      this.columnOfField = columnOfField;
+      this.fieldOfColumn = fieldOfColumn;
+    }
+  }
+
+  private final Columns columns;
+  private final Configuration configuration;
+  private final CompressionCodecName codec;
+  private final int rowGroupBytes;
+  private OutputStream out;
+  private StreamOutputFile file;
+  private ParquetWriter<JSONObject> writer;
+
+  /**
+   * @param columns The columns of the sensor.
+   * @param configuration The Hadoop configuration of the compression codecs.
+   * @param codec The compression codec; uncompressed, snappy or gzip.
+   * @param rowGroupBytes The size of the groups of rows buffered and written a column at a time.
+   */
+  public ParquetOutput(Columns columns, Configuration configuration, String codec, int rowGroupBytes) {
+    this.columns = columns;
+    this.configuration = configuration;
+    this.codec = CompressionCodecName.valueOf(codec.toUpperCase());
+    this.rowGroupBytes = rowGroupBytes;
+  }
+
+  @Override
+  public void open(OutputStream out) {
+    this.out = out;
+    this.writer = null;
+  }
+
+  @Override
+  public void write(JSONObject message) throws IOException {
+    if (out == null) {
+      throw new IOException("Stream Closed");
+    }
+    columns.widen(message);
+    if (writer == null) {
+      FileSchema schema = columns.snapshot();
+      file = new StreamOutputFile(out);
+      writer = new Builder(file, schema)
+              .withConf(configuration)
+              .withCompressionCodec(codec)
+              .withRowGroupSize(rowGroupBytes)
+              .build();
+    }
+    writer.write(message);
+  }
+
+  @Override
+  public void flush() {
+    // rows are buffered until their row group is full, and can only be read once the file is closed
+  }
+
+  /**
+   * @return The estimated size of the rows of the current row group, which are only written once it is full.
+   */
+  @Override
+  public long getBufferedBytes() {
+    // a timed rotation may detach the file meanwhile
+    ParquetWriter<JSONObject> current = writer;
+    StreamOutputFile currentFile = file;
+    return current == null || currentFile == null ? 0 : Math.max(0, current.getDataSize() - currentFile.position);
+  }
+
+  /**
+   * @return False, as the rows of a file can only be read once its footer is written when it is closed.
+   */
+  @Override
+  public boolean isDurableOnSync() {
+    return false;
+  }
+
+  @Override
+  public Closeable detach() {
+    Closeable current = writer == null ? out : writer;
+    writer = null;
+    file = null;
+    out = null;
+    return current;
+  }
+
+  @Override
+  public void close() throws IOException {
+    Closeable current = detach();
+    if (current != null) {
+      current.close();
+    }
+  }
+
+  /**
+   * Reads back each message of a file written by this output.
+   * @param configuration The Hadoop configuration.
+   * @param path The file to read.
+   * @param consumer Accepts each message.
+   */
+  @SuppressWarnings("unchecked")
+  public static void read(Configuration configuration, Path path, Consumer<JSONObject> consumer) throws IOException {
+    Map<String, String> fieldOfColumn = new HashMap<>();
+    try (ParquetFileReader file = ParquetFileReader.open(HadoopInputFile.fromPath(path, configuration))) {
+      String fields = file.getFileMetaData().getKeyValueMetaData().get(FIELDS_METADATA);
+      if (fields != null) {
+        fieldOfColumn.putAll((Map<String, String>) JSONValue.parse(fields));
+      }
+    }
+    JSONParser parser = new JSONParser();
+    try (ParquetReader<Group> reader = ParquetReader.builder(new GroupReadSupport(), path).withConf(configuration).build()) {
+      for (Group row = reader.read(); row != null; row = reader.read()) {
+        JSONObject message = new JSONObject();
+        List<Type> types = row.getType().getFields();
+        for (int i = 0; i < types.size(); i++) {
+          if (row.getFieldRepetitionCount(i) == 0) {
+            continue;
+          }
+          String column = types.get(i).getName();
+          Object value = valueOf(row, i, types.get(i).asPrimitiveType());
+          if (column.equals(UNMAPPED_COLUMN)) {
+            try {
+              message.putAll((Map) parser.parse(value.toString()));
+            } catch (ParseException e) {
+              throw new IOException("Unable to read the unmapped fields of " + path, e);
+            }
+          } else {
+            message.put(fieldOfColumn.getOrDefault(column, column), value);
+          }
+        }
+        consumer.accept(message);
+      }
+    }
+  }
+
+  private static Object valueOf(Group row, int i, PrimitiveType type) {
+    switch (type.getPrimitiveTypeName()) {
+      case BOOLEAN:
+        return row.getBoolean(i, 0);
+      case INT32:
+        return row.getInteger(i, 0);
+      case INT64:
+        return row.getLong(i, 0);
+      case FLOAT:
+        return row.getFloat(i, 0);
+      case DOUBLE:
+        return row.getDouble(i, 0);
+      default:
+        return row.getBinary(i, 0).toStringUsingUTF8();
+    }
+  }
+
+  /**
+   * @return The name with each character other than a letter, digit or underscore replaced by an underscore.
+   */
+  public static String columnName(String name) {
+    StringBuilder column = new StringBuilder(name.length() + 1);
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || (c >= '0' && c <= '9');
+      if (i == 0 && c >= '0' && c <= '9') {
+        column.append('_');
+      }
+      column.append(allowed ? c : '_');
+    }
+    return column.length() == 0 ? "_" : column.toString();
+  }
+
+  private static boolean isSupported(PrimitiveTypeName type) {
+    return type != PrimitiveTypeName.INT96 && type != PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY;
+  }
+
+  private static PrimitiveTypeName typeOf(Object value) {
+    if (value instanceof Boolean) {
+      return PrimitiveTypeName.BOOLEAN;
+    }
+    if (isIntegral(value)) {
+      return PrimitiveTypeName.INT64;
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return PrimitiveTypeName.DOUBLE;
+    }
+    return PrimitiveTypeName.BINARY;
+  }
+
+  private static boolean isIntegral(Object value) {
+    return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+  }
+
+  private static boolean fits(Object value, PrimitiveTypeName type) {
+    switch (type) {
+      case BOOLEAN:
+        return value instanceof Boolean;
+      case INT32:
+        return isIntegral(value) && ((Number) value).longValue() == ((Number) value).intValue();
+      case INT64:
+        return isIntegral(value);
+      case FLOAT:
+      case DOUBLE:
+        return value instanceof Number;
+      default:
+        return true;
+    }
+  }
+
+  private static void add(RecordConsumer consumer, Object value, PrimitiveTypeName type) {
+    switch (type) {
+      case BOOLEAN:
+        consumer.addBoolean((Boolean) value);
+        break;
+      case INT32:
+        consumer.addInteger(((Number) value).intValue());
+        break;
+      case INT64:
+        consumer.addLong(((Number) value).longValue());
+        break;
+      case FLOAT:
+        consumer.addFloat(((Number) value).floatValue());
+        break;
+      case DOUBLE:
+        consumer.addDouble(((Number) value).doubleValue());
+        break;
+      default:
+        consumer.addBinary(Binary.fromString(text(value)));
+        break;
+    }
+  }
+
+  private static String text(Object value) {
+    return value instanceof String ? (String) value
+            : value instanceof Map || value instanceof List ? JSONValue.toJSONString(value) : value.toString();
+  }
+
+  /**
+   * Writes each field of a message to its column, and the rest to the unmapped column if there is one.
+   */
+  private static class JsonWriteSupport extends WriteSupport<JSONObject> {
+    private final FileSchema schema;
+    private final int unmapped;
+    private RecordConsumer consumer;
+
+    JsonWriteSupport(FileSchema schema) {
+      this.schema = schema;
+      this.unmapped = schema.schema.containsField(UNMAPPED_COLUMN) ? schema.schema.getFieldIndex(UNMAPPED_COLUMN) : -1;
+    }
+
+    @Override
+    public WriteContext init(Configuration configuration) {
+      Map<String, String> metadata = new HashMap<>();
+      metadata.put(FIELDS_METADATA, JSONValue.toJSONString(schema.fieldOfColumn));
+      return new WriteContext(schema.schema, metadata);
+    }
+
+    @Override
+    public void prepareForWrite(RecordConsumer recordConsumer) {
+      this.consumer = recordConsumer;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void write(JSONObject message) {
+      Object[] values = new Object[schema.schema.getFieldCount()];
+      JSONObject rest = null;
+      for (Object entry : message.entrySet()) {
+        String field = String.valueOf(((Map.Entry) entry).getKey());
+        Object value = ((Map.Entry) entry).getValue();
+        String column = schema.columnOfField.get(field);
+        int index = column == null || !schema.schema.containsField(column) ? -1 : schema.schema.getFieldIndex(column);
+        if (index >= 0 && (value == null || fits(value, schema.schema.getType(index).asPrimitiveType().getPrimitiveTypeName()))) {
+          values[index] = value;
+        } else if (unmapped >= 0) {
+          if (rest == null) {
+            rest = new JSONObject();
+          }
+          rest.put(field, value);
+        }
+      }
+      if (rest != null) {
+        values[unmapped] = rest.toJSONString();
+      }
+      consumer.startMessage();
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null) {
+          String column = schema.schema.getFieldName(i);
+          consumer.startField(column, i);
+          add(consumer, values[i], schema.schema.getType(i).asPrimitiveType().getPrimitiveTypeName());
+          consumer.endField(column, i);
+        }
+      }
+      consumer.endMessage();
+    }
+  }
+
+  private static class Builder extends ParquetWriter.Builder<JSONObject, Builder> {
+    private final FileSchema schema;
+
+    Builder(OutputFile file, FileSchema schema) {
+      super(file);
+      this.schema = schema;
+    }
+
+    @Override
+    protected Builder self() {
+      return this;
+    }
+
+    @Override
+    protected WriteSupport<JSONObject> getWriteSupport(Configuration configuration) {
+      return new JsonWriteSupport(schema);
+    }
+  }
+
+  /**
+   * The stream of the file opened by the {@link SourceHandler}, positioned at its start.
+   */
+  private static class StreamOutputFile implements OutputFile {
+    private final OutputStream out;
+    // the bytes written to the stream so far
+    private long position = 0;
+
+    StreamOutputFile(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public PositionOutputStream create(long blockSizeHint) {
+      return new PositionOutputStream() {
+        @Override
+        public long getPos() {
+          return position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          position += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+          out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+          out.close();
+        }
+      };
+    }
+
+    @Override
+    public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+      return create(blockSizeHint);
+    }
+
+    @Override
+    public boolean supportsBlockSize() {
+      return false;
+    }
+
+    @Override
+    public long defaultBlockSize() {
+      return 0;
+    }
+  }
+}
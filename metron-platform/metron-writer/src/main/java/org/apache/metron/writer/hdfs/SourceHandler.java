@@ -18,14 +18,20 @@
 
 package org.apache.metron.writer.hdfs;
 
+import java.io.Closeable;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
@@ -48,6 +54,20 @@ public class SourceHandler {
   SyncPolicy syncPolicy;
   FileNameFormat fileNameFormat;
   SourceHandlerCallback cleanupCallback;
+  HdfsOutput output;
+  // runs syncs and rotations off the writing thread; when set, only the owning task writes to this handler
+  private transient ExecutorService fileOperations;
+  // held by the owning task while it appends, so that the timer only rotates between writes
+  private final ReentrantLock appendLock = new ReentrantLock();
+  private final AtomicBoolean rotationDue = new AtomicBoolean();
+  // whether the current file has been written to; guarded by the append lock
+  private boolean written = false;
+  // if positive, how often a written file is rotated when the output is not durable on sync
+  private long maxFileAgeMillis;
+  // the closing of the files rotated since the last requested sync
+  private CompletableFuture<Void> closing = CompletableFuture.completedFuture(null);
+  // completes once the current file is closed; waited on instead of a sync when the output is not durable on sync
+  private CompletableFuture<Void> currentFileClosed = new CompletableFuture<>();
   private long offset = 0;
   private int rotation = 0;
   private transient FSDataOutputStream out;
@@ -60,54 +80,266 @@ public class SourceHandler {
                       , SyncPolicy syncPolicy
                       , FileNameFormat fileNameFormat
                       , SourceHandlerCallback cleanupCallback) throws IOException {
+    this(rotationActions, rotationPolicy, syncPolicy, fileNameFormat, cleanupCallback, new JsonOutput());
+  }
+
+  public SourceHandler(List<RotationAction> rotationActions
+                      , FileRotationPolicy rotationPolicy
+                      , SyncPolicy syncPolicy
+                      , FileNameFormat fileNameFormat
+                      , SourceHandlerCallback cleanupCallback
+                      , HdfsOutput output) throws IOException {
+    this(rotationActions, rotationPolicy, syncPolicy, fileNameFormat, cleanupCallback, output, null);
+  }
+
+  /**
+   * @param fileOperations If not null, the handler is only written to by the owning task, without locking,
+   *                       and syncs, rotations and timed rotations are handed to this executor.
+   */
+  public SourceHandler(List<RotationAction> rotationActions
+                      , FileRotationPolicy rotationPolicy
+                      , SyncPolicy syncPolicy
+                      , FileNameFormat fileNameFormat
+                      , SourceHandlerCallback cleanupCallback
+                      , HdfsOutput output
+                      , ExecutorService fileOperations) throws IOException {
+    this(rotationActions, rotationPolicy, syncPolicy, fileNameFormat, cleanupCallback, output, fileOperations, 0);
+  }
+
+  /**
+   * @param fileOperations If not null, the handler is only written to by the owning task, without locking,
+   *                       and syncs, rotations and timed rotations are handed to this executor.
+   * @param maxFileAgeMillis If positive, and the output is not durable on sync, a file written to is rotated on this
+   *                         interval whatever the rotation policy, so that its messages are acked in time.
+   */
+  public SourceHandler(List<RotationAction> rotationActions
+                      , FileRotationPolicy rotationPolicy
+                      , SyncPolicy syncPolicy
+                      , FileNameFormat fileNameFormat
+                      , SourceHandlerCallback cleanupCallback
+                      , HdfsOutput output
+                      , ExecutorService fileOperations
+                      , long maxFileAgeMillis) throws IOException {
+    this.maxFileAgeMillis = maxFileAgeMillis;
     this.rotationActions = rotationActions;
     this.rotationPolicy = rotationPolicy;
     this.syncPolicy = syncPolicy;
     this.fileNameFormat = fileNameFormat;
     this.cleanupCallback = cleanupCallback;
+    this.output = output;
+    this.fileOperations = fileOperations;
     initialize();
   }
 
 
   protected void handle(JSONObject message, String sensor, WriterConfiguration config, SyncPolicyCreator syncPolicyCreator) throws IOException {
-    byte[] bytes = (message.toJSONString() + "\n").getBytes();
+    if (fileOperations != null) {
+      append(message, sensor, config, syncPolicyCreator);
+      return;
+    }
     synchronized (this.writeLock) {
+      long start = out.getPos();
       try {
-        out.write(bytes);
+        output.write(message);
       } catch (IOException writeException) {
         LOG.warn("IOException while writing output", writeException);
         // If the stream is closed, attempt to rotate the file and try again, hoping it's transient
         if (writeException.getMessage().contains("Stream Closed")) {
           LOG.warn("Output Stream was closed. Attempting to rotate file and continue");
           rotateOutputFile();
+          start = out.getPos();
           // If this write fails, the exception will be allowed to bubble up.
-          out.write(bytes);
+          output.write(message);
         } else {
           throw writeException;
         }
       }
-      this.offset += bytes.length;
+      this.offset += out.getPos() - start;
 
       if (this.syncPolicy.mark(null, this.offset)) {
-        if (this.out instanceof HdfsDataOutputStream) {
-          ((HdfsDataOutputStream) this.out)
-              .hsync(EnumSet.of(HdfsDataOutputStream.SyncFlag.UPDATE_LENGTH));
-        } else {
-          this.out.hsync();
-        }
+        // buffered messages only reach the stream when flushed
+        long flushStart = out.getPos();
+        output.flush();
+        this.offset += out.getPos() - flushStart;
+        sync(this.out);
         //recreate the sync policy for the next batch just in case something changed in the config
         //and the sync policy depends on the config.
         this.syncPolicy = syncPolicyCreator.create(sensor, config);
       }
     }
 
-    if (this.rotationPolicy.mark(null, this.offset)) {
+    // the rows a Parquet file holds in memory count towards its size
+    if (this.rotationPolicy.mark(null, this.offset + output.getBufferedBytes())) {
       rotateOutputFile(); // synchronized
       this.offset = 0;
       this.rotationPolicy.reset();
     }
   }
 
+  /**
+   * Writes a message without waiting on other threads, as only the owning task writes to the handler.
+   * The stream is synced, and rotated files closed, in the background, while the task carries on writing.
+   */
+  private void append(JSONObject message, String sensor, WriterConfiguration config, SyncPolicyCreator syncPolicyCreator) throws IOException {
+    appendLock.lock();
+    try {
+      appendLocked(message, sensor, config, syncPolicyCreator);
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  private void appendLocked(JSONObject message, String sensor, WriterConfiguration config, SyncPolicyCreator syncPolicyCreator) throws IOException {
+    if (rotationDue.getAndSet(false)) {
+      rollOver();
+      this.offset = 0;
+      this.rotationPolicy.reset();
+    }
+    long start = out.getPos();
+    try {
+      output.write(message);
+    } catch (IOException writeException) {
+      LOG.warn("IOException while writing output", writeException);
+      // If the stream is closed, attempt to roll over to a new file and try again, hoping it's transient
+      if (writeException.getMessage() != null && writeException.getMessage().contains("Stream Closed")) {
+        LOG.warn("Output Stream was closed. Attempting to rotate file and continue");
+        rollOver();
+        start = out.getPos();
+        // If this write fails, the exception will be allowed to bubble up.
+        output.write(message);
+      } else {
+        throw writeException;
+      }
+    }
+    this.offset += out.getPos() - start;
+    this.written = true;
+
+    if (output.isDurableOnSync() && this.syncPolicy.mark(null, this.offset)) {
+      long flushStart = out.getPos();
+      output.flush();
+      this.offset += out.getPos() - flushStart;
+      FSDataOutputStream stream = this.out;
+      fileOperations.execute(() -> {
+        try {
+          sync(stream);
+        } catch (IOException e) {
+          LOG.warn("IOException while syncing output", e);
+        }
+      });
+      this.syncPolicy = syncPolicyCreator.create(sensor, config);
+    }
+
+    // the rows a Parquet file holds in memory count towards its size
+    if (this.rotationPolicy.mark(null, this.offset + output.getBufferedBytes())) {
+      rollOver();
+      this.offset = 0;
+      this.rotationPolicy.reset();
+    }
+  }
+
+  /**
+   * Starts a new file, leaving the current one to be closed and handed to the rotation actions in the background.
+   */
+  private void rollOver() throws IOException {
+    Closeable finish = output.detach();
+    Path file = this.currentFile;
+    this.rotation++;
+    this.currentFile = createOutputFile();
+    this.written = false;
+    CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+      long start = System.currentTimeMillis();
+      try {
+        finish.close();
+      } catch (IOException e) {
+        LOG.warn("IOException while closing rotated file.", e);
+        throw new UncheckedIOException(e);
+      }
+      try {
+        for (RotationAction action : this.rotationActions) {
+          action.execute(this.fs, file);
+        }
+      } catch (IOException e) {
+        LOG.warn("IOException during file rotation.", e);
+      }
+      LOG.info("File rotation took {} ms", System.currentTimeMillis() - start);
+    }, fileOperations);
+    CompletableFuture<Void> fileClosed = this.currentFileClosed;
+    this.currentFileClosed = new CompletableFuture<>();
+    closed.whenComplete((nothing, e) -> {
+      if (e == null) {
+        fileClosed.complete(null);
+      } else {
+        fileClosed.completeExceptionally(e);
+      }
+    });
+    this.closing = CompletableFuture.allOf(this.closing, closed);
+  }
+
+  /**
+   * Syncs the current file in the background, after the files rotated before it have been closed.
+   * Only used when the owning task writes to the handler.  If the output is not durable on sync, the current
+   * file is not synced, and its messages are only durable once it is rotated or the handler closed.
+   * @return Completes once the messages written so far have reached the datanodes, or fails if they may not have.
+   */
+  CompletableFuture<Void> syncAsync() throws IOException {
+    appendLock.lock();
+    try {
+      if (!output.isDurableOnSync()) {
+        CompletableFuture<Void> durable = CompletableFuture.allOf(this.closing, this.currentFileClosed);
+        this.closing = CompletableFuture.completedFuture(null);
+        return durable;
+      }
+      long flushStart = out.getPos();
+      output.flush();
+      this.offset += out.getPos() - flushStart;
+      FSDataOutputStream stream = this.out;
+      CompletableFuture<Void> synced = CompletableFuture.runAsync(() -> {
+        try {
+          sync(stream);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, fileOperations);
+      CompletableFuture<Void> durable = CompletableFuture.allOf(this.closing, synced);
+      this.closing = CompletableFuture.completedFuture(null);
+      return durable;
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  /**
+   * Rotates the file for the timer, unless the owning task is writing to it, in which case the task
+   * rotates it before its next write.
+   * @param onlyIfWritten True to leave a file which has not been written to open.
+   */
+  private void rollOverIfIdle(boolean onlyIfWritten) throws IOException {
+    if (!appendLock.tryLock()) {
+      rotationDue.set(true);
+      return;
+    }
+    try {
+      if (onlyIfWritten && !this.written) {
+        return;
+      }
+      rotationDue.set(false);
+      rollOver();
+      this.offset = 0;
+      this.rotationPolicy.reset();
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  private void sync(FSDataOutputStream stream) throws IOException {
+    if (stream instanceof HdfsDataOutputStream) {
+      ((HdfsDataOutputStream) stream)
+          .hsync(EnumSet.of(HdfsDataOutputStream.SyncFlag.UPDATE_LENGTH));
+    } else {
+      stream.hsync();
+    }
+  }
+
   private void initialize() throws IOException {
     this.fs = FileSystem.get(new Configuration());
     this.currentFile = createOutputFile();
@@ -118,7 +350,11 @@ public class SourceHandler {
         @Override
         public void run() {
           try {
-            rotateOutputFile();
+            if (fileOperations != null) {
+              rollOverIfIdle(false);
+            } else {
+              rotateOutputFile();
+            }
           } catch(IOException e){
             LOG.warn("IOException during scheduled file rotation.", e);
           }
@@ -126,6 +362,23 @@ public class SourceHandler {
       };
       this.rotationTimer.scheduleAtFixedRate(task, interval, interval);
     }
+    if (fileOperations != null && !output.isDurableOnSync() && maxFileAgeMillis > 0) {
+      // messages are only acked once their file is closed, so a file is not left open longer than they can wait
+      if (this.rotationTimer == null) {
+        this.rotationTimer = new Timer(true);
+      }
+      TimerTask task = new TimerTask() {
+        @Override
+        public void run() {
+          try {
+            rollOverIfIdle(true);
+          } catch(IOException e){
+            LOG.warn("IOException during forced file rotation.", e);
+          }
+        }
+      };
+      this.rotationTimer.scheduleAtFixedRate(task, maxFileAgeMillis, maxFileAgeMillis);
+    }
   }
 
   protected void rotateOutputFile() throws IOException {
@@ -158,11 +411,20 @@ public class SourceHandler {
     else {
       this.out = this.fs.create(path);
     }
+    output.open(this.out);
     return path;
   }
 
   protected void closeOutputFile() throws IOException {
-    this.out.close();
+    CompletableFuture<Void> fileClosed = this.currentFileClosed;
+    this.currentFileClosed = new CompletableFuture<>();
+    try {
+      output.close();
+    } catch (IOException e) {
+      fileClosed.completeExceptionally(e);
+      throw e;
+    }
+    fileClosed.complete(null);
   }
 
   private void cleanupCallback() {
@@ -170,11 +432,17 @@ public class SourceHandler {
   }
 
   public void close() {
+    if (rotationTimer != null) {
+      rotationTimer.cancel();
+    }
+    appendLock.lock();
     try {
       closeOutputFile();
       // Don't call cleanup, to avoid HashMap's ConcurrentModificationException while iterating
     } catch (IOException e) {
       throw new RuntimeException("Unable to close output file.", e);
+    } finally {
+      appendLock.unlock();
     }
   }
 
@@ -185,8 +453,10 @@ public class SourceHandler {
             ", rotationPolicy=" + rotationPolicy +
             ", syncPolicy=" + syncPolicy +
             ", fileNameFormat=" + fileNameFormat +
+            ", output=" + output +
             ", offset=" + offset +
             ", rotation=" + rotation +
+            ", maxFileAgeMillis=" + maxFileAgeMillis +
             ", out=" + out +
             ", writeLock=" + writeLock +
             ", rotationTimer=" + rotationTimer +
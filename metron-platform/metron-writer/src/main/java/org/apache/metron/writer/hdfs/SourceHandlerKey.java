@@ -21,10 +21,16 @@ package org.apache.metron.writer.hdfs;
 class SourceHandlerKey {
   private String sourceType;
   private String stellarResult;
+  private int taskId;
 
   SourceHandlerKey(String sourceType, String stellarResult) {
+    this(sourceType, stellarResult, 0);
+  }
+
+  SourceHandlerKey(String sourceType, String stellarResult, int taskId) {
     this.sourceType = sourceType;
     this.stellarResult = stellarResult;
+    this.taskId = taskId;
   }
 
   public String getSourceType() {
@@ -35,6 +41,10 @@ class SourceHandlerKey {
     return stellarResult;
   }
 
+  public int getTaskId() {
+    return taskId;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -46,6 +56,9 @@ class SourceHandlerKey {
 
     SourceHandlerKey that = (SourceHandlerKey) o;
 
+    if (taskId != that.taskId) {
+      return false;
+    }
     if (sourceType != null ? !sourceType.equals(that.sourceType) : that.sourceType != null) {
       return false;
     }
@@ -56,6 +69,7 @@ class SourceHandlerKey {
   public int hashCode() {
     int result = sourceType != null ? sourceType.hashCode() : 0;
     result = 31 * result + (stellarResult != null ? stellarResult.hashCode() : 0);
+    result = 31 * result + taskId;
     return result;
   }
 }
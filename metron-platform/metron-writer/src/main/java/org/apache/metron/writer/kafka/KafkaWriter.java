@@ -17,13 +17,16 @@
  */
 package org.apache.metron.writer.kafka;
 
-import org.apache.storm.tuple.Tuple;
+import org.apache.storm.task.TopologyContext;
 import com.google.common.base.Joiner;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.metron.common.Constants;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
-import org.apache.metron.common.writer.MessageWriter;
+import org.apache.metron.common.message.MessageFormats;
+import org.apache.metron.common.writer.AsyncBatchMessageWriter;
+import org.apache.metron.common.writer.WriteCallback;
 import org.apache.metron.stellar.common.utils.ConversionUtils;
 import org.apache.metron.common.utils.KafkaUtils;
 import org.apache.metron.common.utils.StringUtils;
@@ -31,11 +34,28 @@ import org.apache.metron.writer.AbstractWriter;
 import org.json.simple.JSONObject;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObject>, Serializable {
+/**
+ * Writes messages to a Kafka topic.  Messages are sent asynchronously, letting the producer group and
+ * compress the records, and each message only succeeds once the broker has acknowledged its record.
+ * Failed sends fail their messages so that they are replayed.
+ * <p>
+ * Through {@link #writeAsync} the outcome of each message is reported from the producer's callback, so
+ * that the caller never waits on the broker; {@link #write} waits for the whole batch instead.
+ * <p>
+ * The number of records sent but not yet acknowledged is capped, so that a slow broker holds up the
+ * writer rather than filling the producer's buffer.
+ */
+public class KafkaWriter extends AbstractWriter implements AsyncBatchMessageWriter<JSONObject>, Serializable {
   public enum Configurations {
      BROKER("kafka.brokerUrl")
     ,KEY_SERIALIZER("kafka.keySerializer")
@@ -43,7 +63,12 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
     ,VALUE_SERIALIZER("kafka.valueSerializer")
     ,REQUIRED_ACKS("kafka.requiredAcks")
     ,TOPIC("kafka.topic")
-    ,PRODUCER_CONFIGS("kafka.producerConfigs");
+    ,PRODUCER_CONFIGS("kafka.producerConfigs")
+    ,MESSAGE_FORMAT("kafka.messageFormat")
+    ,LINGER_MS("kafka.lingerMs")
+    ,BATCH_BYTES("kafka.batchBytes")
+    ,COMPRESSION_TYPE("kafka.compressionType")
+    ,MAX_IN_FLIGHT("kafka.maxInFlight")
     ;
     String key;
     Configurations(String key) {
@@ -62,13 +87,22 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
   }
   private String brokerUrl;
   private String keySerializer = "org.apache.kafka.common.serialization.StringSerializer";
-  private String valueSerializer = "org.apache.kafka.common.serialization.StringSerializer";
+  private String valueSerializer = "org.apache.kafka.common.serialization.ByteArraySerializer";
   private int requiredAcks = 1;
   private String kafkaTopic = Constants.ENRICHMENT_TOPIC;
   private KafkaProducer kafkaProducer;
   private String configPrefix = null;
   private String zkQuorum = null;
   private Map<String, Object> producerConfigs = new HashMap<>();
+  private MessageFormats messageFormat = MessageFormats.JSON;
+  private Integer lingerMs = null;
+  private Integer batchBytes = null;
+  private String compressionType = null;
+  private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+  private transient boolean stringValues = false;
+  private transient Semaphore inFlight;
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 10000;
 
   public KafkaWriter() {}
 
@@ -99,6 +133,50 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
     this.kafkaTopic= topic;
     return this;
   }
+  /**
+   * @param messageFormat The name of the default {@link MessageFormats} of the messages written,
+   *                      which sensors may override.
+   */
+  public KafkaWriter withMessageFormat(String messageFormat) {
+    this.messageFormat = MessageFormats.valueOf(messageFormat.toUpperCase());
+    return this;
+  }
+
+  /**
+   * @param lingerMs The time in milliseconds that the producer waits for more records to fill a batch.
+   */
+  public KafkaWriter withLingerMs(Integer lingerMs) {
+    this.lingerMs = lingerMs;
+    return this;
+  }
+
+  /**
+   * @param batchBytes The maximum size in bytes of the batches of records sent by the producer.
+   */
+  public KafkaWriter withBatchBytes(Integer batchBytes) {
+    this.batchBytes = batchBytes;
+    return this;
+  }
+
+  /**
+   * @param compressionType The compression of the batches of records; one of none, gzip, snappy or lz4.
+   */
+  public KafkaWriter withCompressionType(String compressionType) {
+    this.compressionType = compressionType;
+    return this;
+  }
+
+  /**
+   * @param maxInFlight The maximum number of records sent but not yet acknowledged by the broker.
+   */
+  public KafkaWriter withMaxInFlight(Integer maxInFlight) {
+    if(maxInFlight <= 0) {
+      throw new IllegalArgumentException("maxInFlight must be positive, but was " + maxInFlight);
+    }
+    this.maxInFlight = maxInFlight;
+    return this;
+  }
+
   public KafkaWriter withConfigPrefix(String prefix) {
     this.configPrefix = prefix;
     return this;
@@ -135,7 +213,7 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
     }
     String valueSerializer = Configurations.VALUE_SERIALIZER.getAndConvert(getConfigPrefix(), configMap, String.class);
     if(valueSerializer != null) {
-      withValueSerializer(keySerializer);
+      withValueSerializer(valueSerializer);
     }
     Integer requiredAcks = Configurations.REQUIRED_ACKS.getAndConvert(getConfigPrefix(), configMap, Integer.class);
     if(requiredAcks!= null) {
@@ -149,6 +227,22 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
     if(producerConfigs != null) {
       withProducerConfigs(producerConfigs);
     }
+    Integer lingerMs = Configurations.LINGER_MS.getAndConvert(getConfigPrefix(), configMap, Integer.class);
+    if(lingerMs != null) {
+      withLingerMs(lingerMs);
+    }
+    Integer batchBytes = Configurations.BATCH_BYTES.getAndConvert(getConfigPrefix(), configMap, Integer.class);
+    if(batchBytes != null) {
+      withBatchBytes(batchBytes);
+    }
+    String compressionType = Configurations.COMPRESSION_TYPE.getAndConvert(getConfigPrefix(), configMap, String.class);
+    if(compressionType != null) {
+      withCompressionType(compressionType);
+    }
+    Integer maxInFlight = Configurations.MAX_IN_FLIGHT.getAndConvert(getConfigPrefix(), configMap, Integer.class);
+    if(maxInFlight != null) {
+      withMaxInFlight(maxInFlight);
+    }
   }
 
   public Map<String, Object> createProducerConfigs() {
@@ -158,11 +252,20 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
     producerConfig.put("value.serializer", valueSerializer);
     producerConfig.put("request.required.acks", requiredAcks);
     producerConfig.putAll(producerConfigs == null?new HashMap<>():producerConfigs);
+    if(lingerMs != null) {
+      producerConfig.put("linger.ms", lingerMs);
+    }
+    if(batchBytes != null) {
+      producerConfig.put("batch.size", batchBytes);
+    }
+    if(compressionType != null) {
+      producerConfig.put("compression.type", compressionType);
+    }
     return producerConfig;
   }
 
   @Override
-  public void init() {
+  public void init(Map stormConf, TopologyContext topologyContext, WriterConfiguration config) {
     if(this.zkQuorum != null && this.brokerUrl == null) {
       try {
         this.brokerUrl = Joiner.on(",").join(KafkaUtils.INSTANCE.getBrokersFromZookeeper(this.zkQuorum));
@@ -170,13 +273,134 @@ public class KafkaWriter extends AbstractWriter implements MessageWriter<JSONObj
         throw new IllegalStateException("Cannot read kafka brokers from zookeeper and you didn't specify them, giving up!", e);
       }
     }
-    this.kafkaProducer = new KafkaProducer<>(createProducerConfigs());
+    Map<String, Object> producerConfigs = createProducerConfigs();
+    // a string serializer may still be configured, but then only JSON can be written
+    this.stringValues = String.valueOf(producerConfigs.get("value.serializer")).endsWith("StringSerializer");
+    this.inFlight = new Semaphore(maxInFlight);
+    this.kafkaProducer = createProducer(producerConfigs);
+  }
+
+  /**
+   * Used only for unit testing
+   */
+  protected KafkaProducer createProducer(Map<String, Object> producerConfigs) {
+    return new KafkaProducer<>(producerConfigs);
+  }
+
+  /**
+   * @return The format of the messages of a sensor, which defaults to the format of the writer.
+   */
+  MessageFormats getMessageFormat(String sourceType, WriterConfiguration configurations) {
+    Map<String, Object> sensorConfig = configurations == null ? null : configurations.getSensorConfig(sourceType);
+    if(sensorConfig != null) {
+      String format = Configurations.MESSAGE_FORMAT.getAndConvert(getConfigPrefix(), sensorConfig, String.class);
+      if(format != null) {
+        return MessageFormats.valueOf(format.toUpperCase());
+      }
+    }
+    return messageFormat;
+  }
+
+  @Override
+  public <ID_T> void write(String sourceType
+                          , WriterConfiguration configurations
+                          , List<ID_T> ids
+                          , List<JSONObject> messages
+                          , WriteCallback<ID_T> callback
+                          ) throws Exception {
+    List<Integer> positions = new ArrayList<>(messages.size());
+    for(int i = 0; i < messages.size(); i++) {
+      positions.add(i);
+    }
+    Throwable[] errors = new Throwable[messages.size()];
+    CountDownLatch sent = new CountDownLatch(messages.size());
+    writeAsync(sourceType, configurations, positions, messages, new WriteCallback<Integer>() {
+      @Override
+      public void onSuccess(Integer position) {
+        sent.countDown();
+      }
+
+      @Override
+      public void onError(Integer position, Throwable error) {
+        errors[position] = error;
+        sent.countDown();
+      }
+    });
+    sent.await();
+    for(int i = 0; i < errors.length; i++) {
+      if(errors[i] == null) {
+        callback.onSuccess(ids.get(i));
+      }
+      else {
+        callback.onError(ids.get(i), errors[i]);
+      }
+    }
   }
 
-  @SuppressWarnings("unchecked")
   @Override
-  public void write(String sourceType, WriterConfiguration configurations, Tuple tuple, JSONObject message) throws Exception {
-    kafkaProducer.send(new ProducerRecord<String, String>(kafkaTopic, message.toJSONString()));
+  public <ID_T> void writeAsync(String sourceType
+                               , WriterConfiguration configurations
+                               , List<ID_T> ids
+                               , List<JSONObject> messages
+                               , WriteCallback<ID_T> callback
+                               ) throws Exception {
+    MessageFormats format = getMessageFormat(sourceType, configurations);
+    for(int i = 0; i < messages.size(); i++) {
+      ID_T id = ids.get(i);
+      try {
+        send(format.encode(messages.get(i)), (metadata, exception) -> {
+          if(exception == null) {
+            callback.onSuccess(id);
+          }
+          else {
+            callback.onError(id, exception);
+          }
+        });
+      }
+      catch(InterruptedException e) {
+        // the rest of the batch was never sent
+        for(int j = i; j < ids.size(); j++) {
+          callback.onError(ids.get(j), e);
+        }
+        Thread.currentThread().interrupt();
+        return;
+      }
+      catch(Exception e) {
+        callback.onError(id, e);
+      }
+    }
+  }
+
+  /**
+   * Sends a message without waiting for the broker, once fewer than the maximum number of records are in flight.
+   * The callback is completed exactly once, whether or not the producer accepts the record.
+   */
+  @SuppressWarnings("unchecked")
+  private void send(byte[] value, Callback sent) throws InterruptedException {
+    ProducerRecord record;
+    if(stringValues) {
+      if(MessageFormats.detect(value) != MessageFormats.JSON) {
+        throw new IllegalStateException("Binary messages require a byte array value serializer");
+      }
+      record = new ProducerRecord<String, String>(kafkaTopic, new String(value, StandardCharsets.UTF_8));
+    }
+    else {
+      record = new ProducerRecord<String, byte[]>(kafkaTopic, value);
+    }
+    inFlight.acquire();
+    AtomicBoolean completed = new AtomicBoolean(false);
+    Callback release = (metadata, exception) -> {
+      if(completed.compareAndSet(false, true)) {
+        inFlight.release();
+        sent.onCompletion(metadata, exception);
+      }
+    };
+    try {
+      kafkaProducer.send(record, release);
+    }
+    catch(Exception e) {
+      release.onCompletion(null, e);
+    }
   }
 
   @Override
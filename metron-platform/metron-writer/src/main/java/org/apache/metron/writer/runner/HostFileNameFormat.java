@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.runner;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import org.apache.storm.hdfs.bolt.format.FileNameFormat;
+import org.apache.storm.task.TopologyContext;
+
+/**
+ * Names the files of a runner after its host, as there is no topology to name them after;
+ * {@code <prefix><host>-<rotation>-<timestamp><extension>}, or
+ * {@code <prefix><host>-<partition>-<rotation>-<timestamp><extension>} for the writer of a partition.
+ */
+public class HostFileNameFormat implements FileNameFormat {
+  private String path = "/storm";
+  private String prefix = "";
+  private String extension = ".json";
+  private String host;
+  private Integer partition;
+
+  public HostFileNameFormat() {
+    try {
+      host = InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      throw new IllegalStateException("Unable to name files after the host", e);
+    }
+  }
+
+  public HostFileNameFormat withPath(String path) {
+    this.path = path;
+    return this;
+  }
+
+  public HostFileNameFormat withPrefix(String prefix) {
+    this.prefix = prefix;
+    return this;
+  }
+
+  public HostFileNameFormat withExtension(String extension) {
+    this.extension = extension;
+    return this;
+  }
+
+  /**
+   * @param partition The partition written, so that the writers of different partitions write different files.
+   */
+  public HostFileNameFormat withPartition(int partition) {
+    this.partition = partition;
+    return this;
+  }
+
+  @Override
+  public void prepare(Map conf, TopologyContext topologyContext) {
+  }
+
+  @Override
+  public String getName(long rotation, long timeStamp) {
+    String source = partition == null ? host : host + "-" + partition;
+    return prefix + source + "-" + rotation + "-" + timeStamp + extension;
+  }
+
+  @Override
+  public String getPath() {
+    return path;
+  }
+}
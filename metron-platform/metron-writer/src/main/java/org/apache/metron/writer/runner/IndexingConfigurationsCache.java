@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.runner;
+
+import java.util.function.Supplier;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.configuration.ConfigurationType;
+import org.apache.metron.common.configuration.ConfigurationsUtils;
+import org.apache.metron.common.configuration.IndexingConfigurations;
+import org.apache.metron.common.zookeeper.configurations.IndexingUpdater;
+import org.apache.metron.common.zookeeper.configurations.Reloadable;
+import org.apache.metron.zookeeper.SimpleEventListener;
+import org.apache.metron.zookeeper.ZKCache;
+
+/**
+ * The indexing configurations kept up to date from Zookeeper, the same way as those of an indexing bolt.
+ */
+public class IndexingConfigurationsCache implements Supplier<IndexingConfigurations>, Reloadable, AutoCloseable {
+
+  private final String zookeeperUrl;
+  private final IndexingConfigurations configurations = new IndexingConfigurations();
+  private CuratorFramework client;
+  private ZKCache cache;
+
+  public IndexingConfigurationsCache(String zookeeperUrl) {
+    this.zookeeperUrl = zookeeperUrl;
+  }
+
+  /**
+   * Loads the configurations and starts listening for their changes.
+   */
+  public IndexingConfigurationsCache start() throws Exception {
+    client = CuratorFrameworkFactory.newClient(zookeeperUrl, new ExponentialBackoffRetry(1000, 3));
+    client.start();
+    ConfigurationsUtils.setupStellarStatically(client);
+    IndexingUpdater updater = new IndexingUpdater(this, this);
+    SimpleEventListener listener = new SimpleEventListener.Builder()
+                                                          .with( updater::update
+                                                               , TreeCacheEvent.Type.NODE_ADDED
+                                                               , TreeCacheEvent.Type.NODE_UPDATED
+                                                               )
+                                                          .with( updater::delete
+                                                               , TreeCacheEvent.Type.NODE_REMOVED
+                                                               )
+                                                          .build();
+    cache = new ZKCache.Builder()
+                       .withClient(client)
+                       .withListener(listener)
+                       .withRoot(Constants.ZOOKEEPER_TOPOLOGY_ROOT)
+                       .build();
+    updater.forceUpdate(client);
+    cache.start();
+    return this;
+  }
+
+  @Override
+  public IndexingConfigurations get() {
+    return configurations;
+  }
+
+  @Override
+  public void reloadCallback(String name, ConfigurationType type) {
+  }
+
+  @Override
+  public void close() {
+    if (cache != null) {
+      cache.close();
+    }
+    if (client != null) {
+      client.close();
+    }
+  }
+}
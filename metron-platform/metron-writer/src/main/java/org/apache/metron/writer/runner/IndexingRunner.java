@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.runner;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.configuration.IndexingConfigurations;
+import org.apache.metron.common.configuration.writer.IndexingWriterConfiguration;
+import org.apache.metron.common.system.Clock;
+import org.apache.metron.common.writer.BatchMessageWriter;
+import org.json.simple.JSONObject;
+
+/**
+ * Indexes the messages of a Kafka topic with a writer, without Storm.
+ *
+ * <p>Each partition is read and written by its own thread with its own writer, which batches the messages per
+ * sensor as configured for the writer, and commits the offset of the partition only once its batches are written.
+ * Messages which cannot be written are sent to the error writer, as the indexing topology does.
+ */
+public class IndexingRunner implements AutoCloseable {
+
+  public static final String RECEIVED = MetricRegistry.name(IndexingRunner.class, "received");
+  public static final String WRITTEN = MetricRegistry.name(IndexingRunner.class, "written");
+  public static final String FAILED = MetricRegistry.name(IndexingRunner.class, "failed");
+  public static final String RETRIED = MetricRegistry.name(IndexingRunner.class, "retried");
+  public static final String WRITE = MetricRegistry.name(IndexingRunner.class, "write");
+
+  public static final int DEFAULT_BATCH_TIMEOUT = 15;
+
+  private final IntFunction<BatchMessageWriter<JSONObject>> writers;
+  private final Supplier<IndexingConfigurations> configurations;
+  private final Map<String, Object> consumerConfigs = new HashMap<>();
+  private String topic = Constants.INDEXING_TOPIC;
+  private List<Integer> partitions;
+  private BatchMessageWriter<JSONObject> errorWriter;
+  private MetricRegistry metrics = new MetricRegistry();
+  private Clock clock = new Clock();
+  private long pollTimeoutMs = 100;
+  private long retryBackoffMs = 1000;
+  private int defaultBatchTimeout = DEFAULT_BATCH_TIMEOUT;
+  private final List<PartitionIndexer> indexers = new ArrayList<>();
+  private ExecutorService threads;
+
+  /**
+   * @param writers Creates the writer of a partition, so that partitions are not written under a shared lock.
+   *                Writers of different partitions must not write to the same files.
+   * @param configurations The indexing configurations, which may change while running.
+   */
+  public IndexingRunner(IntFunction<BatchMessageWriter<JSONObject>> writers, Supplier<IndexingConfigurations> configurations) {
+    this.writers = writers;
+    this.configurations = configurations;
+    consumerConfigs.put("key.deserializer", "org.apache.kafka.common.serialization.ByteArrayDeserializer");
+    consumerConfigs.put("value.deserializer", "org.apache.kafka.common.serialization.ByteArrayDeserializer");
+    consumerConfigs.put("enable.auto.commit", false);
+  }
+
+  /**
+   * @param consumerConfigs The configuration of the Kafka consumers, which must include bootstrap.servers.
+   */
+  public IndexingRunner withConsumerConfigs(Map<String, Object> consumerConfigs) {
+    this.consumerConfigs.putAll(consumerConfigs);
+    return this;
+  }
+
+  public IndexingRunner withTopic(String topic) {
+    this.topic = topic;
+    return this;
+  }
+
+  /**
+   * @param partitions The partitions to index, which defaults to all of the partitions of the topic.
+   */
+  public IndexingRunner withPartitions(List<Integer> partitions) {
+    this.partitions = partitions;
+    return this;
+  }
+
+  /**
+   * @param errorWriter Writes the errors of messages which could not be written; otherwise they are only logged.
+   */
+  public IndexingRunner withErrorWriter(BatchMessageWriter<JSONObject> errorWriter) {
+    this.errorWriter = errorWriter;
+    return this;
+  }
+
+  public IndexingRunner withMetrics(MetricRegistry metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  public IndexingRunner withPollTimeoutMs(long pollTimeoutMs) {
+    this.pollTimeoutMs = pollTimeoutMs;
+    return this;
+  }
+
+  /**
+   * @param retryBackoffMs The time to wait before reading a partition again after a write failed.
+   */
+  public IndexingRunner withRetryBackoffMs(long retryBackoffMs) {
+    this.retryBackoffMs = retryBackoffMs;
+    return this;
+  }
+
+  /**
+   * @param defaultBatchTimeout The batch timeout in seconds of sensors which do not configure one, and the
+   *                            longest that any batch waits.
+   */
+  public IndexingRunner withDefaultBatchTimeout(int defaultBatchTimeout) {
+    if (defaultBatchTimeout <= 0) {
+      throw new IllegalArgumentException("defaultBatchTimeout must be positive, but was " + defaultBatchTimeout);
+    }
+    this.defaultBatchTimeout = defaultBatchTimeout;
+    return this;
+  }
+
+  /**
+   * Used only for unit testing
+   */
+  IndexingRunner withClock(Clock clock) {
+    this.clock = clock;
+    return this;
+  }
+
+  /**
+   * Initializes the writers and starts a thread per partition.
+   */
+  public synchronized void start() throws Exception {
+    if (threads != null) {
+      throw new IllegalStateException("Already started");
+    }
+    if (errorWriter != null) {
+      errorWriter.init(new HashMap<>(), null, new IndexingWriterConfiguration(errorWriter.getName(), configurations.get()));
+    }
+    List<Integer> assigned = partitions;
+    if (assigned == null) {
+      assigned = new ArrayList<>();
+      try (Consumer<byte[], byte[]> consumer = createConsumer(consumerConfigs)) {
+        for (PartitionInfo partition : consumer.partitionsFor(topic)) {
+          assigned.add(partition.partition());
+        }
+      }
+    }
+    List<BatchMessageWriter<JSONObject>> initialized = new ArrayList<>();
+    try {
+      for (int partition : assigned) {
+        BatchMessageWriter<JSONObject> writer = writers.apply(partition);
+        writer.init(new HashMap<>(), null, new IndexingWriterConfiguration(writer.getName(), configurations.get()));
+        initialized.add(writer);
+      }
+    } catch (Exception e) {
+      for (BatchMessageWriter<JSONObject> writer : initialized) {
+        writer.close();
+      }
+      throw e;
+    }
+    if (!initialized.isEmpty()) {
+      consumerConfigs.putIfAbsent("group.id", "indexing-" + initialized.get(0).getName());
+    }
+    threads = Executors.newFixedThreadPool(Math.max(1, assigned.size()), new ThreadFactoryBuilder()
+            .setNameFormat("indexing-" + topic + "-%d")
+            .build());
+    for (int i = 0; i < assigned.size(); i++) {
+      PartitionIndexer indexer = new PartitionIndexer(this, new TopicPartition(topic, assigned.get(i)), initialized.get(i)
+              , createConsumer(consumerConfigs), clock);
+      indexers.add(indexer);
+      threads.execute(indexer);
+    }
+  }
+
+  /**
+   * Used only for unit testing
+   */
+  protected Consumer<byte[], byte[]> createConsumer(Map<String, Object> consumerConfigs) {
+    return new KafkaConsumer<>(consumerConfigs);
+  }
+
+  /**
+   * Stops reading, writes the batches read so far and closes the writers.  Each partition closes its own
+   * writer once it has stopped.
+   */
+  @Override
+  public synchronized void close() throws Exception {
+    if (threads != null) {
+      indexers.forEach(PartitionIndexer::stop);
+      threads.shutdown();
+      threads.awaitTermination(1, TimeUnit.MINUTES);
+      indexers.clear();
+      threads = null;
+    }
+    if (errorWriter != null) {
+      errorWriter.close();
+    }
+  }
+
+  BatchMessageWriter<JSONObject> getErrorWriter() {
+    return errorWriter;
+  }
+
+  Supplier<IndexingConfigurations> getConfigurations() {
+    return configurations;
+  }
+
+  MetricRegistry getMetrics() {
+    return metrics;
+  }
+
+  long getPollTimeoutMs() {
+    return pollTimeoutMs;
+  }
+
+  long getRetryBackoffMs() {
+    return retryBackoffMs;
+  }
+
+  int getDefaultBatchTimeout() {
+    return defaultBatchTimeout;
+  }
+}
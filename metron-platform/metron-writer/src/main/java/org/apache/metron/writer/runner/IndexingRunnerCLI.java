@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.runner;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.utils.JSONUtils;
+import org.apache.metron.common.writer.BatchMessageWriter;
+import org.apache.metron.writer.hdfs.HdfsWriter;
+import org.apache.metron.writer.kafka.KafkaWriter;
+import org.apache.storm.hdfs.bolt.rotation.FileSizeRotationPolicy;
+import org.json.simple.JSONObject;
+
+/**
+ * Runs an {@link IndexingRunner} until the process is stopped.
+ */
+public class IndexingRunnerCLI {
+
+  public enum IndexingOptions {
+    HELP("h", code -> {
+      Option o = new Option(code, "help", false, "This screen");
+      o.setRequired(false);
+      return o;
+    }),
+    ZK_QUORUM("z", code -> {
+      Option o = new Option(code, "zk", true, "Zookeeper Quorum URL (zk1:2181,zk2:2181,...");
+      o.setArgName("ZK_QUORUM");
+      o.setRequired(true);
+      return o;
+    }),
+    BROKER_URL("k", code -> {
+      Option o = new Option(code, "kafka", true, "Kafka Broker URL");
+      o.setArgName("BROKER_URL");
+      o.setRequired(true);
+      return o;
+    }),
+    INPUT_TOPIC("t", code -> {
+      Option o = new Option(code, "input_topic", true, "The topic to index; defaults to " + Constants.INDEXING_TOPIC);
+      o.setArgName("TOPIC");
+      o.setRequired(false);
+      return o;
+    }),
+    ERROR_TOPIC("e", code -> {
+      Option o = new Option(code, "error_topic", true, "The topic of the messages which could not be indexed; defaults to indexing_error");
+      o.setArgName("TOPIC");
+      o.setRequired(false);
+      return o;
+    }),
+    PARTITIONS("p", code -> {
+      Option o = new Option(code, "partitions", true, "The comma separated partitions to index; defaults to all");
+      o.setArgName("PARTITIONS");
+      o.setRequired(false);
+      return o;
+    }),
+    WRITER("w", code -> {
+      Option o = new Option(code, "writer", true, "The class name of the writer, or hdfs to write to the HDFS output path");
+      o.setArgName("CLASS_NAME");
+      o.setRequired(true);
+      return o;
+    }),
+    HDFS_OUTPUT("o", code -> {
+      Option o = new Option(code, "hdfs_output", true, "The HDFS path written to by the hdfs writer");
+      o.setArgName("PATH");
+      o.setRequired(false);
+      return o;
+    }),
+    HDFS_ROTATION_MB("r", code -> {
+      Option o = new Option(code, "hdfs_rotation_mb", true, "The size in megabytes at which HDFS files are rotated; defaults to 128");
+      o.setArgName("MB");
+      o.setRequired(false);
+      return o;
+    }),
+    CONSUMER_CONFIGS("c", code -> {
+      Option o = new Option(code, "consumer_config", true, "A JSON file of additional Kafka consumer configuration");
+      o.setArgName("JSON_FILE");
+      o.setRequired(false);
+      return o;
+    }),
+    BATCH_TIMEOUT("bt", code -> {
+      Option o = new Option(code, "batch_timeout", true, "The default batch timeout in seconds; defaults to " + IndexingRunner.DEFAULT_BATCH_TIMEOUT);
+      o.setArgName("SECONDS");
+      o.setRequired(false);
+      return o;
+    });
+
+    Option option;
+    String shortCode;
+
+    IndexingOptions(String shortCode, Function<String, Option> optionHandler) {
+      this.shortCode = shortCode;
+      this.option = optionHandler.apply(shortCode);
+    }
+
+    public boolean has(CommandLine cli) {
+      return cli.hasOption(shortCode);
+    }
+
+    public String get(CommandLine cli) {
+      return cli.getOptionValue(shortCode);
+    }
+
+    public String get(CommandLine cli, String def) {
+      return has(cli) ? cli.getOptionValue(shortCode) : def;
+    }
+
+    public static CommandLine parse(CommandLineParser parser, String[] args) throws ParseException {
+      try {
+        CommandLine cli = parser.parse(getOptions(), args);
+        if (HELP.has(cli)) {
+          printHelp();
+          System.exit(0);
+        }
+        return cli;
+      } catch (ParseException e) {
+        System.err.println("Unable to parse args: " + Joiner.on(' ').join(args));
+        e.printStackTrace(System.err);
+        printHelp();
+        throw e;
+      }
+    }
+
+    public static void printHelp() {
+      HelpFormatter formatter = new HelpFormatter();
+      formatter.printHelp("IndexingRunnerCLI", getOptions());
+    }
+
+    public static Options getOptions() {
+      Options ret = new Options();
+      for (IndexingOptions o : IndexingOptions.values()) {
+        ret.addOption(o.option);
+      }
+      return ret;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public static IndexingRunner createRunner(CommandLine cli, IndexingConfigurationsCache configurations) throws Exception {
+    String brokerUrl = IndexingOptions.BROKER_URL.get(cli);
+    IntFunction<BatchMessageWriter<JSONObject>> writers;
+    String writerName = IndexingOptions.WRITER.get(cli);
+    if ("hdfs".equals(writerName)) {
+      if (!IndexingOptions.HDFS_OUTPUT.has(cli)) {
+        throw new IllegalArgumentException("The hdfs writer requires an output path");
+      }
+      String output = IndexingOptions.HDFS_OUTPUT.get(cli);
+      float rotationMb = Float.parseFloat(IndexingOptions.HDFS_ROTATION_MB.get(cli, "128"));
+      writers = partition -> new HdfsWriter()
+              .withFileNameFormat(new HostFileNameFormat()
+                      .withPrefix("enrichment-")
+                      .withPath(output)
+                      .withPartition(partition))
+              .withRotationPolicy(new FileSizeRotationPolicy(rotationMb, FileSizeRotationPolicy.Units.MB));
+    } else {
+      Class<?> writerClass = Class.forName(writerName);
+      writers = partition -> {
+        try {
+          return (BatchMessageWriter<JSONObject>) writerClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+          throw new IllegalStateException("Unable to create the writer " + writerName, e);
+        }
+      };
+    }
+
+    Map<String, Object> consumerConfigs = new HashMap<>();
+    if (IndexingOptions.CONSUMER_CONFIGS.has(cli)) {
+      consumerConfigs.putAll(JSONUtils.INSTANCE.load(new File(IndexingOptions.CONSUMER_CONFIGS.get(cli)), new TypeReference<Map<String, Object>>() {}));
+    }
+    consumerConfigs.put("bootstrap.servers", brokerUrl);
+
+    IndexingRunner runner = new IndexingRunner(writers, configurations)
+            .withTopic(IndexingOptions.INPUT_TOPIC.get(cli, Constants.INDEXING_TOPIC))
+            .withConsumerConfigs(consumerConfigs)
+            .withErrorWriter(new KafkaWriter(brokerUrl).withTopic(IndexingOptions.ERROR_TOPIC.get(cli, "indexing_error")))
+            .withDefaultBatchTimeout(Integer.parseInt(IndexingOptions.BATCH_TIMEOUT.get(cli, "" + IndexingRunner.DEFAULT_BATCH_TIMEOUT)));
+    if (IndexingOptions.PARTITIONS.has(cli)) {
+      List<Integer> partitions = new ArrayList<>();
+      for (String partition : Splitter.on(',').trimResults().omitEmptyStrings().split(IndexingOptions.PARTITIONS.get(cli))) {
+        partitions.add(Integer.parseInt(partition));
+      }
+      runner.withPartitions(partitions);
+    }
+    return runner;
+  }
+
+  public static void main(String[] args) throws Exception {
+    CommandLine cli = IndexingOptions.parse(new PosixParser(), args);
+    MetricRegistry metrics = new MetricRegistry();
+    JmxReporter reporter = JmxReporter.forRegistry(metrics).build();
+    IndexingConfigurationsCache configurations = new IndexingConfigurationsCache(IndexingOptions.ZK_QUORUM.get(cli)).start();
+    IndexingRunner runner = createRunner(cli, configurations).withMetrics(metrics);
+    CountDownLatch stopped = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        runner.close();
+        configurations.close();
+        reporter.stop();
+      } catch (Exception e) {
+        e.printStackTrace(System.err);
+      } finally {
+        stopped.countDown();
+      }
+    }));
+    reporter.start();
+    runner.start();
+    stopped.await();
+  }
+}
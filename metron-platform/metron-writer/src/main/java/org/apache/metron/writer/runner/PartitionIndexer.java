@@ -0,0 +1,290 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.runner;
+
+import com.codahale.metrics.Timer;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.configuration.writer.IndexingWriterConfiguration;
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.metron.common.error.MetronError;
+import org.apache.metron.common.message.MessageFormats;
+import org.apache.metron.common.system.Clock;
+import org.apache.metron.common.utils.MessageUtils;
+import org.apache.metron.common.writer.BatchMessageWriter;
+import org.apache.metron.common.writer.WriteCallback;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes the messages of a single partition on its own thread, with a writer of its own.
+ *
+ * <p>Messages are batched per sensor.  Once a batch is full or has timed out, every batch is written and
+ * the messages which could not be read or written are sent to the error writer, after which the offset of the
+ * partition is committed.  If a write fails as a whole, the batches are read again from the last
+ * committed offset.
+ */
+class PartitionIndexer implements Runnable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private static class Batch {
+    private final List<Long> offsets = new ArrayList<>();
+    private final List<JSONObject> messages = new ArrayList<>();
+    private long createTimeMs;
+    private long timeoutMs;
+  }
+
+  private final IndexingRunner runner;
+  private final TopicPartition partition;
+  private final BatchMessageWriter<JSONObject> writer;
+  private final Consumer<byte[], byte[]> consumer;
+  private final Clock clock;
+  private final Map<String, Batch> batches = new LinkedHashMap<>();
+  private final List<JSONObject> unreadable = new ArrayList<>();
+  private long committed;
+  private long next;
+  private volatile boolean running = true;
+
+  PartitionIndexer(IndexingRunner runner, TopicPartition partition, BatchMessageWriter<JSONObject> writer
+          , Consumer<byte[], byte[]> consumer, Clock clock) {
+    this.runner = runner;
+    this.partition = partition;
+    this.writer = writer;
+    this.consumer = consumer;
+    this.clock = clock;
+  }
+
+  /**
+   * Stops indexing once the batches read so far are written.
+   */
+  void stop() {
+    running = false;
+    consumer.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      consumer.assign(Collections.singletonList(partition));
+      committed = consumer.position(partition);
+      next = committed;
+      while (running) {
+        try {
+          ConsumerRecords<byte[], byte[]> records = consumer.poll(runner.getPollTimeoutMs());
+          for (ConsumerRecord<byte[], byte[]> record : records) {
+            add(record);
+          }
+        } catch (WakeupException e) {
+          // stopping, so write what has been read
+        }
+        if (!running || isDue()) {
+          flush();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      LOG.error("Stopped indexing {}", partition, e);
+    } finally {
+      consumer.close();
+      try {
+        writer.close();
+      } catch (Exception e) {
+        LOG.error("Unable to close the writer of {}", partition, e);
+      }
+    }
+  }
+
+  private void add(ConsumerRecord<byte[], byte[]> record) {
+    runner.getMetrics().meter(IndexingRunner.RECEIVED).mark();
+    next = record.offset() + 1;
+    JSONObject message;
+    try {
+      message = MessageFormats.decodeAny(record.value());
+    } catch (Exception e) {
+      LOG.error("Unable to read the message at {} of {}", record.offset(), partition, e);
+      runner.getMetrics().meter(IndexingRunner.FAILED).mark();
+      // recorded with the next write, so that its offset is only committed once it is recorded
+      unreadable.add(new MetronError()
+              .withErrorType(Constants.ErrorType.INDEXING_ERROR)
+              .withThrowable(e)
+              .addRawMessage(record.value())
+              .getJSONObject());
+      return;
+    }
+    String sensorType = MessageUtils.getSensorType(message);
+    WriterConfiguration configurations = getWriterConfiguration();
+    if (!configurations.isEnabled(sensorType)) {
+      return;
+    }
+    Batch batch = batches.computeIfAbsent(sensorType, s -> new Batch());
+    if (batch.messages.isEmpty()) {
+      // configurations can change, so read the timeout at the start of every batch
+      int batchTimeoutSecs = configurations.getBatchTimeout(sensorType);
+      if (batchTimeoutSecs <= 0 || batchTimeoutSecs > runner.getDefaultBatchTimeout()) {
+        batchTimeoutSecs = runner.getDefaultBatchTimeout();
+      }
+      batch.createTimeMs = clock.currentTimeMillis();
+      batch.timeoutMs = TimeUnit.SECONDS.toMillis(batchTimeoutSecs);
+    }
+    batch.offsets.add(record.offset());
+    batch.messages.add(message);
+  }
+
+  private boolean isDue() {
+    if (!unreadable.isEmpty()) {
+      return true;
+    }
+    WriterConfiguration configurations = getWriterConfiguration();
+    long now = clock.currentTimeMillis();
+    for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+      Batch batch = entry.getValue();
+      if (!batch.messages.isEmpty()
+              && (batch.messages.size() >= configurations.getBatchSize(entry.getKey()) || now - batch.createTimeMs >= batch.timeoutMs)) {
+        return true;
+      }
+    }
+    // nothing to write, but the offset of skipped messages can still be committed
+    return next > committed && batches.values().stream().allMatch(batch -> batch.messages.isEmpty());
+  }
+
+  /**
+   * Writes every batch and commits the offset read up to.  On failure, the partition is read again from
+   * the last committed offset after a backoff.
+   */
+  private void flush() throws InterruptedException {
+    try {
+      write();
+      if (next > committed) {
+        consumer.commitSync(Collections.singletonMap(partition, new OffsetAndMetadata(next)));
+        committed = next;
+      }
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      LOG.error("Unable to index {}; reading it again from offset {}", partition, committed, e);
+      runner.getMetrics().meter(IndexingRunner.RETRIED).mark();
+      unreadable.clear();
+      for (Batch batch : batches.values()) {
+        batch.offsets.clear();
+        batch.messages.clear();
+      }
+      if (running) {
+        consumer.seek(partition, committed);
+        next = committed;
+        Thread.sleep(runner.getRetryBackoffMs());
+      }
+    }
+  }
+
+  private void write() throws Exception {
+    if (!unreadable.isEmpty()) {
+      record(unreadable);
+      unreadable.clear();
+    }
+    WriterConfiguration configurations = getWriterConfiguration();
+    for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+      String sensorType = entry.getKey();
+      Batch batch = entry.getValue();
+      if (batch.messages.isEmpty()) {
+        continue;
+      }
+      Map<Throwable, List<JSONObject>> errors = new LinkedHashMap<>();
+      try (Timer.Context ignored = runner.getMetrics().timer(IndexingRunner.WRITE).time()) {
+        writer.write(sensorType, configurations, batch.offsets, batch.messages, new WriteCallback<Long>() {
+          @Override
+          public void onSuccess(Long offset) {
+            runner.getMetrics().meter(IndexingRunner.WRITTEN).mark();
+          }
+
+          @Override
+          public void onError(Long offset, Throwable error) {
+            // the offsets of a batch are in ascending order
+            int position = Collections.binarySearch(batch.offsets, offset);
+            errors.computeIfAbsent(error, e -> new ArrayList<>()).add(batch.messages.get(position));
+          }
+        });
+      }
+      for (Map.Entry<Throwable, List<JSONObject>> error : errors.entrySet()) {
+        error(sensorType, error.getKey(), error.getValue());
+      }
+      batch.offsets.clear();
+      batch.messages.clear();
+    }
+  }
+
+  /**
+   * Sends the messages which could not be written to the error writer, as an indexing bolt does.
+   */
+  private void error(String sensorType, Throwable e, List<JSONObject> messages) throws Exception {
+    LOG.error("Failing {} messages", messages.size(), e);
+    runner.getMetrics().meter(IndexingRunner.FAILED).mark(messages.size());
+    MetronError error = new MetronError()
+            .withSensorType(sensorType)
+            .withErrorType(Constants.ErrorType.INDEXING_ERROR)
+            .withThrowable(e);
+    messages.forEach(error::addRawMessage);
+    record(Collections.singletonList(error.getJSONObject()));
+  }
+
+  /**
+   * Writes errors with the error writer, if any.
+   */
+  private void record(List<JSONObject> errors) throws Exception {
+    if (runner.getErrorWriter() == null) {
+      return;
+    }
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 0; i < errors.size(); i++) {
+      ids.add(i);
+    }
+    Throwable[] failure = new Throwable[1];
+    runner.getErrorWriter().write(Constants.ERROR_TYPE, null, ids, errors, new WriteCallback<Integer>() {
+      @Override
+      public void onSuccess(Integer id) {
+      }
+
+      @Override
+      public void onError(Integer id, Throwable t) {
+        failure[0] = t;
+      }
+    });
+    if (failure[0] != null) {
+      // the messages are neither written nor recorded as errors, so they must be read again
+      throw new IllegalStateException("Unable to record the indexing error", failure[0]);
+    }
+  }
+
+  private WriterConfiguration getWriterConfiguration() {
+    return new IndexingWriterConfiguration(writer.getName(), runner.getConfigurations().get());
+  }
+}
@@ -23,11 +23,14 @@ import org.apache.metron.common.error.MetronError;
 import org.apache.metron.common.message.MessageGetStrategy;
 import org.apache.metron.common.message.MessageGetters;
 import org.apache.metron.common.utils.ErrorUtils;
+import org.apache.metron.common.writer.AsyncBatchMessageWriter;
 import org.apache.metron.common.writer.BulkMessageWriter;
 import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.metron.common.writer.WriteCallback;
 import org.apache.storm.task.OutputCollector;
 import org.apache.storm.tuple.Tuple;
 import org.json.simple.JSONObject;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -38,13 +41,16 @@ import org.mockito.MockitoAnnotations;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -126,6 +132,87 @@ public class BulkWriterComponentTest {
     ErrorUtils.handleError(eq(collector), any(MetronError.class));
   }
 
+  @Test
+  public void writeShouldReuseBuffersAcrossBatches() throws Exception {
+    BulkWriterResponse response = new BulkWriterResponse();
+    response.addAllSuccesses(tupleList);
+    when(bulkMessageWriter.write(eq(sensorType), eq(configurations), any(), any())).thenReturn(response);
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<>(collector);
+    for (int i = 0; i < 5; i++) {
+      bulkWriterComponent.write(sensorType, tuple1, message1, bulkMessageWriter, configurations, messageGetStrategy);
+      bulkWriterComponent.write(sensorType, tuple2, message2, bulkMessageWriter, configurations, messageGetStrategy);
+      verify(collector, times(i + 1)).ack(tuple1);
+      verify(collector, times(i + 1)).ack(tuple2);
+    }
+    verify(bulkMessageWriter, times(5)).write(eq(sensorType), eq(configurations), any(), any());
+  }
+
+  @Test
+  public void writeShouldFlushInTheBackground() throws Exception {
+    BulkWriterResponse response = new BulkWriterResponse();
+    response.addAllSuccesses(tupleList);
+    when(bulkMessageWriter.write(eq(sensorType), eq(configurations), any(), any())).thenReturn(response);
+
+    List<Thread> ackingThreads = new ArrayList<>();
+    doAnswer(invocation -> ackingThreads.add(Thread.currentThread())).when(collector).ack(any());
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<JSONObject>(collector).withBackgroundFlush();
+    bulkWriterComponent.write(sensorType, tuple1, message1, bulkMessageWriter, configurations, messageGetStrategy);
+    bulkWriterComponent.write(sensorType, tuple2, message2, bulkMessageWriter, configurations, messageGetStrategy);
+    bulkWriterComponent.close();
+    verify(bulkMessageWriter, timeout(5000)).write(eq(sensorType), eq(configurations), any(), any());
+
+    // the tuples are only acked by the thread calling the component
+    for (int i = 0; i < 500 && ackingThreads.size() < 2; ++i) {
+      bulkWriterComponent.drainCompletions();
+      Thread.sleep(10);
+    }
+    verify(collector, times(1)).ack(tuple1);
+    verify(collector, times(1)).ack(tuple2);
+    Assert.assertEquals(Arrays.asList(Thread.currentThread(), Thread.currentThread()), ackingThreads);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void asyncWritesShouldBeAckedOnlyWhenDrained() throws Exception {
+    Throwable e = new Exception("test exception");
+    MetronError error = new MetronError()
+            .withSensorType(sensorType)
+            .withErrorType(Constants.ErrorType.INDEXING_ERROR).withThrowable(e).withRawMessages(Collections.singletonList(message2));
+    AsyncBatchMessageWriter<JSONObject> asyncWriter = mock(AsyncBatchMessageWriter.class);
+    List<WriteCallback<Tuple>> callbacks = new ArrayList<>();
+    doAnswer(invocation -> callbacks.add((WriteCallback<Tuple>) invocation.getArguments()[4]))
+            .when(asyncWriter).writeAsync(eq(sensorType), eq(configurations), eq(tupleList), eq(Arrays.asList(message1, message2)), any());
+
+    BulkWriterComponent<JSONObject> bulkWriterComponent = new BulkWriterComponent<>(collector);
+    bulkWriterComponent.write(sensorType, tuple1, message1, asyncWriter, configurations, messageGetStrategy);
+    bulkWriterComponent.write(sensorType, tuple2, message2, asyncWriter, configurations, messageGetStrategy);
+    verify(asyncWriter, times(0)).write(any(), any(), any(Iterable.class), any());
+
+    // the writer reports from its own thread, which never touches the collector
+    Thread reporter = new Thread(() -> {
+      callbacks.get(0).onSuccess(tuple1);
+      callbacks.get(0).onError(tuple2, e);
+    });
+    reporter.start();
+    reporter.join();
+    verify(collector, times(0)).ack(tuple1);
+    verify(collector, times(0)).ack(tuple2);
+
+    bulkWriterComponent.drainCompletions();
+    verify(collector, times(1)).ack(tuple1);
+    verify(collector, times(1)).ack(tuple2);
+    verifyStatic(times(1));
+    ErrorUtils.handleError(collector, error);
+  }
+
+  @Test
+  public void backgroundFlushShouldRequireErrorHandling() throws Exception {
+    exception.expect(IllegalStateException.class);
+    new BulkWriterComponent<JSONObject>(collector, true, false).withBackgroundFlush();
+  }
+
   @Test
   public void writeShouldProperlyHandleWriterErrors() throws Exception {
     Throwable e = new Exception("test exception");
@@ -22,15 +22,32 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.metron.common.configuration.IndexingConfigurations;
 import org.apache.metron.common.configuration.writer.IndexingWriterConfiguration;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.metron.common.writer.WriteCallback;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.apache.storm.Config;
 import org.apache.storm.hdfs.bolt.format.DefaultFileNameFormat;
 import org.apache.storm.hdfs.bolt.format.FileNameFormat;
+import org.apache.storm.hdfs.bolt.rotation.FileSizeRotationPolicy;
+import org.apache.storm.hdfs.bolt.rotation.TimedRotationPolicy;
 import org.apache.storm.hdfs.bolt.sync.CountSyncPolicy;
 import org.apache.storm.hdfs.bolt.sync.SyncPolicy;
 import org.apache.storm.task.TopologyContext;
@@ -491,6 +508,369 @@ public class HdfsWriterTest {
     }
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteParquetInfersColumns() throws Exception {
+    WriterConfiguration config = buildWriterConfiguration("");
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withOutputFormat("parquet")
+            .withRotationPolicy(new FileSizeRotationPolicy(1.0f, FileSizeRotationPolicy.Units.MB))
+            .withAsyncFileOperations(true);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    JSONObject message = new JSONObject();
+    message.put("ip.src.addr", "10.0.0.1");
+    message.put("port", 443L);
+    JSONObject message2 = new JSONObject();
+    message2.put("ip.src.addr", "10.0.0.2");
+    // collides with the column of ip.src.addr
+    message2.put("ip_src_addr", "10.0.0.20");
+    message2.put("port", 80L);
+    message2.put("tags", Collections.singletonList("a"));
+    JSONObject message3 = new JSONObject();
+    message3.put("ip.src.addr", "10.0.0.3");
+    message3.put("port", "http");
+
+    ArrayList<JSONObject> messages = new ArrayList<>();
+    messages.add(message);
+    messages.add(message2);
+    messages.add(message3);
+    writeParquet(writer, config, messages);
+    writeParquet(writer, config, Collections.singletonList(message2));
+    SourceHandler handler = writer.getSourceHandler(SENSOR_NAME, SENSOR_NAME, config);
+    // the next file has the columns of every message seen so far
+    handler.rotateOutputFile();
+    handler.handle(message2, SENSOR_NAME, config, new ClonedSyncPolicyCreator(new CountSyncPolicy(5)));
+    handler.close();
+    writer.close();
+
+    // new fields and types of values do not start a new file
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    File[] files = outputFolder.listFiles((dir, name) -> !name.startsWith("."));
+    Assert.assertEquals(2, files.length);
+    Arrays.sort(files);
+    List<JSONObject> read = new ArrayList<>();
+    ParquetOutput.read(new Configuration(), new Path(files[0].toURI()), read::add);
+    Assert.assertEquals(Arrays.asList(message, message2, message3, message2), read);
+
+    List<Type> columns = readSchema(files[0]).getFields();
+    Assert.assertEquals(new HashSet<>(Arrays.asList("ip_src_addr", "port", ParquetOutput.UNMAPPED_COLUMN))
+            , columns.stream().map(Type::getName).collect(Collectors.toSet()));
+    Assert.assertEquals(PrimitiveTypeName.INT64, readSchema(files[0]).getType("port").asPrimitiveType().getPrimitiveTypeName());
+
+    MessageType widened = readSchema(files[1]);
+    Assert.assertEquals(new HashSet<>(Arrays.asList("ip_src_addr", "port", "ip_src_addr_2", "tags", ParquetOutput.UNMAPPED_COLUMN))
+            , widened.getFields().stream().map(Type::getName).collect(Collectors.toSet()));
+    Assert.assertEquals(PrimitiveTypeName.BINARY, widened.getType("port").asPrimitiveType().getPrimitiveTypeName());
+    // a column of mixed types holds text, as do lists and maps
+    JSONObject widenedMessage = new JSONObject(message2);
+    widenedMessage.put("port", "80");
+    widenedMessage.put("tags", "[\"a\"]");
+    read.clear();
+    ParquetOutput.read(new Configuration(), new Path(files[1].toURI()), read::add);
+    Assert.assertEquals(Collections.singletonList(widenedMessage), read);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteParquetWithSchema() throws Exception {
+    IndexingConfigurations indexingConfig = new IndexingConfigurations();
+    Map<String, Object> writerIndexingConfig = new HashMap<>();
+    writerIndexingConfig.put(IndexingConfigurations.OUTPUT_SCHEMA_CONF, "message sensor {"
+            + " optional binary ip_src_addr (UTF8); optional int32 port; }");
+    indexingConfig.updateSensorIndexingConfig(SENSOR_NAME, Collections.singletonMap(WRITER_NAME, writerIndexingConfig));
+    WriterConfiguration config = new IndexingWriterConfiguration(WRITER_NAME, indexingConfig);
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withOutputFormat("PARQUET")
+            .withCompressionCodec("gzip")
+            .withRotationPolicy(new FileSizeRotationPolicy(1.0f, FileSizeRotationPolicy.Units.MB))
+            .withAsyncFileOperations(true);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    JSONObject message = new JSONObject();
+    message.put("ip.src.addr", "10.0.0.1");
+    message.put("port", 443L);
+    message.put("dropped", true);
+    JSONObject message2 = new JSONObject();
+    message2.put("ip.src.addr", "10.0.0.2");
+    ArrayList<JSONObject> messages = new ArrayList<>();
+    messages.add(message);
+    messages.add(message2);
+    writeParquet(writer, config, messages);
+    writer.close();
+
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    File[] files = outputFolder.listFiles((dir, name) -> !name.startsWith("."));
+    Assert.assertEquals(1, files.length);
+    Path path = new Path(files[0].toURI());
+    try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(path, new Configuration()))) {
+      Assert.assertEquals(CompressionCodecName.GZIP, reader.getRowGroups().get(0).getColumns().get(0).getCodec());
+    }
+    List<JSONObject> read = new ArrayList<>();
+    ParquetOutput.read(new Configuration(), path, read::add);
+    Assert.assertEquals(2, read.size());
+    Assert.assertEquals(443, read.get(0).get("port"));
+    Assert.assertEquals("10.0.0.1", read.get(0).get("ip.src.addr"));
+    // fields without a column are dropped
+    Assert.assertFalse(read.get(0).containsKey("dropped"));
+    Assert.assertEquals("10.0.0.2", read.get(1).get("ip.src.addr"));
+    Assert.assertFalse(read.get(1).containsKey("port"));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteParquetRotatesOnBufferedSize() throws Exception {
+    WriterConfiguration config = buildWriterConfiguration("");
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withOutputFormat("parquet")
+            .withRotationPolicy(new FileSizeRotationPolicy(1.0f, FileSizeRotationPolicy.Units.KB))
+            .withAsyncFileOperations(true);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    ArrayList<JSONObject> messages = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      JSONObject message = new JSONObject();
+      message.put("test.key", "test.value" + i);
+      messages.add(message);
+    }
+    writeParquet(writer, config, messages);
+    writer.close();
+
+    // no row group fills, yet the rows held in memory still count towards the size of each file
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    File[] files = outputFolder.listFiles((dir, name) -> !name.startsWith("."));
+    Assert.assertTrue(files.length > 1);
+    List<JSONObject> read = new ArrayList<>();
+    for (File file : files) {
+      ParquetOutput.read(new Configuration(), new Path(file.toURI()), read::add);
+    }
+    Assert.assertEquals(messages.size(), read.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWriteParquetRequiresAsyncFileOperations() {
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withOutputFormat("parquet")
+            .withRotationPolicy(new FileSizeRotationPolicy(1.0f, FileSizeRotationPolicy.Units.MB));
+    writer.init(new HashMap<String, String>(), createTopologyContext(), buildWriterConfiguration(""));
+  }
+
+  /**
+   * Writes messages without waiting for them to be acked, which only happens once their Parquet file is closed.
+   */
+  private static void writeParquet(HdfsWriter writer, WriterConfiguration config, List<JSONObject> messages) throws Exception {
+    writer.writeAsync(SENSOR_NAME, config, new ArrayList<String>(), messages, new WriteCallback<String>() {
+      @Override
+      public void onSuccess(String id) {
+      }
+
+      @Override
+      public void onError(String id, Throwable e) {
+      }
+    });
+  }
+
+  private static MessageType readSchema(File file) throws IOException {
+    try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(new Path(file.toURI()), new Configuration()))) {
+      return reader.getFileMetaData().getSchema();
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteAsyncFileOperations() throws Exception {
+    WriterConfiguration config = buildWriterConfiguration("");
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withRotationPolicy(new FileSizeRotationPolicy(1.0f, FileSizeRotationPolicy.Units.KB))
+            .withAsyncFileOperations(true);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    ArrayList<JSONObject> messages = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      JSONObject message = new JSONObject();
+      message.put("test.key", "test.value" + i);
+      messages.add(message);
+      expected.add(message.toJSONString());
+    }
+    writer.write(SENSOR_NAME, config, new ArrayList<>(), messages);
+    SourceHandler handler = writer.getSourceHandler(SENSOR_NAME, SENSOR_NAME, config);
+    writer.close();
+
+    // the handler stays with the task when it rotates
+    Assert.assertEquals(7, writer.taskId);
+    Assert.assertTrue(handler.currentFile.getName().contains("-7-"));
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    Assert.assertTrue(outputFolder.listFiles().length > 1);
+    List<String> lines = new ArrayList<>();
+    for (File file : outputFolder.listFiles()) {
+      lines.addAll(Files.readAllLines(file.toPath()));
+    }
+    Collections.sort(lines);
+    Collections.sort(expected);
+    Assert.assertEquals(expected, lines);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteAsyncAcksOnceSynced() throws Exception {
+    WriterConfiguration config = buildWriterConfiguration("");
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withAsyncFileOperations(true);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    JSONObject message = new JSONObject();
+    message.put("test.key", "test.value");
+    List<String> acked = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(2);
+    writer.writeAsync(SENSOR_NAME, config, Arrays.asList("one", "two"), Arrays.asList(message, message), new WriteCallback<String>() {
+      @Override
+      public void onSuccess(String id) {
+        acked.add(id);
+        done.countDown();
+      }
+
+      @Override
+      public void onError(String id, Throwable e) {
+        done.countDown();
+      }
+    });
+    Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+    writer.close();
+
+    Assert.assertEquals(Arrays.asList("one", "two"), acked);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteAsyncParquetAcksOnceFileClosed() throws Exception {
+    WriterConfiguration config = buildWriterConfiguration("");
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withOutputFormat("parquet")
+            .withRotationPolicy(new FileSizeRotationPolicy(1.0f, FileSizeRotationPolicy.Units.MB))
+            .withAsyncFileOperations(true);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    JSONObject message = new JSONObject();
+    message.put("test.key", "test.value");
+    List<String> acked = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(2);
+    writer.writeAsync(SENSOR_NAME, config, Arrays.asList("one", "two"), Arrays.asList(message, message), new WriteCallback<String>() {
+      @Override
+      public void onSuccess(String id) {
+        acked.add(id);
+        done.countDown();
+      }
+
+      @Override
+      public void onError(String id, Throwable e) {
+        done.countDown();
+      }
+    });
+    // the rows are still in memory, so cannot be acked until the file is closed
+    Assert.assertFalse(done.await(500, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(acked.isEmpty());
+    writer.close();
+    Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    Assert.assertEquals(Arrays.asList("one", "two"), acked);
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    File[] files = outputFolder.listFiles((dir, name) -> !name.startsWith("."));
+    List<JSONObject> read = new ArrayList<>();
+    ParquetOutput.read(new Configuration(), new Path(files[0].toURI()), read::add);
+    Assert.assertEquals(Arrays.asList(message, message), read);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteAsyncParquetRotatesWithinMessageTimeout() throws Exception {
+    WriterConfiguration config = buildWriterConfiguration("");
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withOutputFormat("parquet")
+            .withRotationPolicy(new FileSizeRotationPolicy(1.0f, FileSizeRotationPolicy.Units.MB))
+            .withAsyncFileOperations(true);
+    Map<String, Object> stormConfig = new HashMap<>();
+    stormConfig.put(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS, 1);
+    writer.init(stormConfig, createTopologyContext(), config);
+
+    JSONObject message = new JSONObject();
+    message.put("test.key", "test.value");
+    List<String> acked = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch done = new CountDownLatch(1);
+    writer.writeAsync(SENSOR_NAME, config, Collections.singletonList("one"), Collections.singletonList(message), new WriteCallback<String>() {
+      @Override
+      public void onSuccess(String id) {
+        acked.add(id);
+        done.countDown();
+      }
+
+      @Override
+      public void onError(String id, Throwable e) {
+        done.countDown();
+      }
+    });
+    // the file is far from the size of a rotation, yet is closed before the message times out
+    Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+    SourceHandler handler = writer.getSourceHandler(SENSOR_NAME, SENSOR_NAME, config);
+    String current = handler.currentFile.getName();
+    Thread.sleep(1000);
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    File[] files = outputFolder.listFiles((dir, name) -> !name.startsWith("."));
+    writer.close();
+
+    Assert.assertEquals(Collections.singletonList("one"), acked);
+    // a file which has not been written to is left open
+    Assert.assertEquals(current, handler.currentFile.getName());
+    Assert.assertEquals(2, files.length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWriteAsyncParquetRequiresRotation() {
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withOutputFormat("parquet")
+            .withAsyncFileOperations(true);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), buildWriterConfiguration(""));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testTimedRotationOfIdleFile() throws Exception {
+    WriterConfiguration config = buildWriterConfiguration("");
+    HdfsWriter writer = new HdfsWriter()
+            .withFileNameFormat(testFormat)
+            .withRotationPolicy(new TimedRotationPolicy(0.1f, TimedRotationPolicy.TimeUnit.SECONDS))
+            .withAsyncFileOperations(true);
+    writer.init(new HashMap<String, String>(), createTopologyContext(), config);
+
+    JSONObject message = new JSONObject();
+    message.put("test.key", "test.value");
+    writer.write(SENSOR_NAME, config, new ArrayList<>(), Collections.singletonList(message));
+
+    // the timer rotates the file of a sensor which has stopped writing
+    File outputFolder = new File(folder.getAbsolutePath() + "/" + SENSOR_NAME);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (outputFolder.listFiles().length < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    SourceHandler handler = writer.getSourceHandler(SENSOR_NAME, SENSOR_NAME, config);
+    File[] files = outputFolder.listFiles();
+    Arrays.sort(files);
+    writer.close();
+
+    Assert.assertTrue(files.length >= 2);
+    Assert.assertEquals(Collections.singletonList(message.toJSONString()), Files.readAllLines(files[0].toPath()));
+    Assert.assertNotEquals(files[0].getName(), handler.currentFile.getName());
+  }
+
   protected WriterConfiguration buildWriterConfiguration(String function) {
     IndexingConfigurations indexingConfig = new IndexingConfigurations();
     Map<String, Object> sensorIndexingConfig = new HashMap<>();
@@ -18,16 +18,35 @@
 
 package org.apache.metron.writer.kafka;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.metron.common.configuration.ParserConfigurations;
 import org.apache.metron.common.configuration.SensorParserConfig;
 import org.apache.metron.common.configuration.writer.ParserWriterConfiguration;
 import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.metron.common.message.MessageFormats;
+import org.apache.metron.common.writer.BulkWriterResponse;
+import org.apache.metron.common.writer.WriteCallback;
+import org.apache.storm.tuple.Tuple;
+import org.json.simple.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class KafkaWriterTest {
 
@@ -58,7 +77,7 @@ public class KafkaWriterTest {
     Map<String, Object> producerConfigs = writer.createProducerConfigs();
     Assert.assertEquals(producerConfigs.get("bootstrap.servers"), "localhost:6667");
     Assert.assertEquals(producerConfigs.get("key.serializer"), "org.apache.kafka.common.serialization.StringSerializer");
-    Assert.assertEquals(producerConfigs.get("value.serializer"), "org.apache.kafka.common.serialization.StringSerializer");
+    Assert.assertEquals(producerConfigs.get("value.serializer"), "org.apache.kafka.common.serialization.ByteArraySerializer");
     Assert.assertEquals(producerConfigs.get("request.required.acks"), 1);
     Assert.assertEquals(producerConfigs.get("key1"), 1);
     Assert.assertEquals(producerConfigs.get("key2"), "value2");
@@ -80,9 +99,156 @@ public class KafkaWriterTest {
     Map<String, Object> producerConfigs = writer.createProducerConfigs();
     Assert.assertEquals(producerConfigs.get("bootstrap.servers"), "localhost:6667");
     Assert.assertEquals(producerConfigs.get("key.serializer"), "org.apache.kafka.common.serialization.StringSerializer");
-    Assert.assertEquals(producerConfigs.get("value.serializer"), "org.apache.kafka.common.serialization.StringSerializer");
+    Assert.assertEquals(producerConfigs.get("value.serializer"), "org.apache.kafka.common.serialization.ByteArraySerializer");
     Assert.assertEquals(producerConfigs.get("request.required.acks"), 1);
     Assert.assertEquals(producerConfigs.get("key1"), 1);
     Assert.assertEquals(producerConfigs.get("key2"), "value2");
   }
+
+  @Test
+  public void testMessageFormatPerSensor() throws Exception {
+    KafkaWriter writer = new KafkaWriter();
+    Assert.assertEquals(MessageFormats.JSON, writer.getMessageFormat(SENSOR_TYPE, createConfiguration(new HashMap<>())));
+
+    WriterConfiguration configuration = createConfiguration(
+            new HashMap<String, Object>() {{
+              put("kafka.messageFormat" , "smile");
+            }}
+    );
+    Assert.assertEquals(MessageFormats.SMILE, writer.getMessageFormat(SENSOR_TYPE, configuration));
+
+    writer.withMessageFormat("SMILE");
+    Assert.assertEquals(MessageFormats.SMILE, writer.getMessageFormat(SENSOR_TYPE, createConfiguration(new HashMap<>())));
+  }
+
+  @Test
+  public void testBatchingAndCompressionPerSensor() throws Exception {
+    KafkaWriter writer = new KafkaWriter();
+    WriterConfiguration configuration = createConfiguration(
+            new HashMap<String, Object>() {{
+              put("kafka.brokerUrl" , "localhost:6667");
+              put("kafka.lingerMs" , 5);
+              put("kafka.batchBytes" , "65536");
+              put("kafka.compressionType" , "snappy");
+              put("kafka.maxInFlight" , 100);
+            }}
+    );
+
+    writer.configure(SENSOR_TYPE, configuration);
+    Map<String, Object> producerConfigs = writer.createProducerConfigs();
+    Assert.assertEquals(5, producerConfigs.get("linger.ms"));
+    Assert.assertEquals(65536, producerConfigs.get("batch.size"));
+    Assert.assertEquals("snappy", producerConfigs.get("compression.type"));
+  }
+
+  /**
+   * Sends to a producer that fails any message with a 'fail' field.
+   */
+  @SuppressWarnings("unchecked")
+  private static KafkaWriter createWriter() {
+    KafkaProducer producer = mock(KafkaProducer.class);
+    when(producer.send(any(ProducerRecord.class), any(Callback.class))).thenAnswer(invocation -> {
+      ProducerRecord<String, byte[]> record = (ProducerRecord<String, byte[]>) invocation.getArguments()[0];
+      Callback callback = (Callback) invocation.getArguments()[1];
+      Future<RecordMetadata> result;
+      if(new String(record.value()).contains("fail")) {
+        Exception e = new IllegalStateException("broker failure");
+        callback.onCompletion(null, e);
+        result = Futures.immediateFailedFuture(e);
+      }
+      else {
+        RecordMetadata metadata = new RecordMetadata(new TopicPartition(record.topic(), 0), 0, 0);
+        callback.onCompletion(metadata, null);
+        result = Futures.immediateFuture(metadata);
+      }
+      return result;
+    });
+    KafkaWriter writer = new KafkaWriter("localhost:6667") {
+      @Override
+      protected KafkaProducer createProducer(Map<String, Object> producerConfigs) {
+        return producer;
+      }
+    }.withMaxInFlight(1);
+    writer.init(null, null, null);
+    return writer;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static JSONObject message(String field) {
+    JSONObject message = new JSONObject();
+    message.put(field, "value");
+    return message;
+  }
+
+  @Test
+  public void testTuplesAreAckedOnceSent() throws Exception {
+    KafkaWriter writer = createWriter();
+    Tuple ok1 = mock(Tuple.class);
+    Tuple failed = mock(Tuple.class);
+    Tuple ok2 = mock(Tuple.class);
+    List<Tuple> tuples = ImmutableList.of(ok1, failed, ok2);
+    BulkWriterResponse response = writer.write(SENSOR_TYPE, createConfiguration(new HashMap<>()), tuples
+            , ImmutableList.of(message("ok"), message("fail"), message("ok")));
+
+    Assert.assertEquals(ImmutableList.of(ok1, ok2), response.getSuccesses());
+    Assert.assertEquals(1, response.getErrors().size());
+    Throwable error = response.getErrors().keySet().iterator().next();
+    Assert.assertEquals("broker failure", error.getMessage());
+    Assert.assertEquals(ImmutableList.of(failed), ImmutableList.copyOf(response.getErrors().get(error)));
+  }
+
+  @Test
+  public void testTupleWithSeveralMessagesFailsWithAnyMessage() throws Exception {
+    KafkaWriter writer = createWriter();
+    List<Tuple> tuples = ImmutableList.of(mock(Tuple.class));
+    BulkWriterResponse response = writer.write(SENSOR_TYPE, createConfiguration(new HashMap<>()), tuples
+            , ImmutableList.of(message("ok"), message("ok")));
+    Assert.assertEquals(tuples, response.getSuccesses());
+    Assert.assertFalse(response.hasErrors());
+
+    response = writer.write(SENSOR_TYPE, createConfiguration(new HashMap<>()), tuples
+            , ImmutableList.of(message("ok"), message("fail")));
+    Assert.assertTrue(response.getSuccesses().isEmpty());
+    Assert.assertEquals(tuples, ImmutableList.copyOf(response.getErrors().values().iterator().next()));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testWriteAsyncReportsFromProducerCallbacks() throws Exception {
+    KafkaProducer producer = mock(KafkaProducer.class);
+    List<Callback> pending = new ArrayList<>();
+    when(producer.send(any(ProducerRecord.class), any(Callback.class))).thenAnswer(invocation -> {
+      pending.add((Callback) invocation.getArguments()[1]);
+      return null;
+    });
+    KafkaWriter writer = new KafkaWriter("localhost:6667") {
+      @Override
+      protected KafkaProducer createProducer(Map<String, Object> producerConfigs) {
+        return producer;
+      }
+    };
+    writer.init(null, null, null);
+    List<String> successes = new ArrayList<>();
+    List<String> errors = new ArrayList<>();
+    writer.writeAsync(SENSOR_TYPE, createConfiguration(new HashMap<>()), ImmutableList.of("a", "b")
+            , ImmutableList.of(message("ok"), message("ok")), new WriteCallback<String>() {
+      @Override
+      public void onSuccess(String id) {
+        successes.add(id);
+      }
+
+      @Override
+      public void onError(String id, Throwable error) {
+        errors.add(id);
+      }
+    });
+
+    // nothing is reported until the broker acknowledges the records
+    Assert.assertEquals(2, pending.size());
+    Assert.assertTrue(successes.isEmpty() && errors.isEmpty());
+    pending.get(1).onCompletion(null, new IllegalStateException("broker failure"));
+    pending.get(0).onCompletion(new RecordMetadata(new TopicPartition("enrichments", 0), 0, 0), null);
+    Assert.assertEquals(ImmutableList.of("a"), successes);
+    Assert.assertEquals(ImmutableList.of("b"), errors);
+  }
 }
@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.writer.runner;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.metron.common.Constants;
+import org.apache.metron.common.configuration.IndexingConfigurations;
+import org.apache.metron.common.configuration.writer.WriterConfiguration;
+import org.apache.metron.common.writer.BatchMessageWriter;
+import org.apache.metron.common.writer.WriteCallback;
+import org.apache.storm.task.TopologyContext;
+import org.json.simple.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexingRunnerTest {
+
+  /**
+   * Records the batches written, failing each message with a "bad" field and, if asked, every write for a while.
+   */
+  public static class TestWriter implements BatchMessageWriter<JSONObject> {
+    private final String name;
+    private final List<List<JSONObject>> batches = Collections.synchronizedList(new ArrayList<>());
+    private volatile int failures;
+    private volatile boolean closed;
+
+    public TestWriter(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void init(Map stormConf, TopologyContext topologyContext, WriterConfiguration config) {
+    }
+
+    @Override
+    public <ID_T> void write(String sensorType, WriterConfiguration configurations, List<ID_T> ids, List<JSONObject> messages, WriteCallback<ID_T> callback) {
+      if (failures > 0) {
+        failures--;
+        throw new IllegalStateException("Unavailable");
+      }
+      batches.add(new ArrayList<>(messages));
+      for (int i = 0; i < messages.size(); i++) {
+        if (messages.get(i).containsKey("bad")) {
+          callback.onError(ids.get(i), new IllegalArgumentException("bad"));
+        } else {
+          callback.onSuccess(ids.get(i));
+        }
+      }
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private static final String TOPIC = "indexing";
+  private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+  private IndexingConfigurations configurations;
+  private MockConsumer<byte[], byte[]> consumer;
+  private TestWriter writer;
+  private TestWriter errorWriter;
+  private IndexingRunner runner;
+
+  @Before
+  public void setup() {
+    configurations = new IndexingConfigurations();
+    configurations.updateSensorIndexingConfig("test", ImmutableMap.of("test", ImmutableMap.of(IndexingConfigurations.BATCH_SIZE_CONF, 3)));
+    consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+    writer = new TestWriter("test");
+    errorWriter = new TestWriter("kafka");
+    runner = new IndexingRunner(partition -> writer, () -> configurations) {
+      @Override
+      protected Consumer<byte[], byte[]> createConsumer(Map<String, Object> consumerConfigs) {
+        return consumer;
+      }
+    }.withTopic(TOPIC)
+     .withPartitions(ImmutableList.of(0))
+     .withErrorWriter(errorWriter)
+     .withPollTimeoutMs(10)
+     .withRetryBackoffMs(10);
+  }
+
+  @Test
+  public void writesBatchesAndCommitsTheirOffsets() throws Exception {
+    runner.start();
+    waitFor(() -> !consumer.assignment().isEmpty());
+    consumer.addRecord(record(0, message("test", false)));
+    consumer.addRecord(record(1, message("test", true)));
+    consumer.addRecord(record(2, message("test", false)));
+    waitFor(() -> committed() == 3);
+    runner.close();
+
+    Assert.assertEquals(1, writer.batches.size());
+    Assert.assertEquals(3, writer.batches.get(0).size());
+    Assert.assertEquals(1, errorWriter.batches.size());
+    JSONObject error = errorWriter.batches.get(0).get(0);
+    Assert.assertEquals(Constants.ErrorType.INDEXING_ERROR.getType(), error.get(Constants.ErrorFields.ERROR_TYPE.getName()));
+    Assert.assertTrue(writer.closed);
+    Assert.assertTrue(errorWriter.closed);
+    Assert.assertEquals(3, runner.getMetrics().meter(IndexingRunner.RECEIVED).getCount());
+    Assert.assertEquals(2, runner.getMetrics().meter(IndexingRunner.WRITTEN).getCount());
+    Assert.assertEquals(1, runner.getMetrics().meter(IndexingRunner.FAILED).getCount());
+  }
+
+  @Test
+  public void readsAgainWhenAWriteFails() throws Exception {
+    writer.failures = 1;
+    runner.start();
+    waitFor(() -> !consumer.assignment().isEmpty());
+    consumer.addRecord(record(0, message("test", false)));
+    consumer.addRecord(record(1, message("test", false)));
+    consumer.addRecord(record(2, message("test", false)));
+    waitFor(() -> runner.getMetrics().meter(IndexingRunner.RETRIED).getCount() == 1);
+    // the mock consumer hands out each record once, so they are read again as if from the broker
+    consumer.addRecord(record(0, message("test", false)));
+    consumer.addRecord(record(1, message("test", false)));
+    consumer.addRecord(record(2, message("test", false)));
+    waitFor(() -> committed() == 3);
+    runner.close();
+
+    Assert.assertEquals(1, writer.batches.size());
+    Assert.assertEquals(3, writer.batches.get(0).size());
+    Assert.assertTrue(errorWriter.batches.isEmpty());
+  }
+
+  @Test
+  public void writesWhatWasReadWhenClosed() throws Exception {
+    runner.start();
+    waitFor(() -> !consumer.assignment().isEmpty());
+    consumer.addRecord(record(0, message("test", false)));
+    waitFor(() -> runner.getMetrics().meter(IndexingRunner.RECEIVED).getCount() == 1);
+    runner.close();
+
+    Assert.assertEquals(1, writer.batches.size());
+    Assert.assertEquals(1, writer.batches.get(0).size());
+  }
+
+  @Test
+  public void recordsMessagesWhichCannotBeRead() throws Exception {
+    runner.start();
+    waitFor(() -> !consumer.assignment().isEmpty());
+    consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, 0, null, "{not json".getBytes()));
+    waitFor(() -> committed() == 1);
+    runner.close();
+
+    Assert.assertTrue(writer.batches.isEmpty());
+    Assert.assertEquals(1, errorWriter.batches.size());
+    JSONObject error = errorWriter.batches.get(0).get(0);
+    Assert.assertEquals(Constants.ErrorType.INDEXING_ERROR.getType(), error.get(Constants.ErrorFields.ERROR_TYPE.getName()));
+    Assert.assertEquals("{not json", error.get(Constants.ErrorFields.RAW_MESSAGE.getName()));
+    Assert.assertEquals(1, runner.getMetrics().meter(IndexingRunner.FAILED).getCount());
+  }
+
+  @Test
+  public void createsAWriterPerPartition() throws Exception {
+    Map<Integer, TestWriter> writers = new ConcurrentHashMap<>();
+    Map<Integer, MockConsumer<byte[], byte[]>> consumers = new ConcurrentHashMap<>();
+    for (int partition = 0; partition < 2; partition++) {
+      MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+      consumer.updateBeginningOffsets(Collections.singletonMap(new TopicPartition(TOPIC, partition), 0L));
+      consumers.put(partition, consumer);
+    }
+    List<MockConsumer<byte[], byte[]>> created = new ArrayList<>(consumers.values());
+    runner = new IndexingRunner(partition -> writers.computeIfAbsent(partition, p -> new TestWriter("test")), () -> configurations) {
+      @Override
+      protected Consumer<byte[], byte[]> createConsumer(Map<String, Object> consumerConfigs) {
+        return created.remove(0);
+      }
+    }.withTopic(TOPIC)
+     .withPartitions(ImmutableList.of(0, 1))
+     .withPollTimeoutMs(10);
+    runner.start();
+    for (int partition = 0; partition < 2; partition++) {
+      MockConsumer<byte[], byte[]> consumer = consumers.get(partition);
+      waitFor(() -> !consumer.assignment().isEmpty());
+      for (int offset = 0; offset < 3; offset++) {
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, partition, offset, null, message("test", false).toJSONString().getBytes()));
+      }
+    }
+    waitFor(() -> runner.getMetrics().meter(IndexingRunner.WRITTEN).getCount() == 6);
+    runner.close();
+
+    Assert.assertEquals(2, writers.size());
+    for (TestWriter partitionWriter : writers.values()) {
+      Assert.assertEquals(1, partitionWriter.batches.size());
+      Assert.assertEquals(3, partitionWriter.batches.get(0).size());
+      Assert.assertTrue(partitionWriter.closed);
+    }
+  }
+
+  private long committed() {
+    OffsetAndMetadata committed = consumer.committed(PARTITION);
+    return committed == null ? -1 : committed.offset();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static JSONObject message(String sensorType, boolean bad) {
+    JSONObject message = new JSONObject();
+    message.put(Constants.SENSOR_TYPE, sensorType);
+    if (bad) {
+      message.put("bad", true);
+    }
+    return message;
+  }
+
+  private static ConsumerRecord<byte[], byte[]> record(long offset, JSONObject message) {
+    return new ConsumerRecord<>(TOPIC, 0, offset, null, message.toJSONString().getBytes());
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+    while (!condition.getAsBoolean()) {
+      if (System.currentTimeMillis() > deadline) {
+        Assert.fail("Timed out");
+      }
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Arithmetic and comparisons over literals and variables.
+ */
+public class ArithmeticBenchmark extends ExpressionBenchmark {
+
+  @Param({
+          "1 + 2 * 3 - 4 / 2",
+          "int_num * 2 + double_num / 3.0",
+          "(long_num + int_num) * 1.5 > 100 || double_num <= 17.5",
+          "bytes > 1000 && bytes < 1500"
+  })
+  public String expression;
+
+  @Override
+  protected String getExpression() {
+    return expression;
+  }
+}
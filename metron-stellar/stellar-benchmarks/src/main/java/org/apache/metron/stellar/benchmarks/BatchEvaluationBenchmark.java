@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.metron.stellar.common.StellarProcessor;
+import org.apache.metron.stellar.dsl.Context;
+import org.apache.metron.stellar.dsl.StellarFunctions;
+import org.apache.metron.stellar.dsl.VariableResolver;
+import org.apache.metron.stellar.dsl.functions.resolver.FunctionResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares evaluating an expression against a batch of messages one message at a time with
+ * evaluating it against the whole batch at once.  Times are per batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchEvaluationBenchmark {
+
+  @Param({"10", "1000"})
+  public int batchSize;
+
+  @Param({
+          "ip_src_addr == '10.0.0.1' || bytes > 1000",
+          "IN_SUBNET(ip_src_addr, '10.0.0.0/8', '192.168.0.0/16') && TO_LOWER(protocol) == 'tcp'",
+          "if TO_LOWER(protocol) == 'udp' then DOMAIN_REMOVE_TLD(domain) else TO_UPPER(TO_LOWER(protocol))"
+  })
+  public String expression;
+
+  private StellarProcessor processor;
+  private FunctionResolver functionResolver;
+  private Context context;
+  private List<VariableResolver> messages;
+
+  @Setup
+  public void setup() {
+    processor = new StellarProcessor();
+    functionResolver = StellarFunctions.FUNCTION_RESOLVER();
+    context = Context.EMPTY_CONTEXT();
+    messages = Messages.resolvers(batchSize);
+    // compile the expression and initialize its functions outside of the measurements
+    processor.parse(expression, messages.get(0), functionResolver, context);
+  }
+
+  @Benchmark
+  public void perMessage(Blackhole blackhole) {
+    for (VariableResolver message : messages) {
+      blackhole.consume(processor.parse(expression, message, functionResolver, context));
+    }
+  }
+
+  @Benchmark
+  public void batch(Blackhole blackhole) {
+    blackhole.consume(processor.parseBatch(expression, messages, functionResolver, context));
+  }
+}
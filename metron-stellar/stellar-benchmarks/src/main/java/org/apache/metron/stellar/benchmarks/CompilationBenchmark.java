@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import org.apache.metron.stellar.common.BaseStellarProcessor;
+import org.apache.metron.stellar.common.StellarCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Compares parsing and compiling an expression, as happens on a miss of the expression cache,
+ * with evaluating the cached expression.
+ */
+public class CompilationBenchmark extends ExpressionBenchmark {
+
+  @Param({
+          "TO_UPPER(name)",
+          "IN_SUBNET(ip_src_addr, '10.0.0.0/8') && (bytes > 1000 || protocol in ['TCP', 'UDP'])",
+          "if exists(domain) then DOMAIN_REMOVE_SUBDOMAINS(domain) else FORMAT('%s-%s', name, int_num)",
+          "match{ bytes < 500 => MAP(list, x -> x * 2), default => REDUCE(list, (sum, x) -> sum + x, 0) }"
+  })
+  public String expression;
+
+  @Override
+  protected String getExpression() {
+    return expression;
+  }
+
+  @Benchmark
+  public StellarCompiler.Expression compile() {
+    return BaseStellarProcessor.compile(expression);
+  }
+}
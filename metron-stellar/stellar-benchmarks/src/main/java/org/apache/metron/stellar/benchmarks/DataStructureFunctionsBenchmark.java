@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Map and list literals and functions.
+ */
+public class DataStructureFunctionsBenchmark extends ExpressionBenchmark {
+
+  @Param({
+          "MAP_GET(TO_LOWER(protocol), map)",
+          "MAP_EXISTS('tcp', map)",
+          "{ 'name' : name, 'protocol' : protocol, 'bytes' : bytes }",
+          "LIST_ADD(['a', 'b'], name)",
+          "LENGTH(list)",
+          "int_num in list"
+  })
+  public String expression;
+
+  @Override
+  protected String getExpression() {
+    return expression;
+  }
+}
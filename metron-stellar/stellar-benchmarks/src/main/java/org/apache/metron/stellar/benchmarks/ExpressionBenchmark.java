@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.metron.stellar.common.StellarProcessor;
+import org.apache.metron.stellar.dsl.Context;
+import org.apache.metron.stellar.dsl.MapVariableResolver;
+import org.apache.metron.stellar.dsl.StellarFunctions;
+import org.apache.metron.stellar.dsl.VariableResolver;
+import org.apache.metron.stellar.dsl.functions.resolver.FunctionResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluates an expression against a single message, as the enrichment and parser topologies
+ * do.  The expression is compiled during setup, so each evaluation hits the expression cache.
+ * <p>
+ * Subclasses provide the expressions to evaluate, typically as a parameter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class ExpressionBenchmark {
+
+  protected StellarProcessor processor;
+  protected VariableResolver variableResolver;
+  protected FunctionResolver functionResolver;
+  protected Context context;
+
+  /**
+   * @return The expression to evaluate.
+   */
+  protected abstract String getExpression();
+
+  @Setup
+  public void setupStellar() {
+    processor = new StellarProcessor();
+    variableResolver = new MapVariableResolver(Messages.message(new Random(0)));
+    functionResolver = StellarFunctions.FUNCTION_RESOLVER();
+    context = Context.EMPTY_CONTEXT();
+    // compile the expression and initialize its functions outside of the measurements
+    processor.parse(getExpression(), variableResolver, functionResolver, context);
+  }
+
+  @Benchmark
+  public Object evaluate() {
+    return processor.parse(getExpression(), variableResolver, functionResolver, context);
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Higher order functions with lambdas, and `match` expressions.
+ */
+public class LambdaBenchmark extends ExpressionBenchmark {
+
+  @Param({
+          "MAP(list, x -> x * 2)",
+          "FILTER(list, x -> x > int_num)",
+          "REDUCE(list, (sum, x) -> sum + x, 0)",
+          "match{ bytes < 500 => 'small', bytes < 1500 => 'medium', default => 'large' }",
+          "match{ protocol == 'TCP' => () -> TO_LOWER(domain), default => 'other' }"
+  })
+  public String expression;
+
+  @Override
+  protected String getExpression() {
+    return expression;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.metron.stellar.dsl.MapVariableResolver;
+import org.apache.metron.stellar.dsl.VariableResolver;
+
+/**
+ * Generates telemetry-like messages for the benchmarks to evaluate expressions against.
+ */
+class Messages {
+  private static final String[] PROTOCOLS = { "TCP", "UDP", "ICMP" };
+  private static final String[] DOMAINS = { "www.google.co.uk", "mail.yahoo.com", "metron.apache.org" };
+
+  static Map<String, Object> message(Random random) {
+    Map<String, Object> message = new HashMap<>();
+    message.put("ip_src_addr", (random.nextBoolean() ? "10." : "172.") + random.nextInt(256) + "." + random.nextInt(256) + ".1");
+    message.put("protocol", PROTOCOLS[random.nextInt(PROTOCOLS.length)]);
+    message.put("domain", DOMAINS[random.nextInt(DOMAINS.length)]);
+    message.put("bytes", random.nextInt(2000));
+    message.put("name", "casey");
+    message.put("int_num", 7);
+    message.put("long_num", 10L);
+    message.put("double_num", 17.5);
+    message.put("list", ImmutableList.of(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+    message.put("map", ImmutableMap.of("tcp", 6, "udp", 17, "icmp", 1));
+    return message;
+  }
+
+  static List<Map<String, Object>> messages(int count) {
+    Random random = new Random(0);
+    List<Map<String, Object>> messages = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      messages.add(message(random));
+    }
+    return messages;
+  }
+
+  static List<VariableResolver> resolvers(int count) {
+    List<VariableResolver> resolvers = new ArrayList<>(count);
+    for (Map<String, Object> message : messages(count)) {
+      resolvers.add(new MapVariableResolver(message));
+    }
+    return resolvers;
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Network functions, `IN_SUBNET` in particular.
+ */
+public class NetworkFunctionsBenchmark extends ExpressionBenchmark {
+
+  @Param({
+          "IN_SUBNET(ip_src_addr, '10.0.0.0/8')",
+          "IN_SUBNET(ip_src_addr, '192.168.0.0/16', '172.16.0.0/12', '10.0.0.0/8')",
+          "DOMAIN_TO_TLD(domain)",
+          "DOMAIN_REMOVE_SUBDOMAINS(domain)"
+  })
+  public String expression;
+
+  @Override
+  protected String getExpression() {
+    return expression;
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, always including the GC
+ * profiler so that the allocations of each operation are reported along with its time.
+ */
+public class StellarBenchmarks {
+
+  public static void main(String... args) throws Exception {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    if (commandLine.shouldHelp()) {
+      commandLine.showHelp();
+      return;
+    }
+    OptionsBuilder builder = new OptionsBuilder();
+    builder.parent(commandLine);
+    boolean profilingGC = false;
+    for (ProfilerConfig profiler : commandLine.getProfilers()) {
+      profilingGC |= GCProfiler.class.getName().equals(profiler.getKlass());
+    }
+    if (!profilingGC) {
+      builder.addProfiler(GCProfiler.class);
+    }
+    Options options = builder.build();
+    Runner runner = new Runner(options);
+    if (commandLine.shouldList()) {
+      runner.list();
+    } else if (commandLine.shouldListProfilers()) {
+      commandLine.listProfilers();
+    } else {
+      runner.run();
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.benchmarks;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * String and regular expression functions.
+ */
+public class StringFunctionsBenchmark extends ExpressionBenchmark {
+
+  @Param({
+          "TO_UPPER(name)",
+          "STARTS_WITH(domain, 'mail') || ENDS_WITH(domain, '.org')",
+          "JOIN([name, protocol, domain], ',')",
+          "FORMAT('%s connected to %s', ip_src_addr, domain)",
+          "REGEXP_MATCH(domain, '^(mail|www)[.]')",
+          "REGEXP_GROUP_VAL(domain, '^([a-z]+)[.]', 1)"
+  })
+  public String expression;
+
+  @Override
+  protected String getExpression() {
+    return expression;
+  }
+}
@@ -26,6 +26,12 @@ import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.TokenStream;
 
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -35,6 +41,7 @@ import org.apache.metron.stellar.dsl.Context.ActivityType;
 import org.apache.metron.stellar.dsl.DefaultVariableResolver;
 import org.apache.metron.stellar.dsl.ErrorListener;
 import org.apache.metron.stellar.dsl.ParseException;
+import org.apache.metron.stellar.dsl.StellarFunction;
 import org.apache.metron.stellar.dsl.StellarFunctions;
 import org.apache.metron.stellar.dsl.VariableResolver;
 import org.apache.metron.stellar.dsl.functions.resolver.FunctionResolver;
@@ -44,6 +51,9 @@ import org.apache.metron.stellar.common.evaluators.NumberLiteralEvaluator;
 import org.apache.metron.stellar.common.generated.StellarLexer;
 import org.apache.metron.stellar.common.generated.StellarParser;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import static org.apache.commons.lang3.StringUtils.isEmpty;
 
 /**
@@ -54,6 +64,7 @@ import static org.apache.commons.lang3.StringUtils.isEmpty;
  * @see StellarPredicateProcessor
  */
 public class BaseStellarProcessor<T> {
+  private static final Logger LOG = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   public static final int DEFAULT_CACHE_SIZE = 500;
   public static final int DEFAULT_EXPIRY_TIME = 10;
   public static final TimeUnit DEFAULT_EXPIRY_TIME_UNITS = TimeUnit.MINUTES;
@@ -156,6 +167,59 @@ public class BaseStellarProcessor<T> {
     }
   }
 
+  /**
+   * Parses the given Stellar expression, {@code rule}, once and evaluates it against each of a batch of messages.
+   * This is equivalent to calling {@link #parse(String, VariableResolver, FunctionResolver, Context)} for each
+   * message, except that the expression is looked up and its functions are resolved only once for the batch.
+   *
+   * @param rule The Stellar expression to parse and evaluate.
+   * @param variableResolvers The {@link VariableResolver} of each message in the batch.
+   * @param functionResolver The {@link FunctionResolver} to determine values of functions used in the Stellar expression, {@code rule}.
+   * @param context The context used during validation.
+   * @return The value of the evaluated Stellar expression for each message, in the order of {@code variableResolvers}.
+   */
+  public List<T> parseBatch(final String rule, final List<? extends VariableResolver> variableResolvers, final FunctionResolver functionResolver, final Context context) {
+    if (rule == null || isEmpty(rule.trim())) {
+      return new ArrayList<>(Collections.nCopies(variableResolvers.size(), null));
+    }
+    StellarCompiler.Expression expression = null;
+    try {
+      expression = expressionCache.get(rule, () -> compile(rule));
+    } catch (ExecutionException|UncheckedExecutionException e) {
+      throw new ParseException("Unable to parse: " + rule + " due to: " + e.getMessage(), e);
+    }
+    return parseBatch(expression, variableResolvers, functionResolver, context);
+  }
+
+  /**
+   * Evaluates a compiled Stellar expression against each of a batch of messages.
+   *
+   * @param expression The compiled Stellar expression, see {@link #compile(String)}.
+   * @param variableResolvers The {@link VariableResolver} of each message in the batch.
+   * @param functionResolver The {@link FunctionResolver} to determine values of functions used in the Stellar expression.
+   * @param context The context used during validation.
+   * @return The value of the evaluated Stellar expression for each message, in the order of {@code variableResolvers}.
+   */
+  public List<T> parseBatch(final StellarCompiler.Expression expression, final List<? extends VariableResolver> variableResolvers, final FunctionResolver functionResolver, final Context context) {
+    if(context.getActivityType() == null) {
+      context.setActivityType(ActivityType.PARSE_ACTIVITY);
+    }
+    List<T> results = new ArrayList<>(variableResolvers.size());
+    // the functions are resolved by the first message, then reused by the rest of the batch
+    Map<String, StellarFunction> functions = new HashMap<>();
+    try {
+      for (VariableResolver variableResolver : variableResolvers) {
+        StellarCompiler.ExpressionState state = new StellarCompiler.ExpressionState(context, functionResolver, variableResolver);
+        state.functions = functions;
+        results.add(clazz.cast(expression.apply(state)));
+      }
+    } finally {
+      // always reset the activity type
+      context.setActivityType(null);
+    }
+    return results;
+  }
+
   /**
    * Parses and evaluates the given Stellar expression, {@code rule}.
    * @param rule The Stellar expression to parse and evaluate.
@@ -181,8 +245,14 @@ public class BaseStellarProcessor<T> {
     parser.addParseListener(treeBuilder);
     parser.removeErrorListeners();
     parser.addErrorListener(new ErrorListener());
-    parser.transformation();
-    return treeBuilder.getExpression();
+    StellarParser.TransformationContext transformation = parser.transformation();
+    StellarCompiler.Expression expression = treeBuilder.getExpression();
+    expression.compiled = ClosureCompiler.compile(transformation).orElse(null);
+    if (expression.compiled == null) {
+      // fall back to interpreting the expression
+      LOG.debug("Unable to compile {}, it will be interpreted", rule);
+    }
+    return expression;
   }
 
   /**
@@ -0,0 +1,666 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BinaryOperator;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.metron.stellar.common.evaluators.ArithmeticEvaluator.ArithmeticEvaluatorFunctions;
+import org.apache.metron.stellar.common.evaluators.ComparisonExpressionWithOperatorEvaluator;
+import org.apache.metron.stellar.common.evaluators.NumberLiteralEvaluator;
+import org.apache.metron.stellar.common.generated.StellarParser;
+import org.apache.metron.stellar.dsl.Context.ActivityType;
+import org.apache.metron.stellar.dsl.ParseException;
+import org.apache.metron.stellar.dsl.Stellar;
+import org.apache.metron.stellar.dsl.StellarFunction;
+import org.apache.metron.stellar.dsl.functions.resolver.FunctionResolver;
+
+/**
+ * Compiles a parsed Stellar expression into a tree of closures, one per node of the parse tree.
+ * Evaluating the tree calls straight through the closures, rather than interpreting the token
+ * deque built by the {@link StellarCompiler}, so no stack is allocated, and operators are applied
+ * to the values of their operands rather than to tokens.
+ * <p>
+ * The semantics are those of the token deque, including short-circuiting of boolean operators,
+ * conditionals and match clauses.  A conditional or match clause whose condition is not a boolean
+ * is an error.  Expressions that cannot be compiled, such as nested matches, are left to the
+ * token deque.  So is a match within an enclosing expression, as the token deque's handling of
+ * single variable checks while validating depends on the match being the only value on the deque.
+ * <p>
+ * While compiling, operators over constants are folded, and lists and maps of constants are
+ * built once for membership tests.  Calls to functions marked {@link Stellar#pure()} are reused
+ * when their result is a string, number or boolean: calls with constant arguments are evaluated
+ * once per function resolver, and calls repeated within an expression are evaluated once per
+ * evaluation.
+ */
+public class ClosureCompiler {
+
+  /**
+   * A compiled node of an expression.  Closures hold no state of their own, so a compiled
+   * expression may be evaluated concurrently.
+   */
+  public interface Closure {
+    Object apply(StellarCompiler.ExpressionState state);
+  }
+
+  /**
+   * A closure that always evaluates to the same value.
+   */
+  static class Constant implements Closure {
+    final Object value;
+
+    Constant(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    public Object apply(StellarCompiler.ExpressionState state) {
+      return value;
+    }
+  }
+
+  /**
+   * A list or map of constants.  A new copy is built for each evaluation, as functions may
+   * modify their arguments, while membership tests use the prebuilt collection.
+   */
+  private static class ConstantCollection implements Closure {
+    final Object value;
+
+    ConstantCollection(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    public Object apply(StellarCompiler.ExpressionState state) {
+      if (value instanceof Map) {
+        // copy entry by entry so the copy is sized, and so iterates, like a freshly built map
+        Map<Object, Object> map = new HashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+      }
+      return new LinkedList<>((List<?>) value);
+    }
+  }
+
+  private static final Closure TRUE = new Constant(true);
+  private static final Closure FALSE = new Constant(false);
+  private static final Closure NULL = new Constant(null);
+
+  /**
+   * Stands in for a node that cannot be compiled.  It is never evaluated, as the expression is
+   * then left to the token deque.
+   */
+  private static final Closure UNSUPPORTED = state -> {
+    throw new IllegalStateException("Unable to evaluate an expression that was not compiled");
+  };
+
+  private static final ClassValue<Boolean> PURE = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      Stellar annotation = type.getAnnotation(Stellar.class);
+      return annotation != null && annotation.pure();
+    }
+  };
+
+  /**
+   * The number of times each function call appears in the expression, by its text.
+   */
+  private final Map<String, Integer> functionCalls = new HashMap<>();
+  /**
+   * The compiled function calls that appear more than once, by their text.
+   */
+  private final Map<String, FunctionCall> commonFunctionCalls = new HashMap<>();
+  /**
+   * Whether every node of the expression could be compiled.
+   */
+  private boolean supported = true;
+
+  private ClosureCompiler(StellarParser.TransformationContext transformation) {
+    countFunctionCalls(transformation);
+  }
+
+  /**
+   * @param transformation The parsed expression
+   * @return The compiled expression, or empty if the expression must be interpreted
+   */
+  public static Optional<Closure> compile(StellarParser.TransformationContext transformation) {
+    ClosureCompiler compiler = new ClosureCompiler(transformation);
+    Closure compiled = compiler.compile(transformation.transformation_expr());
+    return compiler.supported ? Optional.of(compiled) : Optional.empty();
+  }
+
+  private void countFunctionCalls(ParseTree tree) {
+    if (tree instanceof StellarParser.FunctionsContext) {
+      functionCalls.merge(tree.getText(), 1, Integer::sum);
+    }
+    for (int i = 0; i < tree.getChildCount(); ++i) {
+      countFunctionCalls(tree.getChild(i));
+    }
+  }
+
+  /**
+   * Evaluates a closure at compile time if all of its operands are constants.  Errors are left
+   * to be raised when the expression is evaluated.
+   */
+  private static Closure fold(Closure closure, Closure... operands) {
+    for (Closure operand : operands) {
+      if (!(operand instanceof Constant)) {
+        return closure;
+      }
+    }
+    try {
+      return new Constant(closure.apply(null));
+    } catch (RuntimeException e) {
+      return closure;
+    }
+  }
+
+  private static boolean isReusable(Object value) {
+    return value == null || value instanceof String || value instanceof Number || value instanceof Boolean;
+  }
+
+  private Closure compile(StellarParser.Transformation_exprContext ctx) {
+    if (ctx instanceof StellarParser.ConditionalExprContext) {
+      return compile(((StellarParser.ConditionalExprContext) ctx).conditional_expr());
+    } else if (ctx instanceof StellarParser.TransformationExprContext) {
+      return compile(((StellarParser.TransformationExprContext) ctx).transformation_expr());
+    } else if (ctx instanceof StellarParser.ArithExpressionContext) {
+      return compile(((StellarParser.ArithExpressionContext) ctx).arithmetic_expr());
+    } else if (ctx instanceof StellarParser.TransformationEntityContext) {
+      return compile(((StellarParser.TransformationEntityContext) ctx).transformation_entity().identifier_operand());
+    } else if (ctx instanceof StellarParser.ComparisonExpressionContext) {
+      return compile(((StellarParser.ComparisonExpressionContext) ctx).comparison_expr());
+    } else if (ctx instanceof StellarParser.LogicalExpressionContext) {
+      return compile(((StellarParser.LogicalExpressionContext) ctx).logical_expr());
+    } else if (ctx instanceof StellarParser.InExpressionContext) {
+      return compile(((StellarParser.InExpressionContext) ctx).in_expr());
+    } else if (ctx instanceof StellarParser.MatchExprContext) {
+      if (!isOnlyValue(ctx)) {
+        return unsupported();
+      }
+      return compile((StellarParser.MatchClausesContext) ((StellarParser.MatchExprContext) ctx).match_expr());
+    }
+    return unsupported();
+  }
+
+  private Closure compile(StellarParser.Conditional_exprContext ctx) {
+    StellarParser.If_exprContext ifExpr;
+    StellarParser.Then_exprContext thenExpr;
+    StellarParser.Else_exprContext elseExpr;
+    if (ctx instanceof StellarParser.TernaryFuncWithoutIfContext) {
+      StellarParser.TernaryFuncWithoutIfContext ternary = (StellarParser.TernaryFuncWithoutIfContext) ctx;
+      ifExpr = ternary.if_expr();
+      thenExpr = ternary.then_expr();
+      elseExpr = ternary.else_expr();
+    } else if (ctx instanceof StellarParser.TernaryFuncWithIfContext) {
+      StellarParser.TernaryFuncWithIfContext ternary = (StellarParser.TernaryFuncWithIfContext) ctx;
+      ifExpr = ternary.if_expr();
+      thenExpr = ternary.then_expr();
+      elseExpr = ternary.else_expr();
+    } else {
+      return unsupported();
+    }
+    final Closure condition = compile(ifExpr.logical_expr());
+    final Closure thenClosure = compile(thenExpr.transformation_expr());
+    final Closure elseClosure = compile(elseExpr.transformation_expr());
+    if (condition instanceof Constant && ((Constant) condition).value instanceof Boolean) {
+      return (Boolean) ((Constant) condition).value ? thenClosure : elseClosure;
+    }
+    return state -> {
+      Object value = condition.apply(state);
+      if (!(value instanceof Boolean)) {
+        throw new ParseException("Unable to evaluate conditional: " + value + " is not a boolean");
+      }
+      return ((Boolean) value ? thenClosure : elseClosure).apply(state);
+    };
+  }
+
+  private Closure compile(StellarParser.Logical_exprContext ctx) {
+    if (ctx instanceof StellarParser.BoleanExpressionContext) {
+      return compile(((StellarParser.BoleanExpressionContext) ctx).b_expr());
+    } else if (ctx instanceof StellarParser.LogicalExpressionAndContext) {
+      StellarParser.LogicalExpressionAndContext and = (StellarParser.LogicalExpressionAndContext) ctx;
+      final Closure left = compile(and.b_expr());
+      final Closure right = compile(and.logical_expr());
+      return fold(state -> {
+        Object l = left.apply(state);
+        if (l instanceof Boolean && !(Boolean) l) {
+          return l;
+        }
+        return StellarCompiler.booleanOp(l, right.apply(state), (x, y) -> x && y, "&&");
+      }, left, right);
+    } else if (ctx instanceof StellarParser.LogicalExpressionOrContext) {
+      StellarParser.LogicalExpressionOrContext or = (StellarParser.LogicalExpressionOrContext) ctx;
+      final Closure left = compile(or.b_expr());
+      final Closure right = compile(or.logical_expr());
+      return fold(state -> {
+        Object l = left.apply(state);
+        if (l instanceof Boolean && (Boolean) l) {
+          return l;
+        }
+        return StellarCompiler.booleanOp(l, right.apply(state), (x, y) -> x || y, "||");
+      }, left, right);
+    }
+    return unsupported();
+  }
+
+  private Closure compile(StellarParser.B_exprContext ctx) {
+    if (ctx.comparison_expr() != null) {
+      return compile(ctx.comparison_expr());
+    }
+    return compile(ctx.in_expr());
+  }
+
+  private Closure compile(StellarParser.In_exprContext ctx) {
+    final boolean negate;
+    final Closure key;
+    final Closure collection;
+    if (ctx instanceof StellarParser.InExpressionStatementContext) {
+      StellarParser.InExpressionStatementContext in = (StellarParser.InExpressionStatementContext) ctx;
+      negate = false;
+      key = compile(in.identifier_operand());
+      collection = compile(in.b_expr());
+    } else if (ctx instanceof StellarParser.NInExpressionStatementContext) {
+      StellarParser.NInExpressionStatementContext nin = (StellarParser.NInExpressionStatementContext) ctx;
+      negate = true;
+      key = compile(nin.identifier_operand());
+      collection = compile(nin.b_expr());
+    } else {
+      return unsupported();
+    }
+    if (collection instanceof ConstantCollection) {
+      Object value = ((ConstantCollection) collection).value;
+      // the collection is only read, so test membership of the prebuilt collection
+      final Object members = value instanceof List ? new HashSet<>((List<?>) value) : value;
+      return fold(state -> negate != StellarCompiler.handleIn(members, key.apply(state)), key);
+    }
+    return fold(state -> {
+      Object k = key.apply(state);
+      return negate != StellarCompiler.handleIn(collection.apply(state), k);
+    }, key, collection);
+  }
+
+  private Closure compile(StellarParser.Comparison_exprContext ctx) {
+    if (ctx instanceof StellarParser.OperandContext) {
+      return compile(((StellarParser.OperandContext) ctx).identifier_operand());
+    } else if (ctx instanceof StellarParser.ComparisonExpressionParensContext) {
+      return compile(((StellarParser.ComparisonExpressionParensContext) ctx).logical_expr());
+    } else if (ctx instanceof StellarParser.NotFuncContext) {
+      final Closure arg = compile(((StellarParser.NotFuncContext) ctx).logical_expr());
+      return fold(state -> !(Boolean) arg.apply(state), arg);
+    } else if (ctx instanceof StellarParser.ComparisonExpressionWithOperatorContext) {
+      StellarParser.ComparisonExpressionWithOperatorContext comparison = (StellarParser.ComparisonExpressionWithOperatorContext) ctx;
+      final Closure left = compile(comparison.comparison_expr(0));
+      final Closure right = compile(comparison.comparison_expr(1));
+      final StellarParser.ComparisonOpContext op = (StellarParser.ComparisonOpContext) comparison.comp_operator();
+      return fold(state -> ComparisonExpressionWithOperatorEvaluator.INSTANCE.evaluate(left.apply(state), right.apply(state), op)
+                 , left, right);
+    }
+    return unsupported();
+  }
+
+  private Closure compile(StellarParser.Identifier_operandContext ctx) {
+    if (ctx instanceof StellarParser.LogicalConstContext) {
+      return ((StellarParser.LogicalConstContext) ctx).TRUE() != null ? TRUE : FALSE;
+    } else if (ctx instanceof StellarParser.LambdaWithArgsExprContext) {
+      StellarParser.Lambda_with_argsContext lambda = ((StellarParser.LambdaWithArgsExprContext) ctx).lambda_with_args();
+      List<String> variables = new ArrayList<>();
+      if (lambda.single_lambda_variable() != null) {
+        variables.add(lambda.single_lambda_variable().lambda_variable().getText());
+      } else {
+        for (StellarParser.Lambda_variableContext variable : lambda.lambda_variables().lambda_variable()) {
+          variables.add(variable.getText());
+        }
+      }
+      return lambda(variables, compile(lambda.transformation_expr()));
+    } else if (ctx instanceof StellarParser.LambdaWithoutArgsExprContext) {
+      StellarParser.Lambda_without_argsContext lambda = ((StellarParser.LambdaWithoutArgsExprContext) ctx).lambda_without_args();
+      return lambda(new ArrayList<>(), compile(lambda.transformation_expr()));
+    } else if (ctx instanceof StellarParser.ArithmeticOperandsContext) {
+      return compile(((StellarParser.ArithmeticOperandsContext) ctx).arithmetic_expr());
+    } else if (ctx instanceof StellarParser.StringLiteralContext) {
+      String literal = StringEscapeUtils.UNESCAPE_JSON.translate(ctx.getText());
+      return new Constant(literal.substring(1, literal.length() - 1));
+    } else if (ctx instanceof StellarParser.ListContext) {
+      final Closure[] elements = compile(((StellarParser.ListContext) ctx).list_entity().op_list());
+      if (Arrays.stream(elements).allMatch(element -> element instanceof Constant)) {
+        List<Object> list = new LinkedList<>();
+        for (Closure element : elements) {
+          list.add(((Constant) element).value);
+        }
+        return new ConstantCollection(list);
+      }
+      return state -> {
+        LinkedList<Object> list = new LinkedList<>();
+        for (Closure element : elements) {
+          list.add(element.apply(state));
+        }
+        return list;
+      };
+    } else if (ctx instanceof StellarParser.MapConstContext) {
+      return compile(((StellarParser.MapConstContext) ctx).map_entity().kv_list());
+    } else if (ctx instanceof StellarParser.NullConstContext) {
+      return NULL;
+    } else if (ctx instanceof StellarParser.ExistsFuncContext) {
+      final String variable = ((StellarParser.ExistsFuncContext) ctx).IDENTIFIER().getText();
+      return state -> state.variableResolver.resolve(variable) != null;
+    } else if (ctx instanceof StellarParser.CondExpr_parenContext) {
+      return compile(((StellarParser.CondExpr_parenContext) ctx).conditional_expr());
+    } else if (ctx instanceof StellarParser.FuncContext) {
+      return compile(((StellarParser.FuncContext) ctx).functions());
+    }
+    return unsupported();
+  }
+
+  private static Closure lambda(final List<String> variables, final Closure body) {
+    return state -> new LambdaExpression(variables, body, state);
+  }
+
+  private Closure compile(StellarParser.Arithmetic_exprContext ctx) {
+    if (ctx instanceof StellarParser.ArithExpr_soloContext) {
+      return compile(((StellarParser.ArithExpr_soloContext) ctx).arithmetic_expr_mul());
+    } else if (ctx instanceof StellarParser.ArithExpr_plusContext) {
+      StellarParser.ArithExpr_plusContext plus = (StellarParser.ArithExpr_plusContext) ctx;
+      return arithmetic(compile(plus.arithmetic_expr()), compile(plus.arithmetic_expr_mul()), ArithmeticEvaluatorFunctions::add);
+    } else if (ctx instanceof StellarParser.ArithExpr_minusContext) {
+      StellarParser.ArithExpr_minusContext minus = (StellarParser.ArithExpr_minusContext) ctx;
+      return arithmetic(compile(minus.arithmetic_expr()), compile(minus.arithmetic_expr_mul()), ArithmeticEvaluatorFunctions::subtract);
+    }
+    return unsupported();
+  }
+
+  private Closure compile(StellarParser.Arithmetic_expr_mulContext ctx) {
+    if (ctx instanceof StellarParser.ArithExpr_mul_soloContext) {
+      return compile(((StellarParser.ArithExpr_mul_soloContext) ctx).arithmetic_operands());
+    } else if (ctx instanceof StellarParser.ArithExpr_mulContext) {
+      StellarParser.ArithExpr_mulContext mul = (StellarParser.ArithExpr_mulContext) ctx;
+      return arithmetic(compile(mul.arithmetic_expr_mul(0)), compile(mul.arithmetic_expr_mul(1)), ArithmeticEvaluatorFunctions::multiply);
+    } else if (ctx instanceof StellarParser.ArithExpr_divContext) {
+      StellarParser.ArithExpr_divContext div = (StellarParser.ArithExpr_divContext) ctx;
+      return arithmetic(compile(div.arithmetic_expr_mul(0)), compile(div.arithmetic_expr_mul(1)), ArithmeticEvaluatorFunctions::divide);
+    }
+    return unsupported();
+  }
+
+  private static Closure arithmetic(final Closure left, final Closure right, final BinaryOperator<Number> op) {
+    return fold(state -> {
+      Number l = (Number) left.apply(state);
+      Number r = (Number) right.apply(state);
+      return op.apply(l == null ? 0 : l, r == null ? 0 : r);
+    }, left, right);
+  }
+
+  private Closure compile(StellarParser.Arithmetic_operandsContext ctx) {
+    if (ctx instanceof StellarParser.NumericFunctionsContext) {
+      return compile(((StellarParser.NumericFunctionsContext) ctx).functions());
+    } else if (ctx instanceof StellarParser.DoubleLiteralContext
+            || ctx instanceof StellarParser.IntLiteralContext
+            || ctx instanceof StellarParser.LongLiteralContext
+            || ctx instanceof StellarParser.FloatLiteralContext) {
+      return new Constant(NumberLiteralEvaluator.INSTANCE.evaluate(ctx, null).getValue());
+    } else if (ctx instanceof StellarParser.VariableContext) {
+      final String variable = ctx.getText();
+      return state -> {
+        if (state.context.getActivityType().equals(ActivityType.PARSE_ACTIVITY) && !state.variableResolver.exists(variable)) {
+          // when parsing, missing variables are an error!
+          throw new ParseException(String.format("variable: %s is not defined", variable));
+        }
+        return state.variableResolver.resolve(variable);
+      };
+    } else if (ctx instanceof StellarParser.NaNArithContext) {
+      return new Constant(Double.NaN);
+    } else if (ctx instanceof StellarParser.ParenArithContext) {
+      return compile(((StellarParser.ParenArithContext) ctx).arithmetic_expr());
+    } else if (ctx instanceof StellarParser.CondExprContext) {
+      return compile(((StellarParser.CondExprContext) ctx).conditional_expr());
+    }
+    return unsupported();
+  }
+
+  private Closure compile(StellarParser.FunctionsContext ctx) {
+    String text = ctx.getText();
+    FunctionCall common = commonFunctionCalls.get(text);
+    if (common != null) {
+      return common;
+    }
+    StellarParser.TransformationFuncContext func = (StellarParser.TransformationFuncContext) ctx;
+    boolean repeated = functionCalls.getOrDefault(text, 0) > 1;
+    FunctionCall call = new FunctionCall(func.IDENTIFIER().getText(), compile(func.func_args().op_list()), repeated);
+    if (repeated) {
+      commonFunctionCalls.put(text, call);
+    }
+    return call;
+  }
+
+  private static class FunctionCall implements Closure {
+    /**
+     * The result of a pure function with constant arguments, as resolved by a function resolver.
+     */
+    private static class Folded {
+      final FunctionResolver functionResolver;
+      final Object value;
+
+      Folded(FunctionResolver functionResolver, Object value) {
+        this.functionResolver = functionResolver;
+        this.value = value;
+      }
+    }
+
+    private final String functionName;
+    private final Closure[] args;
+    private final boolean constantArgs;
+    private final boolean repeated;
+    private volatile Folded folded;
+
+    FunctionCall(String functionName, Closure[] args, boolean repeated) {
+      this.functionName = functionName;
+      this.args = args;
+      this.constantArgs = Arrays.stream(args).allMatch(arg -> arg instanceof Constant || arg instanceof ConstantCollection);
+      this.repeated = repeated;
+    }
+
+    @Override
+    public Object apply(StellarCompiler.ExpressionState state) {
+      if (constantArgs) {
+        Folded f = folded;
+        if (f != null && f.functionResolver == state.functionResolver) {
+          return f.value;
+        }
+      } else if (repeated && state.commonResults != null && state.commonResults.containsKey(this)) {
+        return state.commonResults.get(this);
+      }
+      List<Object> values = new ArrayList<>(args.length);
+      for (Closure arg : args) {
+        values.add(arg.apply(state));
+      }
+      StellarFunction function = state.functions == null ? null : state.functions.get(functionName);
+      if (function == null) {
+        function = StellarCompiler.resolveFunction(state.functionResolver, functionName);
+        StellarCompiler.initializeFunction(state.context, function, functionName);
+        if (state.functions != null) {
+          state.functions.put(functionName, function);
+        }
+      }
+      Object result = function.apply(values, state.context);
+      if ((constantArgs || repeated) && PURE.get(function.getClass()) && isReusable(result)) {
+        if (constantArgs) {
+          folded = new Folded(state.functionResolver, result);
+        } else {
+          if (state.commonResults == null) {
+            state.commonResults = new HashMap<>();
+          }
+          state.commonResults.put(this, result);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * @param ctx An argument list, which may be null when empty
+   * @return The closures of the arguments in order
+   */
+  private Closure[] compile(StellarParser.Op_listContext ctx) {
+    LinkedList<Closure> args = new LinkedList<>();
+    for (StellarParser.Op_listContext list = ctx; list != null; list = list.op_list()) {
+      if (list.identifier_operand() != null) {
+        args.addFirst(compile(list.identifier_operand()));
+      } else if (list.conditional_expr() != null) {
+        args.addFirst(compile(list.conditional_expr()));
+      } else {
+        args.addFirst(compile(list.comparison_expr()));
+      }
+    }
+    return args.toArray(new Closure[args.size()]);
+  }
+
+  private Closure compile(StellarParser.Kv_listContext ctx) {
+    LinkedList<Closure> keys = new LinkedList<>();
+    LinkedList<Closure> values = new LinkedList<>();
+    for (StellarParser.Kv_listContext list = ctx; list != null; list = list.kv_list()) {
+      keys.addFirst(list.identifier_operand() != null ? compile(list.identifier_operand()) : compile(list.comparison_expr()));
+      values.addFirst(compile(list.transformation_expr()));
+    }
+    final Closure[] keyClosures = keys.toArray(new Closure[keys.size()]);
+    final Closure[] valueClosures = values.toArray(new Closure[values.size()]);
+    if (keys.stream().allMatch(key -> key instanceof Constant) && values.stream().allMatch(value -> value instanceof Constant)) {
+      Map<Object, Object> map = new HashMap<>();
+      for (int i = keyClosures.length - 1; i >= 0; --i) {
+        map.put(((Constant) keyClosures[i]).value, ((Constant) valueClosures[i]).value);
+      }
+      return new ConstantCollection(map);
+    }
+    return state -> {
+      Object[] entries = new Object[2 * keyClosures.length];
+      for (int i = 0; i < keyClosures.length; ++i) {
+        entries[2 * i] = keyClosures[i].apply(state);
+        entries[2 * i + 1] = valueClosures[i].apply(state);
+      }
+      // the first of any duplicate keys wins
+      Map<Object, Object> map = new HashMap<>();
+      for (int i = keyClosures.length - 1; i >= 0; --i) {
+        map.put(entries[2 * i], entries[2 * i + 1]);
+      }
+      return map;
+    };
+  }
+
+  private Closure compile(StellarParser.MatchClausesContext ctx) {
+    for (int i = 0; i < ctx.getChildCount(); ++i) {
+      if (containsMatch(ctx.getChild(i))) {
+        // the token deque does not support nested matches, so neither do we
+        return unsupported();
+      }
+    }
+    List<StellarParser.Match_clauseContext> clauses = ctx.match_clauses().match_clause();
+    final Closure[] checks = new Closure[clauses.size()];
+    final boolean[] singleTokenChecks = new boolean[clauses.size()];
+    final Closure[] actions = new Closure[clauses.size()];
+    for (int i = 0; i < clauses.size(); ++i) {
+      StellarParser.MatchClauseCheckExprContext check = (StellarParser.MatchClauseCheckExprContext) clauses.get(i).match_clause_check();
+      checks[i] = check.logical_expr() != null ? compile(check.logical_expr()) : compile(check.conditional_expr());
+      singleTokenChecks[i] = check.getStart() == check.getStop();
+      actions[i] = compile(clauses.get(i).match_clause_action());
+    }
+    final Closure defaultAction = compile(ctx.match_clause_action());
+    return state -> {
+      for (int i = 0; i < checks.length; ++i) {
+        Object value = checks[i].apply(state);
+        // when validating, a check of a single variable will be null, so take the clause
+        if (singleTokenChecks[i] && state.context.getActivityType().equals(ActivityType.VALIDATION_ACTIVITY)
+                && (value == null || value instanceof Boolean)) {
+          value = true;
+        }
+        if (!(value instanceof Boolean)) {
+          throw new ParseException("Unable to evaluate match clause: " + value + " is not a boolean");
+        }
+        if ((Boolean) value) {
+          return actions[i].apply(state);
+        }
+      }
+      return defaultAction.apply(state);
+    };
+  }
+
+  private Closure compile(StellarParser.Match_clause_actionContext ctx) {
+    final Closure action = compile(((StellarParser.MatchClauseActionContext) ctx).transformation_expr());
+    return state -> {
+      Object value = action.apply(state);
+      if (value instanceof LambdaExpression) {
+        // lambdas with arguments are not supported as actions, see StellarCompiler
+        return ((LambdaExpression) value).apply(new ArrayList<>());
+      }
+      return value;
+    };
+  }
+
+  private static boolean containsMatch(ParseTree tree) {
+    if (tree instanceof StellarParser.MatchClausesContext) {
+      return true;
+    }
+    for (int i = 0; i < tree.getChildCount(); ++i) {
+      if (containsMatch(tree.getChild(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return True if nothing of an enclosing expression is pending when the node is evaluated, so its
+   * value is the only one on the token deque.  Conditionals pop their condition before evaluating a
+   * branch, and lambdas are evaluated on a deque of their own.
+   */
+  private static boolean isOnlyValue(ParserRuleContext ctx) {
+    for (ParserRuleContext parent = ctx.getParent(); parent != null; parent = parent.getParent()) {
+      if (parent instanceof StellarParser.TransformationContext
+              || parent instanceof StellarParser.Lambda_with_argsContext
+              || parent instanceof StellarParser.Lambda_without_argsContext) {
+        return true;
+      }
+      if (!(parent instanceof StellarParser.TransformationExprContext
+              || parent instanceof StellarParser.ConditionalExprContext
+              || parent instanceof StellarParser.TernaryFuncWithIfContext
+              || parent instanceof StellarParser.TernaryFuncWithoutIfContext
+              || parent instanceof StellarParser.Then_exprContext
+              || parent instanceof StellarParser.Else_exprContext)) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Marks the expression as one that must be interpreted.
+   */
+  private Closure unsupported() {
+    supported = false;
+    return UNSUPPORTED;
+  }
+}
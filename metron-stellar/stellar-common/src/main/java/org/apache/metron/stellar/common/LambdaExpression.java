@@ -38,6 +38,11 @@ public class LambdaExpression extends StellarCompiler.Expression {
     this.variables = variables;
   }
 
+  public LambdaExpression(List<String> variables, ClosureCompiler.Closure compiled, StellarCompiler.ExpressionState state) {
+    this(variables, new ArrayDeque<>(), state);
+    this.compiled = compiled;
+  }
+
   @Override
   public Deque<Token<?>> getTokenDeque() {
     Deque<Token<?>> ret = new ArrayDeque<>(super.getTokenDeque().size());
@@ -64,6 +69,7 @@ public class LambdaExpression extends StellarCompiler.Expression {
             state.context
           , state.functionResolver
           , variableResolver);
+    localState.functions = state.functions;
     return apply(localState);
   }
 }
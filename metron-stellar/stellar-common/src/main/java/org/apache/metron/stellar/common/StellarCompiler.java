@@ -74,6 +74,15 @@ public class StellarCompiler extends StellarBaseListener {
     Context context;
     FunctionResolver functionResolver;
     VariableResolver variableResolver;
+    /**
+     * The results of pure function calls repeated within the expression, see {@link ClosureCompiler}.
+     */
+    Map<Object, Object> commonResults;
+    /**
+     * The functions resolved while evaluating a batch of messages, or null when functions are
+     * resolved on each call.
+     */
+    Map<String, StellarFunction> functions;
     public ExpressionState(Context context
               , FunctionResolver functionResolver
               , VariableResolver variableResolver
@@ -88,6 +97,10 @@ public class StellarCompiler extends StellarBaseListener {
     final Deque<Token<?>> tokenDeque;
     final Deque<FrameContext.Context> multiArgumentState;
     final Set<String> variablesUsed;
+    /**
+     * The expression compiled by the {@link ClosureCompiler}, if it could be compiled.
+     */
+    transient ClosureCompiler.Closure compiled;
     public Expression(Deque<Token<?>> tokenDeque) {
       this.tokenDeque = tokenDeque;
       this.variablesUsed = new HashSet<>();
@@ -98,6 +111,11 @@ public class StellarCompiler extends StellarBaseListener {
       tokenDeque.clear();
       variablesUsed.clear();
       multiArgumentState.clear();
+      compiled = null;
+    }
+
+    public boolean isCompiled() {
+      return compiled != null;
     }
 
     public Deque<Token<?>> getTokenDeque() {
@@ -105,6 +123,16 @@ public class StellarCompiler extends StellarBaseListener {
     }
 
     public Object apply(ExpressionState state) {
+      if (compiled != null) {
+        return compiled.apply(state);
+      }
+      return interpret(state);
+    }
+
+    /**
+     * Evaluates the expression by interpreting its token deque.
+     */
+    Object interpret(ExpressionState state) {
       Deque<Token<?>> instanceDeque = new ArrayDeque<>();
       {
         boolean skipElse = false;
@@ -254,25 +282,26 @@ public class StellarCompiler extends StellarBaseListener {
   }
 
   private boolean handleIn(final Token<?> left, final Token<?> right) {
-    Object key = right.getValue();
-
+    return handleIn(left.getValue(), right.getValue());
+  }
 
-    if (left.getValue() != null) {
-      if (left.getValue() instanceof String && key instanceof String) {
-        return ((String) left.getValue()).contains(key.toString());
+  static boolean handleIn(final Object left, final Object key) {
+    if (left != null) {
+      if (left instanceof String && key instanceof String) {
+        return ((String) left).contains(key.toString());
       }
-      else if (left.getValue() instanceof Collection) {
-        return ((Collection) left.getValue()).contains(key);
+      else if (left instanceof Collection) {
+        return ((Collection) left).contains(key);
       }
-      else if (left.getValue() instanceof Map) {
-        return ((Map) left.getValue()).containsKey(key);
+      else if (left instanceof Map) {
+        return ((Map) left).containsKey(key);
       }
       else {
         if (key == null) {
-          return key == left.getValue();
+          return key == left;
         }
         else {
-          return key.equals(left.getValue());
+          return key.equals(left);
         }
       }
     } else {
@@ -492,10 +521,14 @@ public class StellarCompiler extends StellarBaseListener {
   }
 
   private boolean booleanOp(final Token<?> left, final Token<?> right, final BooleanOp op, final String opName) {
-    Boolean l = ConversionUtils.convert(left.getValue(), Boolean.class);
-    Boolean r = ConversionUtils.convert(right.getValue(), Boolean.class);
+    return booleanOp(left.getValue(), right.getValue(), op, opName);
+  }
+
+  static boolean booleanOp(final Object left, final Object right, final BooleanOp op, final String opName) {
+    Boolean l = ConversionUtils.convert(left, Boolean.class);
+    Boolean r = ConversionUtils.convert(right, Boolean.class);
     if (l == null || r == null) {
-      throw new ParseException("Unable to operate on " + left.getValue() + " " + opName + " " + right.getValue() + ", null value");
+      throw new ParseException("Unable to operate on " + left + " " + opName + " " + right + ", null value");
     }
     return op.op(l, r);
   }
@@ -613,7 +646,7 @@ public class StellarCompiler extends StellarBaseListener {
    * @param funcName
    * @return
    */
-  private StellarFunction resolveFunction(FunctionResolver functionResolver, String funcName) {
+  static StellarFunction resolveFunction(FunctionResolver functionResolver, String funcName) {
     try {
       return functionResolver.apply(funcName);
 
@@ -629,7 +662,7 @@ public class StellarCompiler extends StellarBaseListener {
    * @param function The function to initialize.
    * @param functionName The name of the functions.
    */
-  private void initializeFunction(Context context, StellarFunction function, String functionName) {
+  static void initializeFunction(Context context, StellarFunction function, String functionName) {
     try {
       if (!function.isInitialized()) {
         function.initialize(context);
@@ -45,59 +45,72 @@ public enum ArithmeticEvaluator {
    */
   public static final class ArithmeticEvaluatorFunctions {
     public static BiFunction<Number, Number, Token<? extends Number>> addition(final FrameContext.Context context) {
-      return (Number l, Number r) -> {
-        if (l instanceof Double || r instanceof Double) {
-          return new Token<>(l.doubleValue() + r.doubleValue(), Double.class, context);
-        } else if (l instanceof Float || r instanceof Float) {
-          return new Token<>(l.floatValue() + r.floatValue(), Float.class, context);
-        } else if (l instanceof Long || r instanceof Long) {
-          return new Token<>(l.longValue() + r.longValue(), Long.class, context);
-        } else {
-          return new Token<>(l.intValue() + r.intValue(), Integer.class, context);
-        }
-      };
+      return (Number l, Number r) -> token(add(l, r), context);
     }
 
     public static BiFunction<Number, Number, Token<? extends Number>> multiplication(final FrameContext.Context context) {
-      return (Number l, Number r) -> {
-        if (l instanceof Double || r instanceof Double) {
-          return new Token<>(l.doubleValue() * r.doubleValue(), Double.class, context);
-        } else if (l instanceof Float || r instanceof Float) {
-          return new Token<>(l.floatValue() * r.floatValue(), Float.class, context);
-        } else if (l instanceof Long || r instanceof Long) {
-          return new Token<>(l.longValue() * r.longValue(), Long.class, context);
-        } else {
-          return new Token<>(l.intValue() * r.intValue(), Integer.class, context);
-        }
-      };
+      return (Number l, Number r) -> token(multiply(l, r), context);
     }
 
     public static BiFunction<Number, Number, Token<? extends Number>> subtraction(final FrameContext.Context context) {
-      return (Number l, Number r) -> {
-        if (l instanceof Double || r instanceof Double) {
-          return new Token<>(l.doubleValue() - r.doubleValue(), Double.class, context);
-        } else if (l instanceof Float || r instanceof Float) {
-          return new Token<>(l.floatValue() - r.floatValue(), Float.class, context);
-        } else if (l instanceof Long || r instanceof Long) {
-          return new Token<>(l.longValue() - r.longValue(), Long.class, context);
-        } else {
-          return new Token<>(l.intValue() - r.intValue(), Integer.class, context);
-        }
-      };
+      return (Number l, Number r) -> token(subtract(l, r), context);
     }
 
     public static BiFunction<Number, Number, Token<? extends Number>> division(FrameContext.Context context) {
-      return (Number l, Number r) -> {
-        if (l instanceof Double || r instanceof Double) {
-          return new Token<>(l.doubleValue() / r.doubleValue(), Double.class, context);
-        } else if (l instanceof Float || r instanceof Float) {
-          return new Token<>(l.floatValue() / r.floatValue(), Float.class, context);
-        } else if (l instanceof Long || r instanceof Long) {
-          return new Token<>(l.longValue() / r.longValue(), Long.class, context);
-        } else {
-          return new Token<>(l.intValue() / r.intValue(), Integer.class, context);
-        }
-      };
+      return (Number l, Number r) -> token(divide(l, r), context);
+    }
+
+    public static Number add(Number l, Number r) {
+      if (l instanceof Double || r instanceof Double) {
+        return l.doubleValue() + r.doubleValue();
+      } else if (l instanceof Float || r instanceof Float) {
+        return l.floatValue() + r.floatValue();
+      } else if (l instanceof Long || r instanceof Long) {
+        return l.longValue() + r.longValue();
+      } else {
+        return l.intValue() + r.intValue();
+      }
+    }
+
+    public static Number multiply(Number l, Number r) {
+      if (l instanceof Double || r instanceof Double) {
+        return l.doubleValue() * r.doubleValue();
+      } else if (l instanceof Float || r instanceof Float) {
+        return l.floatValue() * r.floatValue();
+      } else if (l instanceof Long || r instanceof Long) {
+        return l.longValue() * r.longValue();
+      } else {
+        return l.intValue() * r.intValue();
+      }
+    }
+
+    public static Number subtract(Number l, Number r) {
+      if (l instanceof Double || r instanceof Double) {
+        return l.doubleValue() - r.doubleValue();
+      } else if (l instanceof Float || r instanceof Float) {
+        return l.floatValue() - r.floatValue();
+      } else if (l instanceof Long || r instanceof Long) {
+        return l.longValue() - r.longValue();
+      } else {
+        return l.intValue() - r.intValue();
+      }
+    }
+
+    public static Number divide(Number l, Number r) {
+      if (l instanceof Double || r instanceof Double) {
+        return l.doubleValue() / r.doubleValue();
+      } else if (l instanceof Float || r instanceof Float) {
+        return l.floatValue() / r.floatValue();
+      } else if (l instanceof Long || r instanceof Long) {
+        return l.longValue() / r.longValue();
+      } else {
+        return l.intValue() / r.intValue();
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Number> Token<T> token(T value, FrameContext.Context context) {
+      return new Token<>(value, (Class<T>) value.getClass(), context);
     }
   }
 }
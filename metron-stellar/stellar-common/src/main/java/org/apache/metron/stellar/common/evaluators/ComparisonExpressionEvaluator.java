@@ -38,5 +38,17 @@ public interface ComparisonExpressionEvaluator {
    * @return True if the expression is evaluated to be true, otherwise false. An example of expressions that
    * should be true are {@code 1 == 1}, {@code 1f > 0}, etc.
    */
-  boolean evaluate(Token<?> left, Token<?> right, StellarParser.ComparisonOpContext op);
+  default boolean evaluate(Token<?> left, Token<?> right, StellarParser.ComparisonOpContext op) {
+    return evaluate(left.getValue(), right.getValue(), op);
+  }
+
+  /**
+   * This will compare the values {@code left} and {@code right} using the {@code op} input to determine a value
+   * to return.
+   * @param left  The value of the left side of a comparison expression.
+   * @param right The value of the right side of a comparison expression.
+   * @param op    This is a representation of a comparison operator {@literal (eg. <, <=, >, >=, ==, !=) }
+   * @return True if the expression is evaluated to be true, otherwise false.
+   */
+  boolean evaluate(Object left, Object right, StellarParser.ComparisonOpContext op);
 }
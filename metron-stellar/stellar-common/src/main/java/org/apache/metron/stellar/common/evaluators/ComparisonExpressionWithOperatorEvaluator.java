@@ -83,14 +83,27 @@ public enum ComparisonExpressionWithOperatorEvaluator {
    * @return A token with type boolean. This is based on the comparison of the {@code right} and {@code left} values.
    */
   public Token<Boolean> evaluate(final Token<?> left, final Token<?> right, final StellarParser.ComparisonOpContext op, FrameContext.Context context) {
+    return new Token<>(evaluate(left.getValue(), right.getValue(), op), Boolean.class, context);
+  }
+
+  /**
+   * Evaluates a comparison of two values, as {@link #evaluate(Token, Token, StellarParser.ComparisonOpContext, FrameContext.Context)}
+   * does for tokens.
+   *
+   * @param left The value of the left side of the Stellar expression.
+   * @param right The value of the right side of the Stellar expression.
+   * @param op The operator in the Stellar expression.
+   * @return The comparison of the {@code right} and {@code left} values.
+   */
+  public boolean evaluate(final Object left, final Object right, final StellarParser.ComparisonOpContext op) {
     if (op.EQ() != null) {
-      return new Token<>(Strategy.EQUALITY_OPERATORS.evaluator().evaluate(left, right, op), Boolean.class, context);
+      return Strategy.EQUALITY_OPERATORS.evaluator().evaluate(left, right, op);
     } else if (op.NEQ() != null) {
-      return new Token<>(!Strategy.EQUALITY_OPERATORS.evaluator().evaluate(left, right, op), Boolean.class, context);
+      return !Strategy.EQUALITY_OPERATORS.evaluator().evaluate(left, right, op);
     } else if (op.LT() != null || op.GT() != null || op.LTE() != null || op.GTE() != null) {
-      return new Token<>(Strategy.COMPARISON_OPERATORS.evaluator().evaluate(left, right, op), Boolean.class, context);
+      return Strategy.COMPARISON_OPERATORS.evaluator().evaluate(left, right, op);
     }
 
-    throw new ParseException("Unsupported operations. The following expression is invalid: " + left.getValue() + op.getText() + right.getValue());
+    throw new ParseException("Unsupported operations. The following expression is invalid: " + left + op.getText() + right);
   }
 }
@@ -19,7 +19,6 @@
 package org.apache.metron.stellar.common.evaluators;
 
 import org.apache.metron.stellar.dsl.ParseException;
-import org.apache.metron.stellar.dsl.Token;
 import org.apache.metron.stellar.common.generated.StellarParser;
 
 /**
@@ -38,23 +37,23 @@ public class ComparisonOperatorsEvaluator implements ComparisonExpressionEvaluat
    * 3. If both sides are of the same type and implement the {@link Comparable} interface then use {@code compareTo} method.
    * 4. If none of the above are met then a {@link ParseException} is thrown.
    *
-   * @param left  The token representing the left side of a comparison expression.
-   * @param right The token representing the right side of a comparison expression.
+   * @param left  The value of the left side of a comparison expression.
+   * @param right The value of the right side of a comparison expression.
    * @param op    This is a representation of a comparison operator {@literal (eg. <, <=, >, >=, ==, !=) }
    * @return A boolean value based on the comparison of {@code left} and {@code right}.
    */
   @Override
-  public boolean evaluate(final Token<?> left, final Token<?> right, final StellarParser.ComparisonOpContext op) {
-    if (left.getValue() == null || right.getValue() == null) {
+  public boolean evaluate(final Object left, final Object right, final StellarParser.ComparisonOpContext op) {
+    if (left == null || right == null) {
       return false;
-    } else if (left.getValue() instanceof Number && right.getValue() instanceof Number) {
-      return compareNumbers((Number) left.getValue(), (Number) right.getValue(), op);
-    } else if (left.getValue().getClass() == right.getValue().getClass()
-        && left.getValue() instanceof Comparable && right.getValue() instanceof Comparable) {
-      return compare((Comparable<?>) left.getValue(), (Comparable<?>) right.getValue(), op);
+    } else if (left instanceof Number && right instanceof Number) {
+      return compareNumbers((Number) left, (Number) right, op);
+    } else if (left.getClass() == right.getClass()
+        && left instanceof Comparable && right instanceof Comparable) {
+      return compare((Comparable<?>) left, (Comparable<?>) right, op);
     }
 
-    throw new ParseException("Unsupported operations. The following expression is invalid: " + left.getValue() + op + right.getValue());
+    throw new ParseException("Unsupported operations. The following expression is invalid: " + left + op + right);
   }
 
   /**
@@ -23,7 +23,7 @@ import org.apache.metron.stellar.common.generated.StellarParser;
 
 /**
  * {@link EqualityOperatorsEvaluator} is used to evaluate equality expressions using the following operator '=='. There are
- * four major cases when evaluating a equality expression. See {@link EqualityOperatorsEvaluator#evaluate(Token, Token, StellarParser.ComparisonOpContext)}
+ * four major cases when evaluating a equality expression. See {@link EqualityOperatorsEvaluator#evaluate(Object, Object, StellarParser.ComparisonOpContext)}
  * for a description.
  */
 public class EqualityOperatorsEvaluator implements ComparisonExpressionEvaluator {
@@ -36,19 +36,19 @@ public class EqualityOperatorsEvaluator implements ComparisonExpressionEvaluator
    *    3. Else if either side of the expression is a {@link Long} then use {@link Number#longValue()} to test equality.
    *    4. Otherwise use {@link Number#intValue()} to test equality
    * 3. Otherwise use {@code equals} method compare the left side with the right side.
-   * @param left  The token representing the left side of a comparison expression.
-   * @param right The token representing the right side of a comparison expression.
+   * @param left  The value of the left side of a comparison expression.
+   * @param right The value of the right side of a comparison expression.
    * @param op    This is a representation of a comparison operator {@literal (eg. <, <=, >, >=, ==, !=) }
    * @return A boolean value based on the comparison of {@code left} and {@code right}.
    */
   @Override
-  public boolean evaluate(final Token<?> left, final Token<?> right, final StellarParser.ComparisonOpContext op) {
-    if (left.getValue() == null || right.getValue() == null) {
-      return left.getValue() == right.getValue();
-    } else if (left.getValue() instanceof Number && right.getValue() instanceof Number) {
-      return eq((Number) left.getValue(), (Number) right.getValue());
+  public boolean evaluate(final Object left, final Object right, final StellarParser.ComparisonOpContext op) {
+    if (left == null || right == null) {
+      return left == right;
+    } else if (left instanceof Number && right instanceof Number) {
+      return eq((Number) left, (Number) right);
     } else {
-      return left.getValue().equals(right.getValue());
+      return left.equals(right);
     }
   }
 
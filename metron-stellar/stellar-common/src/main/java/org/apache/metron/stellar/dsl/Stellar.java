@@ -30,4 +30,10 @@ public @interface Stellar {
   String description() default "";
   String returns() default "";
   String[] params() default {};
+
+  /**
+   * Whether the function always returns the same result for the same arguments, without side
+   * effects.  Calls to pure functions may be evaluated once and their results reused.
+   */
+  boolean pure() default false;
 }
@@ -141,6 +141,7 @@ public class DataStructureFunctions {
   }
 
   @Stellar(name="IS_EMPTY"
+          , pure=true
           , description="Returns true if string or collection is empty or null and false if otherwise."
           , params = { "input - Object of string or collection type (for example, list)"}
           , returns = "True if the string or collection is empty or null and false if otherwise."
@@ -197,6 +198,7 @@ public class DataStructureFunctions {
   }
 
   @Stellar(name="LENGTH"
+          , pure=true
           , description="Returns the length of a string or size of a collection. Returns 0 for empty or null Strings"
           , params = { "input - Object of string or collection type (e.g. list)"}
           , returns = "Integer"
@@ -44,6 +44,7 @@ public class EncodingFunctions {
   }
 
   @Stellar(name = "IS_ENCODING",
+      pure = true,
       description = "Returns if the passed string is encoded in one of the supported encodings",
       params = {"string - the string to test",
           "encoding - the encoding to test, must be one of encodings returned from "
@@ -77,6 +78,7 @@ public class EncodingFunctions {
   }
 
   @Stellar(name = "DECODE",
+      pure = true,
       description = "Decodes the passed string with the provided encoding, "
           + " must be one of the encodings returned from LIST_SUPPORTED_ENCODINGS",
       params = {"string - the string to decode",
@@ -121,6 +123,7 @@ public class EncodingFunctions {
   }
 
   @Stellar(name = "ENCODE",
+      pure = true,
       description = "Encodes the passed string with the provided encoding, "
           + " must be one of the encodings returned from LIST_SUPPORTED_ENCODINGS",
       params = {"string - the string to encode",
@@ -55,6 +55,7 @@ public class HashFunctions {
 
   @Stellar(
     name = "HASH",
+    pure = true,
     description = "Hashes a given value using the given hashing algorithm and returns a hex encoded string.",
     params = {
       "toHash - value to hash.",
@@ -27,6 +27,7 @@ import java.util.Map;
 public class MapFunctions {
 
   @Stellar(name="EXISTS"
+          ,pure=true
           ,namespace="MAP"
           , description="Checks for existence of a key in a map."
           , params = {
@@ -52,6 +53,7 @@ public class MapFunctions {
   }
 
   @Stellar(name="GET"
+          ,pure=true
           ,namespace="MAP"
           , description="Gets the value associated with a key from a map"
           , params = {
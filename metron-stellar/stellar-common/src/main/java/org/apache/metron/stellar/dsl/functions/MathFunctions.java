@@ -34,6 +34,7 @@ public class MathFunctions {
 
 
   @Stellar(name="ABS"
+          ,pure=true
           ,description="Returns the absolute value of a number."
           ,params = {
                 "number - The number to take the absolute value of"
@@ -77,6 +78,7 @@ public class MathFunctions {
   }
 
   @Stellar(name="LN"
+          ,pure=true
           ,description="Returns the natural log of a number."
           ,params = {
                 "number - The number to take the natural log value of"
@@ -91,6 +93,7 @@ public class MathFunctions {
   }
 
   @Stellar(name="SQRT"
+          ,pure=true
           ,description="Returns the square root of a number."
           ,params = {
                 "number - The number to take the square root of"
@@ -105,6 +108,7 @@ public class MathFunctions {
   }
 
   @Stellar(name="CEILING"
+          ,pure=true
           ,description="Returns the ceiling of a number."
           ,params = {
                 "number - The number to take the ceiling of"
@@ -119,6 +123,7 @@ public class MathFunctions {
   }
 
   @Stellar(name="FLOOR"
+          ,pure=true
           ,description="Returns the floor of a number."
           ,params = {
                 "number - The number to take the floor of"
@@ -132,6 +137,7 @@ public class MathFunctions {
   }
 
   @Stellar(name="SIN"
+          ,pure=true
           ,description="Returns the sine of a number."
           ,params = {
                 "number - The number to take the sine of"
@@ -145,6 +151,7 @@ public class MathFunctions {
   }
 
   @Stellar(name="COS"
+          ,pure=true
           ,description="Returns the cosine of a number."
           ,params = {
                 "number - The number to take the cosine of"
@@ -158,6 +165,7 @@ public class MathFunctions {
   }
 
   @Stellar(name="TAN"
+          ,pure=true
           ,description="Returns the tangent of a number."
           ,params = {
                 "number - The number to take the tangent of"
@@ -171,6 +179,7 @@ public class MathFunctions {
   }
 
   @Stellar(name="EXP"
+          ,pure=true
           ,description="Returns Euler's number raised to the power of the argument"
           ,params = {
                 "number - The power to which e is raised."
@@ -184,6 +193,7 @@ public class MathFunctions {
   }
 
   @Stellar(name="ROUND"
+          ,pure=true
           ,description="Rounds a number to the nearest integer. This is half-up rounding."
           ,params = {
                 "number - The number to round"
@@ -197,6 +207,7 @@ public class MathFunctions {
   }
 
   @Stellar(name = "IS_NAN",
+      pure = true,
       description = "Evaluates if the passed number is NaN.  The number is evaluated as a double",
        params = {
         "number - number to evaluate"
@@ -30,9 +30,12 @@ import org.apache.metron.stellar.dsl.Stellar;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class NetworkFunctions {
   @Stellar(name="IN_SUBNET"
+          ,pure=true
           ,description = "Returns true if an IP is within a subnet range."
           ,params = {
                      "ip - The IP address in string form"
@@ -41,6 +44,21 @@ public class NetworkFunctions {
           ,returns = "True if the IP address is within at least one of the network ranges and false if otherwise"
           )
   public static class InSubnet extends BaseStellarFunction {
+    private static final int MAX_SUBNETS = 1000;
+    // Rules tend to test against the same handful of CIDRs, so they are only parsed once
+    private static final Map<String, SubnetUtils.SubnetInfo> SUBNETS = new ConcurrentHashMap<>();
+
+    private static SubnetUtils.SubnetInfo getSubnet(String cidr) {
+      SubnetUtils.SubnetInfo subnet = SUBNETS.get(cidr);
+      if(subnet == null) {
+        subnet = new SubnetUtils(cidr).getInfo();
+        if(SUBNETS.size() >= MAX_SUBNETS) {
+          SUBNETS.clear();
+        }
+        SUBNETS.put(cidr, subnet);
+      }
+      return subnet;
+    }
 
     @Override
     public Object apply(List<Object> list) {
@@ -59,7 +77,7 @@ public class NetworkFunctions {
         if(cidr == null) {
           continue;
         }
-        inSubnet |= new SubnetUtils(cidr).getInfo().isInRange(ip);
+        inSubnet |= getSubnet(cidr).isInRange(ip);
       }
 
       return inSubnet;
@@ -67,6 +85,7 @@ public class NetworkFunctions {
   }
 
   @Stellar(name="REMOVE_SUBDOMAINS"
+          ,pure=true
           ,namespace = "DOMAIN"
           ,description = "Removes the subdomains from a domain."
           , params = {
@@ -105,6 +124,7 @@ public class NetworkFunctions {
   }
 
   @Stellar(name="REMOVE_TLD"
+          ,pure=true
           ,namespace = "DOMAIN"
           ,description = "Removes the top level domain (TLD) suffix from a domain."
           , params = {
@@ -134,6 +154,7 @@ public class NetworkFunctions {
   }
 
   @Stellar(name="TO_TLD"
+          ,pure=true
           ,namespace = "DOMAIN"
           ,description = "Extracts the top level domain from a domain"
           , params = {
@@ -152,6 +173,7 @@ public class NetworkFunctions {
   }
 
   @Stellar(name="TO_PORT"
+          ,pure=true
           ,namespace="URL"
           ,description = "Extract the port from a URL.  " +
                           "If the port is not explicitly stated in the URL, then an implicit port is inferred based on the protocol."
@@ -173,6 +195,7 @@ public class NetworkFunctions {
   }
 
   @Stellar(name="TO_PATH"
+          ,pure=true
           ,namespace="URL"
           ,description = "Extract the path from a URL."
           , params = {
@@ -188,6 +211,7 @@ public class NetworkFunctions {
   }
 
   @Stellar(name="TO_HOST"
+          ,pure=true
           ,namespace="URL"
           ,description = "Extract the hostname from a URL."
           , params = {
@@ -205,6 +229,7 @@ public class NetworkFunctions {
   }
 
   @Stellar(name="TO_PROTOCOL"
+          ,pure=true
           ,namespace="URL"
           ,description = "Extract the protocol from a URL."
           , params = {
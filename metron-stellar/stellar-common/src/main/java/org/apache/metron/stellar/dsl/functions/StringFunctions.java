@@ -40,6 +40,7 @@ import java.util.Map;
 public class StringFunctions {
 
   @Stellar(name="ENDS_WITH"
+          ,pure=true
           ,description = "Determines whether a string ends with a specified suffix"
           , params = {
              "string - The string to test"
@@ -62,6 +63,7 @@ public class StringFunctions {
   }
 
   @Stellar(name="STARTS_WITH"
+          ,pure=true
           ,description = "Determines whether a string starts with a prefix"
           , params = {
              "string - The string to test"
@@ -86,6 +88,7 @@ public class StringFunctions {
   }
 
   @Stellar( name="TO_LOWER"
+          , pure=true
           , description = "Transforms the first argument to a lowercase string"
           , params = { "input - String" }
           , returns = "Lowercase string"
@@ -98,6 +101,7 @@ public class StringFunctions {
   }
 
   @Stellar( name="TO_UPPER"
+          , pure=true
           , description = "Transforms the first argument to an uppercase string"
           , params = { "input - String" }
           , returns = "Uppercase string"
@@ -110,6 +114,7 @@ public class StringFunctions {
   }
 
   @Stellar(name="TO_STRING"
+          , pure=true
           , description = "Transforms the first argument to a string"
           , params = { "input - Object" }
           , returns = "String"
@@ -122,6 +127,7 @@ public class StringFunctions {
   }
 
   @Stellar(name="TRIM"
+          , pure=true
           , description = "Trims whitespace from both sides of a string."
           , params = { "input - String" }
           , returns = "String"
@@ -134,6 +140,7 @@ public class StringFunctions {
   }
 
   @Stellar( name="JOIN"
+          , pure=true
           , description="Joins the components in the list of strings with the specified delimiter."
           , params = { "list - List of strings", "delim - String delimiter"}
           , returns = "String"
@@ -215,6 +222,7 @@ public class StringFunctions {
   }
 
   @Stellar(name="FILL_LEFT"
+          , pure=true
           , description="Fills or pads a given string with a given character, to a given length on the left"
           , params = { "input - string", "fill - the fill character", "len - the required length"}
           , returns = "Filled String"
@@ -230,6 +238,7 @@ public class StringFunctions {
   }
 
   @Stellar(name="FILL_RIGHT"
+          , pure=true
           , description="Fills or pads a given string with a given character, to a given length on the right"
           , params = { "input - string", "fill - the fill character", "len - the required length"}
           , returns = "Filled String"
@@ -272,6 +281,7 @@ public class StringFunctions {
 
   @Stellar( namespace="STRING"
           , name="ENTROPY"
+          , pure=true
           , description = "Computes the base-2 shannon entropy of a string"
           , params = { "input - String" }
           , returns = "The base-2 shannon entropy of the string (https://en.wikipedia.org/wiki/Entropy_(information_theory)#Definition).  The unit of this is bits."
@@ -327,6 +337,7 @@ public class StringFunctions {
   }
 
   @Stellar( name="SUBSTRING"
+          , pure=true
           , description = "Returns a substring of a string"
           , params = {
                 "input - The string to take the substring of",
@@ -379,6 +390,7 @@ public class StringFunctions {
   }
 
   @Stellar( name="CHOMP"
+          , pure=true
           , description = "Removes one newline from end of a String if it's there, otherwise leave it alone. A newline is \"\\n\", \"\\r\", or \"\\r\\n\""
           , params = { "the String to chomp a newline from, may be null"}
           , returns = "String without newline, null if null String input"
@@ -404,6 +416,7 @@ public class StringFunctions {
     }
   }
   @Stellar( name="CHOP"
+          , pure=true
           , description = "Remove the last character from a String"
           , params = { "the String to chop last character from, may be null"}
           , returns = "String without last character, null if null String input"
@@ -430,6 +443,7 @@ public class StringFunctions {
   }
 
   @Stellar( name = "PREPEND_IF_MISSING"
+          , pure=true
           , description = "Prepends the prefix to the start of the string if the string does not already start with any of the prefixes"
           , params = {
           "str - The string."
@@ -456,6 +470,7 @@ public class StringFunctions {
   }
 
   @Stellar( name = "APPEND_IF_MISSING"
+          , pure=true
           , description = "Appends the suffix to the end of the string if the string does not already end with any of the suffixes"
           , params = {
           "str - The string."
@@ -485,6 +500,7 @@ public class StringFunctions {
   }
 
   @Stellar( name = "COUNT_MATCHES"
+          , pure=true
           , description = "Counts how many times the substring appears in the larger string"
           , params = {
           "str - the CharSequence to check, may be null"
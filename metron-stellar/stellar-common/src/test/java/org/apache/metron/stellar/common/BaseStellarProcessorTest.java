@@ -18,8 +18,15 @@
 
 package org.apache.metron.stellar.common;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.Arrays;
+import java.util.List;
 import org.apache.metron.stellar.dsl.Context;
+import org.apache.metron.stellar.dsl.MapVariableResolver;
 import org.apache.metron.stellar.dsl.ParseException;
+import org.apache.metron.stellar.dsl.StellarFunctions;
+import org.apache.metron.stellar.dsl.VariableResolver;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -113,4 +120,30 @@ public class BaseStellarProcessorTest {
     assertFalse(processor.validate("true †", false, Context.EMPTY_CONTEXT()));
     assertFalse(processor.validate("¢ (1 + 2)", false, Context.EMPTY_CONTEXT()));
   }
+
+  @Test
+  public void parseBatchShouldMatchParse() throws Exception {
+    String rule = "if TO_UPPER(foo) == 'CASEY' then MAP(list, x -> x + num) else LENGTH(TO_UPPER(foo))";
+    List<VariableResolver> messages = ImmutableList.of(
+            new MapVariableResolver(ImmutableMap.of("foo", "casey", "num", 1, "list", ImmutableList.of(1, 2)))
+          , new MapVariableResolver(ImmutableMap.of("foo", "bob"))
+          , new MapVariableResolver(ImmutableMap.of("foo", "Casey", "num", 10, "list", ImmutableList.of(3)))
+    );
+    List<Object> results = processor.parseBatch(rule, messages, StellarFunctions.FUNCTION_RESOLVER(), Context.EMPTY_CONTEXT());
+    assertEquals(messages.size(), results.size());
+    for (int i = 0; i < messages.size(); ++i) {
+      assertEquals(processor.parse(rule, messages.get(i), StellarFunctions.FUNCTION_RESOLVER(), Context.EMPTY_CONTEXT())
+                  , results.get(i));
+    }
+    assertEquals(Arrays.asList(2, 3), results.get(0));
+    assertEquals(3, results.get(1));
+    assertEquals(Arrays.asList(13), results.get(2));
+  }
+
+  @Test
+  public void parseBatchOfEmptyRule() throws Exception {
+    List<VariableResolver> messages = ImmutableList.of(new MapVariableResolver(ImmutableMap.of()));
+    assertEquals(Arrays.asList((Object) null), processor.parseBatch(" ", messages, StellarFunctions.FUNCTION_RESOLVER(), Context.EMPTY_CONTEXT()));
+    assertEquals(Arrays.asList(true), new StellarPredicateProcessor().parseBatch("", messages, StellarFunctions.FUNCTION_RESOLVER(), Context.EMPTY_CONTEXT()));
+  }
 }
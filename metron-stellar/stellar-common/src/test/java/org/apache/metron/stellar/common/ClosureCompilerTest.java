@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.metron.stellar.common;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.metron.stellar.dsl.BaseStellarFunction;
+import org.apache.metron.stellar.dsl.Context;
+import org.apache.metron.stellar.dsl.DefaultVariableResolver;
+import org.apache.metron.stellar.dsl.ParseException;
+import org.apache.metron.stellar.dsl.Stellar;
+import org.apache.metron.stellar.dsl.StellarFunctions;
+import org.apache.metron.stellar.dsl.VariableResolver;
+import org.apache.metron.stellar.dsl.MapVariableResolver;
+import org.apache.metron.stellar.dsl.functions.DataStructureFunctions;
+import org.apache.metron.stellar.dsl.functions.resolver.FunctionResolver;
+import org.apache.metron.stellar.dsl.functions.resolver.SimpleFunctionResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClosureCompilerTest {
+
+  private static final AtomicInteger CALLS = new AtomicInteger();
+
+  @Stellar(name = "COUNTING_UPPER", pure = true, description = "Counts its calls", params = { "s" }, returns = "s in upper case")
+  public static class CountingUpper extends BaseStellarFunction {
+    @Override
+    public Object apply(List<Object> args) {
+      CALLS.incrementAndGet();
+      return args.get(0) == null ? null : args.get(0).toString().toUpperCase();
+    }
+  }
+
+  private static final Map<String, Object> VARIABLES = new HashMap<String, Object>() {{
+    put("foo", "casey");
+    put("num", 7);
+    put("dbl", 2.5);
+    put("lng", 10L);
+    put("empty", "");
+    put("truthy", true);
+    put("list", ImmutableList.of(1, 2, 3));
+    put("map", ImmutableMap.of("a", 1, "b", 2));
+  }};
+
+  private static final List<String> EXPRESSIONS = ImmutableList.of(
+          "1 + 2 * 3 - 4 / 2",
+          "num * dbl + lng",
+          "(num + 1) / 2",
+          "missing + 1",
+          "NaN",
+          "1.5f * 2",
+          "'casey' == foo",
+          "num > 5 && num < 10",
+          "num < 5 && missing",
+          "num > 5 || missing",
+          "truthy and 'true'",
+          "not(num > 5)",
+          "foo in ['casey', 'bob']",
+          "'as' in foo",
+          "'c' not in map",
+          "'a' in map",
+          "exists(foo) && exists(missing) == false",
+          "if num > 5 then 'big' else 'small'",
+          "num < 5 ? 'small' : (num < 10 ? 'medium' : 'big')",
+          "{ 'a' : num, 'b' : foo, 'a' : 0 }",
+          "[ foo, num, [ 1, 2 ], null ]",
+          "TO_UPPER(foo)",
+          "MAP_GET('b', map)",
+          "MAP(list, (x) -> x * 2)",
+          "REDUCE(list, (sum, x) -> sum + x, 0)",
+          "FILTER(list, x -> x > 1)",
+          "match{ num < 5 => 'small', num < 10 => 'medium', default => 'big' }",
+          "match{ num > 100 => 'big', default => () -> TO_UPPER(foo) }",
+          "match{ foo in ['casey'] => LENGTH(foo), default => 0 }"
+  );
+
+  private static StellarCompiler.ExpressionState state(VariableResolver resolver) {
+    return state(StellarFunctions.FUNCTION_RESOLVER(), resolver);
+  }
+
+  private static StellarCompiler.ExpressionState state(FunctionResolver functionResolver, VariableResolver resolver) {
+    Context context = Context.EMPTY_CONTEXT();
+    context.setActivityType(Context.ActivityType.PARSE_ACTIVITY);
+    return new StellarCompiler.ExpressionState(context, functionResolver, resolver);
+  }
+
+  @Test
+  public void testCompiledMatchesInterpreted() {
+    StellarCompiler.ExpressionState state = state(new MapVariableResolver(VARIABLES));
+    for (String rule : EXPRESSIONS) {
+      StellarCompiler.Expression expression = BaseStellarProcessor.compile(rule);
+      Assert.assertTrue(rule, expression.isCompiled());
+      Object compiled = expression.apply(state);
+      Object interpreted = expression.interpret(state);
+      if (compiled instanceof LambdaExpression) {
+        continue;
+      }
+      Assert.assertEquals(rule, interpreted, compiled);
+    }
+  }
+
+  @Test
+  public void testShortCircuits() {
+    StellarCompiler.ExpressionState state = state(new MapVariableResolver(VARIABLES));
+    // the right hand side would fail to resolve a function
+    Assert.assertEquals(false, BaseStellarProcessor.compile("false && NOT_A_FUNCTION()").apply(state));
+    Assert.assertEquals(true, BaseStellarProcessor.compile("true || NOT_A_FUNCTION()").apply(state));
+    Assert.assertEquals(1, BaseStellarProcessor.compile("if true then 1 else NOT_A_FUNCTION()").apply(state));
+    Assert.assertEquals(1, BaseStellarProcessor.compile("match{ true => 1, default => NOT_A_FUNCTION() }").apply(state));
+  }
+
+  @Test(expected = ParseException.class)
+  public void testNonBooleanCondition() {
+    BaseStellarProcessor.compile("if foo then 1 else 2").apply(state(new MapVariableResolver(VARIABLES)));
+  }
+
+  @Test
+  public void testNestedMatchIsInterpreted() {
+    StellarCompiler.Expression expression = BaseStellarProcessor.compile(
+            "match{ num > 0 => match{ num > 10 => 1, default => 2 }, default => 3 }");
+    Assert.assertFalse(expression.isCompiled());
+  }
+
+  @Test
+  public void testValidation() {
+    Context context = Context.EMPTY_CONTEXT();
+    context.setActivityType(Context.ActivityType.VALIDATION_ACTIVITY);
+    StellarCompiler.ExpressionState state = new StellarCompiler.ExpressionState(context
+            , StellarFunctions.FUNCTION_RESOLVER(), DefaultVariableResolver.NULL_RESOLVER());
+    Assert.assertEquals("a", BaseStellarProcessor.compile("match{ flag => 'a', default => 'b' }").apply(state));
+    StellarCompiler.Expression branch = BaseStellarProcessor.compile("if true then match{ flag => 'a', default => 'b' } else 'c'");
+    Assert.assertTrue(branch.isCompiled());
+    Assert.assertEquals(branch.interpret(state), branch.apply(state));
+  }
+
+  @Test
+  public void testEnclosedMatchIsInterpreted() {
+    // the check of a single variable is only taken when validating if the match is alone on the token deque
+    StellarCompiler.Expression expression = BaseStellarProcessor.compile("{ 'k' : match{ flag => 'a', default => 'b' } }");
+    Assert.assertFalse(expression.isCompiled());
+  }
+
+  @Test
+  public void testConstantFolding() {
+    StellarCompiler.Expression expression = BaseStellarProcessor.compile("(1 + 2) * 3 > 8 && 'a' in ['a', 'b']");
+    Assert.assertTrue(expression.compiled instanceof ClosureCompiler.Constant);
+    Assert.assertEquals(true, expression.apply(state(new MapVariableResolver(VARIABLES))));
+    Assert.assertEquals("big", BaseStellarProcessor.compile("if 1 < 2 then 'big' else NOT_A_FUNCTION()")
+            .apply(state(new MapVariableResolver(VARIABLES))));
+  }
+
+  @Test
+  public void testPureFunctionsAreReused() {
+    FunctionResolver functionResolver = new SimpleFunctionResolver()
+            .withClass(CountingUpper.class)
+            .withClass(DataStructureFunctions.Length.class);
+    CALLS.set(0);
+
+    // constant arguments are evaluated once per resolver
+    StellarCompiler.Expression expression = BaseStellarProcessor.compile("COUNTING_UPPER('casey')");
+    Assert.assertEquals("CASEY", expression.apply(state(functionResolver, new MapVariableResolver(VARIABLES))));
+    Assert.assertEquals("CASEY", expression.apply(state(functionResolver, new MapVariableResolver(VARIABLES))));
+    Assert.assertEquals(1, CALLS.get());
+
+    // repeated calls are evaluated once per evaluation
+    CALLS.set(0);
+    expression = BaseStellarProcessor.compile("COUNTING_UPPER(foo) == 'CASEY' && LENGTH(COUNTING_UPPER(foo)) == 5");
+    Assert.assertEquals(true, expression.apply(state(functionResolver, new MapVariableResolver(VARIABLES))));
+    Assert.assertEquals(1, CALLS.get());
+    Assert.assertEquals(false, expression.apply(state(functionResolver, new MapVariableResolver(ImmutableMap.of("foo", "bob")))));
+    Assert.assertEquals(2, CALLS.get());
+  }
+
+  @Test
+  public void testConstantCollectionsAreCopied() {
+    StellarCompiler.Expression expression = BaseStellarProcessor.compile("LIST_ADD([1], 2)");
+    StellarCompiler.ExpressionState state = state(new MapVariableResolver(VARIABLES));
+    Assert.assertEquals(ImmutableList.of(1, 2), expression.apply(state));
+    Assert.assertEquals(ImmutableList.of(1, 2), expression.apply(state));
+  }
+}